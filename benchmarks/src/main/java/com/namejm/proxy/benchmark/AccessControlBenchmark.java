@@ -0,0 +1,98 @@
+package com.namejm.proxy.benchmark;
+
+import com.namejm.proxy.AccessControlList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 수락 경로의 접근 제어 판정 비용.
+ * 예전 isAllowedConnection / isPrivateIP / ipToLong 에 해당하는 부분은 이제 AccessControlList 가 담당한다.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccessControlBenchmark {
+    private static final int ADDRESS_COUNT = 1024;
+
+    /** 규칙 수. 주소 규칙이 많아져도 판정 비용이 거의 일정한지 확인한다. */
+    @Param({"6", "1000"})
+    public int ruleCount;
+
+    private AccessControlList acl;
+    private InetAddress[] privateAddresses;
+    private InetAddress[] publicAddresses;
+    private InetAddress[] ipv6Addresses;
+    private String[] countries;
+    private int index;
+
+    @Setup
+    public void setUp() throws Exception {
+        List<String> rules = new ArrayList<>(List.of("kr", "us", "private", "localhost", "@office", "!203.0.113.0/24"));
+        Random random = new Random(42);
+        for (int i = rules.size(); i < ruleCount; i++) {
+            rules.add((random.nextInt(223) + 1) + "." + random.nextInt(256) + "." + random.nextInt(256) + ".0/24");
+        }
+        acl = AccessControlList.compile(rules, Map.of("office", List.of("198.51.100.0/24", "2001:db8::/32")));
+
+        privateAddresses = new InetAddress[ADDRESS_COUNT];
+        publicAddresses = new InetAddress[ADDRESS_COUNT];
+        ipv6Addresses = new InetAddress[ADDRESS_COUNT];
+        countries = new String[ADDRESS_COUNT];
+        for (int i = 0; i < ADDRESS_COUNT; i++) {
+            privateAddresses[i] = InetAddress.getByAddress(new byte[] {10, (byte) random.nextInt(256), (byte) random.nextInt(256), (byte) random.nextInt(256)});
+            publicAddresses[i] = InetAddress.getByAddress(new byte[] {(byte) (random.nextInt(223) + 1), (byte) random.nextInt(256), (byte) random.nextInt(256), (byte) random.nextInt(256)});
+            byte[] v6 = new byte[16];
+            random.nextBytes(v6);
+            v6[0] = 0x20;
+            v6[1] = 0x01;
+            ipv6Addresses[i] = InetAddress.getByAddress(v6);
+            countries[i] = TestGeoDatabase.COUNTRIES[random.nextInt(TestGeoDatabase.COUNTRIES.length)].toLowerCase();
+        }
+    }
+
+    private int next() {
+        return index = (index + 1) & (ADDRESS_COUNT - 1);
+    }
+
+    @Benchmark
+    public boolean privateAddress() {
+        int i = next();
+        return acl.isAllowed(privateAddresses[i], countries[i]);
+    }
+
+    @Benchmark
+    public boolean publicAddressWithCountry() {
+        int i = next();
+        return acl.isAllowed(publicAddresses[i], countries[i]);
+    }
+
+    @Benchmark
+    public boolean ipv6Address() {
+        int i = next();
+        return acl.isAllowed(ipv6Addresses[i], countries[i]);
+    }
+
+    @Benchmark
+    public byte addressRulesOnly() {
+        return acl.matchAddress(publicAddresses[next()]);
+    }
+}
@@ -0,0 +1,111 @@
+package com.namejm.proxy.benchmark;
+
+import com.namejm.proxy.GeoIpCompiler;
+import com.namejm.proxy.InetAddressLocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GeoIP 국가 조회 비용. 벤치마크용 mmdb 를 임시 파일로 만들어 실제 Reader 경로를 측정한다.
+ * cacheSize 0 은 매번 DB 를 읽는 경우, 그 외는 캐시가 받쳐 주는 경우다.
+ * format compiled 는 같은 mmdb 를 GeoIpCompiler 로 변환한 범위 표를 읽는다.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeoIpBenchmark {
+    private static final int ADDRESS_COUNT = 4096;
+
+    @Param({"0", "100000"})
+    public int cacheSize;
+
+    @Param({"mmdb", "compiled"})
+    public String format;
+
+    private Path databaseFile;
+    private Path compiledFile;
+    private InetAddressLocator locator;
+    private InetAddress[] addresses;
+    private String[] addressTexts;
+
+    @Setup
+    public void setUp() throws Exception {
+        TestGeoDatabase database = TestGeoDatabase.random(20_000, 7);
+        databaseFile = Files.createTempFile("jmproxy-bench", ".mmdb");
+        database.write(databaseFile);
+        Path lookupFile = databaseFile;
+        if (format.equals("compiled")) {
+            compiledFile = Files.createTempFile("jmproxy-bench", ".jmgeo");
+            GeoIpCompiler.compile(databaseFile.toFile(), compiledFile);
+            lookupFile = compiledFile;
+        }
+        locator = new InetAddressLocator(lookupFile.toString(), cacheSize, 3600);
+
+        Random random = new Random(7);
+        addresses = new InetAddress[ADDRESS_COUNT];
+        addressTexts = new String[ADDRESS_COUNT];
+        for (int i = 0; i < ADDRESS_COUNT; i++) {
+            // 절반은 DB 에 있는 대역, 절반은 임의 주소
+            int address = i % 2 == 0 ? database.addressInside(random.nextInt(20_000), random) : random.nextInt();
+            addresses[i] = InetAddress.getByAddress(new byte[] {
+                (byte) (address >>> 24), (byte) (address >>> 16), (byte) (address >>> 8), (byte) address});
+            addressTexts[i] = addresses[i].getHostAddress();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        locator.close();
+        Files.deleteIfExists(databaseFile);
+        if (compiledFile != null) {
+            Files.deleteIfExists(compiledFile);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int index;
+
+        int next() {
+            return index = (index + 1) & (ADDRESS_COUNT - 1);
+        }
+    }
+
+    @Benchmark
+    public String getCountryCode(Cursor cursor) {
+        return locator.getCountryCode(addresses[cursor.next()]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String getCountryCodeContended(Cursor cursor) {
+        return locator.getCountryCode(addresses[cursor.next()]);
+    }
+
+    /** 문자열 주소를 받는 예전 API. 주소 파싱 비용까지 포함된다. */
+    @Benchmark
+    public Locale getLocale(Cursor cursor) {
+        return locator.getLocale(addressTexts[cursor.next()]);
+    }
+}
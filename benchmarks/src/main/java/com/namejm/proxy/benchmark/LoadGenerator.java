@@ -0,0 +1,604 @@
+package com.namejm.proxy.benchmark;
+
+import com.namejm.proxy.LatencyHistogram;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static ch.qos.logback.core.util.CloseUtil.closeQuietly;
+
+/**
+ * 프록시 부하/내구(soak) 테스트 도구. 루프백 백엔드(에코, 싱크, 소스)를 내장하고 있어 외부 망 없이 한 대에서 돌릴 수 있다.
+ * <p>
+ * 기본적으로 프록시를 별도 JVM 으로 띄워(임시 설정 + 벤치마크용 mmdb) 스레드/힙 수치가 부하 생성기와 섞이지 않게 하고,
+ * target= 을 주면 이미 떠 있는 프록시를 대상으로 한다. 이때 프록시의 전달 대상은 backendPort 로 맞춰 두어야 한다.
+ * <p>
+ * 부하 종류(workload)
+ * <ul>
+ *     <li>rr: 연결을 유지한 채 요청/응답 왕복 (에코 백엔드)</li>
+ *     <li>connect: 연결 → 왕복 한 번 → 종료 반복 (에코 백엔드)</li>
+ *     <li>upload: 클라이언트 → 서버 연속 전송 (싱크 백엔드)</li>
+ *     <li>download: 서버 → 클라이언트 연속 전송 (소스 백엔드)</li>
+ * </ul>
+ * 실행: {@code java -cp benchmarks/target/benchmarks.jar com.namejm.proxy.benchmark.LoadGenerator workload=rr connections=64}
+ */
+public final class LoadGenerator {
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999, 1.0};
+    private static final int SOCKET_TIMEOUT_MILLIS = 10_000;
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("workload", "rr");          // rr, connect, upload, download
+        DEFAULTS.put("connections", "64");       // 동시 연결(작업 스레드) 수
+        DEFAULTS.put("payload", "128");          // 요청 또는 전송 단위 크기(바이트)
+        DEFAULTS.put("duration", "30");          // 측정 시간(초), 내구 테스트는 길게 준다
+        DEFAULTS.put("warmup", "5");             // 결과에서 뺄 워밍업 시간(초)
+        DEFAULTS.put("interval", "5");           // 중간 보고 주기(초)
+        DEFAULTS.put("engine", "nio");           // 직접 띄우는 프록시의 engine
+        DEFAULTS.put("proxyJvmArgs", "");        // 직접 띄우는 프록시의 JVM 옵션 (공백 구분)
+        DEFAULTS.put("proxyLog", "warn");        // 직접 띄우는 프록시의 로그 레벨
+        DEFAULTS.put("target", "");              // host:port, 지정하면 떠 있는 프록시를 사용
+        DEFAULTS.put("metrics", "");             // target 프록시의 /metrics 주소
+        DEFAULTS.put("backendPort", "0");        // 내장 백엔드 포트, 0 이면 임의 포트
+    }
+
+    private final Map<String, String> options;
+    private final String workload;
+    private final int connections;
+    private final int payloadSize;
+
+    private final LongAdder connected = new LongAdder();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder bytesUp = new LongAdder();
+    private final LongAdder bytesDown = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LatencyHistogram totalLatency = new LatencyHistogram();
+    private volatile LatencyHistogram intervalLatency = new LatencyHistogram();
+    private volatile boolean measuring = false;
+    private volatile boolean running = true;
+    private final Set<Socket> openSockets = ConcurrentHashMap.newKeySet();
+
+    private ServerSocket backend;
+    private Process proxyProcess;
+    private Path workDir;
+    private InetSocketAddress target;
+    private String metricsUrl;
+
+    private LoadGenerator(Map<String, String> options) {
+        this.options = options;
+        this.workload = options.get("workload");
+        this.connections = Integer.parseInt(options.get("connections"));
+        this.payloadSize = Integer.parseInt(options.get("payload"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>(DEFAULTS);
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            String key = eq > 0 ? arg.substring(0, eq) : arg;
+            if (eq < 0 || !(DEFAULTS.containsKey(key) || key.startsWith("proxy."))) {
+                usage("Unknown option: " + arg);
+                return;
+            }
+            options.put(key, arg.substring(eq + 1));
+        }
+        if (!List.of("rr", "connect", "upload", "download").contains(options.get("workload"))) {
+            usage("Unknown workload: " + options.get("workload"));
+            return;
+        }
+
+        LoadGenerator generator = new LoadGenerator(options);
+        try {
+            generator.run();
+        } finally {
+            generator.close();
+        }
+    }
+
+    private static void usage(String message) {
+        System.err.println(message);
+        System.err.println("Usage: LoadGenerator [key=value ...]");
+        DEFAULTS.forEach((key, value) -> System.err.println("  " + key + "=" + value));
+        System.err.println("  proxy.<key>=<value>  직접 띄우는 프록시 설정 항목 (예: proxy.ioThreads=2, proxy.zeroCopy=true)");
+        System.exit(2);
+    }
+
+    private void run() throws Exception {
+        startBackend();
+        if (options.get("target").isEmpty()) {
+            launchProxy();
+        } else {
+            String[] hostPort = options.get("target").split(":");
+            target = new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1]));
+            metricsUrl = options.get("metrics").isEmpty() ? null : options.get("metrics");
+            System.out.printf("Backend (%s) listening on %d, forward the proxy to it.%n", backendKind(), backend.getLocalPort());
+        }
+
+        int warmup = Integer.parseInt(options.get("warmup"));
+        int duration = Integer.parseInt(options.get("duration"));
+        int interval = Math.max(1, Integer.parseInt(options.get("interval")));
+        System.out.printf("Workload %s, %d connections, payload %d B, warmup %d s, duration %d s -> %s%n",
+            workload, connections, payloadSize, warmup, duration, target);
+
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            Thread worker = new Thread(this::runWorker, "LoadGen-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+
+        long start = System.nanoTime();
+        long measureStart = start + TimeUnit.SECONDS.toNanos(warmup);
+        long end = measureStart + TimeUnit.SECONDS.toNanos(duration);
+        long[] base = null;
+        long[] previous = counters();
+        Map<String, Double> firstStats = null;
+        Map<String, Double> lastStats = null;
+        double peakThreads = 0;
+        long nextReport = start + TimeUnit.SECONDS.toNanos(interval);
+        while (true) {
+            long now = System.nanoTime();
+            if (base == null && now >= measureStart) {
+                base = counters();
+                measuring = true;
+                firstStats = scrapeMetrics();
+            }
+            if (now >= end) {
+                break;
+            }
+            long wake = Math.min(nextReport, base == null ? measureStart : end);
+            if (now < wake) {
+                TimeUnit.NANOSECONDS.sleep(wake - now);
+                continue;
+            }
+            if (now >= nextReport) {
+                long[] current = counters();
+                LatencyHistogram latency = intervalLatency;
+                intervalLatency = new LatencyHistogram();
+                Map<String, Double> stats = scrapeMetrics();
+                if (stats != null) {
+                    lastStats = stats;
+                    peakThreads = Math.max(peakThreads, stats.getOrDefault("jvm_threads_live", 0.0));
+                }
+                printInterval((now - start) / 1_000_000_000.0, delta(current, previous), interval, latency, stats);
+                previous = current;
+                nextReport += TimeUnit.SECONDS.toNanos(interval);
+            }
+        }
+        measuring = false;
+        running = false;
+        long[] total = delta(counters(), base);
+        Map<String, Double> finalStats = scrapeMetrics();
+        if (finalStats != null) {
+            lastStats = finalStats;
+            peakThreads = Math.max(peakThreads, finalStats.getOrDefault("jvm_threads_live", 0.0));
+        }
+        for (Socket socket : openSockets) {
+            closeQuietly(socket);
+        }
+        for (Thread worker : workers) {
+            worker.join(1000);
+        }
+        printSummary(duration, total, firstStats, lastStats, peakThreads);
+    }
+
+    // ---------------------------------------------------------------- 부하
+
+    private void runWorker() {
+        byte[] payload = new byte[payloadSize];
+        new Random(Thread.currentThread().getId()).nextBytes(payload);
+        byte[] buffer = new byte[Math.max(payloadSize, 64 * 1024)];
+        Socket socket = null;
+        while (running) {
+            try {
+                switch (workload) {
+                    case "rr":
+                        if (socket == null) {
+                            socket = connect();
+                        }
+                        long started = System.nanoTime();
+                        roundTrip(socket, payload, buffer);
+                        recordLatency(System.nanoTime() - started);
+                        break;
+                    case "connect":
+                        long connectStarted = System.nanoTime();
+                        socket = connect();
+                        roundTrip(socket, payload, buffer);
+                        release(socket);
+                        socket = null;
+                        recordLatency(System.nanoTime() - connectStarted);
+                        break;
+                    case "upload":
+                        if (socket == null) {
+                            socket = connect();
+                        }
+                        socket.getOutputStream().write(payload);
+                        bytesUp.add(payload.length);
+                        break;
+                    default: // download
+                        if (socket == null) {
+                            socket = connect();
+                        }
+                        int n = socket.getInputStream().read(buffer);
+                        if (n < 0) {
+                            throw new IOException("Connection closed by proxy");
+                        }
+                        bytesDown.add(n);
+                        break;
+                }
+            } catch (IOException e) {
+                if (running) {
+                    errors.increment();
+                    if (errors.sum() == 1) {
+                        System.err.println("First error: " + e);
+                    }
+                }
+                release(socket);
+                socket = null;
+                if (running && !(e instanceof SocketTimeoutException)) {
+                    pause(10); // 프록시가 거절하는 동안 헛돌지 않도록
+                }
+            }
+        }
+        release(socket);
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket();
+        openSockets.add(socket);
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(SOCKET_TIMEOUT_MILLIS);
+        socket.connect(target, SOCKET_TIMEOUT_MILLIS);
+        connected.increment();
+        return socket;
+    }
+
+    private void release(Socket socket) {
+        if (socket != null) {
+            openSockets.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    private void roundTrip(Socket socket, byte[] payload, byte[] buffer) throws IOException {
+        socket.getOutputStream().write(payload);
+        bytesUp.add(payload.length);
+        InputStream in = socket.getInputStream();
+        int read = 0;
+        while (read < payload.length) {
+            int n = in.read(buffer, read, payload.length - read);
+            if (n < 0) {
+                throw new IOException("Connection closed after " + read + " of " + payload.length + " bytes");
+            }
+            read += n;
+        }
+        bytesDown.add(read);
+        requests.increment();
+    }
+
+    private void recordLatency(long nanos) {
+        intervalLatency.recordNanos(nanos);
+        if (measuring) {
+            totalLatency.recordNanos(nanos);
+        }
+    }
+
+    private static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ---------------------------------------------------------------- 내장 백엔드
+
+    private String backendKind() {
+        switch (workload) {
+            case "upload": return "sink";
+            case "download": return "source";
+            default: return "echo";
+        }
+    }
+
+    private void startBackend() throws IOException {
+        backend = new ServerSocket();
+        backend.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(options.get("backendPort"))), 1024);
+        Thread acceptor = new Thread(() -> {
+            while (!backend.isClosed()) {
+                try {
+                    Socket socket = backend.accept();
+                    Thread handler = new Thread(() -> serve(socket), "LoadGenBackend");
+                    handler.setDaemon(true);
+                    handler.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }, "LoadGenBackendAccept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            InputStream in = s.getInputStream();
+            OutputStream out = s.getOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            switch (backendKind()) {
+                case "echo":
+                    while ((n = in.read(buffer)) > 0) {
+                        out.write(buffer, 0, n);
+                    }
+                    break;
+                case "sink":
+                    while (in.read(buffer) >= 0) {
+                        // 버린다
+                    }
+                    break;
+                default: // source
+                    new Random(1).nextBytes(buffer);
+                    while (running) {
+                        out.write(buffer, 0, Math.min(buffer.length, Math.max(payloadSize, 1)));
+                    }
+                    break;
+            }
+        } catch (IOException ignored) {
+            // 클라이언트가 끊으면 정상 종료
+        }
+    }
+
+    // ---------------------------------------------------------------- 프록시 실행
+
+    /**
+     * 부하 생성기와 다른 JVM 으로 프록시를 띄운다. 설정과 GeoIP DB 는 임시 디렉터리에 만든다.
+     */
+    private void launchProxy() throws Exception {
+        workDir = Files.createTempDirectory("jmproxy-loadgen");
+        Path database = workDir.resolve("geo.mmdb");
+        TestGeoDatabase.random(1000, 1).write(database);
+        int proxyPort = freePort();
+        int metricsPort = freePort();
+
+        StringBuilder yaml = new StringBuilder();
+        yaml.append("geoip:\n")
+            .append("  database: '").append(database).append("'\n")
+            .append("  reloadOnChange: false\n")
+            .append("metrics:\n")
+            .append("  port: ").append(metricsPort).append('\n')
+            .append("  bind: 127.0.0.1\n")
+            .append("proxy:\n")
+            .append("  - type: in\n")
+            .append("    name: loadgen\n")
+            .append("    bindPort: ").append(proxyPort).append('\n')
+            .append("    forwardHost: 127.0.0.1\n")
+            .append("    forwardPort: ").append(backend.getLocalPort()).append('\n')
+            .append("    allowedCountries: [Any]\n")
+            .append("    engine: ").append(options.get("engine")).append('\n');
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            if (option.getKey().startsWith("proxy.")) {
+                yaml.append("    ").append(option.getKey().substring("proxy.".length())).append(": ").append(option.getValue()).append('\n');
+            }
+        }
+        Path config = workDir.resolve("application.yml");
+        Files.write(config, yaml.toString().getBytes(StandardCharsets.UTF_8));
+
+        Path logbackConfig = workDir.resolve("logback.xml");
+        Files.write(logbackConfig, ("<configuration>\n"
+            + "  <appender name=\"CONSOLE\" class=\"ch.qos.logback.core.ConsoleAppender\">\n"
+            + "    <encoder><pattern>%d{HH:mm:ss.SSS} [%thread] %-5level %logger{36} - %msg%n</pattern></encoder>\n"
+            + "  </appender>\n"
+            + "  <root level=\"" + options.get("proxyLog") + "\"><appender-ref ref=\"CONSOLE\"/></root>\n"
+            + "</configuration>\n").getBytes(StandardCharsets.UTF_8));
+
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        for (String jvmArg : options.get("proxyJvmArgs").trim().split("\\s+")) {
+            if (!jvmArg.isEmpty()) {
+                command.add(jvmArg);
+            }
+        }
+        command.add("-Dlogback.configurationFile=" + logbackConfig);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("com.namejm.proxy.ProxyServer");
+        command.add(config.toString());
+
+        Path log = workDir.resolve("proxy.log");
+        proxyProcess = new ProcessBuilder(command)
+            .redirectErrorStream(true)
+            .redirectOutput(log.toFile())
+            .start();
+        target = new InetSocketAddress(InetAddress.getLoopbackAddress(), proxyPort);
+        metricsUrl = "http://127.0.0.1:" + metricsPort + "/metrics";
+        System.out.printf("Proxy (engine %s) started as pid %d, log: %s%n", options.get("engine"), proxyProcess.pid(), log);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+        while (System.nanoTime() < deadline) {
+            if (!proxyProcess.isAlive()) {
+                throw new IllegalStateException("Proxy exited with " + proxyProcess.exitValue() + ", see " + log);
+            }
+            if (scrapeMetrics() != null && isListening(target)) {
+                return;
+            }
+            pause(100);
+        }
+        throw new IllegalStateException("Proxy did not start within 20 seconds, see " + log);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            return probe.getLocalPort();
+        }
+    }
+
+    private static boolean isListening(InetSocketAddress address) {
+        try (Socket socket = new Socket()) {
+            socket.connect(address, 500);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void close() {
+        running = false;
+        closeQuietly(backend);
+        if (proxyProcess != null) {
+            proxyProcess.destroy();
+            try {
+                if (!proxyProcess.waitFor(10, TimeUnit.SECONDS)) {
+                    proxyProcess.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                proxyProcess.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------- 프록시 지표
+
+    /**
+     * 프록시의 /metrics 를 읽어 지표별 합계를 돌려준다. 레이블이 있는 지표는 "이름{레이블}" 로도 담는다.
+     * @return 지표 주소가 없거나 읽지 못하면 null
+     */
+    private Map<String, Double> scrapeMetrics() {
+        if (metricsUrl == null) {
+            return null;
+        }
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(metricsUrl).openConnection();
+            connection.setConnectTimeout(2000);
+            connection.setReadTimeout(2000);
+            String body;
+            try (InputStream in = connection.getInputStream()) {
+                body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            } finally {
+                connection.disconnect();
+            }
+            Map<String, Double> values = new HashMap<>();
+            for (String line : body.split("\n")) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int space = line.lastIndexOf(' ');
+                String series = line.substring(0, space);
+                double value = Double.parseDouble(line.substring(space + 1));
+                int brace = series.indexOf('{');
+                if (brace > 0) {
+                    values.put(series, value);
+                    values.merge(series.substring(0, brace), value, Double::sum);
+                } else {
+                    values.put(series, value);
+                }
+            }
+            return values;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    // ---------------------------------------------------------------- 보고
+
+    /** connected, requests, bytesUp, bytesDown, errors */
+    private long[] counters() {
+        return new long[] {connected.sum(), requests.sum(), bytesUp.sum(), bytesDown.sum(), errors.sum()};
+    }
+
+    private static long[] delta(long[] current, long[] previous) {
+        long[] result = new long[current.length];
+        for (int i = 0; i < current.length; i++) {
+            result[i] = current[i] - previous[i];
+        }
+        return result;
+    }
+
+    private void printInterval(double elapsed, long[] delta, int seconds, LatencyHistogram latency, Map<String, Double> stats) {
+        StringBuilder line = new StringBuilder();
+        line.append(String.format("%7.0fs  conn/s %8.1f  req/s %9.1f", elapsed, delta[0] / (double) seconds, delta[1] / (double) seconds));
+        line.append("  ").append(formatLatency(latency));
+        line.append(String.format("  up %s  down %s  errors %d", formatRate(delta[2], seconds), formatRate(delta[3], seconds), delta[4]));
+        if (stats != null) {
+            line.append("  ").append(formatProxy(stats));
+        }
+        System.out.println(line);
+    }
+
+    private void printSummary(int seconds, long[] total, Map<String, Double> first, Map<String, Double> last, double peakThreads) {
+        System.out.println();
+        System.out.printf("Result: %s, %d connections, payload %d B, %d s%n", workload, connections, payloadSize, seconds);
+        System.out.printf("  connections  %d (%.1f/s)%n", total[0], total[0] / (double) seconds);
+        System.out.printf("  requests     %d (%.1f/s)%n", total[1], total[1] / (double) seconds);
+        System.out.printf("  latency      %s%n", formatLatency(totalLatency));
+        System.out.printf("  throughput   up %s  down %s%n", formatRate(total[2], seconds), formatRate(total[3], seconds));
+        System.out.printf("  errors       %d%n", total[4]);
+        if (first != null && last != null) {
+            // 시작과 끝을 나란히 보여 주어 내구 테스트에서 스레드/힙/버퍼가 계속 늘어나는지 확인할 수 있게 한다.
+            System.out.printf("  proxy        threads %.0f -> %.0f (peak %.0f), heap %s -> %s, direct %s -> %s%n",
+                first.getOrDefault("jvm_threads_live", 0.0), last.getOrDefault("jvm_threads_live", 0.0), peakThreads,
+                formatBytes(first.getOrDefault("jvm_memory_heap_used_bytes", 0.0)), formatBytes(last.getOrDefault("jvm_memory_heap_used_bytes", 0.0)),
+                formatBytes(first.getOrDefault("jvm_buffer_pool_used_bytes{pool=\"direct\"}", 0.0)),
+                formatBytes(last.getOrDefault("jvm_buffer_pool_used_bytes{pool=\"direct\"}", 0.0)));
+        }
+    }
+
+    private static String formatLatency(LatencyHistogram histogram) {
+        if (histogram.getCount() == 0) {
+            return "p50 -  p99 -  p99.9 -  max -";
+        }
+        long[] values = histogram.percentiles(QUANTILES);
+        return String.format("p50 %s  p99 %s  p99.9 %s  max %s",
+            formatMicros(values[0]), formatMicros(values[1]), formatMicros(values[2]), formatMicros(values[3]));
+    }
+
+    private static String formatProxy(Map<String, Double> stats) {
+        return String.format("proxy threads %.0f heap %s sessions %.0f",
+            stats.getOrDefault("jvm_threads_live", 0.0),
+            formatBytes(stats.getOrDefault("jvm_memory_heap_used_bytes", 0.0)),
+            stats.getOrDefault("jmproxy_active_sessions", 0.0));
+    }
+
+    private static String formatMicros(long micros) {
+        if (micros < 1000) {
+            return micros + "us";
+        }
+        if (micros < 1_000_000) {
+            return String.format("%.2fms", micros / 1000.0);
+        }
+        return String.format("%.2fs", micros / 1_000_000.0);
+    }
+
+    private static String formatRate(long bytes, int seconds) {
+        return String.format("%.1fMB/s", bytes / (double) seconds / (1024 * 1024));
+    }
+
+    private static String formatBytes(double bytes) {
+        return String.format("%.1fMB", bytes / (1024 * 1024));
+    }
+}
@@ -0,0 +1,185 @@
+package com.namejm.proxy.benchmark;
+
+import com.namejm.proxy.InetAddressLocator;
+import com.namejm.proxy.ProxyDto;
+import com.namejm.proxy.ProxyMain;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 루프백에서 에코 백엔드를 둔 ProxyMain 의 왕복 지연과 처리량.
+ * 엔진(blocking / nio)과 페이로드 크기별로 비교해 중계 경로 변경의 효과를 확인한다.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RelayBenchmark {
+    @Param({"blocking", "nio"})
+    public String engine;
+
+    @Param({"128", "65536"})
+    public int payloadSize;
+
+    private ServerSocket echoServer;
+    private Path databaseFile;
+    private InetAddressLocator locator;
+    private ProxyMain proxy;
+    private int proxyPort;
+
+    @Setup
+    public void setUp() throws Exception {
+        // 연결마다 남는 INFO 로그가 측정을 흐리지 않도록 한다.
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME))
+            .setLevel(ch.qos.logback.classic.Level.WARN);
+
+        echoServer = new ServerSocket(0);
+        Thread acceptor = new Thread(this::runEcho, "BenchEchoAccept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        databaseFile = Files.createTempFile("jmproxy-bench", ".mmdb");
+        TestGeoDatabase.random(1000, 1).write(databaseFile);
+        locator = new InetAddressLocator(databaseFile.toString(), 100_000, 3600);
+
+        try (ServerSocket probe = new ServerSocket(0)) {
+            proxyPort = probe.getLocalPort();
+        }
+        ProxyDto config = new ProxyDto();
+        config.setType("in");
+        config.setName("bench-" + engine);
+        config.setBindPort(proxyPort);
+        config.setForwardHost("127.0.0.1");
+        config.setForwardPort(echoServer.getLocalPort());
+        config.setAllowedCountries(List.of("any"));
+        config.setEngine(engine);
+        proxy = new ProxyMain(config, locator);
+        proxy.start();
+        Thread.sleep(200);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        proxy.shutdown();
+        echoServer.close();
+        locator.close();
+        Files.deleteIfExists(databaseFile);
+    }
+
+    private void runEcho() {
+        while (!echoServer.isClosed()) {
+            try {
+                Socket socket = echoServer.accept();
+                Thread worker = new Thread(() -> echo(socket), "BenchEcho");
+                worker.setDaemon(true);
+                worker.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private static void echo(Socket socket) {
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            InputStream in = s.getInputStream();
+            OutputStream out = s.getOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        } catch (IOException ignored) {
+            // 벤치마크 종료 시 연결이 끊기는 것은 정상이다.
+        }
+    }
+
+    /**
+     * 벤치마크 스레드마다 하나씩 유지하는 클라이언트 연결.
+     */
+    @State(Scope.Thread)
+    public static class Client {
+        Socket socket;
+        InputStream in;
+        OutputStream out;
+        byte[] payload;
+        byte[] response;
+
+        @Setup(Level.Trial)
+        public void connect(RelayBenchmark benchmark) throws IOException {
+            payload = new byte[benchmark.payloadSize];
+            new Random(3).nextBytes(payload);
+            response = new byte[benchmark.payloadSize];
+            socket = benchmark.openClient();
+            in = socket.getInputStream();
+            out = socket.getOutputStream();
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    Socket openClient() throws IOException {
+        Socket socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress("127.0.0.1", proxyPort));
+        return socket;
+    }
+
+    private static void roundTrip(InputStream in, OutputStream out, byte[] payload, byte[] response) throws IOException {
+        out.write(payload);
+        int read = 0;
+        while (read < response.length) {
+            int n = in.read(response, read, response.length - read);
+            if (n < 0) {
+                throw new IOException("Connection closed after " + read + " bytes");
+            }
+            read += n;
+        }
+    }
+
+    /** 연결을 유지한 채 요청/응답 한 번. */
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+    public byte[] roundTrip(Client client) throws IOException {
+        roundTrip(client.in, client.out, client.payload, client.response);
+        return client.response;
+    }
+
+    /** 새 연결을 열고 요청/응답 한 번 후 닫는다. 수락, 접근 제어, 백엔드 연결 비용이 포함된다. */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    public byte[] connectAndRoundTrip(Client client) throws IOException {
+        try (Socket socket = openClient()) {
+            roundTrip(socket.getInputStream(), socket.getOutputStream(), client.payload, client.response);
+        }
+        return client.response;
+    }
+}
@@ -0,0 +1,190 @@
+package com.namejm.proxy.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 벤치마크용 IPv4 GeoIP(MaxMind DB 형식) 파일 생성기.
+ * 실제 GeoLite2 파일 없이도 같은 Reader 코드 경로를 측정할 수 있도록 임의의 국가 대역으로 작은 DB 를 만든다.
+ */
+public final class TestGeoDatabase {
+    public static final String[] COUNTRIES = {"KR", "US", "JP", "CN", "DE", "FR", "GB", "BR", "IN", "RU"};
+
+    private final List<int[]> networks = new ArrayList<>(); // {주소, 접두사 길이, 국가 인덱스}
+
+    private TestGeoDatabase() {}
+
+    /**
+     * /16 ~ /24 대역 count 개를 임의로 만든다.
+     */
+    public static TestGeoDatabase random(int count, long seed) {
+        TestGeoDatabase database = new TestGeoDatabase();
+        Random random = new Random(seed);
+        for (int i = 0; i < count; i++) {
+            int prefix = 16 + random.nextInt(9);
+            int address = random.nextInt() & (int) (0xFFFFFFFFL << (32 - prefix));
+            database.networks.add(new int[] {address, prefix, random.nextInt(COUNTRIES.length)});
+        }
+        return database;
+    }
+
+    /**
+     * 생성한 대역 안의 주소 하나. 조회 시 데이터가 있는 경로를 타도록 할 때 사용한다.
+     */
+    public int addressInside(int index, Random random) {
+        int[] network = networks.get(index % networks.size());
+        int hostBits = 32 - network[1];
+        return network[0] | (random.nextInt() & (int) ((1L << hostBits) - 1));
+    }
+
+    public void write(Path file) throws IOException {
+        // 국가별 데이터 레코드
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        int[] dataOffsets = new int[COUNTRIES.length];
+        for (int i = 0; i < COUNTRIES.length; i++) {
+            dataOffsets[i] = data.size();
+            Map<String, Object> names = new LinkedHashMap<>();
+            names.put("en", COUNTRIES[i]);
+            Map<String, Object> country = new LinkedHashMap<>();
+            country.put("iso_code", COUNTRIES[i]);
+            country.put("names", names);
+            Map<String, Object> record = new LinkedHashMap<>();
+            record.put("country", country);
+            encode(data, record);
+        }
+
+        // 이진 검색 트리 (노드당 왼쪽/오른쪽 레코드)
+        Node root = new Node();
+        for (int[] network : networks) {
+            Node node = root;
+            for (int bit = 0; bit < network[1]; bit++) {
+                int side = (network[0] >>> (31 - bit)) & 1;
+                if (bit == network[1] - 1) {
+                    node.children[side] = network[2];
+                } else {
+                    if (!(node.children[side] instanceof Node)) {
+                        node.children[side] = new Node();
+                    }
+                    node = (Node) node.children[side];
+                }
+            }
+        }
+        List<Node> order = new ArrayList<>();
+        number(root, order);
+        int nodeCount = order.size();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Node node : order) {
+            for (Object child : node.children) {
+                long record;
+                if (child == null) {
+                    record = nodeCount;
+                } else if (child instanceof Node) {
+                    record = ((Node) child).id;
+                } else {
+                    record = nodeCount + 16L + dataOffsets[(Integer) child];
+                }
+                out.write((int) (record >>> 16));
+                out.write((int) (record >>> 8));
+                out.write((int) record);
+            }
+        }
+        out.write(new byte[16]);
+        data.writeTo(out);
+
+        out.write(new byte[] {(byte) 0xAB, (byte) 0xCD, (byte) 0xEF});
+        out.write("MaxMind.com".getBytes(StandardCharsets.US_ASCII));
+        Map<String, Object> metadata = new LinkedHashMap<>();
+        metadata.put("node_count", new Uint(6, nodeCount));
+        metadata.put("record_size", new Uint(5, 24));
+        metadata.put("ip_version", new Uint(5, 4));
+        metadata.put("database_type", "GeoLite2-Country");
+        metadata.put("languages", List.of("en"));
+        metadata.put("binary_format_major_version", new Uint(5, 2));
+        metadata.put("binary_format_minor_version", new Uint(5, 0));
+        metadata.put("build_epoch", new Uint(9, System.currentTimeMillis() / 1000));
+        metadata.put("description", Map.of("en", "JmProxyServer benchmark database"));
+        encode(out, metadata);
+
+        Files.write(file, out.toByteArray());
+    }
+
+    private static void number(Node node, List<Node> order) {
+        node.id = order.size();
+        order.add(node);
+        for (Object child : node.children) {
+            if (child instanceof Node) {
+                number((Node) child, order);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void encode(ByteArrayOutputStream out, Object value) {
+        if (value instanceof String) {
+            byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+            writeControl(out, 2, bytes.length);
+            out.writeBytes(bytes);
+        } else if (value instanceof Map) {
+            Map<String, Object> map = (Map<String, Object>) value;
+            writeControl(out, 7, map.size());
+            for (Map.Entry<String, Object> entry : map.entrySet()) {
+                encode(out, entry.getKey());
+                encode(out, entry.getValue());
+            }
+        } else if (value instanceof List) {
+            List<Object> list = (List<Object>) value;
+            writeControl(out, 11, list.size());
+            for (Object item : list) {
+                encode(out, item);
+            }
+        } else if (value instanceof Uint) {
+            Uint uint = (Uint) value;
+            int length = (64 - Long.numberOfLeadingZeros(uint.value) + 7) / 8;
+            writeControl(out, uint.type, length);
+            for (int i = length - 1; i >= 0; i--) {
+                out.write((int) (uint.value >>> (8 * i)));
+            }
+        } else {
+            throw new IllegalArgumentException("Unsupported value " + value);
+        }
+    }
+
+    private static void writeControl(ByteArrayOutputStream out, int type, int size) {
+        int typeBits = type <= 7 ? type : 0;
+        int sizeBits = size < 29 ? size : size < 285 ? 29 : 30;
+        out.write((typeBits << 5) | sizeBits);
+        if (type > 7) {
+            out.write(type - 7);
+        }
+        if (sizeBits == 29) {
+            out.write(size - 29);
+        } else if (sizeBits == 30) {
+            out.write((size - 285) >>> 8);
+            out.write(size - 285);
+        }
+    }
+
+    private static final class Node {
+        final Object[] children = new Object[2]; // null, Node, 또는 국가 인덱스(Integer)
+        int id;
+    }
+
+    private static final class Uint {
+        final int type;
+        final long value;
+
+        Uint(int type, long value) {
+            this.type = type;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.namejm.proxy;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * allowedCountries 규칙을 시작 시점에 컴파일한 접근 제어 목록.
+ *
+ * 규칙 형식 (대소문자 무시):
+ *   any                 모두 허용
+ *   localhost           127.0.0.0/8, ::1
+ *   private             10/8, 172.16/12, 192.168/16, 169.254/16, fc00::/7, fe80::/10
+ *   KR, US ...          국가 코드
+ *   10.1.0.0/16, ::1/128, 1.2.3.4   CIDR 또는 단일 주소 (IPv4, IPv6)
+ *   @office             application.yml 의 groups 에 정의된 이름 있는 그룹
+ *   !규칙               위 규칙 중 하나를 차단 규칙으로 사용 (예: !CN, !1.2.3.0/24, !@blacklist)
+ *
+ * 판정 순서: 주소 규칙의 최장 접두사 일치 → 차단 국가 → any → 허용 국가 → 차단.
+ */
+public final class AccessControlList {
+    private static final Pattern COUNTRY_PATTERN = Pattern.compile("^[a-zA-Z]{2}$");
+    private static final Pattern GROUP_PATTERN = Pattern.compile("^[a-zA-Z0-9_.-]+$");
+
+    private static final List<String> LOCALHOST_RANGES = List.of("127.0.0.0/8", "::1/128");
+    private static final List<String> PRIVATE_RANGES = List.of(
+        "10.0.0.0/8", "172.16.0.0/12", "192.168.0.0/16", "169.254.0.0/16", "fc00::/7", "fe80::/10");
+
+    private final IpPrefixTrie v4Trie = new IpPrefixTrie();
+    private final IpPrefixTrie v6Trie = new IpPrefixTrie();
+    private final Set<String> allowedCountries = new HashSet<>();
+    private final Set<String> deniedCountries = new HashSet<>();
+    private boolean allowAny = false;
+
+    private AccessControlList() {}
+
+    /**
+     * 규칙 목록을 컴파일한다. 잘못된 규칙이나 정의되지 않은 그룹이 있으면 IllegalArgumentException.
+     */
+    public static AccessControlList compile(List<String> rules, Map<String, List<String>> groups) {
+        AccessControlList acl = new AccessControlList();
+        if (rules == null) {
+            return acl;
+        }
+        Map<String, List<String>> groupMap = groups != null ? groups : Collections.emptyMap();
+        for (String rule : rules) {
+            acl.addRule(rule, groupMap, true);
+        }
+        return acl;
+    }
+
+    /**
+     * 단일 규칙의 문법을 검사한다. 문제가 없으면 null, 있으면 오류 메시지를 돌려준다.
+     * 그룹 참조는 이름 형식만 확인한다.
+     */
+    public static String validateRule(String rule) {
+        if (rule == null || rule.trim().isEmpty()) {
+            return "empty rule";
+        }
+        String body = rule.trim();
+        if (body.startsWith("!")) {
+            body = body.substring(1).trim();
+            if ("any".equalsIgnoreCase(body)) {
+                return "'!any' is not a valid rule";
+            }
+        }
+        String lower = body.toLowerCase(Locale.ROOT);
+        if (lower.equals("any") || lower.equals("localhost") || lower.equals("private")) {
+            return null;
+        }
+        if (lower.startsWith("@")) {
+            return GROUP_PATTERN.matcher(lower.substring(1)).matches() ? null : "invalid group name";
+        }
+        if (COUNTRY_PATTERN.matcher(lower).matches()) {
+            return null;
+        }
+        try {
+            parseCidr(lower);
+            return null;
+        } catch (IllegalArgumentException e) {
+            return "must be a 2-letter country code, a CIDR block, a @group or a reserved word (any, localhost, private)";
+        }
+    }
+
+    private void addRule(String rule, Map<String, List<String>> groups, boolean allowGroups) {
+        String error = validateRule(rule);
+        if (error != null) {
+            throw new IllegalArgumentException("Invalid rule '" + rule + "': " + error);
+        }
+        String body = rule.trim().toLowerCase(Locale.ROOT);
+        boolean deny = body.startsWith("!");
+        if (deny) {
+            body = body.substring(1).trim();
+        }
+        byte verdict = deny ? IpPrefixTrie.DENY : IpPrefixTrie.ALLOW;
+
+        if (body.equals("any")) {
+            allowAny = true;
+        } else if (body.equals("localhost")) {
+            addRanges(LOCALHOST_RANGES, verdict);
+        } else if (body.equals("private")) {
+            addRanges(PRIVATE_RANGES, verdict);
+        } else if (body.startsWith("@")) {
+            if (!allowGroups) {
+                throw new IllegalArgumentException("Nested group reference '" + rule + "' is not supported");
+            }
+            List<String> members = groups.get(body.substring(1));
+            if (members == null) {
+                throw new IllegalArgumentException("Undefined group '" + body.substring(1) + "'");
+            }
+            for (String member : members) {
+                addRule(deny ? "!" + member : member, groups, false);
+            }
+        } else if (COUNTRY_PATTERN.matcher(body).matches()) {
+            (deny ? deniedCountries : allowedCountries).add(body.toUpperCase(Locale.ROOT));
+        } else {
+            Cidr cidr = parseCidr(body);
+            (cidr.address.length == 4 ? v4Trie : v6Trie).insert(cidr.address, cidr.prefixLength, verdict);
+        }
+    }
+
+    private void addRanges(List<String> ranges, byte verdict) {
+        for (String range : ranges) {
+            Cidr cidr = parseCidr(range);
+            (cidr.address.length == 4 ? v4Trie : v6Trie).insert(cidr.address, cidr.prefixLength, verdict);
+        }
+    }
+
+    /**
+     * 주소 규칙만으로 판정한다. IpPrefixTrie.ALLOW / DENY / NONE 중 하나를 돌려준다.
+     * NONE 이면 국가 규칙으로 판정해야 한다.
+     */
+    public byte matchAddress(InetAddress address) {
+        if (address instanceof Inet4Address) {
+            return v4Trie.lookupIpv4(InetAddresses.toInt((Inet4Address) address));
+        }
+        byte[] bytes = address.getAddress();
+        if (isIpv4Mapped(bytes)) {
+            return v4Trie.lookup(bytes, 12, 32);
+        }
+        return v6Trie.lookup(bytes, 0, 128);
+    }
+
+    /**
+     * 국가 규칙으로 판정한다. country 는 ISO 코드 또는 UNKNOWN.
+     */
+    public boolean isCountryAllowed(String country) {
+        if (country != null && deniedCountries.contains(country)) {
+            return false;
+        }
+        if (allowAny) {
+            return true;
+        }
+        return country != null && allowedCountries.contains(country);
+    }
+
+    /**
+     * 국가 조회가 판정에 영향을 줄 수 있는지 여부. 주소 규칙만 있는 경우 GeoIP 조회를 생략할 수 있다.
+     */
+    public boolean usesCountries() {
+        return !allowedCountries.isEmpty() || !deniedCountries.isEmpty();
+    }
+
+    public boolean isAllowed(InetAddress address, String country) {
+        byte verdict = matchAddress(address);
+        if (verdict != IpPrefixTrie.NONE) {
+            return verdict == IpPrefixTrie.ALLOW;
+        }
+        return isCountryAllowed(country);
+    }
+
+    private static boolean isIpv4Mapped(byte[] bytes) {
+        for (int i = 0; i < 10; i++) {
+            if (bytes[i] != 0) return false;
+        }
+        return bytes[10] == (byte) 0xff && bytes[11] == (byte) 0xff;
+    }
+
+    private static Cidr parseCidr(String text) {
+        int slash = text.indexOf('/');
+        String host = slash >= 0 ? text.substring(0, slash) : text;
+        // 호스트 이름으로 DNS 조회가 일어나지 않도록 주소 리터럴만 허용한다.
+        InetAddress literal = InetAddresses.parseLiteral(host);
+        if (literal == null) {
+            throw new IllegalArgumentException("Not an IP literal: " + text);
+        }
+        byte[] address = literal.getAddress();
+        int prefixLength = address.length * 8;
+        if (slash >= 0) {
+            try {
+                prefixLength = Integer.parseInt(text.substring(slash + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid prefix length: " + text, e);
+            }
+            if (prefixLength < 0 || prefixLength > address.length * 8) {
+                throw new IllegalArgumentException("Invalid prefix length: " + text);
+            }
+        }
+        return new Cidr(address, prefixLength);
+    }
+
+    private static final class Cidr {
+        final byte[] address;
+        final int prefixLength;
+
+        Cidr(byte[] address, int prefixLength) {
+            this.address = address;
+            this.prefixLength = prefixLength;
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package com.namejm.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 비동기 접속 로그.
+ * 연결 처리 스레드는 미리 만들어 둔 링 버퍼 슬롯에 값만 채우고 돌아가며(할당, 잠금, I/O 없음),
+ * 전용 쓰기 스레드가 모아서 JSON 한 줄씩 파일에 쓴다. 버퍼가 가득 차면 기다리지 않고 버린 뒤 개수만 센다.
+ * 같은 IP 의 BLOCKED 는 dedupWindowSeconds 동안 첫 건만 쓰고, 나머지는 구간이 끝날 때 요약 한 줄로 남긴다.
+ */
+public class AccessLog {
+    private static final Logger logger = LoggerFactory.getLogger(AccessLog.class);
+    private static final int MAX_BATCH = 1024;
+
+    private final Path path;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private final long dedupWindowMillis;
+    private final Event[] ring;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong(); // 다음에 쓸 순번 (생산자들이 CAS 로 확보)
+    private volatile long head = 0; // 다음에 읽을 순번 (쓰기 스레드만 갱신)
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder suppressed = new LongAdder();
+    private final Map<String, BlockedWindow> blockedWindows = new HashMap<>(); // 쓰기 스레드 전용
+    private final StringBuilder line = new StringBuilder(256); // 쓰기 스레드 전용
+    private final Thread writerThread;
+    private volatile boolean running = true;
+    private Writer writer;
+    private long fileBytes;
+
+    /**
+     * @param capacity 링 버퍼 크기. 2 의 거듭제곱으로 올림한다.
+     */
+    public AccessLog(String path, int capacity, long maxFileBytes, int maxFiles, int dedupWindowSeconds) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.path = Paths.get(path);
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+        this.dedupWindowMillis = TimeUnit.SECONDS.toMillis(dedupWindowSeconds);
+        this.ring = new Event[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            ring[i] = new Event();
+            ring[i].sequence = i - size; // 아직 발행되지 않은 상태
+        }
+        this.writerThread = new Thread(this::runWriter, "AccessLogWriter");
+        this.writerThread.setDaemon(true);
+    }
+
+    public void start() throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        openWriter();
+        writerThread.start();
+        logger.info("Access log writing to {} (buffer {} events)", path, ring.length);
+    }
+
+    /**
+     * 연결 하나를 기록한다. 어떤 스레드에서 호출해도 되며 절대 대기하지 않는다.
+     */
+    public void log(String proxyName, InetAddress address, int port, String status, String country) {
+        long sequence;
+        do {
+            sequence = tail.get();
+            if (sequence - head >= ring.length) {
+                dropped.increment();
+                return;
+            }
+        } while (!tail.compareAndSet(sequence, sequence + 1));
+
+        Event event = ring[(int) sequence & mask];
+        event.timeMillis = System.currentTimeMillis();
+        event.proxyName = proxyName;
+        event.address = address;
+        event.port = port;
+        event.status = status;
+        event.country = country;
+        event.sequence = sequence; // volatile 쓰기로 발행
+    }
+
+    private void runWriter() {
+        long lastFlushMillis = System.currentTimeMillis();
+        long lastDropped = 0;
+        while (running || head != tail.get()) {
+            int drained = 0;
+            try {
+                long next = head;
+                while (drained < MAX_BATCH) {
+                    Event event = ring[(int) next & mask];
+                    if (event.sequence != next) {
+                        break;
+                    }
+                    write(event);
+                    // 참조를 지워 다 쓴 이벤트가 주소 객체를 붙잡고 있지 않게 한다.
+                    event.address = null;
+                    next++;
+                    head = next;
+                    drained++;
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastFlushMillis >= 1000) {
+                    flushBlockedWindows(now, false);
+                    lastFlushMillis = now;
+                    long totalDropped = dropped.sum();
+                    if (totalDropped > lastDropped) {
+                        logger.warn("Access log buffer full, dropped {} events", totalDropped - lastDropped);
+                        lastDropped = totalDropped;
+                    }
+                }
+                if (drained > 0) {
+                    writer.flush();
+                }
+            } catch (IOException e) {
+                logger.warn("Failed to write access log {}", path, e);
+                reopenQuietly();
+            }
+            if (drained == 0) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+            }
+        }
+        try {
+            flushBlockedWindows(System.currentTimeMillis(), true);
+            writer.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close access log {}", path, e);
+        }
+    }
+
+    private void write(Event event) throws IOException {
+        if ("BLOCKED".equals(event.status) && dedupWindowMillis > 0) {
+            String key = event.proxyName + '|' + event.address.getHostAddress();
+            BlockedWindow window = blockedWindows.get(key);
+            if (window != null && event.timeMillis - window.startMillis < dedupWindowMillis) {
+                window.suppressed++;
+                window.lastCountry = event.country;
+                suppressed.increment();
+                return;
+            }
+            if (window != null && window.suppressed > 0) {
+                writeSummary(window);
+            }
+            blockedWindows.put(key, new BlockedWindow(event.proxyName, event.address, event.timeMillis, event.country));
+        }
+
+        line.setLength(0);
+        line.append("{\"time\":\"").append(Instant.ofEpochMilli(event.timeMillis)).append('"');
+        appendField("proxy", event.proxyName);
+        appendField("ip", event.address.getHostAddress());
+        line.append(",\"port\":").append(event.port);
+        appendField("status", event.status);
+        appendField("country", event.country);
+        line.append("}\n");
+        writeLine();
+    }
+
+    /**
+     * 구간이 끝난 BLOCKED 집계를 요약 줄로 쓰고 정리한다. all 이면 구간과 관계없이 모두 쓴다.
+     */
+    private void flushBlockedWindows(long now, boolean all) throws IOException {
+        Iterator<BlockedWindow> it = blockedWindows.values().iterator();
+        while (it.hasNext()) {
+            BlockedWindow window = it.next();
+            if (all || now - window.startMillis >= dedupWindowMillis) {
+                if (window.suppressed > 0) {
+                    writeSummary(window);
+                }
+                it.remove();
+            }
+        }
+        writer.flush();
+    }
+
+    private void writeSummary(BlockedWindow window) throws IOException {
+        line.setLength(0);
+        line.append("{\"time\":\"").append(Instant.ofEpochMilli(window.startMillis)).append('"');
+        appendField("proxy", window.proxyName);
+        appendField("ip", window.address.getHostAddress());
+        appendField("status", "BLOCKED");
+        appendField("country", window.lastCountry);
+        line.append(",\"suppressed\":").append(window.suppressed);
+        line.append(",\"windowSeconds\":").append(TimeUnit.MILLISECONDS.toSeconds(dedupWindowMillis));
+        line.append("}\n");
+        writeLine();
+    }
+
+    private void appendField(String name, String value) {
+        line.append(",\"").append(name).append("\":\"");
+        String text = String.valueOf(value);
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (ch == '"' || ch == '\\') {
+                line.append('\\').append(ch);
+            } else if (ch < 0x20) {
+                line.append(String.format("\\u%04x", (int) ch));
+            } else {
+                line.append(ch);
+            }
+        }
+        line.append('"');
+    }
+
+    private void writeLine() throws IOException {
+        if (maxFileBytes > 0 && fileBytes + line.length() > maxFileBytes) {
+            rotate();
+        }
+        writer.append(line);
+        fileBytes += line.length();
+        written.increment();
+    }
+
+    /**
+     * access.log -> access.log.1 -> ... -> access.log.{maxFiles} 순서로 밀어낸다.
+     */
+    private void rotate() throws IOException {
+        writer.close();
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            Path source = Paths.get(path + "." + i);
+            if (Files.exists(source)) {
+                Files.move(source, Paths.get(path + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (maxFiles > 0) {
+            Files.move(path, Paths.get(path + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.deleteIfExists(path);
+        }
+        openWriter();
+    }
+
+    private void openWriter() throws IOException {
+        writer = new BufferedWriter(new OutputStreamWriter(
+            Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND), StandardCharsets.UTF_8), 64 * 1024);
+        fileBytes = Files.size(path);
+    }
+
+    private void reopenQuietly() {
+        try {
+            writer.close();
+        } catch (IOException ignored) {
+            // 이미 문제가 있는 스트림이므로 무시한다.
+        }
+        try {
+            openWriter();
+        } catch (IOException e) {
+            logger.error("Failed to reopen access log {}", path, e);
+            LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    public void close() {
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getWritten() { return written.sum(); }
+    public long getDropped() { return dropped.sum(); }
+    public long getSuppressed() { return suppressed.sum(); }
+
+    /**
+     * 링 버퍼 슬롯. 생산자는 필드를 채운 뒤 마지막에 sequence 를 써서 발행한다.
+     */
+    private static final class Event {
+        volatile long sequence;
+        long timeMillis;
+        String proxyName;
+        InetAddress address;
+        int port;
+        String status;
+        String country;
+    }
+
+    private static final class BlockedWindow {
+        final String proxyName;
+        final InetAddress address;
+        final long startMillis;
+        String lastCountry;
+        long suppressed = 0;
+
+        BlockedWindow(String proxyName, InetAddress address, long startMillis, String country) {
+            this.proxyName = proxyName;
+            this.address = address;
+            this.startMillis = startMillis;
+            this.lastCountry = country;
+        }
+    }
+}
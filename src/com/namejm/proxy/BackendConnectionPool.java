@@ -0,0 +1,212 @@
+package com.namejm.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static ch.qos.logback.core.util.CloseUtil.closeQuietly;
+
+/**
+ * 미리 연결해 둔 백엔드 소켓 풀.
+ * 백그라운드 스레드가 최소 유휴 연결 수(minIdle)를 유지하고, 끊겼거나 오래된 연결은 버리고 새로 채운다.
+ * 풀의 채널은 논블로킹 모드로 보관되며, 서버가 먼저 보내는 배너(FTP, SSH 등)는 greeting 버퍼에 보관했다가 클라이언트에 전달한다.
+ */
+public class BackendConnectionPool {
+    private static final Logger logger = LoggerFactory.getLogger(BackendConnectionPool.class);
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final int GREETING_BUFFER_SIZE = 4096;
+    private static final long MAINTENANCE_INTERVAL_MILLIS = 1000;
+
+    private final String name;
+    private final String host;
+    private final int port;
+    private final int minIdle;
+    private final long maxIdleNanos;
+    private final ConcurrentLinkedDeque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final AtomicBoolean refillScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService maintenance;
+    private volatile InetSocketAddress address;
+    private volatile boolean closed = false;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+
+    public BackendConnectionPool(String name, String host, int port, int minIdle, int maxIdleSeconds) {
+        this.name = name;
+        this.host = host;
+        this.port = port;
+        this.minIdle = minIdle;
+        this.maxIdleNanos = TimeUnit.SECONDS.toNanos(maxIdleSeconds);
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "BackendPool-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        maintenance.scheduleWithFixedDelay(this::maintain, 0, MAINTENANCE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        logger.info("{} - Backend connection pool started for {}:{} (minIdle={}, maxIdle={}s)",
+            name, host, port, minIdle, TimeUnit.NANOSECONDS.toSeconds(maxIdleNanos));
+    }
+
+    /**
+     * 정상 상태의 유휴 연결을 하나 꺼낸다. 없으면 null 이며, 호출자는 직접 연결해야 한다.
+     * 논블로킹으로만 동작하므로 이벤트 루프에서 호출해도 된다.
+     */
+    public PooledConnection poll() {
+        PooledConnection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            idleCount.decrementAndGet();
+            if (isHealthy(connection)) {
+                hits.increment();
+                scheduleRefill();
+                return connection;
+            }
+            discard(connection);
+        }
+        misses.increment();
+        scheduleRefill();
+        return null;
+    }
+
+    /**
+     * 백엔드 주소. 백그라운드에서 주기적으로 다시 해석하므로 호출자는 DNS 조회로 멈추지 않는다. 아직 해석하지 못했으면 null.
+     */
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    private void scheduleRefill() {
+        if (!closed && idleCount.get() < minIdle && refillScheduled.compareAndSet(false, true)) {
+            maintenance.execute(this::maintain);
+        }
+    }
+
+    private void maintain() {
+        refillScheduled.set(false);
+        if (closed) {
+            return;
+        }
+
+        // 유휴 연결 점검: 끊겼거나 maxIdle 을 넘긴 연결은 교체한다.
+        // poll() 과 같은 연결을 동시에 읽지 않도록 꺼내서 검사한 뒤 다시 넣는다.
+        for (int i = idleCount.get(); i > 0; i--) {
+            PooledConnection connection = idle.pollFirst();
+            if (connection == null) {
+                break;
+            }
+            if (isHealthy(connection)) {
+                idle.addLast(connection);
+            } else {
+                idleCount.decrementAndGet();
+                discard(connection);
+            }
+        }
+
+        InetSocketAddress resolved = new InetSocketAddress(host, port);
+        if (resolved.isUnresolved()) {
+            logger.warn("{} - Failed to resolve backend host {}", name, host);
+            return;
+        }
+        address = resolved;
+
+        while (!closed && idleCount.get() < minIdle) {
+            SocketChannel channel = null;
+            try {
+                channel = SocketChannel.open();
+                channel.socket().setTcpNoDelay(true);
+                channel.socket().connect(resolved, CONNECT_TIMEOUT_MILLIS);
+                channel.configureBlocking(false);
+                idle.addLast(new PooledConnection(channel));
+                idleCount.incrementAndGet();
+            } catch (IOException e) {
+                closeQuietly(channel);
+                logger.warn("{} - Failed to pre-connect to backend {}: {}", name, resolved, e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private boolean isHealthy(PooledConnection connection) {
+        if (System.nanoTime() - connection.createdNanos > maxIdleNanos) {
+            return false;
+        }
+        ByteBuffer greeting = connection.greeting;
+        if (!greeting.hasRemaining()) {
+            // 배너로 버퍼가 가득 찼다면 더 읽지 않고 그대로 사용한다.
+            return connection.channel.isOpen();
+        }
+        try {
+            // 유휴 연결에서 EOF 가 오면 백엔드가 연결을 닫은 것이다.
+            return connection.channel.read(greeting) >= 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void discard(PooledConnection connection) {
+        discarded.increment();
+        closeQuietly(connection.channel);
+    }
+
+    public void close() {
+        closed = true;
+        maintenance.shutdownNow();
+        PooledConnection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            closeQuietly(connection.channel);
+        }
+        idleCount.set(0);
+        logger.info("{} - Backend connection pool closed: {}", name, this);
+    }
+
+    public int getIdleCount() { return idleCount.get(); }
+    public long getHits() { return hits.sum(); }
+    public long getMisses() { return misses.sum(); }
+    public long getDiscarded() { return discarded.sum(); }
+
+    @Override
+    public String toString() {
+        return "BackendConnectionPool{" +
+               "idle=" + getIdleCount() +
+               ", hits=" + getHits() +
+               ", misses=" + getMisses() +
+               ", discarded=" + getDiscarded() +
+               '}';
+    }
+
+    /**
+     * 풀에서 꺼낸 연결. greeting 은 쓰기(채우기) 모드이며, 백엔드가 이미 보낸 바이트가 들어 있을 수 있다.
+     */
+    public static final class PooledConnection {
+        private final SocketChannel channel;
+        private final ByteBuffer greeting = ByteBuffer.allocate(GREETING_BUFFER_SIZE);
+        private final long createdNanos = System.nanoTime();
+
+        PooledConnection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        public SocketChannel getChannel() {
+            return channel;
+        }
+
+        public ByteBuffer getGreeting() {
+            return greeting;
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.namejm.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 중계 버퍼 풀. 4KB 부터 1MB 까지 2 배씩 커지는 크기 등급별로 버퍼를 재사용해 세션마다 버퍼를 새로 할당하지 않는다.
+ * 풀이 만든 버퍼(사용 중 + 유휴)의 합은 maxBytes 를 넘지 않으며, 넘는 요청은 풀 밖에서 할당하고 반납 시 버린다.
+ * 이벤트 루프처럼 오래 사는 스레드는 enableThreadCache() 로 스레드 캐시를 켜서 공유 큐 경합 없이 빌리고 반납한다.
+ * 반납하지 않고 버려진 버퍼는 Cleaner 로 감지해 누수로 집계한다.
+ */
+public class BufferPool {
+    private static final Logger logger = LoggerFactory.getLogger(BufferPool.class);
+    private static final int MIN_SHIFT = 12; // 4KB
+    private static final int MAX_SHIFT = 20; // 1MB
+    private static final int SIZE_CLASSES = MAX_SHIFT - MIN_SHIFT + 1;
+    private static final int THREAD_CACHE_SIZE = 32; // 스레드 캐시의 등급별 최대 버퍼 수
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    /** 모든 프록시가 공유하는 풀. 시작 시 setMaxBytes 로 크기를 정한다. */
+    public static final BufferPool SHARED = new BufferPool(256L * 1024 * 1024);
+
+    private final Arena direct = new Arena();
+    private final Arena heap = new Arena();
+    private final ThreadLocal<ThreadCache> threadCache = new ThreadLocal<>();
+    private final AtomicLong pooledBytes = new AtomicLong(); // 풀이 만든 버퍼의 합(사용 중 + 유휴)
+    private final AtomicLong idleBytes = new AtomicLong();
+    private final LongAdder usedBytes = new LongAdder();
+    private final LongAdder allocations = new LongAdder();
+    private final LongAdder reuses = new LongAdder();
+    private final LongAdder unpooledAllocations = new LongAdder();
+    private final LongAdder leaks = new LongAdder();
+    private volatile long maxBytes;
+
+    public BufferPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 풀 크기(바이트)를 바꾼다. 줄이면 유휴 버퍼는 다음 반납부터 덜 보관한다.
+     */
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 다이렉트 버퍼를 빌린다. 용량은 size 이상인 등급 크기이며, 비운(clear) 상태로 준다.
+     */
+    public PooledBuffer acquireDirect(int size) {
+        return acquire(direct, size);
+    }
+
+    /**
+     * 힙 버퍼를 빌린다. 스트림 중계처럼 byte[] 가 필요한 곳에 쓰며 array() 를 사용할 수 있다.
+     */
+    public PooledBuffer acquireHeap(int size) {
+        return acquire(heap, size);
+    }
+
+    private PooledBuffer acquire(Arena arena, int size) {
+        int sizeClass = sizeClass(size);
+        if (sizeClass < 0) {
+            unpooledAllocations.increment();
+            return new PooledBuffer(this, allocate(arena, size), null, -1);
+        }
+        int capacity = 1 << (sizeClass + MIN_SHIFT);
+        ByteBuffer buffer = null;
+        ThreadCache cache = threadCache.get();
+        if (cache != null) {
+            buffer = cache.poll(arena, sizeClass);
+        }
+        if (buffer == null) {
+            buffer = arena.queues[sizeClass].poll();
+        }
+        if (buffer != null) {
+            idleBytes.addAndGet(-capacity);
+            reuses.increment();
+        } else if (reserve(capacity)) {
+            buffer = allocate(arena, capacity);
+            allocations.increment();
+        } else {
+            // 풀이 가득 차면 이번 요청만 따로 할당하고, 반납 시 GC 에 맡긴다.
+            unpooledAllocations.increment();
+            return new PooledBuffer(this, allocate(arena, size), null, -1);
+        }
+        buffer.clear();
+        usedBytes.add(capacity);
+        return new PooledBuffer(this, buffer, arena, sizeClass);
+    }
+
+    private boolean reserve(int capacity) {
+        while (true) {
+            long current = pooledBytes.get();
+            if (current + capacity > maxBytes) {
+                return false;
+            }
+            if (pooledBytes.compareAndSet(current, current + capacity)) {
+                return true;
+            }
+        }
+    }
+
+    private void release(ByteBuffer buffer, Arena arena, int sizeClass) {
+        if (arena == null) {
+            return;
+        }
+        int capacity = buffer.capacity();
+        usedBytes.add(-capacity);
+        if (pooledBytes.get() > maxBytes) {
+            // 풀 크기를 줄였으면 반납된 버퍼를 버려 새 한도로 내려간다.
+            pooledBytes.addAndGet(-capacity);
+            return;
+        }
+        idleBytes.addAndGet(capacity);
+        ThreadCache cache = threadCache.get();
+        if (cache == null || !cache.offer(arena, sizeClass, buffer)) {
+            arena.queues[sizeClass].add(buffer);
+        }
+    }
+
+    private void leaked(int capacity, boolean pooled) {
+        leaks.increment();
+        if (pooled) {
+            usedBytes.add(-capacity);
+            pooledBytes.addAndGet(-capacity);
+        }
+        if (leaks.sum() == 1) {
+            logger.warn("A relay buffer ({} bytes) was garbage collected without being released. " +
+                "Further leaks are only counted in the buffer pool stats.", capacity);
+        }
+    }
+
+    /**
+     * 현재 스레드에 스레드 캐시를 둔다. 스레드가 끝나기 전에 releaseThreadCache() 를 호출해야 한다.
+     */
+    public void enableThreadCache() {
+        if (threadCache.get() == null) {
+            threadCache.set(new ThreadCache());
+        }
+    }
+
+    /**
+     * 현재 스레드의 캐시에 있던 버퍼를 공유 큐로 돌려보내고 캐시를 없앤다.
+     */
+    public void releaseThreadCache() {
+        ThreadCache cache = threadCache.get();
+        if (cache == null) {
+            return;
+        }
+        threadCache.remove();
+        cache.drainTo(direct);
+        cache.drainTo(heap);
+    }
+
+    private static ByteBuffer allocate(Arena arena, int capacity) {
+        return arena.isDirect() ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * size 를 담을 수 있는 가장 작은 등급. 가장 큰 등급보다 크면 -1.
+     */
+    private static int sizeClass(int size) {
+        if (size <= 1 << MIN_SHIFT) {
+            return 0;
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+        return shift > MAX_SHIFT ? -1 : shift - MIN_SHIFT;
+    }
+
+    public long getMaxBytes() { return maxBytes; }
+    public long getPooledBytes() { return pooledBytes.get(); }
+    public long getUsedBytes() { return usedBytes.sum(); }
+    public long getIdleBytes() { return idleBytes.get(); }
+    public long getAllocations() { return allocations.sum(); }
+    public long getReuses() { return reuses.sum(); }
+    public long getUnpooledAllocations() { return unpooledAllocations.sum(); }
+    public long getLeaks() { return leaks.sum(); }
+
+    @Override
+    public String toString() {
+        return "BufferPool{" +
+               "max=" + maxBytes +
+               ", pooled=" + getPooledBytes() +
+               ", used=" + getUsedBytes() +
+               ", idle=" + getIdleBytes() +
+               ", allocations=" + getAllocations() +
+               ", reuses=" + getReuses() +
+               ", unpooled=" + getUnpooledAllocations() +
+               ", leaks=" + getLeaks() +
+               '}';
+    }
+
+    /**
+     * 다이렉트 또는 힙 버퍼의 등급별 공유 큐.
+     */
+    private final class Arena {
+        @SuppressWarnings("unchecked")
+        private final Queue<ByteBuffer>[] queues = (Queue<ByteBuffer>[]) new Queue<?>[SIZE_CLASSES];
+
+        Arena() {
+            for (int i = 0; i < SIZE_CLASSES; i++) {
+                queues[i] = new ConcurrentLinkedQueue<>();
+            }
+        }
+
+        boolean isDirect() {
+            return this == direct;
+        }
+    }
+
+    /**
+     * 스레드 하나가 최근 반납한 버퍼. 해당 스레드에서만 접근한다.
+     */
+    private final class ThreadCache {
+        @SuppressWarnings("unchecked")
+        private final ArrayDeque<ByteBuffer>[] directCache = (ArrayDeque<ByteBuffer>[]) new ArrayDeque<?>[SIZE_CLASSES];
+        @SuppressWarnings("unchecked")
+        private final ArrayDeque<ByteBuffer>[] heapCache = (ArrayDeque<ByteBuffer>[]) new ArrayDeque<?>[SIZE_CLASSES];
+
+        ThreadCache() {
+            for (int i = 0; i < SIZE_CLASSES; i++) {
+                directCache[i] = new ArrayDeque<>();
+                heapCache[i] = new ArrayDeque<>();
+            }
+        }
+
+        private ArrayDeque<ByteBuffer>[] of(Arena arena) {
+            return arena.isDirect() ? directCache : heapCache;
+        }
+
+        ByteBuffer poll(Arena arena, int sizeClass) {
+            return of(arena)[sizeClass].pollLast();
+        }
+
+        boolean offer(Arena arena, int sizeClass, ByteBuffer buffer) {
+            ArrayDeque<ByteBuffer> cache = of(arena)[sizeClass];
+            if (cache.size() >= THREAD_CACHE_SIZE) {
+                return false;
+            }
+            cache.addLast(buffer);
+            return true;
+        }
+
+        void drainTo(Arena arena) {
+            ArrayDeque<ByteBuffer>[] caches = of(arena);
+            for (int i = 0; i < SIZE_CLASSES; i++) {
+                ByteBuffer buffer;
+                while ((buffer = caches[i].pollFirst()) != null) {
+                    arena.queues[i].add(buffer);
+                }
+            }
+        }
+    }
+
+    /**
+     * 빌린 버퍼 하나. 다 쓰면 release() 를 한 번만 호출해야 하며, 그 뒤에는 buffer() 를 쓰면 안 된다.
+     */
+    public static final class PooledBuffer {
+        private final BufferPool pool;
+        private final ByteBuffer buffer;
+        private final Arena arena;
+        private final int sizeClass;
+        private final LeakState state;
+        private final Cleaner.Cleanable cleanable;
+
+        private PooledBuffer(BufferPool pool, ByteBuffer buffer, Arena arena, int sizeClass) {
+            this.pool = pool;
+            this.buffer = buffer;
+            this.arena = arena;
+            this.sizeClass = sizeClass;
+            this.state = new LeakState(pool, buffer.capacity(), arena != null);
+            this.cleanable = CLEANER.register(this, state);
+        }
+
+        public ByteBuffer buffer() {
+            return buffer;
+        }
+
+        public void release() {
+            if (!state.released.compareAndSet(false, true)) {
+                logger.warn("Relay buffer released twice", new IllegalStateException());
+                return;
+            }
+            cleanable.clean();
+            pool.release(buffer, arena, sizeClass);
+        }
+    }
+
+    /**
+     * Cleaner 가 PooledBuffer 를 회수할 때 반납 여부를 확인하는 상태. PooledBuffer 를 참조하면 안 된다.
+     */
+    private static final class LeakState implements Runnable {
+        private final BufferPool pool;
+        private final int capacity;
+        private final boolean pooled;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        LeakState(BufferPool pool, int capacity, boolean pooled) {
+            this.pool = pool;
+            this.capacity = capacity;
+            this.pooled = pooled;
+        }
+
+        @Override
+        public void run() {
+            if (!released.get()) {
+                pool.leaked(capacity, pooled);
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.namejm.proxy;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * 출발지 IP 별 표(ClientTracker, RateLimiter)의 키. InetAddress 대신 long 두 개로 보관한다.
+ * IPv4(와 IPv4-mapped IPv6)는 ::ffff:a.b.c.d 로, IPv6 는 접두사 길이로 자른 값으로 만들어
+ * 접두사 안에서 주소를 바꿔 가며 들어오는 클라이언트도 하나로 센다.
+ */
+final class ClientKey {
+    private static final long IPV4_MAPPED_PREFIX = 0xFFFF_0000_0000L;
+
+    final long high;
+    final long low;
+    final int prefixLength;
+
+    private ClientKey(long high, long low, int prefixLength) {
+        this.high = high;
+        this.low = low;
+        this.prefixLength = prefixLength;
+    }
+
+    static ClientKey of(InetAddress address, int ipv6PrefixLength) {
+        byte[] bytes = address.getAddress();
+        if (bytes.length == 4) {
+            return new ClientKey(0, IPV4_MAPPED_PREFIX | (toLong(bytes, 0, 4) & 0xFFFF_FFFFL), 128);
+        }
+        long high = toLong(bytes, 0, 8);
+        long low = toLong(bytes, 8, 8);
+        if (high == 0 && (low >>> 32) == 0xFFFF) {
+            return new ClientKey(0, low, 128);
+        }
+        if (ipv6PrefixLength <= 64) {
+            high &= ipv6PrefixLength == 64 ? -1L : ~(-1L >>> ipv6PrefixLength);
+            low = 0;
+        } else if (ipv6PrefixLength < 128) {
+            low &= ~(-1L >>> (ipv6PrefixLength - 64));
+        }
+        return new ClientKey(high, low, ipv6PrefixLength);
+    }
+
+    private static long toLong(byte[] bytes, int offset, int length) {
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            value = value << 8 | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ClientKey && ((ClientKey) o).high == high && ((ClientKey) o).low == low;
+    }
+
+    @Override
+    public int hashCode() {
+        long h = (high * 0x9E3779B97F4A7C15L) ^ low;
+        h *= 0xC2B2AE3D27D4EB4FL;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        if (high == 0 && (low >>> 32) == 0xFFFF) {
+            return ((low >>> 24) & 0xFF) + "." + ((low >>> 16) & 0xFF) + "." + ((low >>> 8) & 0xFF) + "." + (low & 0xFF);
+        }
+        byte[] bytes = new byte[16];
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (high >>> (56 - 8 * i));
+            bytes[8 + i] = (byte) (low >>> (56 - 8 * i));
+        }
+        try {
+            String text = InetAddress.getByAddress(bytes).getHostAddress();
+            return prefixLength < 128 ? text + "/" + prefixLength : text;
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
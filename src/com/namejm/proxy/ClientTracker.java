@@ -0,0 +1,375 @@
+package com.namejm.proxy;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 출발지 IP 별 최근 연결 기록과 자동 차단(ban) 목록. 모든 프록시가 하나를 공유한다.
+ *
+ * 주소는 InetAddress 대신 ClientKey(long 두 개, IPv4 는 ::ffff:a.b.c.d 형태)로 보관하고, IPv6 는 ipv6PrefixLength 단위로 묶는다.
+ * 기록은 세그먼트별 접근 순서 LinkedHashMap 에 두어 maxClients 를 넘으면 가장 오래 쓰지 않은 주소부터 밀어내고(LRU),
+ * 창(windowSeconds) 두 개 동안 연결이 없는 주소는 주기적으로 지운다(TTL).
+ * 한도는 이전 창과 현재 창의 횟수를 경과 비율로 섞은 sliding window 로 판정하며, 넘으면 banSeconds 동안 차단한다.
+ * 차단 목록은 기록과 따로 ConcurrentHashMap 에 두어 수락 직후 잠금 없이 조회하고, 기록이 LRU 로 밀려나도 유지된다.
+ */
+public class ClientTracker {
+    public static final String REASON_REJECTS = "rejects";
+    public static final String REASON_CONNECTIONS = "connections";
+
+    private static final int SEGMENTS = 16;
+    private static final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ClientTrackerSweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long windowNanos;
+    private final int maxRejects;
+    private final int maxConnections;
+    private final long banNanos;
+    private final int maxClients;
+    private final int ipv6PrefixLength;
+    private final AccessControlList exempt;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final ConcurrentHashMap<ClientKey, Ban> bans = new ConcurrentHashMap<>();
+    private final LongAdder bansIssued = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private ScheduledFuture<?> sweepTask;
+
+    /**
+     * @param maxRejects 창 하나에 허용하는 차단/제한(BLOCKED, LIMITED) 연결 수, 0 이면 보지 않음
+     * @param maxConnections 창 하나에 허용하는 전체 연결 수, 0 이면 보지 않음
+     * @param exempt 기록도 차단도 하지 않을 주소 규칙, 없으면 null
+     */
+    public ClientTracker(int windowSeconds, int maxRejects, int maxConnections, int banSeconds, int maxClients,
+                         int ipv6PrefixLength, AccessControlList exempt) {
+        this.windowNanos = TimeUnit.SECONDS.toNanos(windowSeconds);
+        this.maxRejects = maxRejects;
+        this.maxConnections = maxConnections;
+        this.banNanos = TimeUnit.SECONDS.toNanos(banSeconds);
+        this.maxClients = maxClients;
+        this.ipv6PrefixLength = ipv6PrefixLength;
+        this.exempt = exempt;
+        int perSegment = Math.max(1, maxClients / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment, evictions);
+        }
+    }
+
+    /**
+     * 설정 값의 오류. 올바르면 null.
+     */
+    public static String validate(int windowSeconds, int maxRejects, int maxConnections, int banSeconds, int maxClients,
+                                  int ipv6PrefixLength) {
+        if (windowSeconds <= 0) {
+            return "windowSeconds must be greater than 0";
+        }
+        if (maxRejects < 0 || maxConnections < 0 || (maxRejects == 0 && maxConnections == 0)) {
+            return "maxRejects or maxConnections must be greater than 0";
+        }
+        if (banSeconds <= 0) {
+            return "banSeconds must be greater than 0";
+        }
+        if (maxClients < SEGMENTS) {
+            return "maxClients must be at least " + SEGMENTS;
+        }
+        if (ipv6PrefixLength < 1 || ipv6PrefixLength > 128) {
+            return "ipv6PrefixLength must be between 1 and 128";
+        }
+        return null;
+    }
+
+    public void start() {
+        long period = Math.max(1, Math.min(30, TimeUnit.NANOSECONDS.toSeconds(windowNanos)));
+        sweepTask = sweeper.scheduleWithFixedDelay(this::sweep, period, period, TimeUnit.SECONDS);
+    }
+
+    public void close() {
+        if (sweepTask != null) {
+            sweepTask.cancel(false);
+        }
+    }
+
+    /**
+     * 지금 차단 중인 주소인지. 차단 목록이 비어 있으면 주소를 변환하지도 않는다.
+     */
+    public boolean isBanned(InetAddress address) {
+        if (bans.isEmpty()) {
+            return false;
+        }
+        ClientKey key = ClientKey.of(address, ipv6PrefixLength);
+        Ban ban = bans.get(key);
+        if (ban == null) {
+            return false;
+        }
+        if (System.nanoTime() - ban.untilNanos >= 0) {
+            bans.remove(key, ban);
+            return false;
+        }
+        ban.attempts.increment();
+        return true;
+    }
+
+    /**
+     * 판정을 마친 연결 하나를 기록한다. 이번 연결로 한도를 넘었으면 새로 만든 차단을, 아니면 null 을 돌려준다.
+     *
+     * @param rejected 차단되거나 제한에 걸린 연결이면 true
+     * @param proxyName 기록한 프록시 (차단 사유로 남김)
+     */
+    public Ban record(InetAddress address, boolean rejected, String proxyName) {
+        if (exempt != null && exempt.matchAddress(address) == IpPrefixTrie.ALLOW) {
+            return null;
+        }
+        ClientKey key = ClientKey.of(address, ipv6PrefixLength);
+        long now = System.nanoTime();
+        Segment segment = segments[(key.hashCode() & 0x7FFF_FFFF) % SEGMENTS];
+        String reason;
+        long firstSeenNanos;
+        long connections;
+        long rejects;
+        synchronized (segment) {
+            Client client = segment.get(key);
+            if (client == null) {
+                client = new Client(now);
+                segment.put(key, client);
+            }
+            client.roll(now, windowNanos);
+            client.lastSeenNanos = now;
+            client.connections++;
+            client.currentConnections++;
+            if (rejected) {
+                client.rejects++;
+                client.currentRejects++;
+            }
+            reason = client.exceeds(now, windowNanos, maxRejects, maxConnections);
+            if (reason == null) {
+                return null;
+            }
+            // 차단이 끝난 뒤 지난 횟수로 바로 다시 차단하지 않도록 창을 비운다.
+            client.clearWindow(now);
+            firstSeenNanos = client.firstSeenNanos;
+            connections = client.connections;
+            rejects = client.rejects;
+        }
+        long nowMillis = System.currentTimeMillis();
+        Ban ban = new Ban(key, proxyName, reason, nowMillis - TimeUnit.NANOSECONDS.toMillis(now - firstSeenNanos), nowMillis,
+            now + banNanos, connections, rejects);
+        bans.put(key, ban);
+        bansIssued.increment();
+        if (bans.size() > maxClients) {
+            sweepBans(now);
+        }
+        return ban;
+    }
+
+    /**
+     * 지금 차단 중인 주소 목록. 오래 남은 것부터.
+     */
+    public List<Ban> getBans() {
+        long now = System.nanoTime();
+        List<Ban> list = new ArrayList<>();
+        for (Ban ban : bans.values()) {
+            if (now - ban.untilNanos < 0) {
+                list.add(ban);
+            }
+        }
+        list.sort(Comparator.comparingLong((Ban ban) -> ban.untilNanos).reversed());
+        return list;
+    }
+
+    /**
+     * address 의 차단을 푼다. 차단 중이었으면 true.
+     */
+    public boolean unban(InetAddress address) {
+        return bans.remove(ClientKey.of(address, ipv6PrefixLength)) != null;
+    }
+
+    /**
+     * 모든 차단을 푼다. 풀린 수를 돌려준다.
+     */
+    public int clearBans() {
+        int count = 0;
+        for (Iterator<Ban> it = bans.values().iterator(); it.hasNext(); ) {
+            it.next();
+            it.remove();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 관리 요청의 주소를 해석한다. DNS 조회가 일어나지 않도록 주소 리터럴만 받는다.
+     */
+    public static InetAddress parseAddress(String text) {
+        InetAddress address = text != null ? InetAddresses.parseLiteral(text.trim()) : null;
+        if (address == null) {
+            throw new IllegalArgumentException("Not an IP literal: " + text);
+        }
+        return address;
+    }
+
+    public int getTrackedClients() {
+        int count = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                count += segment.size();
+            }
+        }
+        return count;
+    }
+
+    public int getActiveBans() { return bans.size(); }
+    public long getBansIssued() { return bansIssued.sum(); }
+    public long getEvictions() { return evictions.sum(); }
+    public int getMaxClients() { return maxClients; }
+
+    private void sweep() {
+        long now = System.nanoTime();
+        long idleNanos = 2 * windowNanos;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                Iterator<Client> it = segment.values().iterator();
+                while (it.hasNext()) {
+                    if (now - it.next().lastSeenNanos > idleNanos) {
+                        it.remove();
+                    }
+                }
+            }
+        }
+        sweepBans(now);
+    }
+
+    private void sweepBans(long now) {
+        bans.values().removeIf(ban -> now - ban.untilNanos >= 0);
+    }
+
+    /**
+     * 주소 하나의 기록. 세그먼트 잠금 안에서만 읽고 쓴다.
+     */
+    private static final class Client {
+        final long firstSeenNanos;
+        long lastSeenNanos;
+        long connections;
+        long rejects;
+        long windowStartNanos;
+        int currentConnections;
+        int currentRejects;
+        int previousConnections;
+        int previousRejects;
+
+        Client(long now) {
+            this.firstSeenNanos = now;
+            this.lastSeenNanos = now;
+            this.windowStartNanos = now;
+        }
+
+        void roll(long now, long windowNanos) {
+            long elapsed = now - windowStartNanos;
+            if (elapsed >= 2 * windowNanos) {
+                clearWindow(now);
+            } else if (elapsed >= windowNanos) {
+                previousConnections = currentConnections;
+                previousRejects = currentRejects;
+                currentConnections = 0;
+                currentRejects = 0;
+                windowStartNanos += windowNanos;
+            }
+        }
+
+        void clearWindow(long now) {
+            previousConnections = 0;
+            previousRejects = 0;
+            currentConnections = 0;
+            currentRejects = 0;
+            windowStartNanos = now;
+        }
+
+        /**
+         * 직전 창 길이 동안의 횟수(추정)가 한도를 넘었으면 사유, 아니면 null.
+         */
+        String exceeds(long now, long windowNanos, int maxRejects, int maxConnections) {
+            double previousWeight = (double) (windowNanos - (now - windowStartNanos)) / windowNanos;
+            if (maxRejects > 0 && currentRejects + previousRejects * previousWeight > maxRejects) {
+                return REASON_REJECTS;
+            }
+            if (maxConnections > 0 && currentConnections + previousConnections * previousWeight > maxConnections) {
+                return REASON_CONNECTIONS;
+            }
+            return null;
+        }
+    }
+
+    private static final class Segment extends LinkedHashMap<ClientKey, Client> {
+        private static final long serialVersionUID = 1L;
+        private final int maxSize;
+        private final LongAdder evictions;
+
+        Segment(int maxSize, LongAdder evictions) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ClientKey, Client> eldest) {
+            if (size() > maxSize) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 차단 하나. 만든 뒤에는 attempts 만 바뀐다.
+     */
+    public static final class Ban {
+        private final ClientKey key;
+        private final String proxyName;
+        private final String reason;
+        private final long firstSeenMillis;
+        private final long sinceMillis;
+        private final long untilNanos;
+        private final long connections;
+        private final long rejects;
+        private final LongAdder attempts = new LongAdder();
+
+        private Ban(ClientKey key, String proxyName, String reason, long firstSeenMillis, long sinceMillis, long untilNanos,
+                    long connections, long rejects) {
+            this.key = key;
+            this.proxyName = proxyName;
+            this.reason = reason;
+            this.firstSeenMillis = firstSeenMillis;
+            this.sinceMillis = sinceMillis;
+            this.untilNanos = untilNanos;
+            this.connections = connections;
+            this.rejects = rejects;
+        }
+
+        /** 차단한 주소. IPv6 를 접두사로 묶었으면 "주소/길이". */
+        public String getAddress() { return key.toString(); }
+        public String getProxyName() { return proxyName; }
+        public String getReason() { return reason; }
+        /** 기록이 LRU/TTL 로 지워지지 않고 이어진 첫 연결 시각. */
+        public long getFirstSeenMillis() { return firstSeenMillis; }
+        public long getSinceMillis() { return sinceMillis; }
+        public long getRemainingSeconds() { return Math.max(0, (untilNanos - System.nanoTime() + 999_999_999L) / 1_000_000_000L); }
+        /** 차단할 때까지 기록된 전체 연결 수. */
+        public long getConnections() { return connections; }
+        /** 차단할 때까지 기록된 차단/제한 연결 수. */
+        public long getRejects() { return rejects; }
+        /** 차단 중에 거부한 연결 수. */
+        public long getAttempts() { return attempts.sum(); }
+    }
+}
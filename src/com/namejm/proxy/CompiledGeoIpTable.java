@@ -0,0 +1,199 @@
+package com.namejm.proxy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * GeoIpCompiler 가 만든 국가 범위 표(.jmgeo)를 메모리 매핑해 조회한다.
+ * 표는 주소 공간 전체를 빈틈없이 덮는 범위의 시작 주소를 오름차순으로 담고 있어, 주소 이하인 마지막 시작 주소를
+ * 이진 검색으로 찾으면 그 범위의 국가 인덱스가 답이다. 주소는 InetAddress 에서 한 번 꺼내 int(IPv4)나 long 두 개(IPv6)로
+ * 바꿔 비교하고, 국가 코드 문자열은 미리 만들어 둔 것을 돌려준다. 매핑한 파일은 닿은 페이지만 메모리에 올라온다.
+ *
+ * 파일 형식 (빅엔디언, 구역마다 8 바이트 정렬):
+ *   헤더 32 바이트   MAGIC(8), 국가 수, IPv4 범위 수, IPv6 범위 수, 플래그(각 int), mmdb 생성 시각(long, epoch 초)
+ *   국가 코드        국가 수 x 2 바이트 ASCII, 0 번은 "DB 에 없음"
+ *   IPv4 시작 주소   int[],  부호 없는 주소 ^ 0x80000000 (부호 있는 비교로 정렬되도록)
+ *   IPv4 국가 인덱스 short[]
+ *   IPv6 시작 주소   상위 long[], 하위 long[], 각각 ^ Long.MIN_VALUE
+ *   IPv6 국가 인덱스 short[]
+ */
+public final class CompiledGeoIpTable implements GeoIpSource {
+    static final byte[] MAGIC = {'J', 'M', 'G', 'E', 'O', 'I', 'P', 1};
+    static final int HEADER_SIZE = 32;
+    /**
+     * 원본이 IPv6 DB 다. 없으면 mmdb 처럼 IPv6 주소는 모두 찾지 못한 것으로 보고,
+     * 있으면 IPv4 를 담는 IPv6 주소(::/96, ::ffff:0:0/96, 6to4, Teredo)를 IPv4 표에서 찾는다.
+     */
+    static final int FLAG_IPV6_DATABASE = 1;
+
+    private final String[] countries;
+    private final IntBuffer v4Starts;
+    private final ShortBuffer v4Countries;
+    private final int v4Count;
+    private final LongBuffer v6High;
+    private final LongBuffer v6Low;
+    private final ShortBuffer v6Countries;
+    private final int v6Count;
+    private final boolean ipv6Database;
+    private final long buildEpochSeconds;
+
+    private CompiledGeoIpTable(ByteBuffer buffer) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(0, magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a compiled GeoIP table");
+        }
+        int countryCount = buffer.getInt(8);
+        this.v4Count = buffer.getInt(12);
+        this.v6Count = buffer.getInt(16);
+        this.ipv6Database = (buffer.getInt(20) & FLAG_IPV6_DATABASE) != 0;
+        this.buildEpochSeconds = buffer.getLong(24);
+        if (countryCount <= 0 || v4Count <= 0 || v6Count <= 0) {
+            throw new IOException("Corrupt compiled GeoIP table header");
+        }
+
+        int offset = HEADER_SIZE;
+        this.countries = new String[countryCount];
+        byte[] code = new byte[2];
+        for (int i = 1; i < countryCount; i++) {
+            buffer.get(offset + i * 2, code);
+            countries[i] = new String(code, StandardCharsets.US_ASCII).intern();
+        }
+        offset = align(offset + countryCount * 2);
+        this.v4Starts = buffer.slice(offset, v4Count * 4).asIntBuffer();
+        offset = align(offset + v4Count * 4);
+        this.v4Countries = buffer.slice(offset, v4Count * 2).asShortBuffer();
+        offset = align(offset + v4Count * 2);
+        this.v6High = buffer.slice(offset, v6Count * 8).asLongBuffer();
+        offset += v6Count * 8;
+        this.v6Low = buffer.slice(offset, v6Count * 8).asLongBuffer();
+        offset += v6Count * 8;
+        this.v6Countries = buffer.slice(offset, v6Count * 2).asShortBuffer();
+        if (offset + v6Count * 2 > buffer.limit()) {
+            throw new IOException("Truncated compiled GeoIP table");
+        }
+    }
+
+    /**
+     * 파일을 읽기 전용으로 매핑한다. 매핑은 GC 가 표를 회수할 때 풀린다.
+     */
+    public static CompiledGeoIpTable open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new CompiledGeoIpTable(buffer);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Truncated compiled GeoIP table", e);
+        }
+    }
+
+    /**
+     * 파일 첫 바이트가 이 형식인지 확인한다.
+     */
+    public static boolean isCompiledTable(File file) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            byte[] magic = new byte[MAGIC.length];
+            raf.readFully(magic);
+            return Arrays.equals(magic, MAGIC);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    static int align(int offset) {
+        return (offset + 7) & ~7;
+    }
+
+    @Override
+    public String lookup(InetAddress address) {
+        if (address instanceof Inet4Address) {
+            return lookupIpv4(InetAddresses.toInt((Inet4Address) address));
+        }
+        if (!ipv6Database) {
+            return null;
+        }
+        byte[] bytes = address.getAddress();
+        long high = toLong(bytes, 0);
+        long low = toLong(bytes, 8);
+        // IPv4 를 담는 IPv6 주소는 mmdb 와 같이 IPv4 표에서 찾는다.
+        if (high == 0 && ((low >>> 32) == 0 || (low >>> 32) == 0xFFFF)) {
+            return lookupIpv4((int) low); // ::a.b.c.d, ::ffff:a.b.c.d
+        }
+        if ((high >>> 48) == 0x2002) {
+            return lookupIpv4((int) (high >>> 16)); // 6to4: 2002:AABB:CCDD::
+        }
+        if ((high >>> 32) == 0x20010000L) {
+            return lookupIpv4((int) high); // Teredo: 2001:0:AABB:CCDD::
+        }
+        return lookupIpv6(high, low);
+    }
+
+    /**
+     * 부호 없는 32 비트 주소의 국가 코드. 없으면 null.
+     */
+    public String lookupIpv4(int address) {
+        int key = address ^ Integer.MIN_VALUE;
+        // 분기 없는 이진 검색: 비교 결과로 base 만 옮기고, 반복 횟수는 범위 수로만 정해진다.
+        int base = 0;
+        int n = v4Count;
+        while (n > 1) {
+            int half = n >>> 1;
+            base = v4Starts.get(base + half) <= key ? base + half : base;
+            n -= half;
+        }
+        return countries[v4Countries.get(base) & 0xFFFF];
+    }
+
+    /**
+     * 128 비트 주소(상위, 하위 64 비트)의 국가 코드. 없으면 null.
+     */
+    public String lookupIpv6(long high, long low) {
+        long keyHigh = high ^ Long.MIN_VALUE;
+        long keyLow = low ^ Long.MIN_VALUE;
+        int base = 0;
+        int n = v6Count;
+        while (n > 1) {
+            int half = n >>> 1;
+            long h = v6High.get(base + half);
+            boolean lessOrEqual = h < keyHigh || (h == keyHigh && v6Low.get(base + half) <= keyLow);
+            base = lessOrEqual ? base + half : base;
+            n -= half;
+        }
+        return countries[v6Countries.get(base) & 0xFFFF];
+    }
+
+    private static int toInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16
+            | (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+    }
+
+    private static long toLong(byte[] bytes, int offset) {
+        return (toInt(bytes, offset) & 0xFFFFFFFFL) << 32 | (toInt(bytes, offset + 4) & 0xFFFFFFFFL);
+    }
+
+    public int getIpv4RangeCount() { return v4Count; }
+    public int getIpv6RangeCount() { return v6Count; }
+    public int getCountryCount() { return countries.length - 1; }
+
+    @Override
+    public String describe() {
+        return "compiled table, " + v4Count + " IPv4 / " + v6Count + " IPv6 ranges, " + getCountryCount()
+            + " countries, build date: " + Instant.ofEpochSecond(buildEpochSeconds);
+    }
+
+    @Override
+    public void close() {
+        // 매핑은 명시적으로 풀 수 없다. 조회 중인 스레드가 없어지면 GC 가 회수한다.
+    }
+}
@@ -0,0 +1,156 @@
+package com.namejm.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * out 타입 프록시의 목적지 이름 조회. JDK 의 이름 조회는 블로킹이므로 이벤트 루프 대신 정해진 수의 스레드에서 실행하고,
+ * 대기 큐가 가득 차면 기다리지 않고 실패시킨다. 결과는 TTL 동안 캐시하며, 같은 이름을 동시에 조회하면 한 번만 조회한다.
+ */
+public class DnsResolver {
+    private static final Logger logger = LoggerFactory.getLogger(DnsResolver.class);
+    private static final int QUEUE_SIZE = 1024;
+    private static final int MAX_CACHE_SIZE = 10_000;
+    private static final long NEGATIVE_TTL_SECONDS = 10;
+
+    private final ThreadPoolExecutor executor;
+    private final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<InetAddress>> inFlight = new ConcurrentHashMap<>();
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public DnsResolver(String name, int threads, long ttlSeconds) {
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(QUEUE_SIZE), runnable -> {
+                Thread thread = new Thread(runnable, "ProxyResolver-" + name + "-" + threadIndex.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.negativeTtlNanos = TimeUnit.SECONDS.toNanos(Math.min(ttlSeconds, NEGATIVE_TTL_SECONDS));
+    }
+
+    /**
+     * host 의 주소를 조회한다. IP 리터럴과 캐시된 이름은 바로 완료된 future 를 돌려준다.
+     * future 는 조회 스레드에서 완료될 수 있으므로 호출한 쪽이 자신의 스레드로 다시 넘겨야 한다.
+     */
+    public CompletableFuture<InetAddress> resolve(String host) {
+        // 리터럴은 이름 조회 없이 바로 변환한다. 리터럴처럼 보여도 형식이 틀리면 이름으로 보고 조회 스레드에 넘긴다.
+        InetAddress literal = InetAddresses.parseLiteral(host);
+        if (literal != null) {
+            return CompletableFuture.completedFuture(literal);
+        }
+        String key = host.toLowerCase();
+        Entry entry = cache.get(key);
+        if (entry != null) {
+            if (System.nanoTime() - entry.expiresAtNanos <= 0) {
+                hits.increment();
+                return entry.address != null
+                    ? CompletableFuture.completedFuture(entry.address)
+                    : CompletableFuture.failedFuture(new UnknownHostException(host));
+            }
+            cache.remove(key, entry);
+        }
+        CompletableFuture<InetAddress> future = new CompletableFuture<>();
+        CompletableFuture<InetAddress> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            executor.execute(() -> lookup(host, key, future));
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key, future);
+            rejected.increment();
+            future.completeExceptionally(new UnknownHostException(host + " (resolver queue full)"));
+        }
+        return future;
+    }
+
+    private void lookup(String host, String key, CompletableFuture<InetAddress> future) {
+        lookups.increment();
+        try {
+            InetAddress address = InetAddress.getByName(host);
+            cache(key, new Entry(address, System.nanoTime() + ttlNanos));
+            future.complete(address);
+        } catch (Exception e) {
+            failures.increment();
+            cache(key, new Entry(null, System.nanoTime() + negativeTtlNanos));
+            future.completeExceptionally(e);
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private void cache(String key, Entry entry) {
+        if (ttlNanos <= 0) {
+            return;
+        }
+        cache.put(key, entry);
+        if (cache.size() > MAX_CACHE_SIZE) {
+            // 만료 항목을 먼저 지우고, 그래도 넘치면 임의 항목을 지운다.
+            long now = System.nanoTime();
+            Iterator<Map.Entry<String, Entry>> it = cache.entrySet().iterator();
+            while (it.hasNext()) {
+                if (now - it.next().getValue().expiresAtNanos > 0) {
+                    it.remove();
+                }
+            }
+            it = cache.entrySet().iterator();
+            while (cache.size() > MAX_CACHE_SIZE && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+    }
+
+    public void close() {
+        executor.shutdownNow();
+        logger.debug("Resolver stats: {}", this);
+    }
+
+    public long getHits() { return hits.sum(); }
+    public long getLookups() { return lookups.sum(); }
+    public long getFailures() { return failures.sum(); }
+    public long getRejected() { return rejected.sum(); }
+    public int size() { return cache.size(); }
+
+    @Override
+    public String toString() {
+        return "DnsResolver{" +
+               "size=" + size() +
+               ", hits=" + getHits() +
+               ", lookups=" + getLookups() +
+               ", failures=" + getFailures() +
+               ", rejected=" + getRejected() +
+               '}';
+    }
+
+    private static final class Entry {
+        final InetAddress address; // null 이면 조회 실패
+        final long expiresAtNanos;
+
+        Entry(InetAddress address, long expiresAtNanos) {
+            this.address = address;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+}
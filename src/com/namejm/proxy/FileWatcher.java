@@ -0,0 +1,98 @@
+package com.namejm.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 단일 파일의 변경을 감시하는 데몬 스레드.
+ * 파일을 덮어쓰거나 mv 로 교체하는 도중 여러 이벤트가 연달아 오므로, 마지막 이벤트 이후 debounce 만큼 조용해지면 한 번만 콜백한다.
+ * 콜백은 감시 스레드에서 실행된다.
+ */
+public class FileWatcher implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(FileWatcher.class);
+
+    private final Path file;
+    private final long debounceMillis;
+    private final Runnable onChange;
+    private final WatchService watchService;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    public FileWatcher(Path file, long debounceMillis, Runnable onChange) throws IOException {
+        this.file = file.toAbsolutePath().normalize();
+        this.debounceMillis = debounceMillis;
+        this.onChange = onChange;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.file.getParent().register(watchService,
+            StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY);
+        this.thread = new Thread(this::run, "FileWatcher-" + this.file.getFileName());
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+        logger.info("Watching {} for changes", file);
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                WatchKey key = watchService.take();
+                boolean changed = drain(key);
+
+                // 연속된 이벤트가 멈출 때까지 기다린다.
+                while (changed) {
+                    WatchKey next = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    drain(next);
+                }
+
+                if (changed && running) {
+                    try {
+                        onChange.run();
+                    } catch (Exception e) {
+                        logger.error("Change handler for {} failed", file, e);
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // 종료
+        }
+    }
+
+    private boolean drain(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            Object context = event.context();
+            if (context instanceof Path && file.getFileName().equals(context)) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            logger.warn("Error closing watch service for {}", file, e);
+        }
+    }
+}
@@ -0,0 +1,475 @@
+package com.namejm.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static ch.qos.logback.core.util.CloseUtil.closeQuietly;
+
+/**
+ * out 타입 프록시의 클라이언트 요청 처리. SOCKS5(인증 없음, CONNECT)와 HTTP CONNECT 요청을 읽고,
+ * 목적지 이름을 DnsResolver 로 조회해 접근 제어를 통과하면 논블로킹으로 연결한 뒤 NioRelaySession 에 넘긴다.
+ * 세션과 마찬가지로 한 루프에서만 처리되며, 요청 수신부터 목적지 연결까지 connectTimeoutSeconds 안에 끝나야 한다.
+ */
+public class ForwardProxyHandshake implements NioHandler, RelaySession {
+    private static final Logger logger = LoggerFactory.getLogger(ForwardProxyHandshake.class);
+    private static final int REQUEST_BUFFER_SIZE = 4096; // 중계 버퍼의 최소 등급과 같아 남은 바이트를 그대로 넘길 수 있다
+    private static final byte SOCKS_VERSION = 5;
+    private static final byte SOCKS_NO_AUTH = 0;
+    private static final byte SOCKS_NO_ACCEPTABLE_METHOD = (byte) 0xFF;
+    private static final byte SOCKS_CMD_CONNECT = 1;
+    private static final byte SOCKS_ATYP_IPV4 = 1;
+    private static final byte SOCKS_ATYP_DOMAIN = 3;
+    private static final byte SOCKS_ATYP_IPV6 = 4;
+    // SOCKS5 응답 코드 (RFC 1928)
+    private static final byte SOCKS_SUCCEEDED = 0;
+    private static final byte SOCKS_NOT_ALLOWED = 2;
+    private static final byte SOCKS_HOST_UNREACHABLE = 4;
+    private static final byte SOCKS_CONNECTION_REFUSED = 5;
+    private static final byte SOCKS_TTL_EXPIRED = 6;
+    private static final byte SOCKS_COMMAND_NOT_SUPPORTED = 7;
+    private static final byte SOCKS_ADDRESS_NOT_SUPPORTED = 8;
+
+    private enum State { START, SOCKS_GREETING, SOCKS_REQUEST, HTTP_REQUEST, CONNECTING }
+
+    private final NioEventLoop loop;
+    private final SocketChannel client;
+    private final ProxyDto config;
+    private final ProxyMetrics metrics;
+    private final RateLimiter.Permit permit;
+    private final SessionRegistry registry;
+    private final DnsResolver resolver;
+    private final Predicate<InetAddress> destinationAllowed;
+    private final BufferPool.PooledBuffer lease = BufferPool.SHARED.acquireHeap(REQUEST_BUFFER_SIZE);
+    private final ByteBuffer request = lease.buffer(); // 쓰기(채우기) 모드로 유지
+    private State state = State.START;
+    private boolean socks = false;
+    private String target;
+    private SelectionKey clientKey;
+    private SocketChannel server;
+    private SelectionKey serverKey;
+    private HashedTimingWheel.Timeout timer;
+    private long connectStartNanos;
+    private boolean closed = false;
+
+    /**
+     * @param early 이미 받은 요청 바이트(읽기 모드, PROXY protocol 헤더 뒤에 따라온 것), 없으면 null
+     * @param destinationAllowed 조회한 목적지 주소가 allowedDestinations 를 통과하는지
+     */
+    public ForwardProxyHandshake(NioEventLoop loop, SocketChannel client, ByteBuffer early, ProxyDto config,
+                                 ProxyMetrics metrics, RateLimiter.Permit permit, SessionRegistry registry,
+                                 DnsResolver resolver, Predicate<InetAddress> destinationAllowed) {
+        this.loop = loop;
+        this.client = client;
+        this.config = config;
+        this.metrics = metrics;
+        this.permit = permit;
+        this.registry = registry;
+        this.resolver = resolver;
+        this.destinationAllowed = destinationAllowed;
+        if (early != null) {
+            request.put(early);
+        }
+        registry.add(this);
+    }
+
+    /**
+     * 클라이언트 요청을 읽기 시작한다. 루프 스레드에서 호출해야 한다.
+     */
+    public void start() {
+        try {
+            client.configureBlocking(false);
+            client.socket().setTcpNoDelay(true);
+            client.socket().setKeepAlive(config.isTcpKeepAlive());
+            clientKey = loop.register(client, SelectionKey.OP_READ, this);
+        } catch (IOException e) {
+            close();
+            return;
+        }
+        if (config.getConnectTimeoutSeconds() > 0) {
+            timer = SessionTimeout.WHEEL.schedule(() -> loop.execute(this::timedOut),
+                config.getConnectTimeoutSeconds(), TimeUnit.SECONDS);
+        }
+        if (request.position() > 0) {
+            try {
+                parse();
+            } catch (IOException e) {
+                close();
+            }
+        }
+    }
+
+    @Override
+    public void handle(SelectionKey key) throws IOException {
+        if (closed) {
+            return;
+        }
+        if (key == clientKey && key.isReadable()) {
+            if (client.read(request) < 0) {
+                close();
+                return;
+            }
+            parse();
+        } else if (key == serverKey && key.isConnectable()) {
+            try {
+                server.finishConnect();
+            } catch (IOException e) {
+                connectFailed(e);
+                return;
+            }
+            connected();
+        }
+    }
+
+    @Override
+    public void failed(SelectionKey key, Exception e) {
+        if (!(e instanceof IOException)) {
+            logger.warn("Forward proxy handshake error", e);
+        }
+        close();
+    }
+
+    @Override
+    public void terminate() {
+        loop.execute(this::close);
+    }
+
+    private void parse() throws IOException {
+        while (!closed) {
+            int available = request.position();
+            switch (state) {
+                case START:
+                    if (available < 1) {
+                        return;
+                    }
+                    socks = request.get(0) == SOCKS_VERSION;
+                    if (socks ? !config.acceptsSocks() : !config.acceptsHttp()) {
+                        reject("unsupported protocol", null);
+                        return;
+                    }
+                    state = socks ? State.SOCKS_GREETING : State.HTTP_REQUEST;
+                    break;
+                case SOCKS_GREETING:
+                    if (!parseSocksGreeting(available)) {
+                        return;
+                    }
+                    break;
+                case SOCKS_REQUEST:
+                    parseSocksRequest(available);
+                    return;
+                case HTTP_REQUEST:
+                    parseHttpRequest(available);
+                    return;
+                default:
+                    return;
+            }
+        }
+    }
+
+    /**
+     * VER NMETHODS METHODS... 를 읽고 인증 없음(0)을 고른다. 다음 단계로 넘어가면 true.
+     */
+    private boolean parseSocksGreeting(int available) throws IOException {
+        if (available < 2) {
+            return false;
+        }
+        int methods = request.get(1) & 0xFF;
+        if (available < 2 + methods) {
+            return false;
+        }
+        boolean noAuth = false;
+        for (int i = 0; i < methods; i++) {
+            noAuth |= request.get(2 + i) == SOCKS_NO_AUTH;
+        }
+        consume(2 + methods);
+        if (!noAuth) {
+            reject("no acceptable SOCKS auth method", new byte[]{SOCKS_VERSION, SOCKS_NO_ACCEPTABLE_METHOD});
+            return false;
+        }
+        if (!send(new byte[]{SOCKS_VERSION, SOCKS_NO_AUTH})) {
+            close();
+            return false;
+        }
+        state = State.SOCKS_REQUEST;
+        return true;
+    }
+
+    /**
+     * VER CMD RSV ATYP DST.ADDR DST.PORT 를 읽는다.
+     */
+    private void parseSocksRequest(int available) throws IOException {
+        if (available < 5) {
+            return;
+        }
+        byte command = request.get(1);
+        byte addressType = request.get(3);
+        int addressLength;
+        if (addressType == SOCKS_ATYP_IPV4) {
+            addressLength = 4;
+        } else if (addressType == SOCKS_ATYP_IPV6) {
+            addressLength = 16;
+        } else if (addressType == SOCKS_ATYP_DOMAIN) {
+            addressLength = 1 + (request.get(4) & 0xFF);
+        } else {
+            reject("unsupported SOCKS address type " + addressType, socksReply(SOCKS_ADDRESS_NOT_SUPPORTED));
+            return;
+        }
+        int length = 4 + addressLength + 2;
+        if (available < length) {
+            return;
+        }
+        if (request.get(0) != SOCKS_VERSION) {
+            reject("bad SOCKS version", null);
+            return;
+        }
+        if (command != SOCKS_CMD_CONNECT) {
+            reject("unsupported SOCKS command " + command, socksReply(SOCKS_COMMAND_NOT_SUPPORTED));
+            return;
+        }
+        String host;
+        if (addressType == SOCKS_ATYP_DOMAIN) {
+            host = new String(request.array(), request.arrayOffset() + 5, addressLength - 1, StandardCharsets.US_ASCII);
+        } else {
+            byte[] address = new byte[addressLength];
+            for (int i = 0; i < addressLength; i++) {
+                address[i] = request.get(4 + i);
+            }
+            host = InetAddress.getByAddress(address).getHostAddress();
+        }
+        int port = ((request.get(length - 2) & 0xFF) << 8) | (request.get(length - 1) & 0xFF);
+        consume(length);
+        resolve(host, port);
+    }
+
+    /**
+     * CONNECT host:port HTTP/1.1 요청 헤더 전체(빈 줄까지)를 읽는다. 헤더는 목적지 외에는 사용하지 않는다.
+     */
+    private void parseHttpRequest(int available) throws IOException {
+        int end = -1;
+        for (int i = 3; i < available; i++) {
+            if (request.get(i) == '\n' && request.get(i - 1) == '\r' && request.get(i - 2) == '\n' && request.get(i - 3) == '\r') {
+                end = i + 1;
+                break;
+            }
+        }
+        if (end < 0) {
+            if (!request.hasRemaining()) {
+                reject("request header too large", httpReply("431 Request Header Fields Too Large"));
+            }
+            return;
+        }
+        String head = new String(request.array(), request.arrayOffset(), end, StandardCharsets.ISO_8859_1);
+        String[] requestLine = head.substring(0, head.indexOf("\r\n")).split(" ");
+        if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/")) {
+            reject("bad HTTP request line", httpReply("400 Bad Request"));
+            return;
+        }
+        if (!"CONNECT".equals(requestLine[0])) {
+            reject("unsupported HTTP method " + requestLine[0], httpReply("405 Method Not Allowed\r\nAllow: CONNECT"));
+            return;
+        }
+        String authority = requestLine[1];
+        int colon = authority.lastIndexOf(':');
+        int port;
+        try {
+            port = Integer.parseInt(authority.substring(colon + 1));
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            port = -1;
+        }
+        String host = colon > 0 ? authority.substring(0, colon) : "";
+        if (host.startsWith("[") && host.endsWith("]")) {
+            host = host.substring(1, host.length() - 1);
+        }
+        if (host.isEmpty()) {
+            reject("bad CONNECT target " + authority, httpReply("400 Bad Request"));
+            return;
+        }
+        consume(end);
+        resolve(host, port);
+    }
+
+    private void resolve(String host, int port) {
+        state = State.CONNECTING;
+        target = host + ":" + port;
+        if (port <= 0 || port > 65535) {
+            reject("bad port in " + target, socks ? socksReply(SOCKS_ADDRESS_NOT_SUPPORTED) : httpReply("400 Bad Request"));
+            return;
+        }
+        // 목적지에 연결될 때까지 클라이언트가 더 보내는 데이터는 커널 버퍼에 둔다.
+        clientKey.interestOps(0);
+        resolver.resolve(host).whenComplete((address, error) -> loop.execute(() -> resolved(address, port, error)));
+    }
+
+    private void resolved(InetAddress address, int port, Throwable error) {
+        if (closed) {
+            return;
+        }
+        if (error != null) {
+            metrics.recordTunnel(ProxyMetrics.TUNNEL_RESOLVE_FAILED);
+            fail("cannot resolve " + target + ": " + error.getMessage(),
+                socks ? socksReply(SOCKS_HOST_UNREACHABLE) : httpReply("502 Bad Gateway"));
+            return;
+        }
+        if (!destinationAllowed.test(address)) {
+            metrics.recordTunnel(ProxyMetrics.TUNNEL_BLOCKED);
+            logger.info("{} - Tunnel BLOCKED - {} -> {} ({})", config.getName(), remoteAddress(), target, address.getHostAddress());
+            fail(null, socks ? socksReply(SOCKS_NOT_ALLOWED) : httpReply("403 Forbidden"));
+            return;
+        }
+        try {
+            server = SocketChannel.open();
+            server.configureBlocking(false);
+            server.socket().setTcpNoDelay(true);
+            server.socket().setKeepAlive(config.isTcpKeepAlive());
+            connectStartNanos = System.nanoTime();
+            if (server.connect(new InetSocketAddress(address, port))) {
+                connected();
+            } else {
+                serverKey = loop.register(server, SelectionKey.OP_CONNECT, this);
+            }
+        } catch (IOException e) {
+            connectFailed(e);
+        }
+    }
+
+    private void connectFailed(IOException e) {
+        metrics.backendConnectFailed();
+        metrics.recordTunnel(ProxyMetrics.TUNNEL_CONNECT_FAILED);
+        fail("connection to " + target + " failed: " + e.getMessage(),
+            socks ? socksReply(SOCKS_CONNECTION_REFUSED) : httpReply("502 Bad Gateway"));
+    }
+
+    private void timedOut() {
+        if (closed) {
+            return;
+        }
+        metrics.recordTimeout(SessionTimeout.CONNECT);
+        if (state != State.CONNECTING) {
+            // 요청을 끝까지 보내지 않은 클라이언트
+            close();
+            return;
+        }
+        metrics.recordTunnel(ProxyMetrics.TUNNEL_CONNECT_FAILED);
+        fail("connection to " + target + " timed out after " + config.getConnectTimeoutSeconds() + "s",
+            socks ? socksReply(SOCKS_TTL_EXPIRED) : httpReply("504 Gateway Timeout"));
+    }
+
+    /**
+     * 목적지에 연결되었으면 성공 응답을 보내고 두 채널을 NioRelaySession 에 넘긴다.
+     */
+    private void connected() throws IOException {
+        metrics.recordBackendConnect(System.nanoTime() - connectStartNanos);
+        byte[] reply;
+        if (socks) {
+            reply = socksReply(SOCKS_SUCCEEDED, (InetSocketAddress) server.getLocalAddress());
+        } else {
+            reply = "HTTP/1.1 200 Connection established\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+        }
+        if (!send(reply)) {
+            close();
+            return;
+        }
+        metrics.recordTunnel(ProxyMetrics.TUNNEL_CONNECTED);
+        logger.debug("{} - Tunnel {} -> {}", config.getName(), remoteAddress(), target);
+
+        // 요청 뒤에 클라이언트가 이미 보낸 바이트(예: TLS ClientHello)는 목적지로 먼저 보낸다.
+        ByteBuffer pending = null;
+        if (request.position() > 0) {
+            request.flip();
+            pending = ByteBuffer.allocate(request.remaining()).put(request).flip();
+            metrics.addClientToServer(pending.remaining());
+        }
+        closed = true;
+        if (timer != null) {
+            timer.cancel();
+        }
+        lease.release();
+        registry.remove(this);
+        // 세션이 두 채널의 등록을 이어받는다(같은 Selector 에 다시 등록하면 기존 키의 attachment 만 바뀐다).
+        NioRelaySession session = new NioRelaySession(loop, client, server, pending, metrics, permit, config, registry);
+        session.start();
+    }
+
+    /**
+     * 응답을 보낸다. 새 연결의 소켓 버퍼는 비어 있으므로 짧은 응답은 한 번에 나가며, 다 못 보내면 false.
+     */
+    private boolean send(byte[] data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        client.write(buffer);
+        return !buffer.hasRemaining();
+    }
+
+    private void reject(String reason, byte[] reply) {
+        metrics.recordTunnel(ProxyMetrics.TUNNEL_REJECTED);
+        fail(reason, reply);
+    }
+
+    private void fail(String reason, byte[] reply) {
+        if (reason != null) {
+            logger.info("{} - Tunnel from {} failed: {}", config.getName(), remoteAddress(), reason);
+        }
+        if (reply != null) {
+            try {
+                send(reply);
+            } catch (IOException e) {
+                // 응답은 최선만 다한다.
+            }
+        }
+        close();
+    }
+
+    private void consume(int length) {
+        request.flip();
+        request.position(length);
+        request.compact();
+    }
+
+    private Object remoteAddress() {
+        return client.socket().getRemoteSocketAddress();
+    }
+
+    private static byte[] socksReply(byte status) {
+        return new byte[]{SOCKS_VERSION, status, 0, SOCKS_ATYP_IPV4, 0, 0, 0, 0, 0, 0};
+    }
+
+    private static byte[] socksReply(byte status, InetSocketAddress bound) {
+        byte[] address = bound.getAddress().getAddress();
+        ByteBuffer reply = ByteBuffer.allocate(6 + address.length);
+        reply.put(SOCKS_VERSION).put(status).put((byte) 0)
+             .put(bound.getAddress() instanceof Inet4Address ? SOCKS_ATYP_IPV4 : SOCKS_ATYP_IPV6)
+             .put(address)
+             .putShort((short) bound.getPort());
+        return reply.array();
+    }
+
+    private static byte[] httpReply(String status) {
+        return ("HTTP/1.1 " + status + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (timer != null) {
+            timer.cancel();
+        }
+        if (clientKey != null) clientKey.cancel();
+        if (serverKey != null) serverKey.cancel();
+        closeQuietly(client);
+        closeQuietly(server);
+        permit.release();
+        lease.release();
+        registry.remove(this);
+    }
+}
@@ -0,0 +1,142 @@
+package com.namejm.proxy;
+
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * IP -> 국가 코드 캐시. 모든 ProxyMain 이 공유하는 InetAddressLocator 안에 하나만 존재한다.
+ * 항목은 TTL 이 지나면 만료되고, 크기가 한도를 넘으면 만료 항목부터 정리한 뒤 임의 항목을 제거한다.
+ * 항목에는 세대(generation)를 붙인다. invalidateAll() 은 세대를 올리므로, 그 전에 시작한 조회가 늦게 넣은 결과는
+ * 읽을 때 버려진다.
+ */
+public class GeoIpCache {
+    private final ConcurrentHashMap<InetAddress, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final AtomicInteger generation = new AtomicInteger();
+    private final int maxSize;
+    private final long ttlNanos;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public GeoIpCache(int maxSize, long ttlSeconds) {
+        this.maxSize = maxSize;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+    }
+
+    /**
+     * 캐시된 국가 코드를 돌려준다. 없거나 만료되었으면 null.
+     */
+    public String get(InetAddress address) {
+        if (maxSize <= 0) {
+            misses.increment();
+            return null;
+        }
+        Entry entry = entries.get(address);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (entry.generation != generation.get() || System.nanoTime() - entry.expiresAtNanos > 0) {
+            if (entries.remove(address, entry)) {
+                evictions.increment();
+            }
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.country;
+    }
+
+    /**
+     * 조회를 시작하기 전에 읽어 두는 세대. put() 에 그대로 넘긴다.
+     */
+    public int generation() {
+        return generation.get();
+    }
+
+    /**
+     * @param generation 조회를 시작하기 전에 generation() 으로 읽은 값. 그 사이 invalidateAll() 이 있었으면 넣지 않는다.
+     */
+    public void put(InetAddress address, String country, int generation) {
+        if (maxSize <= 0 || generation != this.generation.get()) {
+            return;
+        }
+        entries.put(address, new Entry(country, generation, System.nanoTime() + ttlNanos));
+        if (entries.size() > maxSize) {
+            evict();
+        }
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        entries.clear();
+    }
+
+    /**
+     * 한 스레드만 정리를 수행한다. 만료 항목을 먼저 제거하고, 그래도 넘치면 한도의 90% 까지 줄인다.
+     */
+    private void evict() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long now = System.nanoTime();
+            int target = maxSize - maxSize / 10;
+            Iterator<Map.Entry<InetAddress, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                if (now - it.next().getValue().expiresAtNanos > 0) {
+                    it.remove();
+                    evictions.increment();
+                }
+            }
+            it = entries.entrySet().iterator();
+            while (entries.size() > target && it.hasNext()) {
+                it.next();
+                it.remove();
+                evictions.increment();
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    public long getHits() { return hits.sum(); }
+    public long getMisses() { return misses.sum(); }
+    public long getEvictions() { return evictions.sum(); }
+    public int size() { return entries.size(); }
+    public int getMaxSize() { return maxSize; }
+
+    @Override
+    public String toString() {
+        long h = getHits();
+        long m = getMisses();
+        return "GeoIpCache{" +
+               "size=" + size() +
+               ", maxSize=" + maxSize +
+               ", hits=" + h +
+               ", misses=" + m +
+               ", evictions=" + getEvictions() +
+               ", hitRatio=" + (h + m == 0 ? "n/a" : String.format("%.3f", (double) h / (h + m))) +
+               '}';
+    }
+
+    private static final class Entry {
+        final String country;
+        final int generation;
+        final long expiresAtNanos;
+
+        Entry(String country, int generation, long expiresAtNanos) {
+            this.country = country;
+            this.generation = generation;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+}
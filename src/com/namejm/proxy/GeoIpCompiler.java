@@ -0,0 +1,243 @@
+package com.namejm.proxy;
+
+import com.maxmind.db.DatabaseRecord;
+import com.maxmind.db.InvalidNetworkException;
+import com.maxmind.db.Network;
+import com.maxmind.db.Networks;
+import com.maxmind.db.Reader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MaxMind 국가 DB(mmdb)를 CompiledGeoIpTable 형식(.jmgeo)으로 변환하는 명령행 도구.
+ * 같은 국가의 인접 대역은 하나로 합치고, DB 에 없는 구간은 "없음"(0 번) 범위로 채워 주소 공간 전체를 덮는다.
+ *
+ * 사용법: java -cp "jmproxyserver.jar:lib/*" com.namejm.proxy.GeoIpCompiler GeoLite2-Country.mmdb GeoLite2-Country.jmgeo
+ */
+public final class GeoIpCompiler {
+
+    private GeoIpCompiler() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: GeoIpCompiler <input.mmdb> <output.jmgeo>");
+            System.exit(2);
+        }
+        long startNanos = System.nanoTime();
+        Result result = compile(new File(args[0]), Path.of(args[1]));
+        System.out.printf("Compiled %d networks into %d IPv4 / %d IPv6 ranges, %d countries, %d bytes in %d ms%n",
+            result.networks, result.ipv4Ranges, result.ipv6Ranges, result.countries, result.bytes,
+            (System.nanoTime() - startNanos) / 1_000_000);
+    }
+
+    /**
+     * input 을 읽어 output 에 쓴다. 다 쓴 임시 파일을 옮겨 넣으므로 감시 중인 InetAddressLocator 가 반쯤 쓴 파일을 읽지 않는다.
+     */
+    @SuppressWarnings("rawtypes")
+    public static Result compile(File input, Path output) throws IOException {
+        Map<String, Integer> countryIndex = new LinkedHashMap<>();
+        countryIndex.put("", 0);
+        List<long[]> v4 = new ArrayList<>(); // {시작, 끝, 국가}
+        List<long[]> v6 = new ArrayList<>(); // {시작 상위, 시작 하위, 끝 상위, 끝 하위, 국가}
+        int networkCount = 0;
+        boolean ipv6Database;
+        long buildEpoch;
+
+        try (Reader reader = new Reader(input, Reader.FileMode.MEMORY_MAPPED)) {
+            ipv6Database = reader.getMetadata().getIpVersion() == 6;
+            buildEpoch = reader.getMetadata().getBuildDate().getTime() / 1000;
+            // 별칭 대역(::ffff:0:0/96, 2002::/16 등)은 빼고 원래 대역만 읽는다.
+            Networks<Map> networks;
+            try {
+                networks = reader.networks(false, Map.class);
+            } catch (InvalidNetworkException e) {
+                throw new IOException(e);
+            }
+            while (networks.hasNext()) {
+                DatabaseRecord<Map> record = networks.next();
+                String country = isoCode(record.getData());
+                if (country == null) {
+                    continue;
+                }
+                networkCount++;
+                int index = countryIndex.computeIfAbsent(country, key -> countryIndex.size());
+                Network network = record.getNetwork();
+                byte[] address = network.getNetworkAddress().getAddress();
+                int prefix = network.getPrefixLength();
+                if (address.length == 16 && isIpv4Subtree(address)) {
+                    // IPv6 DB 의 ::/96 는 IPv4 대역이다.
+                    address = new byte[] {address[12], address[13], address[14], address[15]};
+                    prefix -= 96;
+                }
+                if (address.length == 4) {
+                    long start = ByteBuffer.wrap(address).getInt() & 0xFFFFFFFFL;
+                    long end = start | ((1L << (32 - prefix)) - 1);
+                    v4.add(new long[] {start, end, index});
+                } else {
+                    ByteBuffer buffer = ByteBuffer.wrap(address);
+                    long high = buffer.getLong();
+                    long low = buffer.getLong();
+                    long endHigh = prefix >= 64 ? high : high | (-1L >>> prefix);
+                    long endLow = prefix >= 64 ? low | (prefix == 128 ? 0 : -1L >>> (prefix - 64)) : -1L;
+                    v6.add(new long[] {high, low, endHigh, endLow, index});
+                }
+            }
+        }
+        if (countryIndex.size() > 0xFFFF) {
+            throw new IOException("Too many countries: " + countryIndex.size());
+        }
+
+        List<long[]> v4Ranges = fillIpv4(v4);
+        List<long[]> v6Ranges = fillIpv6(v6);
+
+        int size = CompiledGeoIpTable.HEADER_SIZE;
+        size = CompiledGeoIpTable.align(size + countryIndex.size() * 2);
+        size = CompiledGeoIpTable.align(size + v4Ranges.size() * 4);
+        size = CompiledGeoIpTable.align(size + v4Ranges.size() * 2);
+        size += v6Ranges.size() * 18;
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.put(CompiledGeoIpTable.MAGIC);
+        out.putInt(countryIndex.size());
+        out.putInt(v4Ranges.size());
+        out.putInt(v6Ranges.size());
+        out.putInt(ipv6Database ? CompiledGeoIpTable.FLAG_IPV6_DATABASE : 0);
+        out.putLong(buildEpoch);
+        for (String country : countryIndex.keySet()) {
+            byte[] code = country.getBytes(StandardCharsets.US_ASCII);
+            out.put(code.length == 2 ? code : new byte[2]);
+        }
+        out.position(CompiledGeoIpTable.align(out.position()));
+        for (long[] range : v4Ranges) {
+            out.putInt((int) range[0] ^ Integer.MIN_VALUE);
+        }
+        out.position(CompiledGeoIpTable.align(out.position()));
+        for (long[] range : v4Ranges) {
+            out.putShort((short) range[1]);
+        }
+        out.position(CompiledGeoIpTable.align(out.position()));
+        for (long[] range : v6Ranges) {
+            out.putLong(range[0] ^ Long.MIN_VALUE);
+        }
+        for (long[] range : v6Ranges) {
+            out.putLong(range[1] ^ Long.MIN_VALUE);
+        }
+        for (long[] range : v6Ranges) {
+            out.putShort((short) range[2]);
+        }
+
+        Path temp = Files.createTempFile(output.toAbsolutePath().getParent(), output.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, out.array());
+            Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return new Result(networkCount, v4Ranges.size(), v6Ranges.size(), countryIndex.size() - 1, size);
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static String isoCode(Map data) {
+        // InetAddressLocator 의 mmdb 조회와 같이 country.iso_code 만 사용한다.
+        Object country = data != null ? data.get("country") : null;
+        Object code = country instanceof Map ? ((Map) country).get("iso_code") : null;
+        return code instanceof String && ((String) code).length() == 2 ? (String) code : null;
+    }
+
+    private static boolean isIpv4Subtree(byte[] address) {
+        for (int i = 0; i < 12; i++) {
+            if (address[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 대역을 {시작, 국가} 목록으로 바꾼다. 0 부터 시작하고, 빈 구간은 0 번 국가로 채우며, 같은 국가가 이어지면 합친다.
+     */
+    private static List<long[]> fillIpv4(List<long[]> networks) {
+        networks.sort(Comparator.comparingLong(network -> network[0]));
+        List<long[]> ranges = new ArrayList<>();
+        long next = 0;
+        for (long[] network : networks) {
+            if (network[0] < next) {
+                continue; // 겹치는 대역(트리에서는 나오지 않음)
+            }
+            if (network[0] > next) {
+                addRange(ranges, new long[] {next, 0});
+            }
+            addRange(ranges, new long[] {network[0], network[2]});
+            next = network[1] + 1;
+        }
+        if (ranges.isEmpty() || next <= 0xFFFFFFFFL) {
+            addRange(ranges, new long[] {next, 0});
+        }
+        return ranges;
+    }
+
+    /**
+     * fillIpv4 의 128 비트 버전. 결과는 {시작 상위, 시작 하위, 국가}.
+     */
+    private static List<long[]> fillIpv6(List<long[]> networks) {
+        networks.sort((a, b) -> a[0] != b[0] ? Long.compareUnsigned(a[0], b[0]) : Long.compareUnsigned(a[1], b[1]));
+        List<long[]> ranges = new ArrayList<>();
+        long nextHigh = 0;
+        long nextLow = 0;
+        boolean exhausted = false; // 마지막 대역이 주소 공간 끝까지 닿았는지
+        for (long[] network : networks) {
+            int order = network[0] != nextHigh ? Long.compareUnsigned(network[0], nextHigh) : Long.compareUnsigned(network[1], nextLow);
+            if (exhausted || order < 0) {
+                continue;
+            }
+            if (order > 0) {
+                addRange(ranges, new long[] {nextHigh, nextLow, 0});
+            }
+            addRange(ranges, new long[] {network[0], network[1], network[4]});
+            nextLow = network[3] + 1;
+            nextHigh = nextLow == 0 ? network[2] + 1 : network[2];
+            exhausted = nextLow == 0 && nextHigh == 0;
+        }
+        if (ranges.isEmpty() || !exhausted) {
+            addRange(ranges, new long[] {nextHigh, nextLow, 0});
+        }
+        return ranges;
+    }
+
+    private static void addRange(List<long[]> ranges, long[] range) {
+        int country = range.length - 1;
+        if (!ranges.isEmpty() && ranges.get(ranges.size() - 1)[country] == range[country]) {
+            return; // 앞 범위와 국가가 같으면 시작 주소를 더하지 않아도 된다.
+        }
+        ranges.add(range);
+    }
+
+    /**
+     * 변환 결과 요약.
+     */
+    public static final class Result {
+        public final int networks;
+        public final int ipv4Ranges;
+        public final int ipv6Ranges;
+        public final int countries;
+        public final int bytes;
+
+        Result(int networks, int ipv4Ranges, int ipv6Ranges, int countries, int bytes) {
+            this.networks = networks;
+            this.ipv4Ranges = ipv4Ranges;
+            this.ipv6Ranges = ipv6Ranges;
+            this.countries = countries;
+            this.bytes = bytes;
+        }
+    }
+}
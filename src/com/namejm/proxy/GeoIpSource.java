@@ -0,0 +1,22 @@
+package com.namejm.proxy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+
+/**
+ * 국가 코드를 찾는 GeoIP 데이터베이스 하나. 캐시와 파일 교체는 InetAddressLocator 가 맡고, 구현은 조회만 한다.
+ * 구현: MaxMindGeoIpSource(mmdb), CompiledGeoIpTable(GeoIpCompiler 로 만든 범위 표).
+ */
+public interface GeoIpSource extends Closeable {
+
+    /**
+     * ISO 3166-1 alpha-2 국가 코드. DB 에 없는 주소면 null. 여러 스레드에서 동시에 호출된다.
+     */
+    String lookup(InetAddress address) throws IOException;
+
+    /**
+     * 로그에 남길 DB 설명(형식, 생성 시각 등).
+     */
+    String describe();
+}
@@ -2,45 +2,186 @@ package com.namejm.proxy;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import com.maxmind.geoip2.DatabaseReader;
-import com.maxmind.geoip2.model.CountryResponse;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class InetAddressLocator {
     final private static Logger logger = LoggerFactory.getLogger(InetAddressLocator.class);
-    private static DatabaseReader reader;
+    public static final String UNKNOWN = "UNKNOWN";
+    private static final int DEFAULT_CACHE_SIZE = 100_000;
+    private static final long DEFAULT_CACHE_TTL_SECONDS = 3600;
+    private static final long RELOAD_DEBOUNCE_MILLIS = 2000;
+
+    private final File database;
+    private final AtomicReference<ReaderHandle> current = new AtomicReference<>();
+    private final GeoIpCache cache;
+    private FileWatcher watcher;
 
     public InetAddressLocator(String databasePath) throws IOException {
-        File database = new File(databasePath);
+        this(databasePath, DEFAULT_CACHE_SIZE, DEFAULT_CACHE_TTL_SECONDS);
+    }
+
+    public InetAddressLocator(String databasePath, int cacheSize, long cacheTtlSeconds) throws IOException {
+        this.database = new File(databasePath);
         if (!database.exists()) {
             throw new FileNotFoundException("GeoIP database file not found: " + databasePath);
         }
-        // DatabaseReader 생성 실패 시 IOException 발생
-        this.reader = new DatabaseReader.Builder(database).build();
-        logger.info("GeoIP database loaded successfully from: {}", databasePath);
+        // DB 를 열지 못하면 IOException 발생
+        ReaderHandle handle = open(database);
+        this.current.set(handle);
+        this.cache = new GeoIpCache(cacheSize, cacheTtlSeconds);
+        logger.info("GeoIP database loaded successfully from: {} ({}, cacheSize={}, cacheTtl={}s)",
+            databasePath, handle.source.describe(), cacheSize, cacheTtlSeconds);
     }
 
-    public Locale getLocale(String ipAddress) {
+    /**
+     * 파일 앞부분으로 형식을 가린다. GeoIpCompiler 로 만든 범위 표면 CompiledGeoIpTable, 아니면 mmdb 로 연다.
+     */
+    private static ReaderHandle open(File database) throws IOException {
+        GeoIpSource source = CompiledGeoIpTable.isCompiledTable(database)
+            ? CompiledGeoIpTable.open(database)
+            : new MaxMindGeoIpSource(database);
+        return new ReaderHandle(source);
+    }
+
+    /**
+     * DB 파일 변경을 감시해서 자동으로 다시 읽는다.
+     */
+    public synchronized void startWatching() throws IOException {
+        if (watcher != null) {
+            return;
+        }
+        watcher = new FileWatcher(database.toPath(), RELOAD_DEBOUNCE_MILLIS, this::reload);
+        watcher.start();
+    }
+
+    /**
+     * 새 DB 를 연 뒤 원자적으로 교체한다. 조회 중인 스레드는 기존 리더를 계속 사용하고,
+     * 마지막 사용자가 반납하는 순간 기존 리더가 닫힌다. 새 DB 를 열지 못하면 기존 DB 를 유지한다.
+     */
+    public void reload() {
+        ReaderHandle next;
         try {
-            InetAddress inetAddress = InetAddress.getByName(ipAddress);
-            CountryResponse response = reader.country(inetAddress);
-            String countryCode = response.getCountry().getIsoCode();
+            next = open(database);
+        } catch (IOException e) {
+            logger.error("Failed to reload GeoIP database from {}, keeping the current one", database, e);
+            return;
+        }
 
-            if (countryCode == null || countryCode.isEmpty()) {
-                return new Locale("", "UNKNOWN");
-            }
+        ReaderHandle previous = current.getAndSet(next);
+        // 교체 뒤에 세대를 올리므로, 기존 리더로 조회한 결과는 모두 이전 세대로 남아 캐시에 들어가지 않는다.
+        cache.invalidateAll();
+        if (previous != null) {
+            previous.release();
+        }
+        logger.info("GeoIP database reloaded from {} ({})", database, next.source.describe());
+    }
 
-            // 국가 코드로 Locale 생성
-            return new Locale("", countryCode);
+    public Locale getLocale(String ipAddress) {
+        try {
+            return new Locale("", getCountryCode(InetAddress.getByName(ipAddress)));
         } catch (Exception e) {
             // 예외 발생 시 UNKNOWN 로케일 반환
-            return new Locale("", "UNKNOWN");
+            return new Locale("", UNKNOWN);
+        }
+    }
+
+    /**
+     * 국가 코드(ISO 3166-1 alpha-2)를 돌려준다. 알 수 없으면 UNKNOWN.
+     * 결과는 캐시되므로 같은 IP 의 반복 접속은 DB 를 다시 조회하지 않는다.
+     */
+    public String getCountryCode(InetAddress address) {
+        String country = cache.get(address);
+        if (country != null) {
+            return country;
+        }
+
+        int generation = cache.generation(); // 리더를 잡기 전에 읽는다
+        country = lookup(address);
+        cache.put(address, country, generation);
+        return country;
+    }
+
+    private String lookup(InetAddress address) {
+        ReaderHandle handle = acquire();
+        if (handle == null) {
+            return UNKNOWN;
+        }
+        try {
+            String countryCode = handle.source.lookup(address);
+            return countryCode != null ? countryCode : UNKNOWN;
+        } catch (Exception e) {
+            // 예외 발생 시 UNKNOWN 반환
+            return UNKNOWN;
+        } finally {
+            handle.release();
+        }
+    }
+
+    private ReaderHandle acquire() {
+        while (true) {
+            ReaderHandle handle = current.get();
+            if (handle == null) {
+                return null; // close() 이후
+            }
+            if (handle.retain()) {
+                return handle;
+            }
+            // 교체 직후 이미 반납된 핸들을 읽은 경우, 새 핸들로 다시 시도
+        }
+    }
+
+    public GeoIpCache getCache() {
+        return cache;
+    }
+
+    public synchronized void close() {
+        if (watcher != null) {
+            watcher.close();
+            watcher = null;
+        }
+        ReaderHandle handle = current.getAndSet(null);
+        if (handle != null) {
+            handle.release();
         }
     }
 
+    /**
+     * 참조 카운트가 붙은 GeoIpSource. 생성 시 1 (locator 소유분) 로 시작하고 0 이 되면 닫힌다.
+     */
+    private static final class ReaderHandle {
+        private final GeoIpSource source;
+        private final AtomicInteger refs = new AtomicInteger(1);
+
+        ReaderHandle(GeoIpSource source) {
+            this.source = source;
+        }
+
+        boolean retain() {
+            int count;
+            do {
+                count = refs.get();
+                if (count <= 0) {
+                    return false;
+                }
+            } while (!refs.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        void release() {
+            if (refs.decrementAndGet() == 0) {
+                try {
+                    source.close();
+                } catch (IOException e) {
+                    logger.warn("Error closing retired GeoIP database", e);
+                }
+            }
+        }
+    }
 }
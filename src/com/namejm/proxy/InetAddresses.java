@@ -0,0 +1,151 @@
+package com.namejm.proxy;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+
+/**
+ * 주소 판정 경로에서 쓰는 InetAddress 도우미.
+ * IPv4 주소는 int 하나로 바꿔 트라이와 GeoIP 표를 찾고,
+ * 이벤트 루프에서 부를 수 있도록 IP 리터럴은 이름 조회 없이 해석한다.
+ */
+final class InetAddresses {
+    private InetAddresses() {
+    }
+
+    /**
+     * IPv4 주소의 32 비트 값(네트워크 바이트 순서, 첫 옥텟이 최상위).
+     */
+    static int toInt(Inet4Address address) {
+        byte[] bytes = address.getAddress();
+        return (bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | (bytes[3] & 0xFF);
+    }
+
+    /**
+     * IP 리터럴을 이름 조회 없이 주소로 바꾼다. 리터럴이 아니거나 형식이 틀리면 null.
+     * InetAddress.getByName 은 리터럴처럼 보여도 형식이 틀리면(999.1.1.1, zz:1) 이름으로 조회하므로 이벤트 루프에서 쓸 수 없다.
+     * IPv4 는 0~255 의 십진수 네 개, IPv6 는 RFC 4291 표기(:: 한 번, 끝의 IPv4 표기, 대괄호 허용)만 받는다. 범위 ID(%eth0)는 받지 않는다.
+     */
+    static InetAddress parseLiteral(String text) {
+        byte[] bytes;
+        if (text.indexOf(':') >= 0) {
+            bytes = parseIpv6(text);
+        } else {
+            bytes = new byte[4];
+            if (!parseIpv4(text, 0, text.length(), bytes, 0)) {
+                bytes = null;
+            }
+        }
+        if (bytes == null) {
+            return null;
+        }
+        try {
+            return InetAddress.getByAddress(bytes);
+        } catch (UnknownHostException e) {
+            return null; // 길이가 4 나 16 이면 일어나지 않는다
+        }
+    }
+
+    private static boolean parseIpv4(String text, int start, int end, byte[] out, int offset) {
+        int octets = 0;
+        int value = 0;
+        int digits = 0;
+        for (int i = start; i <= end; i++) {
+            char c = i < end ? text.charAt(i) : '.';
+            if (c == '.') {
+                if (digits == 0 || octets == 4) {
+                    return false;
+                }
+                out[offset + octets++] = (byte) value;
+                value = 0;
+                digits = 0;
+            } else if (c >= '0' && c <= '9' && digits < 3) {
+                value = value * 10 + (c - '0');
+                digits++;
+                if (value > 255) {
+                    return false;
+                }
+            } else {
+                return false;
+            }
+        }
+        return octets == 4;
+    }
+
+    private static byte[] parseIpv6(String text) {
+        int i = 0;
+        int end = text.length();
+        if (end > 2 && text.charAt(0) == '[' && text.charAt(end - 1) == ']') {
+            i = 1;
+            end--;
+        }
+        byte[] bytes = new byte[16];
+        int index = 0;
+        int gap = -1; // "::" 가 들어갈 바이트 위치
+        if (text.startsWith("::", i)) {
+            gap = 0;
+            i += 2;
+        }
+        while (i < end) {
+            int groupEnd = i;
+            while (groupEnd < end && hexValue(text.charAt(groupEnd)) >= 0) {
+                groupEnd++;
+            }
+            if (groupEnd < end && text.charAt(groupEnd) == '.') {
+                // 마지막 32 비트는 IPv4 표기일 수 있다.
+                if (index > 12 || !parseIpv4(text, i, end, bytes, index)) {
+                    return null;
+                }
+                index += 4;
+                break;
+            }
+            if (groupEnd == i || groupEnd - i > 4 || index == 16) {
+                return null;
+            }
+            int value = 0;
+            for (int j = i; j < groupEnd; j++) {
+                value = value << 4 | hexValue(text.charAt(j));
+            }
+            bytes[index++] = (byte) (value >>> 8);
+            bytes[index++] = (byte) value;
+            i = groupEnd;
+            if (i == end) {
+                break;
+            }
+            if (text.charAt(i) != ':' || ++i == end) {
+                return null;
+            }
+            if (text.charAt(i) == ':') {
+                if (gap >= 0) {
+                    return null;
+                }
+                gap = index;
+                i++;
+            }
+        }
+        if (gap < 0) {
+            return index == 16 ? bytes : null;
+        }
+        if (index == 16) {
+            return null; // "::" 는 0 인 그룹을 하나 이상 줄인 것이다
+        }
+        int tail = index - gap;
+        System.arraycopy(bytes, gap, bytes, 16 - tail, tail);
+        Arrays.fill(bytes, gap, 16 - tail, (byte) 0);
+        return bytes;
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+}
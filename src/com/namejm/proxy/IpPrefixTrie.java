@@ -0,0 +1,89 @@
+package com.namejm.proxy;
+
+import java.util.Arrays;
+
+/**
+ * 주소 바이트의 비트 단위 이진 트라이.
+ * 노드는 int/byte 배열에 평탄화되어 있고, 조회는 최장 접두사 일치(LPM)로 접두사 길이만큼만 따라 내려간다.
+ * 조회 중에는 객체를 할당하지 않는다(주소 바이트는 호출하는 쪽이 준비한다). 생성 후에는 읽기 전용으로만 사용해야 한다.
+ */
+public final class IpPrefixTrie {
+    public static final byte NONE = 0;
+    public static final byte ALLOW = 1;
+    public static final byte DENY = 2;
+
+    // 노드 n 의 자식은 children[2n] (0 비트), children[2n + 1] (1 비트). 0 은 루트이므로 "자식 없음" 으로 쓴다.
+    private int[] children = new int[128];
+    private byte[] verdicts = new byte[64];
+    private int nodeCount = 1;
+
+    /**
+     * 접두사를 추가한다. 같은 접두사에 허용과 차단이 모두 있으면 차단이 우선한다.
+     */
+    public void insert(byte[] address, int prefixLength, byte verdict) {
+        if (prefixLength < 0 || prefixLength > address.length * 8) {
+            throw new IllegalArgumentException("Invalid prefix length: " + prefixLength);
+        }
+        int node = 0;
+        for (int i = 0; i < prefixLength; i++) {
+            int slot = (node << 1) | bitAt(address, 0, i);
+            int child = children[slot];
+            if (child == 0) {
+                child = newNode();
+                children[slot] = child;
+            }
+            node = child;
+        }
+        if (verdicts[node] != DENY) {
+            verdicts[node] = verdict;
+        }
+    }
+
+    /**
+     * address[offset] 부터 bitLength 비트를 따라가며 가장 긴 일치 접두사의 판정을 돌려준다.
+     */
+    public byte lookup(byte[] address, int offset, int bitLength) {
+        int node = 0;
+        byte verdict = verdicts[0];
+        for (int i = 0; i < bitLength; i++) {
+            node = children[(node << 1) | bitAt(address, offset, i)];
+            if (node == 0) {
+                break;
+            }
+            if (verdicts[node] != NONE) {
+                verdict = verdicts[node];
+            }
+        }
+        return verdict;
+    }
+
+    /**
+     * 32 비트 주소(첫 옥텟이 최상위)에 대한 lookup. 주소를 바이트 배열 대신 int 로 받아 비트를 바로 읽는다.
+     */
+    public byte lookupIpv4(int address) {
+        int node = 0;
+        byte verdict = verdicts[0];
+        for (int i = 0; i < 32; i++) {
+            node = children[(node << 1) | ((address >>> (31 - i)) & 1)];
+            if (node == 0) {
+                break;
+            }
+            if (verdicts[node] != NONE) {
+                verdict = verdicts[node];
+            }
+        }
+        return verdict;
+    }
+
+    private int newNode() {
+        if (nodeCount == verdicts.length) {
+            verdicts = Arrays.copyOf(verdicts, nodeCount * 2);
+            children = Arrays.copyOf(children, nodeCount * 4);
+        }
+        return nodeCount++;
+    }
+
+    private static int bitAt(byte[] address, int offset, int index) {
+        return (address[offset + (index >>> 3)] >>> (7 - (index & 7))) & 1;
+    }
+}
@@ -0,0 +1,47 @@
+package com.namejm.proxy;
+
+import com.maxmind.db.Reader;
+import com.maxmind.geoip2.DatabaseReader;
+import com.maxmind.geoip2.model.CountryResponse;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Optional;
+
+/**
+ * MaxMind DB(mmdb) 파일을 메모리 매핑해 조회한다. 조회마다 데이터 레코드를 디코딩해 CountryResponse 를 만든다.
+ */
+public class MaxMindGeoIpSource implements GeoIpSource {
+    private final DatabaseReader reader;
+
+    public MaxMindGeoIpSource(File database) throws IOException {
+        this.reader = new DatabaseReader.Builder(database)
+            .fileMode(Reader.FileMode.MEMORY_MAPPED)
+            .build();
+    }
+
+    @Override
+    public String lookup(InetAddress address) throws IOException {
+        try {
+            // DB 에 없는 주소는 예외 대신 빈 Optional 로 받는다.
+            Optional<CountryResponse> response = reader.tryCountry(address);
+            String countryCode = response.map(r -> r.getCountry().getIsoCode()).orElse(null);
+            return countryCode == null || countryCode.isEmpty() ? null : countryCode;
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public String describe() {
+        return "mmdb, build date: " + reader.getMetadata().getBuildDate();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
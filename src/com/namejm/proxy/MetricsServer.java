@@ -0,0 +1,541 @@
+package com.namejm.proxy;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Prometheus 텍스트 형식으로 지표를 내보내는 내장 HTTP 서버 (GET /metrics).
+ * 요청이 올 때만 카운터를 읽어 문자열을 만들므로 중계 경로에는 영향이 없다.
+ * autoBan 이 켜져 있으면 자동 차단 목록을 보고(GET /bans) 푸는(DELETE /bans[?address=]) 관리 요청도 받는다.
+ */
+public class MetricsServer {
+    private static final Logger logger = LoggerFactory.getLogger(MetricsServer.class);
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final String bind;
+    private final int port;
+    private final List<ProxyMain> proxies;
+    private final InetAddressLocator inetAddressLocator;
+    private AccessLog accessLog;
+    private ClientTracker clientTracker;
+    private ProxyRuntime runtime;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * @param proxies 실행 중인 프록시 목록. 읽을 때 이 목록으로 동기화한다.
+     */
+    public MetricsServer(String bind, int port, List<ProxyMain> proxies, InetAddressLocator inetAddressLocator) {
+        this.bind = bind;
+        this.port = port;
+        this.proxies = proxies;
+        this.inetAddressLocator = inetAddressLocator;
+    }
+
+    public void setAccessLog(AccessLog accessLog) {
+        this.accessLog = accessLog;
+    }
+
+    public void setClientTracker(ClientTracker clientTracker) {
+        this.clientTracker = clientTracker;
+    }
+
+    public void setRuntime(ProxyRuntime runtime) {
+        this.runtime = runtime;
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(bind, port), 0);
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "MetricsServer-" + port);
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/metrics", this::handleMetrics);
+        if (clientTracker != null) {
+            server.createContext("/bans", this::handleBans);
+        }
+        server.start();
+        logger.info("Metrics endpoint started on http://{}:{}/metrics", bind, port);
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (Exception e) {
+            logger.warn("Failed to render metrics", e);
+            exchange.sendResponseHeaders(500, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * GET: 차단 목록(JSON 배열). DELETE: address 가 있으면 그 주소만, 없으면 모두 푼다.
+     */
+    private void handleBans(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            int status = 200;
+            String body;
+            if ("GET".equals(method)) {
+                body = renderBans(clientTracker.getBans());
+            } else if ("DELETE".equals(method)) {
+                String address = queryParameter(exchange.getRequestURI(), "address");
+                if (address == null) {
+                    body = "{\"cleared\":" + clientTracker.clearBans() + "}";
+                    logger.info("Cleared all automatic bans via {}", exchange.getRemoteAddress());
+                } else if (clientTracker.unban(ClientTracker.parseAddress(address))) {
+                    body = "{\"cleared\":1}";
+                    logger.info("Cleared automatic ban of {} via {}", address, exchange.getRemoteAddress());
+                } else {
+                    status = 404;
+                    body = "{\"cleared\":0}";
+                }
+            } else {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            respondJson(exchange, status, body);
+        } catch (IllegalArgumentException e) {
+            respondJson(exchange, 400, "{\"error\":\"" + json(e.getMessage()) + "\"}");
+        } catch (Exception e) {
+            logger.warn("Failed to handle ban request", e);
+            exchange.sendResponseHeaders(500, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String renderBans(List<ClientTracker.Ban> bans) {
+        StringBuilder out = new StringBuilder(64 + bans.size() * 192).append('[');
+        for (ClientTracker.Ban ban : bans) {
+            if (out.length() > 1) {
+                out.append(',');
+            }
+            out.append("\n{\"address\":\"").append(ban.getAddress())
+               .append("\",\"proxy\":\"").append(json(ban.getProxyName()))
+               .append("\",\"reason\":\"").append(ban.getReason())
+               .append("\",\"firstSeen\":\"").append(Instant.ofEpochMilli(ban.getFirstSeenMillis()))
+               .append("\",\"since\":\"").append(Instant.ofEpochMilli(ban.getSinceMillis()))
+               .append("\",\"remainingSeconds\":").append(ban.getRemainingSeconds())
+               .append(",\"connections\":").append(ban.getConnections())
+               .append(",\"rejects\":").append(ban.getRejects())
+               .append(",\"attempts\":").append(ban.getAttempts())
+               .append('}');
+        }
+        return out.append(bans.isEmpty() ? "]\n" : "\n]\n").toString();
+    }
+
+    private static String queryParameter(URI uri, String name) {
+        String query = uri.getQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && pair.substring(0, eq).equals(name)) {
+                return pair.substring(eq + 1);
+            }
+        }
+        return null;
+    }
+
+    private static void respondJson(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String json(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    String render() {
+        List<ProxyMain> snapshot;
+        synchronized (proxies) {
+            snapshot = new ArrayList<>(proxies);
+        }
+        StringBuilder out = new StringBuilder(8192);
+        writeProxyMetrics(out, snapshot);
+        writeUpstreamMetrics(out, snapshot);
+        writeGeoIpMetrics(out);
+        writeAccessLogMetrics(out);
+        writeClientTrackerMetrics(out);
+        writeRuntimeMetrics(out, snapshot);
+        writeBufferPoolMetrics(out);
+        writeJvmMetrics(out);
+        return out.toString();
+    }
+
+    private static void writeProxyMetrics(StringBuilder out, List<ProxyMain> proxies) {
+        header(out, "jmproxy_connections_total", "counter", "Accepted connections by country and admission result.");
+        for (ProxyMain proxy : proxies) {
+            ProxyMetrics metrics = proxy.getMetrics();
+            for (Map.Entry<String, ProxyMetrics.ConnectionCounters> entry : metrics.getConnectionsByCountry().entrySet()) {
+                ProxyMetrics.ConnectionCounters counters = entry.getValue();
+                String country = entry.getKey();
+                sample(out, "jmproxy_connections_total", labels("proxy", metrics.getProxyName(), "country", country, "result", "allowed"), counters.getAllowed());
+                sample(out, "jmproxy_connections_total", labels("proxy", metrics.getProxyName(), "country", country, "result", "blocked"), counters.getBlocked());
+                sample(out, "jmproxy_connections_total", labels("proxy", metrics.getProxyName(), "country", country, "result", "limited"), counters.getLimited());
+            }
+        }
+
+        header(out, "jmproxy_active_sessions", "gauge", "Sessions currently being relayed.");
+        for (ProxyMain proxy : proxies) {
+            sample(out, "jmproxy_active_sessions", labels("proxy", proxy.getMetrics().getProxyName()), proxy.getMetrics().getActiveSessions());
+        }
+
+        header(out, "jmproxy_bytes_total", "counter", "Relayed bytes. up: client to server, down: server to client.");
+        for (ProxyMain proxy : proxies) {
+            ProxyMetrics metrics = proxy.getMetrics();
+            sample(out, "jmproxy_bytes_total", labels("proxy", metrics.getProxyName(), "direction", "up"), metrics.getBytesClientToServer());
+            sample(out, "jmproxy_bytes_total", labels("proxy", metrics.getProxyName(), "direction", "down"), metrics.getBytesServerToClient());
+        }
+
+        header(out, "jmproxy_backend_connect_failures_total", "counter", "Failed backend connection attempts.");
+        for (ProxyMain proxy : proxies) {
+            sample(out, "jmproxy_backend_connect_failures_total", labels("proxy", proxy.getMetrics().getProxyName()), proxy.getMetrics().getBackendConnectFailures());
+        }
+
+        header(out, "jmproxy_session_timeouts_total", "counter", "Sessions closed by a timeout. reason: connect, idle, lifetime.");
+        for (ProxyMain proxy : proxies) {
+            ProxyMetrics metrics = proxy.getMetrics();
+            sample(out, "jmproxy_session_timeouts_total", labels("proxy", metrics.getProxyName(), "reason", SessionTimeout.CONNECT), metrics.getConnectTimeouts());
+            sample(out, "jmproxy_session_timeouts_total", labels("proxy", metrics.getProxyName(), "reason", SessionTimeout.IDLE), metrics.getIdleTimeouts());
+            sample(out, "jmproxy_session_timeouts_total", labels("proxy", metrics.getProxyName(), "reason", SessionTimeout.LIFETIME), metrics.getLifetimeTimeouts());
+        }
+        header(out, "jmproxy_sessions_killed_total", "counter", "Sessions still running when the drain timeout expired on shutdown.");
+        for (ProxyMain proxy : proxies) {
+            sample(out, "jmproxy_sessions_killed_total", labels("proxy", proxy.getMetrics().getProxyName()), proxy.getMetrics().getKilledSessions());
+        }
+        header(out, "jmproxy_tunnel_requests_total", "counter", "Outbound tunnel requests. result: connected, blocked, resolve_failed, connect_failed, rejected.");
+        for (ProxyMain proxy : proxies) {
+            if (!proxy.getConfig().isOutbound()) continue;
+            ProxyMetrics metrics = proxy.getMetrics();
+            sample(out, "jmproxy_tunnel_requests_total", labels("proxy", metrics.getProxyName(), "result", ProxyMetrics.TUNNEL_CONNECTED), metrics.getTunnelsConnected());
+            sample(out, "jmproxy_tunnel_requests_total", labels("proxy", metrics.getProxyName(), "result", ProxyMetrics.TUNNEL_BLOCKED), metrics.getTunnelsBlocked());
+            sample(out, "jmproxy_tunnel_requests_total", labels("proxy", metrics.getProxyName(), "result", ProxyMetrics.TUNNEL_RESOLVE_FAILED), metrics.getTunnelsResolveFailed());
+            sample(out, "jmproxy_tunnel_requests_total", labels("proxy", metrics.getProxyName(), "result", ProxyMetrics.TUNNEL_CONNECT_FAILED), metrics.getTunnelsConnectFailed());
+            sample(out, "jmproxy_tunnel_requests_total", labels("proxy", metrics.getProxyName(), "result", ProxyMetrics.TUNNEL_REJECTED), metrics.getTunnelsRejected());
+        }
+        header(out, "jmproxy_dns_requests_total", "counter", "Destination name lookups of outbound proxies. result: cache_hit, lookup, failed, rejected.");
+        for (ProxyMain proxy : proxies) {
+            DnsResolver resolver = proxy.getResolver();
+            if (resolver == null) continue;
+            String name = proxy.getConfig().getName();
+            sample(out, "jmproxy_dns_requests_total", labels("proxy", name, "result", "cache_hit"), resolver.getHits());
+            sample(out, "jmproxy_dns_requests_total", labels("proxy", name, "result", "lookup"), resolver.getLookups());
+            sample(out, "jmproxy_dns_requests_total", labels("proxy", name, "result", "failed"), resolver.getFailures());
+            sample(out, "jmproxy_dns_requests_total", labels("proxy", name, "result", "rejected"), resolver.getRejected());
+        }
+        header(out, "jmproxy_udp_flows", "gauge", "UDP flows in the flow table. Denied clients are remembered separately and not counted.");
+        for (ProxyMain proxy : proxies) {
+            if (!proxy.getConfig().isUdp()) continue;
+            sample(out, "jmproxy_udp_flows", labels("proxy", proxy.getConfig().getName()), proxy.getUdpFlowCount());
+        }
+        header(out, "jmproxy_udp_datagrams_dropped_total", "counter", "Dropped UDP datagrams. reason: denied, flow_table_full, rate_limited, send_failed.");
+        for (ProxyMain proxy : proxies) {
+            if (!proxy.getConfig().isUdp()) continue;
+            ProxyMetrics metrics = proxy.getMetrics();
+            sample(out, "jmproxy_udp_datagrams_dropped_total", labels("proxy", metrics.getProxyName(), "reason", ProxyMetrics.DROP_DENIED), metrics.getDroppedDenied());
+            sample(out, "jmproxy_udp_datagrams_dropped_total", labels("proxy", metrics.getProxyName(), "reason", ProxyMetrics.DROP_FLOW_TABLE_FULL), metrics.getDroppedFlowTableFull());
+            sample(out, "jmproxy_udp_datagrams_dropped_total", labels("proxy", metrics.getProxyName(), "reason", ProxyMetrics.DROP_RATE_LIMITED), metrics.getDroppedRateLimited());
+            sample(out, "jmproxy_udp_datagrams_dropped_total", labels("proxy", metrics.getProxyName(), "reason", ProxyMetrics.DROP_SEND_FAILED), metrics.getDroppedSendFailed());
+        }
+        header(out, "jmproxy_proxy_protocol_errors_total", "counter", "Connections closed because of a malformed inbound PROXY protocol header.");
+        for (ProxyMain proxy : proxies) {
+            if (!proxy.getConfig().isAcceptProxyProtocol()) continue;
+            sample(out, "jmproxy_proxy_protocol_errors_total", labels("proxy", proxy.getMetrics().getProxyName()), proxy.getMetrics().getProxyProtocolErrors());
+        }
+        header(out, "jmproxy_connections_banned_total", "counter", "Connections (UDP: flows) closed at accept because the source is banned.");
+        for (ProxyMain proxy : proxies) {
+            sample(out, "jmproxy_connections_banned_total", labels("proxy", proxy.getMetrics().getProxyName()), proxy.getMetrics().getBannedConnections());
+        }
+        header(out, "jmproxy_tls_handshakes_total", "counter", "TLS handshakes of terminating proxies. result: full, resumed, failed.");
+        for (ProxyMain proxy : proxies) {
+            if (!proxy.getConfig().isTlsTerminate()) continue;
+            ProxyMetrics metrics = proxy.getMetrics();
+            sample(out, "jmproxy_tls_handshakes_total", labels("proxy", metrics.getProxyName(), "result", ProxyMetrics.TLS_FULL), metrics.getTlsFullHandshakes());
+            sample(out, "jmproxy_tls_handshakes_total", labels("proxy", metrics.getProxyName(), "result", ProxyMetrics.TLS_RESUMED), metrics.getTlsResumedHandshakes());
+            sample(out, "jmproxy_tls_handshakes_total", labels("proxy", metrics.getProxyName(), "result", ProxyMetrics.TLS_FAILED), metrics.getTlsFailedHandshakes());
+        }
+        header(out, "jmproxy_tls_session_cache_entries", "gauge", "Server-side TLS sessions cached for resumption.");
+        for (ProxyMain proxy : proxies) {
+            if (!proxy.getConfig().isTlsTerminate()) continue;
+            sample(out, "jmproxy_tls_session_cache_entries", labels("proxy", proxy.getConfig().getName()), proxy.getTlsSessionCacheEntries());
+        }
+        header(out, "jmproxy_sni_routing_total", "counter", "ClientHello routing of TLS proxies. result: routed, default, unmatched, malformed.");
+        for (ProxyMain proxy : proxies) {
+            if (!proxy.getConfig().isTls()) continue;
+            ProxyMetrics metrics = proxy.getMetrics();
+            sample(out, "jmproxy_sni_routing_total", labels("proxy", metrics.getProxyName(), "result", ProxyMetrics.SNI_ROUTED), metrics.getSniRouted());
+            sample(out, "jmproxy_sni_routing_total", labels("proxy", metrics.getProxyName(), "result", ProxyMetrics.SNI_DEFAULT), metrics.getSniDefault());
+            sample(out, "jmproxy_sni_routing_total", labels("proxy", metrics.getProxyName(), "result", ProxyMetrics.SNI_UNMATCHED), metrics.getSniUnmatched());
+            sample(out, "jmproxy_sni_routing_total", labels("proxy", metrics.getProxyName(), "result", ProxyMetrics.SNI_MALFORMED), metrics.getSniMalformed());
+        }
+        header(out, "jmproxy_pending_timers", "gauge", "Timers scheduled on the shared timeout wheel.");
+        sample(out, "jmproxy_pending_timers", "", SessionTimeout.WHEEL.pending());
+
+        header(out, "jmproxy_geoip_lookup_seconds", "summary", "GeoIP country lookup time, including cache hits.");
+        for (ProxyMain proxy : proxies) {
+            summary(out, "jmproxy_geoip_lookup_seconds", proxy.getMetrics().getProxyName(), proxy.getMetrics().getGeoIpLookupTime());
+        }
+        header(out, "jmproxy_backend_connect_seconds", "summary", "Backend TCP connect time (pooled connections excluded).");
+        for (ProxyMain proxy : proxies) {
+            summary(out, "jmproxy_backend_connect_seconds", proxy.getMetrics().getProxyName(), proxy.getMetrics().getBackendConnectTime());
+        }
+        header(out, "jmproxy_session_duration_seconds", "summary", "Relay session duration.");
+        for (ProxyMain proxy : proxies) {
+            summary(out, "jmproxy_session_duration_seconds", proxy.getMetrics().getProxyName(), proxy.getMetrics().getSessionDuration());
+        }
+        header(out, "jmproxy_tls_handshake_seconds", "summary", "Successful TLS handshake time of terminating proxies, from ClientHello to Finished.");
+        for (ProxyMain proxy : proxies) {
+            if (!proxy.getConfig().isTlsTerminate()) continue;
+            summary(out, "jmproxy_tls_handshake_seconds", proxy.getMetrics().getProxyName(), proxy.getMetrics().getTlsHandshakeTime());
+        }
+    }
+
+    private static void writeUpstreamMetrics(StringBuilder out, List<ProxyMain> proxies) {
+        header(out, "jmproxy_upstream_active_connections", "gauge", "Active connections per upstream. route: sniRoutes entry, absent for the default upstreams.");
+        for (ProxyMain proxy : proxies) {
+            for (UpstreamGroup group : proxy.getUpstreamGroups()) {
+                for (Upstream upstream : group.getUpstreams()) {
+                    sample(out, "jmproxy_upstream_active_connections", upstreamLabels(proxy, group, upstream), upstream.getActiveConnections());
+                }
+            }
+        }
+        header(out, "jmproxy_upstream_healthy", "gauge", "1 if the upstream passes health checks.");
+        for (ProxyMain proxy : proxies) {
+            for (UpstreamGroup group : proxy.getUpstreamGroups()) {
+                for (Upstream upstream : group.getUpstreams()) {
+                    sample(out, "jmproxy_upstream_healthy", upstreamLabels(proxy, group, upstream), upstream.isHealthy() ? 1 : 0);
+                }
+            }
+        }
+
+        header(out, "jmproxy_backend_pool_idle", "gauge", "Idle pre-connected backend sockets.");
+        for (ProxyMain proxy : proxies) {
+            for (UpstreamGroup group : proxy.getUpstreamGroups()) {
+                for (Upstream upstream : group.getUpstreams()) {
+                    if (upstream.getPool() == null) continue;
+                    sample(out, "jmproxy_backend_pool_idle", upstreamLabels(proxy, group, upstream), upstream.getPool().getIdleCount());
+                }
+            }
+        }
+        header(out, "jmproxy_backend_pool_requests_total", "counter", "Backend pool requests. result: hit, miss, discarded.");
+        for (ProxyMain proxy : proxies) {
+            for (UpstreamGroup group : proxy.getUpstreamGroups()) {
+                for (Upstream upstream : group.getUpstreams()) {
+                    BackendConnectionPool pool = upstream.getPool();
+                    if (pool == null) continue;
+                    sample(out, "jmproxy_backend_pool_requests_total", upstreamLabels(proxy, group, upstream, "result", "hit"), pool.getHits());
+                    sample(out, "jmproxy_backend_pool_requests_total", upstreamLabels(proxy, group, upstream, "result", "miss"), pool.getMisses());
+                    sample(out, "jmproxy_backend_pool_requests_total", upstreamLabels(proxy, group, upstream, "result", "discarded"), pool.getDiscarded());
+                }
+            }
+        }
+    }
+
+    /**
+     * 전달 대상 지표의 레이블. sniRoutes 의 묶음이면 같은 대상이 여러 묶음에 있어도 겹치지 않도록 route 를 붙인다.
+     */
+    private static String upstreamLabels(ProxyMain proxy, UpstreamGroup group, Upstream upstream, String... extra) {
+        String name = proxy.getConfig().getName();
+        List<String> keyValues = new ArrayList<>(List.of("proxy", name, "upstream", upstream.toString()));
+        if (!group.getName().equals(name)) {
+            keyValues.add("route");
+            keyValues.add(group.getName().substring(name.length() + 1));
+        }
+        keyValues.addAll(List.of(extra));
+        return labels(keyValues.toArray(new String[0]));
+    }
+
+    private void writeGeoIpMetrics(StringBuilder out) {
+        if (inetAddressLocator == null) {
+            return;
+        }
+        GeoIpCache cache = inetAddressLocator.getCache();
+        header(out, "jmproxy_geoip_cache_requests_total", "counter", "GeoIP cache lookups. result: hit, miss.");
+        sample(out, "jmproxy_geoip_cache_requests_total", labels("result", "hit"), cache.getHits());
+        sample(out, "jmproxy_geoip_cache_requests_total", labels("result", "miss"), cache.getMisses());
+        header(out, "jmproxy_geoip_cache_evictions_total", "counter", "GeoIP cache entries evicted.");
+        sample(out, "jmproxy_geoip_cache_evictions_total", "", cache.getEvictions());
+        header(out, "jmproxy_geoip_cache_size", "gauge", "GeoIP cache entries.");
+        sample(out, "jmproxy_geoip_cache_size", "", cache.size());
+    }
+
+    private void writeAccessLogMetrics(StringBuilder out) {
+        if (accessLog == null) {
+            return;
+        }
+        header(out, "jmproxy_access_log_events_total", "counter", "Access log events. result: written, dropped (buffer full), suppressed (BLOCKED dedup).");
+        sample(out, "jmproxy_access_log_events_total", labels("result", "written"), accessLog.getWritten());
+        sample(out, "jmproxy_access_log_events_total", labels("result", "dropped"), accessLog.getDropped());
+        sample(out, "jmproxy_access_log_events_total", labels("result", "suppressed"), accessLog.getSuppressed());
+    }
+
+    private void writeClientTrackerMetrics(StringBuilder out) {
+        if (clientTracker == null) {
+            return;
+        }
+        header(out, "jmproxy_autoban_tracked_clients", "gauge", "Source addresses in the connection tracking table.");
+        sample(out, "jmproxy_autoban_tracked_clients", "", clientTracker.getTrackedClients());
+        header(out, "jmproxy_autoban_active_bans", "gauge", "Source addresses currently banned.");
+        sample(out, "jmproxy_autoban_active_bans", "", clientTracker.getActiveBans());
+        header(out, "jmproxy_autoban_bans_total", "counter", "Automatic bans issued.");
+        sample(out, "jmproxy_autoban_bans_total", "", clientTracker.getBansIssued());
+        header(out, "jmproxy_autoban_evictions_total", "counter", "Tracked addresses evicted because the table was full.");
+        sample(out, "jmproxy_autoban_evictions_total", "", clientTracker.getEvictions());
+    }
+
+    private void writeRuntimeMetrics(StringBuilder out, List<ProxyMain> proxies) {
+        if (runtime == null) {
+            return;
+        }
+        header(out, "jmproxy_runtime_threads", "gauge", "Threads of the shared runtime. pool: io (event loops), worker (live blocking workers).");
+        sample(out, "jmproxy_runtime_threads", labels("pool", "io"), runtime.getIoThreads());
+        sample(out, "jmproxy_runtime_threads", labels("pool", "worker"), runtime.getLiveWorkers());
+        if (!runtime.isSharedWorkers()) {
+            return;
+        }
+        header(out, "jmproxy_runtime_worker_threads_max", "gauge", "Maximum blocking worker threads of the shared runtime.");
+        sample(out, "jmproxy_runtime_worker_threads_max", "", runtime.getWorkerThreads());
+        header(out, "jmproxy_runtime_active_workers", "gauge", "Blocking worker threads running a task.");
+        sample(out, "jmproxy_runtime_active_workers", "", runtime.getActiveWorkers());
+        header(out, "jmproxy_runtime_worker_share", "gauge", "Worker threads one proxy may use at the same time.");
+        sample(out, "jmproxy_runtime_worker_share", "", runtime.getWorkerShare());
+        header(out, "jmproxy_runtime_proxy_worker_tasks", "gauge", "Worker tasks per proxy (blocking pool proxies only). state: running, queued.");
+        for (ProxyMain proxy : proxies) {
+            ProxyRuntime.WorkerQuota quota = proxy.getWorkerQuota();
+            if (quota != null) {
+                sample(out, "jmproxy_runtime_proxy_worker_tasks", labels("proxy", proxy.getMetrics().getProxyName(), "state", "running"), quota.getRunning());
+                sample(out, "jmproxy_runtime_proxy_worker_tasks", labels("proxy", proxy.getMetrics().getProxyName(), "state", "queued"), quota.getQueued());
+            }
+        }
+        header(out, "jmproxy_runtime_worker_rejections_total", "counter", "Connections rejected because the proxy's worker share and queue were full or no worker became free within connectTimeoutSeconds.");
+        for (ProxyMain proxy : proxies) {
+            ProxyRuntime.WorkerQuota quota = proxy.getWorkerQuota();
+            if (quota != null) {
+                sample(out, "jmproxy_runtime_worker_rejections_total", labels("proxy", proxy.getMetrics().getProxyName()), quota.getRejected());
+            }
+        }
+    }
+
+    private static void writeBufferPoolMetrics(StringBuilder out) {
+        BufferPool pool = BufferPool.SHARED;
+        header(out, "jmproxy_buffer_pool_bytes", "gauge", "Relay buffers held by the shared pool. state: used, idle.");
+        sample(out, "jmproxy_buffer_pool_bytes", labels("state", "used"), pool.getUsedBytes());
+        sample(out, "jmproxy_buffer_pool_bytes", labels("state", "idle"), pool.getIdleBytes());
+        header(out, "jmproxy_buffer_pool_max_bytes", "gauge", "Maximum bytes the shared buffer pool may allocate.");
+        sample(out, "jmproxy_buffer_pool_max_bytes", "", pool.getMaxBytes());
+        header(out, "jmproxy_buffer_pool_acquires_total", "counter", "Relay buffer requests. result: reused, allocated, unpooled (pool full or oversized).");
+        sample(out, "jmproxy_buffer_pool_acquires_total", labels("result", "reused"), pool.getReuses());
+        sample(out, "jmproxy_buffer_pool_acquires_total", labels("result", "allocated"), pool.getAllocations());
+        sample(out, "jmproxy_buffer_pool_acquires_total", labels("result", "unpooled"), pool.getUnpooledAllocations());
+        header(out, "jmproxy_buffer_pool_leaks_total", "counter", "Relay buffers garbage collected without being released.");
+        sample(out, "jmproxy_buffer_pool_leaks_total", "", pool.getLeaks());
+    }
+
+    private static void writeJvmMetrics(StringBuilder out) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        header(out, "jvm_threads_live", "gauge", "Live platform threads.");
+        sample(out, "jvm_threads_live", "", threads.getThreadCount());
+        header(out, "jvm_threads_peak", "gauge", "Peak live platform threads.");
+        sample(out, "jvm_threads_peak", "", threads.getPeakThreadCount());
+
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        header(out, "jvm_memory_heap_used_bytes", "gauge", "Used heap memory.");
+        sample(out, "jvm_memory_heap_used_bytes", "", heap.getUsed());
+        header(out, "jvm_memory_heap_max_bytes", "gauge", "Maximum heap memory.");
+        sample(out, "jvm_memory_heap_max_bytes", "", heap.getMax());
+
+        header(out, "jvm_buffer_pool_used_bytes", "gauge", "Memory used by NIO buffer pools.");
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            sample(out, "jvm_buffer_pool_used_bytes", labels("pool", pool.getName()), pool.getMemoryUsed());
+        }
+    }
+
+    private static void summary(StringBuilder out, String name, String proxyName, LatencyHistogram histogram) {
+        long[] values = histogram.percentiles(QUANTILES);
+        for (int i = 0; i < QUANTILES.length; i++) {
+            sample(out, name, labels("proxy", proxyName, "quantile", String.valueOf(QUANTILES[i])), values[i] / 1_000_000.0);
+        }
+        sample(out, name + "_sum", labels("proxy", proxyName), histogram.getSumMicros() / 1_000_000.0);
+        sample(out, name + "_count", labels("proxy", proxyName), histogram.getCount());
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, long value) {
+        out.append(name).append(labels).append(' ').append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name).append(labels).append(' ').append(value).append('\n');
+    }
+
+    private static String labels(String... keyValues) {
+        StringBuilder labels = new StringBuilder("{");
+        for (int i = 0; i < keyValues.length; i += 2) {
+            if (i > 0) labels.append(',');
+            labels.append(keyValues[i]).append("=\"");
+            String value = String.valueOf(keyValues[i + 1]);
+            for (int c = 0; c < value.length(); c++) {
+                char ch = value.charAt(c);
+                if (ch == '\\' || ch == '"') {
+                    labels.append('\\').append(ch);
+                } else if (ch == '\n') {
+                    labels.append("\\n");
+                } else {
+                    labels.append(ch);
+                }
+            }
+            labels.append('"');
+        }
+        return labels.append('}').toString();
+    }
+}
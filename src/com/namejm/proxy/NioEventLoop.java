@@ -0,0 +1,193 @@
+package com.namejm.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static ch.qos.logback.core.util.CloseUtil.closeQuietly;
+
+/**
+ * 단일 스레드 Selector 이벤트 루프.
+ * 채널은 생성된 루프에 평생 고정되며, 다른 스레드에서의 요청은 execute() 로 루프 스레드에 넘긴다.
+ */
+public class NioEventLoop implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(NioEventLoop.class);
+
+    private final Selector selector;
+    private final Queue<Runnable> taskQueue = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<ScheduledTask> scheduledTasks = new PriorityQueue<>(); // 루프 스레드 전용
+    private long scheduledSequence = 0;
+    private final AtomicBoolean wakenUp = new AtomicBoolean();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    public NioEventLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        // blocking 엔진의 수락 스레드처럼 루프 스레드가 프로세스를 유지한다. nio, udp 프록시만 있거나 공유 런타임을 쓰면
+        // main 이 끝난 뒤 살아 있는 일반 스레드가 없으므로, 종료는 shutdown() 이나 종료 훅으로만 한다.
+        this.thread = new Thread(this, name);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * 작업을 루프 스레드에서 실행하도록 예약한다. 루프 스레드에서 호출하면 다음 반복에서 실행된다.
+     */
+    public void execute(Runnable task) {
+        taskQueue.add(task);
+        if (!inEventLoop() && wakenUp.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * delayNanos 뒤에 루프 스레드에서 작업을 실행한다. 별도 타이머 스레드 없이 select 대기 시간으로 처리한다.
+     */
+    public void schedule(Runnable task, long delayNanos) {
+        long deadline = System.nanoTime() + delayNanos;
+        if (inEventLoop()) {
+            scheduledTasks.add(new ScheduledTask(deadline, scheduledSequence++, task));
+        } else {
+            execute(() -> scheduledTasks.add(new ScheduledTask(deadline, scheduledSequence++, task)));
+        }
+    }
+
+    /**
+     * 채널을 이 루프의 Selector 에 등록한다. 루프 스레드에서만 호출해야 한다.
+     */
+    public SelectionKey register(SelectableChannel channel, int ops, NioHandler handler) throws ClosedChannelException {
+        return channel.register(selector, ops, handler);
+    }
+
+    @Override
+    public void run() {
+        // 세션 버퍼는 이 루프에서만 빌리고 반납하므로 스레드 캐시로 공유 큐 경합을 피한다.
+        BufferPool.SHARED.enableThreadCache();
+        while (running) {
+            try {
+                wakenUp.set(false);
+                long timeoutMillis = nextTimeoutMillis();
+                if (!taskQueue.isEmpty() || timeoutMillis == 0) {
+                    selector.selectNow();
+                } else {
+                    selector.select(timeoutMillis);
+                }
+                processSelectedKeys();
+                runScheduledTasks();
+                runTasks();
+            } catch (Throwable t) {
+                logger.error("Unexpected error in event loop {}", thread.getName(), t);
+            }
+        }
+        closeAll();
+        BufferPool.SHARED.releaseThreadCache();
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+            SelectionKey key = it.next();
+            it.remove();
+
+            NioHandler handler = (NioHandler) key.attachment();
+            try {
+                if (key.isValid()) {
+                    handler.handle(key);
+                }
+            } catch (Exception e) {
+                handler.failed(key, e);
+            }
+        }
+    }
+
+    private long nextTimeoutMillis() {
+        ScheduledTask next = scheduledTasks.peek();
+        if (next == null) {
+            return 1000;
+        }
+        long remaining = next.deadline - System.nanoTime();
+        if (remaining <= 0) {
+            return 0;
+        }
+        // select(0) 은 무한 대기이므로 최소 1ms 로 올린다.
+        return Math.min(1000, Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+    }
+
+    private void runScheduledTasks() {
+        long now = System.nanoTime();
+        ScheduledTask next;
+        while ((next = scheduledTasks.peek()) != null && next.deadline - now <= 0) {
+            scheduledTasks.poll();
+            try {
+                next.task.run();
+            } catch (Throwable t) {
+                logger.warn("Scheduled task failed on {}", thread.getName(), t);
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = taskQueue.poll()) != null) {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                logger.warn("Event loop task failed on {}", thread.getName(), t);
+            }
+        }
+    }
+
+    private void closeAll() {
+        runTasks();
+        scheduledTasks.clear();
+        for (SelectionKey key : selector.keys()) {
+            NioHandler handler = (NioHandler) key.attachment();
+            handler.failed(key, new ClosedChannelException());
+        }
+        closeQuietly(selector);
+    }
+
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    public void awaitTermination(long millis) throws InterruptedException {
+        thread.join(millis);
+    }
+
+    private static final class ScheduledTask implements Comparable<ScheduledTask> {
+        final long deadline;
+        final long sequence;
+        final Runnable task;
+
+        ScheduledTask(long deadline, long sequence, Runnable task) {
+            this.deadline = deadline;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(ScheduledTask other) {
+            int byDeadline = Long.compare(deadline - other.deadline, 0);
+            return byDeadline != 0 ? byDeadline : Long.compare(sequence, other.sequence);
+        }
+    }
+}
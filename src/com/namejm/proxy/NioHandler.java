@@ -0,0 +1,23 @@
+package com.namejm.proxy;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+
+import static ch.qos.logback.core.util.CloseUtil.closeQuietly;
+
+/**
+ * NioEventLoop 에 등록된 채널의 I/O 이벤트를 처리하는 핸들러.
+ * SelectionKey 의 attachment 로 등록되며 항상 루프 스레드에서만 호출된다.
+ */
+public interface NioHandler {
+
+    void handle(SelectionKey key) throws IOException;
+
+    /**
+     * handle 도중 예외가 발생했을 때 호출된다. 기본 동작은 채널을 닫는 것.
+     */
+    default void failed(SelectionKey key, Exception e) {
+        key.cancel();
+        closeQuietly(key.channel());
+    }
+}
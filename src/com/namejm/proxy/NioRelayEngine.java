@@ -0,0 +1,57 @@
+package com.namejm.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * N 개의 NioEventLoop 묶음.
+ * 새 연결은 라운드로빈으로 루프에 배정되고, 배정된 루프에서 연결이 끝날 때까지 처리된다.
+ */
+public class NioRelayEngine {
+    private static final Logger logger = LoggerFactory.getLogger(NioRelayEngine.class);
+
+    private final NioEventLoop[] loops;
+    private final AtomicInteger nextIndex = new AtomicInteger();
+
+    public NioRelayEngine(String name, int threads) throws IOException {
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        loops = new NioEventLoop[threads];
+        for (int i = 0; i < threads; i++) {
+            loops[i] = new NioEventLoop(name + "-" + i);
+        }
+    }
+
+    public void start() {
+        for (NioEventLoop loop : loops) {
+            loop.start();
+        }
+    }
+
+    public int size() {
+        return loops.length;
+    }
+
+    public NioEventLoop next() {
+        return loops[Math.floorMod(nextIndex.getAndIncrement(), loops.length)];
+    }
+
+    public void shutdown() {
+        for (NioEventLoop loop : loops) {
+            loop.shutdown();
+        }
+        for (NioEventLoop loop : loops) {
+            try {
+                loop.awaitTermination(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warn("Interrupted while waiting for event loops to stop");
+                return;
+            }
+        }
+    }
+}
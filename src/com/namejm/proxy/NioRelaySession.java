@@ -0,0 +1,474 @@
+package com.namejm.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+import static ch.qos.logback.core.util.CloseUtil.closeQuietly;
+
+/**
+ * 논블로킹 클라이언트 <-> 서버 중계 세션.
+ * 한 세션은 하나의 NioEventLoop 에서만 처리되므로 내부 상태에 동기화가 필요 없다.
+ * 상대편 쓰기가 밀리면 읽기 관심(OP_READ)을 끄고 쓰기 관심(OP_WRITE)을 켜서 흐름을 제어한다.
+ * 대역폭 제한에 걸리면 같은 방식으로 읽기를 멈추고, 루프의 예약 작업으로 정해진 시간 뒤에 다시 켠다.
+ * 연결/유휴/최대 수명 타임아웃은 공유 타이머 휠에 걸고, 만료 판정은 이 세션의 루프에서 한다.
+ * 방향별 버퍼는 연결되면 BufferPool 에서 빌리고, 세션을 닫을 때 돌려준다.
+ * tls terminate 면 클라이언트 쪽을 TlsChannel 로 읽고 써서 백엔드와는 평문으로 중계한다.
+ */
+public class NioRelaySession implements NioHandler, RelaySession {
+    private static final Logger logger = LoggerFactory.getLogger(NioRelaySession.class);
+
+    private final NioEventLoop loop;
+    private final SocketChannel client;
+    private final TlsChannel tls;
+    private final ByteChannel clientIo; // tls 가 있으면 tls, 없으면 client
+    private final UpstreamGroup upstreamGroup;
+    private final Upstream upstream;
+    private final ProxyMetrics metrics;
+    private final RateLimiter.Permit permit;
+    private final ProxyDto config;
+    private final boolean directBuffers;
+    private final SessionTimeout timeout;
+    private final SessionRegistry registry;
+    private final long startNanos = System.nanoTime();
+    private long connectStartNanos;
+    private HashedTimingWheel.Timeout connectTimer;
+    private SocketChannel server;
+    private ByteBuffer greeting;
+    private ByteBuffer pending;
+    private SelectionKey clientKey;
+    private SelectionKey serverKey;
+    private Pipe clientToServer;
+    private Pipe serverToClient;
+    private boolean connected = false;
+    private boolean closed = false;
+
+    /**
+     * pooled 가 있으면 이미 연결된 백엔드 채널(BackendConnectionPool)을 사용하고, 없으면 upstream 으로 새로 연결한다.
+     * pooled 의 greeting 은 백엔드가 미리 보낸 바이트로, 중계 시작 시 클라이언트에 먼저 전달된다.
+     * pending 은 연결되면 클라이언트 데이터보다 먼저 백엔드에 보낼 바이트(읽기 모드, PROXY protocol 헤더 등)로, 없으면 null.
+     * tls 는 핸드셰이크를 마친 클라이언트 쪽 TLS 로, 없으면 null.
+     * 세션은 생성 시 registry 에 등록되고 close() 에서 빠진다.
+     */
+    public NioRelaySession(NioEventLoop loop, SocketChannel client, TlsChannel tls, UpstreamGroup upstreamGroup,
+                           Upstream upstream, BackendConnectionPool.PooledConnection pooled, ByteBuffer pending,
+                           ProxyMetrics metrics, RateLimiter.Permit permit, ProxyDto config, SessionRegistry registry) {
+        this(loop, client, tls, upstreamGroup, upstream, metrics, permit, config, registry);
+        this.pending = pending;
+        if (pooled != null) {
+            this.server = pooled.getChannel();
+            this.greeting = pooled.getGreeting();
+        }
+    }
+
+    /**
+     * out 타입 프록시가 목적지에 연결한 터널을 중계한다. upstream 없이 server 채널을 그대로 사용한다.
+     * pending 은 요청 뒤에 클라이언트가 이어 보낸 바이트(읽기 모드)로, 중계 시작 시 서버에 먼저 전달된다.
+     */
+    public NioRelaySession(NioEventLoop loop, SocketChannel client, SocketChannel server, ByteBuffer pending,
+                           ProxyMetrics metrics, RateLimiter.Permit permit, ProxyDto config, SessionRegistry registry) {
+        this(loop, client, null, null, null, metrics, permit, config, registry);
+        this.server = server;
+        this.pending = pending;
+    }
+
+    private NioRelaySession(NioEventLoop loop, SocketChannel client, TlsChannel tls, UpstreamGroup upstreamGroup,
+                            Upstream upstream, ProxyMetrics metrics, RateLimiter.Permit permit, ProxyDto config,
+                            SessionRegistry registry) {
+        this.loop = loop;
+        this.client = client;
+        this.tls = tls;
+        this.clientIo = tls != null ? tls : client;
+        this.upstreamGroup = upstreamGroup;
+        this.upstream = upstream;
+        this.metrics = metrics;
+        this.permit = permit;
+        this.config = config;
+        this.directBuffers = config.isZeroCopy();
+        this.timeout = new SessionTimeout(config, loop::execute, this::expired);
+        this.registry = registry;
+        if (upstream != null) {
+            upstream.acquire();
+        }
+        metrics.sessionOpened();
+        registry.add(this);
+    }
+
+    /**
+     * 백엔드로 논블로킹 연결을 시작한다. 루프 스레드에서 호출해야 한다.
+     */
+    public void start() {
+        try {
+            client.configureBlocking(false);
+            client.socket().setTcpNoDelay(true);
+            client.socket().setKeepAlive(config.isTcpKeepAlive());
+
+            clientKey = loop.register(client, 0, this);
+            if (server != null) {
+                server.socket().setKeepAlive(config.isTcpKeepAlive());
+                serverKey = loop.register(server, 0, this);
+                onConnected();
+                deliverGreeting();
+                deliverPending();
+                return;
+            }
+
+            InetSocketAddress address = upstream.getAddress();
+            if (address.isUnresolved()) {
+                // 아직 이름을 해석하지 못했다. 이벤트 루프에서 조회하지 않고 연결 실패로 처리한다.
+                connectFailed(new UnknownHostException(upstream.getHost()));
+                return;
+            }
+            server = SocketChannel.open();
+            server.configureBlocking(false);
+            server.socket().setTcpNoDelay(true);
+            server.socket().setKeepAlive(config.isTcpKeepAlive());
+
+            connectStartNanos = System.nanoTime();
+            if (server.connect(address)) {
+                connectSucceeded();
+                serverKey = loop.register(server, 0, this);
+                onConnected();
+                deliverPending();
+            } else {
+                serverKey = loop.register(server, SelectionKey.OP_CONNECT, this);
+                if (config.getConnectTimeoutSeconds() > 0) {
+                    connectTimer = SessionTimeout.WHEEL.schedule(() -> loop.execute(this::connectTimedOut),
+                        config.getConnectTimeoutSeconds(), TimeUnit.SECONDS);
+                }
+            }
+        } catch (IOException e) {
+            connectFailed(e);
+        }
+    }
+
+    private void connectSucceeded() {
+        metrics.recordBackendConnect(System.nanoTime() - connectStartNanos);
+        if (upstreamGroup != null) {
+            upstreamGroup.reportSuccess(upstream);
+        }
+    }
+
+    private void connectFailed(IOException e) {
+        if (upstreamGroup != null) {
+            logger.warn("Backend connection to {} failed: {}", upstream, e.getMessage());
+            upstreamGroup.reportFailure(upstream);
+        }
+        metrics.backendConnectFailed();
+        close();
+    }
+
+    private void connectTimedOut() {
+        if (connected || closed) {
+            return;
+        }
+        metrics.recordTimeout(SessionTimeout.CONNECT);
+        connectFailed(new SocketTimeoutException("timed out after " + config.getConnectTimeoutSeconds() + "s"));
+    }
+
+    private void expired(String reason) {
+        if (closed) {
+            return;
+        }
+        logger.info("{} - Closing session from {}: {} timeout", metrics.getProxyName(), client.socket().getRemoteSocketAddress(), reason);
+        metrics.recordTimeout(reason);
+        close();
+    }
+
+    private void onConnected() {
+        connected = true;
+        if (connectTimer != null) {
+            connectTimer.cancel();
+        }
+        timeout.start();
+        clientToServer = new Pipe(clientIo, clientKey, server, serverKey, true);
+        serverToClient = new Pipe(server, serverKey, clientIo, clientKey, false);
+        clientKey.interestOps(SelectionKey.OP_READ);
+        serverKey.interestOps(SelectionKey.OP_READ);
+        // 핸드셰이크와 함께 받은 요청은 이미 TlsChannel 버퍼에 있어 Selector 가 알려 주지 않는다.
+        clientToServer.readBuffered();
+    }
+
+    private void deliverGreeting() throws IOException {
+        if (greeting == null || greeting.position() == 0) {
+            return;
+        }
+        greeting.flip();
+        metrics.addServerToClient(greeting.remaining());
+        serverToClient.buffer.put(greeting);
+        greeting = null;
+        serverToClient.flush();
+    }
+
+    /**
+     * pending 을 백엔드로 보낸다. 중계 버퍼보다 크면 나눠 보낸다. 전송량은 pending 을 만든 쪽에서 센다(헤더는 클라이언트 데이터가 아니다).
+     */
+    private void deliverPending() throws IOException {
+        if (pending == null || !pending.hasRemaining()) {
+            return;
+        }
+        clientToServer.backlog = pending;
+        pending = null;
+        clientToServer.flush();
+    }
+
+    @Override
+    public void handle(SelectionKey key) throws IOException {
+        if (closed) {
+            // 같은 select 에서 다른 키가 먼저 세션을 닫았으면 버퍼는 이미 풀에 돌아갔다.
+            return;
+        }
+        if (!connected) {
+            if (key == serverKey && key.isConnectable()) {
+                try {
+                    server.finishConnect();
+                } catch (IOException e) {
+                    connectFailed(e);
+                    return;
+                }
+                connectSucceeded();
+                onConnected();
+                deliverPending();
+            }
+            return;
+        }
+
+        Pipe inbound = key == clientKey ? clientToServer : serverToClient;
+        Pipe outbound = key == clientKey ? serverToClient : clientToServer;
+
+        if (key.isValid() && key.isWritable()) {
+            outbound.flush();
+        }
+        if (!closed && key.isValid() && key.isReadable()) {
+            inbound.read();
+            if (tls != null && key == clientKey && tls.hasPendingOutput()) {
+                serverToClient.flush(); // 읽다가 엔진이 만든 응답(KeyUpdate 등)
+            }
+        }
+        if (clientToServer.isDone() && serverToClient.isDone()) {
+            close();
+        }
+    }
+
+    @Override
+    public void failed(SelectionKey key, Exception e) {
+        if (!(e instanceof IOException)) {
+            logger.warn("Relay session error", e);
+        }
+        close();
+    }
+
+    /**
+     * 루프에서 양쪽 출력을 닫아(half-close) FIN 을 보낸 뒤 세션을 닫는다. 버퍼에 남은 데이터는 버린다.
+     */
+    @Override
+    public void terminate() {
+        loop.execute(() -> {
+            if (closed) {
+                return;
+            }
+            if (connected) {
+                shutdownOutputQuietly(clientIo);
+                shutdownOutputQuietly(server);
+            }
+            close();
+        });
+    }
+
+    private static void shutdownOutputQuietly(ByteChannel channel) {
+        try {
+            shutdownOutput(channel);
+        } catch (IOException e) {
+            // 이미 끊긴 연결이면 닫기만 한다.
+        }
+    }
+
+    private static void shutdownOutput(ByteChannel channel) throws IOException {
+        if (channel instanceof TlsChannel) {
+            ((TlsChannel) channel).shutdownOutput(); // close_notify 뒤 FIN
+        } else {
+            ((SocketChannel) channel).shutdownOutput();
+        }
+    }
+
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (connectTimer != null) {
+            connectTimer.cancel();
+        }
+        timeout.cancel();
+        if (upstream != null) {
+            upstream.release();
+        }
+        permit.release();
+        metrics.sessionClosed(System.nanoTime() - startNanos);
+        if (clientKey != null) clientKey.cancel();
+        if (serverKey != null) serverKey.cancel();
+        closeQuietly(client);
+        closeQuietly(server);
+        if (tls != null) {
+            closeQuietly(tls);
+        }
+        if (clientToServer != null) {
+            clientToServer.release();
+            serverToClient.release();
+        }
+        registry.remove(this);
+    }
+
+    /**
+     * 한 방향의 데이터 흐름. 버퍼는 항상 쓰기(채우기) 모드로 유지한다.
+     */
+    private final class Pipe {
+        private final ByteChannel src;
+        private final SelectionKey srcKey;
+        private final ByteChannel dst;
+        private final SelectionKey dstKey;
+        private final boolean upstream;
+        private final BufferPool.PooledBuffer lease = directBuffers
+            ? BufferPool.SHARED.acquireDirect(config.getBufferSize())
+            : BufferPool.SHARED.acquireHeap(config.getBufferSize());
+        private final ByteBuffer buffer = lease.buffer();
+        private ByteBuffer backlog; // buffer 보다 먼저 보낼, 아직 buffer 에 옮기지 못한 바이트(읽기 모드)
+        private boolean srcEof = false;
+        private boolean readScheduled = false;
+        private boolean dstShutdown = false;
+        private boolean throttled = false;
+
+        Pipe(ByteChannel src, SelectionKey srcKey, ByteChannel dst, SelectionKey dstKey, boolean upstream) {
+            this.src = src;
+            this.srcKey = srcKey;
+            this.dst = dst;
+            this.dstKey = dstKey;
+            this.upstream = upstream;
+        }
+
+        void read() throws IOException {
+            int n = src.read(buffer);
+            if (n < 0) {
+                srcEof = true;
+            } else if (n > 0) {
+                timeout.touch();
+                long delay;
+                if (upstream) {
+                    metrics.addClientToServer(n);
+                    delay = permit.onUpload(n);
+                } else {
+                    metrics.addServerToClient(n);
+                    delay = permit.onDownload(n);
+                }
+                if (delay > 0) {
+                    throttled = true;
+                    loop.schedule(this::resume, delay);
+                }
+            }
+            flush();
+        }
+
+        private void resume() {
+            throttled = false;
+            if (!closed && !srcEof && buffer.position() == 0) {
+                addInterest(srcKey, SelectionKey.OP_READ);
+                readBuffered();
+            }
+        }
+
+        /**
+         * src 가 TlsChannel 이고 소켓을 읽지 않아도 넘길 평문이 있으면, Selector 를 기다리지 않고 루프에서 곧 읽는다.
+         */
+        void readBuffered() {
+            if (src == tls && !readScheduled && tls.hasBufferedInput()) {
+                readScheduled = true;
+                loop.execute(this::readScheduledInput);
+            }
+        }
+
+        private void readScheduledInput() {
+            readScheduled = false;
+            if (closed || srcEof || throttled || buffer.position() > 0) {
+                return;
+            }
+            try {
+                read();
+                if (clientToServer.isDone() && serverToClient.isDone()) {
+                    close();
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void flush() throws IOException {
+            if (backlog != null) {
+                int n = Math.min(backlog.remaining(), buffer.remaining());
+                buffer.put(backlog.slice(backlog.position(), n));
+                backlog.position(backlog.position() + n);
+                if (!backlog.hasRemaining()) {
+                    backlog = null;
+                }
+            }
+            boolean tlsPending = dst == tls && tls.hasPendingOutput();
+            buffer.flip();
+            if ((buffer.hasRemaining() || tlsPending) && dst.write(buffer) > 0) {
+                timeout.touch();
+            }
+            buffer.compact();
+
+            if (buffer.position() > 0 || backlog != null || (dst == tls && tls.hasPendingOutput())) {
+                // 상대편이 느리면 읽기를 멈추고 쓰기 가능해질 때까지 기다린다.
+                removeInterest(srcKey, SelectionKey.OP_READ);
+                addInterest(dstKey, SelectionKey.OP_WRITE);
+                return;
+            }
+
+            removeInterest(dstKey, SelectionKey.OP_WRITE);
+            if (throttled) {
+                removeInterest(srcKey, SelectionKey.OP_READ);
+            } else if (!srcEof) {
+                addInterest(srcKey, SelectionKey.OP_READ);
+                readBuffered();
+            } else {
+                removeInterest(srcKey, SelectionKey.OP_READ);
+                if (!dstShutdown) {
+                    dstShutdown = true;
+                    shutdownOutput(dst);
+                }
+            }
+        }
+
+        boolean isDone() {
+            return dstShutdown;
+        }
+
+        /**
+         * 버퍼를 풀에 돌려준다. 세션을 닫을 때 한 번만 호출한다.
+         */
+        void release() {
+            lease.release();
+        }
+    }
+
+    private static void addInterest(SelectionKey key, int op) {
+        if (key.isValid() && (key.interestOps() & op) == 0) {
+            key.interestOps(key.interestOps() | op);
+        }
+    }
+
+    private static void removeInterest(SelectionKey key, int op) {
+        if (key.isValid() && (key.interestOps() & op) != 0) {
+            key.interestOps(key.interestOps() & ~op);
+        }
+    }
+}
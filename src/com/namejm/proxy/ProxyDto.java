@@ -4,14 +4,23 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Arrays;
+import java.io.File;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 
 // Lombok의 @Data 또는 @Getter/@Setter/@ToString 등을 사용하면 더 간결해짐
 public class ProxyDto {
     private static final Logger logger = LoggerFactory.getLogger(ProxyDto.class);
-    private static final Set<String> VALID_TYPES = new HashSet<>(Arrays.asList("in"));
+    private static final Set<String> VALID_TYPES = new HashSet<>(Arrays.asList("in", "out", "udp"));
+    private static final Set<String> VALID_PROTOCOLS = new HashSet<>(Arrays.asList("auto", "socks5", "http"));
+    private static final Set<String> VALID_EXECUTORS = new HashSet<>(Arrays.asList("pool", "virtual"));
+    private static final Set<String> VALID_ENGINES = new HashSet<>(Arrays.asList("blocking", "nio"));
+    private static final Set<String> VALID_TLS_MODES = new HashSet<>(Arrays.asList("none", "passthrough", "terminate"));
+    private static final Set<String> VALID_TLS_PROTOCOLS = new HashSet<>(Arrays.asList("TLSv1.3", "TLSv1.2"));
 
     private String type;
     private String name;
@@ -19,9 +28,51 @@ public class ProxyDto {
     private String forwardHost;
     private int forwardPort;
     private List<String> allowedCountries;
+    private RateLimitDto limits = new RateLimitDto(); // 연결 속도, 동시 세션, 대역폭 제한
+    private String engine = "blocking"; // blocking: 연결당 스레드, nio: Selector 이벤트 루프
+    private int ioThreads = 0; // nio 이벤트 루프 수, 0 이면 CPU 코어 수
+    private String executor = "pool"; // blocking 엔진의 실행 방식. pool: 고정 스레드 풀, virtual: 가상 스레드
+    private int maxConnections = 10000; // virtual 실행 방식의 최대 동시 연결 수
+    private boolean zeroCopy = false; // true: 채널 + 다이렉트 버퍼로 중계 (힙 배열 복사 없음)
+    private int bufferSize = 16 * 1024; // 중계 방향별 버퍼 크기(바이트), 공유 버퍼 풀에서 빌림
+    private int acceptThreads = 1; // 수락 스레드(nio 는 수락 루프) 수, 2 이상이면 SO_REUSEPORT 로 리슨 소켓을 나눔
+    private int acceptBacklog = 0; // 리슨 소켓의 대기열 길이, 0 이면 JDK 기본값(50)
+    private boolean rejectWithReset = false; // true: 차단/제한한 연결을 RST 로 끊음 (SO_LINGER 0)
+    private int connectTimeoutSeconds = 10; // 백엔드 연결 타임아웃(초), 0 이면 OS 기본값
+    private int idleTimeoutSeconds = 3600; // 양방향 모두 데이터가 없을 때 세션을 끊는 시간(초), 0 이면 끔
+    private int maxLifetimeSeconds = 0; // 세션 최대 유지 시간(초), 0 이면 제한 없음
+    private boolean tcpKeepAlive = true; // 클라이언트/백엔드 소켓에 TCP keepalive 사용
+    private int drainTimeoutSeconds = 30; // 종료 시 진행 중인 세션이 끝나기를 기다리는 시간(초), 0 이면 바로 끊음
+    private int statsIntervalSeconds = 0; // 처리량 로그 주기(초), 0 이면 끔
+    private List<String> upstreams = List.of(); // 여러 전달 대상 "host:port" 또는 "host:port weight=N", 비어 있으면 forwardHost/forwardPort
+    private String balance = UpstreamGroup.ROUND_ROBIN; // round-robin, least-connections, weighted, hash(클라이언트 IP)
+    private int healthCheckIntervalSeconds = 5; // 전달 대상 TCP 헬스 체크 주기(초), 0 이면 끔
+    private int backendPoolSize = 0; // 미리 연결해 둘 백엔드 유휴 연결 수, 0 이면 끔
+    private int backendPoolMaxIdleSeconds = 30; // 유휴 연결을 새것으로 교체하는 주기(초)
+    private String protocol = "auto"; // out 타입의 요청 형식. auto: 첫 바이트로 구분, socks5, http(CONNECT)
+    private List<String> allowedDestinations = List.of("any", "!localhost", "!private", "!0.0.0.0/8"); // out 타입의 목적지 규칙 (allowedCountries 와 같은 형식)
+    private int resolverThreads = 4; // out 타입의 목적지 이름 조회 스레드 수
+    private int dnsCacheTtlSeconds = 60; // 목적지 이름 조회 결과 캐시 시간(초), 0 이면 캐시하지 않음
+    private int flowIdleTimeoutSeconds = 60; // udp 타입에서 데이터그램이 없으면 흐름을 지우는 시간(초)
+    private int maxFlows = 10000; // udp 타입의 리슨 채널당 최대 흐름 수, 거부한 클라이언트 기록도 따로 이만큼 둔다
+    private String sendProxyProtocol = ProxyProtocol.NONE; // in 타입에서 백엔드에 보낼 PROXY protocol 헤더. none, v1, v2(국가 코드 TLV 포함)
+    private boolean acceptProxyProtocol = false; // true: 모든 연결이 PROXY protocol 헤더로 시작해야 하고, 헤더의 주소로 판정
+    private List<String> trustedProxies = List.of("localhost", "private"); // PROXY protocol 헤더를 보낼 수 있는 주소 (allowedCountries 와 같은 형식)
+    private String tls = "none"; // none, passthrough: SNI 로 대상만 고르고 암호화된 채로 전달, terminate: TLS 를 풀어 평문으로 전달
+    private Map<String, List<String>> sniRoutes = Map.of(); // 서버 이름("*.example.com" 가능)별 전달 대상, 맞지 않으면 forwardHost/upstreams
+    private String tlsKeyStore; // terminate 의 인증서 키스토어(PKCS12, JKS)
+    private String tlsKeyStorePassword = "";
+    private List<String> tlsProtocols = List.of("TLSv1.3", "TLSv1.2");
+    private List<String> alpn = List.of(); // terminate 에서 선택할 수 있는 응용 프로토콜(선호 순), 비어 있으면 ALPN 을 쓰지 않음
+    private int tlsSessionCacheSize = 20480; // terminate 의 서버 세션 캐시 크기, 0 이면 제한 없음
+    private int tlsSessionTimeoutSeconds = 86400; // 세션 재개를 허용하는 시간(초)
+    private List<String> parseErrors = List.of(); // 설정 파일에서 읽지 못한 값, 있으면 isValid() 가 false
 
     public ProxyDto() {}
 
+    public List<String> getParseErrors() { return parseErrors; }
+    public void setParseErrors(List<String> parseErrors) { this.parseErrors = parseErrors != null ? parseErrors : List.of(); }
+
     public String getType() { return type; }
     public void setType(String type) { this.type = type; }
     public String getName() { return name; }
@@ -44,6 +95,173 @@ public class ProxyDto {
         }
     }
 
+    public RateLimitDto getLimits() { return limits; }
+    public void setLimits(RateLimitDto limits) { this.limits = limits != null ? limits : new RateLimitDto(); }
+
+    public String getEngine() { return engine; }
+    public void setEngine(String engine) { this.engine = engine != null ? engine.trim().toLowerCase() : null; }
+    public int getIoThreads() { return ioThreads; }
+    public void setIoThreads(int ioThreads) { this.ioThreads = ioThreads; }
+
+    public String getExecutor() { return executor; }
+    public void setExecutor(String executor) { this.executor = executor != null ? executor.trim().toLowerCase() : null; }
+    public int getMaxConnections() { return maxConnections; }
+    public void setMaxConnections(int maxConnections) { this.maxConnections = maxConnections; }
+
+    public boolean isZeroCopy() { return zeroCopy; }
+    public void setZeroCopy(boolean zeroCopy) { this.zeroCopy = zeroCopy; }
+    public int getBufferSize() { return bufferSize; }
+    public void setBufferSize(int bufferSize) { this.bufferSize = bufferSize; }
+    public int getAcceptThreads() { return acceptThreads; }
+    public void setAcceptThreads(int acceptThreads) { this.acceptThreads = acceptThreads; }
+    public int getAcceptBacklog() { return acceptBacklog; }
+    public void setAcceptBacklog(int acceptBacklog) { this.acceptBacklog = acceptBacklog; }
+    public boolean isRejectWithReset() { return rejectWithReset; }
+    public void setRejectWithReset(boolean rejectWithReset) { this.rejectWithReset = rejectWithReset; }
+    public int getConnectTimeoutSeconds() { return connectTimeoutSeconds; }
+    public void setConnectTimeoutSeconds(int connectTimeoutSeconds) { this.connectTimeoutSeconds = connectTimeoutSeconds; }
+    public int getIdleTimeoutSeconds() { return idleTimeoutSeconds; }
+    public void setIdleTimeoutSeconds(int idleTimeoutSeconds) { this.idleTimeoutSeconds = idleTimeoutSeconds; }
+    public int getMaxLifetimeSeconds() { return maxLifetimeSeconds; }
+    public void setMaxLifetimeSeconds(int maxLifetimeSeconds) { this.maxLifetimeSeconds = maxLifetimeSeconds; }
+    public boolean isTcpKeepAlive() { return tcpKeepAlive; }
+    public void setTcpKeepAlive(boolean tcpKeepAlive) { this.tcpKeepAlive = tcpKeepAlive; }
+    public int getDrainTimeoutSeconds() { return drainTimeoutSeconds; }
+    public void setDrainTimeoutSeconds(int drainTimeoutSeconds) { this.drainTimeoutSeconds = drainTimeoutSeconds; }
+    public int getStatsIntervalSeconds() { return statsIntervalSeconds; }
+    public void setStatsIntervalSeconds(int statsIntervalSeconds) { this.statsIntervalSeconds = statsIntervalSeconds; }
+
+    public List<String> getUpstreams() { return upstreams; }
+    public void setUpstreams(List<String> upstreams) {
+        this.upstreams = upstreams != null ? upstreams.stream().map(String::valueOf).map(String::trim).toList() : List.of();
+    }
+    public String getBalance() { return balance; }
+    public void setBalance(String balance) { this.balance = balance != null ? balance.trim().toLowerCase() : null; }
+    public int getHealthCheckIntervalSeconds() { return healthCheckIntervalSeconds; }
+    public void setHealthCheckIntervalSeconds(int healthCheckIntervalSeconds) { this.healthCheckIntervalSeconds = healthCheckIntervalSeconds; }
+    public int getBackendPoolSize() { return backendPoolSize; }
+    public void setBackendPoolSize(int backendPoolSize) { this.backendPoolSize = backendPoolSize; }
+    public int getBackendPoolMaxIdleSeconds() { return backendPoolMaxIdleSeconds; }
+    public void setBackendPoolMaxIdleSeconds(int backendPoolMaxIdleSeconds) { this.backendPoolMaxIdleSeconds = backendPoolMaxIdleSeconds; }
+
+    public String getProtocol() { return protocol; }
+    public void setProtocol(String protocol) { this.protocol = protocol != null ? protocol.trim().toLowerCase() : null; }
+    public List<String> getAllowedDestinations() { return allowedDestinations; }
+    public void setAllowedDestinations(List<String> allowedDestinations) {
+        this.allowedDestinations = allowedDestinations != null
+            ? allowedDestinations.stream().map(String::valueOf).map(String::toLowerCase).map(String::trim).toList()
+            : List.of();
+    }
+    public int getResolverThreads() { return resolverThreads; }
+    public void setResolverThreads(int resolverThreads) { this.resolverThreads = resolverThreads; }
+    public int getDnsCacheTtlSeconds() { return dnsCacheTtlSeconds; }
+    public void setDnsCacheTtlSeconds(int dnsCacheTtlSeconds) { this.dnsCacheTtlSeconds = dnsCacheTtlSeconds; }
+
+    public int getFlowIdleTimeoutSeconds() { return flowIdleTimeoutSeconds; }
+    public void setFlowIdleTimeoutSeconds(int flowIdleTimeoutSeconds) { this.flowIdleTimeoutSeconds = flowIdleTimeoutSeconds; }
+    public int getMaxFlows() { return maxFlows; }
+    public void setMaxFlows(int maxFlows) { this.maxFlows = maxFlows; }
+
+    public String getSendProxyProtocol() { return sendProxyProtocol; }
+    public void setSendProxyProtocol(String sendProxyProtocol) {
+        this.sendProxyProtocol = sendProxyProtocol != null ? sendProxyProtocol.trim().toLowerCase() : null;
+    }
+    public boolean isAcceptProxyProtocol() { return acceptProxyProtocol; }
+    public void setAcceptProxyProtocol(boolean acceptProxyProtocol) { this.acceptProxyProtocol = acceptProxyProtocol; }
+    public List<String> getTrustedProxies() { return trustedProxies; }
+    public void setTrustedProxies(List<String> trustedProxies) {
+        this.trustedProxies = trustedProxies != null
+            ? trustedProxies.stream().map(String::valueOf).map(String::toLowerCase).map(String::trim).toList()
+            : List.of();
+    }
+
+    public String getTls() { return tls; }
+    public void setTls(String tls) { this.tls = tls != null ? tls.trim().toLowerCase() : null; }
+    public Map<String, List<String>> getSniRoutes() { return sniRoutes; }
+    public void setSniRoutes(Map<String, List<String>> sniRoutes) {
+        Map<String, List<String>> routes = new LinkedHashMap<>();
+        if (sniRoutes != null) {
+            sniRoutes.forEach((pattern, targets) -> routes.put(String.valueOf(pattern).trim().toLowerCase(),
+                targets != null ? targets.stream().map(String::valueOf).map(String::trim).toList() : List.of()));
+        }
+        this.sniRoutes = routes;
+    }
+    public String getTlsKeyStore() { return tlsKeyStore; }
+    public void setTlsKeyStore(String tlsKeyStore) { this.tlsKeyStore = tlsKeyStore; }
+    public String getTlsKeyStorePassword() { return tlsKeyStorePassword; }
+    public void setTlsKeyStorePassword(String tlsKeyStorePassword) { this.tlsKeyStorePassword = tlsKeyStorePassword != null ? tlsKeyStorePassword : ""; }
+    public List<String> getTlsProtocols() { return tlsProtocols; }
+    public void setTlsProtocols(List<String> tlsProtocols) {
+        this.tlsProtocols = tlsProtocols != null ? tlsProtocols.stream().map(String::valueOf).map(String::trim).toList() : List.of();
+    }
+    public List<String> getAlpn() { return alpn; }
+    public void setAlpn(List<String> alpn) {
+        this.alpn = alpn != null ? alpn.stream().map(String::valueOf).map(String::trim).toList() : List.of();
+    }
+    public int getTlsSessionCacheSize() { return tlsSessionCacheSize; }
+    public void setTlsSessionCacheSize(int tlsSessionCacheSize) { this.tlsSessionCacheSize = tlsSessionCacheSize; }
+    public int getTlsSessionTimeoutSeconds() { return tlsSessionTimeoutSeconds; }
+    public void setTlsSessionTimeoutSeconds(int tlsSessionTimeoutSeconds) { this.tlsSessionTimeoutSeconds = tlsSessionTimeoutSeconds; }
+
+    public boolean isUdp() { return "udp".equalsIgnoreCase(type); }
+    public boolean isOutbound() { return "out".equalsIgnoreCase(type); }
+    public boolean acceptsSocks() { return !"http".equals(protocol); }
+    public boolean acceptsHttp() { return !"socks5".equals(protocol); }
+    public boolean isNioEngine() { return "nio".equals(engine); }
+    public boolean isVirtualExecutor() { return "virtual".equals(executor); }
+    public boolean isTls() { return tls != null && !"none".equals(tls); }
+    public boolean isTlsTerminate() { return "terminate".equals(tls); }
+    public boolean hasDefaultUpstream() { return !upstreams.isEmpty() || (forwardHost != null && !forwardHost.trim().isEmpty()); }
+
+    /**
+     * allowedCountries, allowedDestinations 를 뺀 나머지 설정이 모두 같은지. 같으면 설정을 다시 읽을 때 리슨 소켓을 다시 열지 않고
+     * 접근 제어 규칙만 바꿔 끼운다.
+     */
+    public boolean hasSameSettingsExceptAccessControl(ProxyDto other) {
+        return Objects.equals(type, other.type)
+            && Objects.equals(name, other.name)
+            && bindPort == other.bindPort
+            && Objects.equals(forwardHost, other.forwardHost)
+            && forwardPort == other.forwardPort
+            && Objects.equals(limits, other.limits)
+            && Objects.equals(engine, other.engine)
+            && ioThreads == other.ioThreads
+            && Objects.equals(executor, other.executor)
+            && maxConnections == other.maxConnections
+            && zeroCopy == other.zeroCopy
+            && bufferSize == other.bufferSize
+            && acceptThreads == other.acceptThreads
+            && acceptBacklog == other.acceptBacklog
+            && rejectWithReset == other.rejectWithReset
+            && connectTimeoutSeconds == other.connectTimeoutSeconds
+            && idleTimeoutSeconds == other.idleTimeoutSeconds
+            && maxLifetimeSeconds == other.maxLifetimeSeconds
+            && tcpKeepAlive == other.tcpKeepAlive
+            && drainTimeoutSeconds == other.drainTimeoutSeconds
+            && statsIntervalSeconds == other.statsIntervalSeconds
+            && Objects.equals(upstreams, other.upstreams)
+            && Objects.equals(balance, other.balance)
+            && healthCheckIntervalSeconds == other.healthCheckIntervalSeconds
+            && backendPoolSize == other.backendPoolSize
+            && backendPoolMaxIdleSeconds == other.backendPoolMaxIdleSeconds
+            && Objects.equals(protocol, other.protocol)
+            && resolverThreads == other.resolverThreads
+            && dnsCacheTtlSeconds == other.dnsCacheTtlSeconds
+            && flowIdleTimeoutSeconds == other.flowIdleTimeoutSeconds
+            && maxFlows == other.maxFlows
+            && Objects.equals(sendProxyProtocol, other.sendProxyProtocol)
+            && acceptProxyProtocol == other.acceptProxyProtocol
+            && Objects.equals(trustedProxies, other.trustedProxies)
+            && Objects.equals(tls, other.tls)
+            && Objects.equals(sniRoutes, other.sniRoutes)
+            && Objects.equals(tlsKeyStore, other.tlsKeyStore)
+            && Objects.equals(tlsKeyStorePassword, other.tlsKeyStorePassword)
+            && Objects.equals(tlsProtocols, other.tlsProtocols)
+            && Objects.equals(alpn, other.alpn)
+            && tlsSessionCacheSize == other.tlsSessionCacheSize
+            && tlsSessionTimeoutSeconds == other.tlsSessionTimeoutSeconds;
+    }
+
     @Override
     public String toString() {
         return "ProxyDto{" +
@@ -53,6 +271,43 @@ public class ProxyDto {
                ", forwardHost='" + forwardHost + '\'' +
                ", forwardPort=" + forwardPort +
                ", allowedCountries=" + allowedCountries +
+               ", limits=" + limits +
+               ", engine='" + engine + '\'' +
+               ", ioThreads=" + ioThreads +
+               ", executor='" + executor + '\'' +
+               ", maxConnections=" + maxConnections +
+               ", zeroCopy=" + zeroCopy +
+               ", bufferSize=" + bufferSize +
+               ", acceptThreads=" + acceptThreads +
+               ", acceptBacklog=" + acceptBacklog +
+               ", rejectWithReset=" + rejectWithReset +
+               ", connectTimeoutSeconds=" + connectTimeoutSeconds +
+               ", idleTimeoutSeconds=" + idleTimeoutSeconds +
+               ", maxLifetimeSeconds=" + maxLifetimeSeconds +
+               ", tcpKeepAlive=" + tcpKeepAlive +
+               ", drainTimeoutSeconds=" + drainTimeoutSeconds +
+               ", statsIntervalSeconds=" + statsIntervalSeconds +
+               ", upstreams=" + upstreams +
+               ", balance='" + balance + '\'' +
+               ", healthCheckIntervalSeconds=" + healthCheckIntervalSeconds +
+               ", backendPoolSize=" + backendPoolSize +
+               ", backendPoolMaxIdleSeconds=" + backendPoolMaxIdleSeconds +
+               ", protocol='" + protocol + '\'' +
+               ", allowedDestinations=" + allowedDestinations +
+               ", resolverThreads=" + resolverThreads +
+               ", dnsCacheTtlSeconds=" + dnsCacheTtlSeconds +
+               ", flowIdleTimeoutSeconds=" + flowIdleTimeoutSeconds +
+               ", maxFlows=" + maxFlows +
+               ", sendProxyProtocol='" + sendProxyProtocol + '\'' +
+               ", acceptProxyProtocol=" + acceptProxyProtocol +
+               ", trustedProxies=" + trustedProxies +
+               ", tls='" + tls + '\'' +
+               ", sniRoutes=" + sniRoutes +
+               ", tlsKeyStore='" + tlsKeyStore + '\'' +
+               ", tlsProtocols=" + tlsProtocols +
+               ", alpn=" + alpn +
+               ", tlsSessionCacheSize=" + tlsSessionCacheSize +
+               ", tlsSessionTimeoutSeconds=" + tlsSessionTimeoutSeconds +
                '}';
     }
 
@@ -62,46 +317,239 @@ public class ProxyDto {
      */
     public boolean isValid() {
         boolean valid = true;
+        for (String error : parseErrors) {
+            logger.error("Invalid value in proxy '{}': {}", name, error);
+            valid = false;
+        }
         if (name == null || name.trim().isEmpty()) {
             logger.error("Proxy name is missing or empty.");
             valid = false;
         }
         if (!VALID_TYPES.contains(type != null ? type.toLowerCase() : "")) {
-            logger.error("Invalid proxy type '{}' for '{}'. Only 'in' is currently supported.", type, name);
+            logger.error("Invalid proxy type '{}' for '{}'. Must be 'in', 'out' or 'udp'.", type, name);
             valid = false;
         }
         if (bindPort <= 0 || bindPort > 65535) {
             logger.error("Invalid bindPort '{}' for proxy '{}'. Port must be between 1 and 65535.", bindPort, name);
             valid = false;
         }
-        if (forwardHost == null || forwardHost.trim().isEmpty()) {
-            logger.error("forwardHost is missing or empty for proxy '{}'.", name);
+        if (isOutbound()) {
+            // out 타입은 목적지를 요청마다 클라이언트가 정하므로 전달 대상을 쓰지 않는다.
+            if (!VALID_PROTOCOLS.contains(protocol != null ? protocol : "")) {
+                logger.error("Invalid protocol '{}' for proxy '{}'. Must be 'auto', 'socks5' or 'http'.", protocol, name);
+                valid = false;
+            }
+            if (resolverThreads <= 0) {
+                logger.error("Invalid resolverThreads '{}' for proxy '{}'. Must be greater than 0.", resolverThreads, name);
+                valid = false;
+            }
+            if (dnsCacheTtlSeconds < 0) {
+                logger.error("Invalid dnsCacheTtlSeconds '{}' for proxy '{}'. Must be 0 (off) or greater.", dnsCacheTtlSeconds, name);
+                valid = false;
+            }
+            for (String rule : allowedDestinations) {
+                String error = AccessControlList.validateRule(rule);
+                if (error != null) {
+                    logger.error("Invalid entry '{}' in allowedDestinations for proxy '{}': {}.", rule, name, error);
+                    valid = false;
+                }
+            }
+        } else if (isTls() && !sniRoutes.isEmpty() && !hasDefaultUpstream()) {
+            logger.info("Proxy '{}' has no default upstream. Connections matching no sniRoutes entry will be closed.", name);
+        } else if (upstreams.isEmpty()) {
+            if (forwardHost == null || forwardHost.trim().isEmpty()) {
+                logger.error("forwardHost is missing or empty for proxy '{}'.", name);
+                valid = false;
+            }
+            if (forwardPort <= 0 || forwardPort > 65535) {
+                logger.error("Invalid forwardPort '{}' for proxy '{}'. Port must be between 1 and 65535.", forwardPort, name);
+                valid = false;
+            }
+        } else {
+            for (String upstream : upstreams) {
+                try {
+                    Upstream.parse(upstream);
+                } catch (IllegalArgumentException e) {
+                    logger.error("Invalid upstream '{}' for proxy '{}': {}", upstream, name, e.getMessage());
+                    valid = false;
+                }
+            }
+        }
+        if (flowIdleTimeoutSeconds <= 0) {
+            logger.error("Invalid flowIdleTimeoutSeconds '{}' for proxy '{}'. Must be greater than 0.", flowIdleTimeoutSeconds, name);
+            valid = false;
+        }
+        if (maxFlows <= 0) {
+            logger.error("Invalid maxFlows '{}' for proxy '{}'. Must be greater than 0.", maxFlows, name);
+            valid = false;
+        }
+        if (!ProxyProtocol.isValidVersion(sendProxyProtocol)) {
+            logger.error("Invalid sendProxyProtocol '{}' for proxy '{}'. Must be 'none', 'v1' or 'v2'.", sendProxyProtocol, name);
+            valid = false;
+        } else if (!ProxyProtocol.NONE.equals(sendProxyProtocol) && (isOutbound() || isUdp())) {
+            logger.error("sendProxyProtocol is only supported by 'in' proxies, not by '{}'.", name);
+            valid = false;
+        }
+        if (acceptProxyProtocol && isUdp()) {
+            logger.error("acceptProxyProtocol is not supported by udp proxy '{}'.", name);
+            valid = false;
+        }
+        try {
+            // 그룹은 참조할 수 없다(주소와 CIDR, localhost, private 만).
+            AccessControlList.compile(trustedProxies, null);
+        } catch (IllegalArgumentException e) {
+            logger.error("Invalid trustedProxies for proxy '{}': {}.", name, e.getMessage());
+            valid = false;
+        }
+        if (!isTlsSettingsValid()) {
+            valid = false;
+        }
+        if (!UpstreamGroup.STRATEGIES.contains(balance != null ? balance : "")) {
+            logger.error("Invalid balance '{}' for proxy '{}'. Must be one of {}.", balance, name, UpstreamGroup.STRATEGIES);
+            valid = false;
+        }
+        if (healthCheckIntervalSeconds < 0) {
+            logger.error("Invalid healthCheckIntervalSeconds '{}' for proxy '{}'. Must be 0 (off) or greater.", healthCheckIntervalSeconds, name);
+            valid = false;
+        }
+        if (!VALID_ENGINES.contains(engine != null ? engine : "")) {
+            logger.error("Invalid engine '{}' for proxy '{}'. Must be 'blocking' or 'nio'.", engine, name);
             valid = false;
         }
-        if (forwardPort <= 0 || forwardPort > 65535) {
-            logger.error("Invalid forwardPort '{}' for proxy '{}'. Port must be between 1 and 65535.", forwardPort, name);
+        if (ioThreads < 0) {
+            logger.error("Invalid ioThreads '{}' for proxy '{}'. Must be 0 (auto) or greater.", ioThreads, name);
+            valid = false;
+        }
+        if (!VALID_EXECUTORS.contains(executor != null ? executor : "")) {
+            logger.error("Invalid executor '{}' for proxy '{}'. Must be 'pool' or 'virtual'.", executor, name);
+            valid = false;
+        }
+        if (maxConnections <= 0) {
+            logger.error("Invalid maxConnections '{}' for proxy '{}'. Must be greater than 0.", maxConnections, name);
+            valid = false;
+        }
+        if (acceptThreads <= 0) {
+            logger.error("Invalid acceptThreads '{}' for proxy '{}'. Must be greater than 0.", acceptThreads, name);
+            valid = false;
+        }
+        if (acceptBacklog < 0) {
+            logger.error("Invalid acceptBacklog '{}' for proxy '{}'. Must be 0 (default) or greater.", acceptBacklog, name);
+            valid = false;
+        }
+        if (connectTimeoutSeconds < 0) {
+            logger.error("Invalid connectTimeoutSeconds '{}' for proxy '{}'. Must be 0 (OS default) or greater.", connectTimeoutSeconds, name);
+            valid = false;
+        }
+        if (idleTimeoutSeconds < 0) {
+            logger.error("Invalid idleTimeoutSeconds '{}' for proxy '{}'. Must be 0 (off) or greater.", idleTimeoutSeconds, name);
+            valid = false;
+        }
+        if (maxLifetimeSeconds < 0) {
+            logger.error("Invalid maxLifetimeSeconds '{}' for proxy '{}'. Must be 0 (off) or greater.", maxLifetimeSeconds, name);
+            valid = false;
+        }
+        if (bufferSize < 1024 || bufferSize > 1024 * 1024) {
+            logger.error("Invalid bufferSize '{}' for proxy '{}'. Must be between 1024 and 1048576.", bufferSize, name);
+            valid = false;
+        }
+        if (drainTimeoutSeconds < 0) {
+            logger.error("Invalid drainTimeoutSeconds '{}' for proxy '{}'. Must be 0 (no wait) or greater.", drainTimeoutSeconds, name);
+            valid = false;
+        }
+        if (statsIntervalSeconds < 0) {
+            logger.error("Invalid statsIntervalSeconds '{}' for proxy '{}'. Must be 0 (off) or greater.", statsIntervalSeconds, name);
+            valid = false;
+        }
+        if (backendPoolSize < 0) {
+            logger.error("Invalid backendPoolSize '{}' for proxy '{}'. Must be 0 (off) or greater.", backendPoolSize, name);
+            valid = false;
+        }
+        if (backendPoolMaxIdleSeconds <= 0) {
+            logger.error("Invalid backendPoolMaxIdleSeconds '{}' for proxy '{}'. Must be greater than 0.", backendPoolMaxIdleSeconds, name);
+            valid = false;
+        }
+        if (!limits.isValid(name)) {
             valid = false;
         }
         if (allowedCountries == null || allowedCountries.isEmpty()) {
             logger.warn("allowedCountries is empty for proxy '{}'. No connections will be allowed unless 'any' is added.", name);
         } else {
-            for (String country : allowedCountries) {
-                if("Private".equalsIgnoreCase(country) || "localhost".equalsIgnoreCase(country) || "Any".equalsIgnoreCase(country)) {
-                    valid = true;
-                    break;
-                }
-                if (country == null || country.isEmpty()) {
-                    logger.error("Empty value found in allowedCountries for proxy '{}'.", name);
+            for (String rule : allowedCountries) {
+                String error = AccessControlList.validateRule(rule);
+                if (error != null) {
+                    logger.error("Invalid entry '{}' in allowedCountries for proxy '{}': {}.", rule, name, error);
                     valid = false;
-                    break;
                 }
-                if (!country.matches("^[a-zA-Z]{2}$")) {
-                    logger.error("Invalid entry '{}' in allowedCountries for proxy '{}'. Must be a 2-letter country code or a reserved word (any, localhost, private).", country, name);
+            }
+        }
+
+        return valid;
+    }
+
+    private boolean isTlsSettingsValid() {
+        boolean valid = true;
+        if (!VALID_TLS_MODES.contains(tls != null ? tls : "")) {
+            logger.error("Invalid tls '{}' for proxy '{}'. Must be 'none', 'passthrough' or 'terminate'.", tls, name);
+            return false;
+        }
+        if (!isTls()) {
+            if (!sniRoutes.isEmpty()) {
+                logger.error("sniRoutes requires tls 'passthrough' or 'terminate' for proxy '{}'.", name);
+                valid = false;
+            }
+            return valid;
+        }
+        if (isOutbound() || isUdp()) {
+            logger.error("tls is only supported by 'in' proxies, not by '{}'.", name);
+            valid = false;
+        }
+        for (Map.Entry<String, List<String>> route : sniRoutes.entrySet()) {
+            String error = SniRouter.validatePattern(route.getKey());
+            if (error != null) {
+                logger.error("Invalid server name '{}' in sniRoutes for proxy '{}': {}.", route.getKey(), name, error);
+                valid = false;
+            }
+            if (route.getValue().isEmpty()) {
+                logger.error("sniRoutes entry '{}' has no upstream for proxy '{}'.", route.getKey(), name);
+                valid = false;
+            }
+            for (String upstream : route.getValue()) {
+                try {
+                    Upstream.parse(upstream);
+                } catch (IllegalArgumentException e) {
+                    logger.error("Invalid upstream '{}' in sniRoutes for proxy '{}': {}", upstream, name, e.getMessage());
                     valid = false;
                 }
             }
         }
-
+        if (!isTlsTerminate()) {
+            return valid;
+        }
+        if (tlsKeyStore == null || tlsKeyStore.trim().isEmpty()) {
+            logger.error("tlsKeyStore is required for tls 'terminate' in proxy '{}'.", name);
+            valid = false;
+        } else if (!new File(tlsKeyStore).canRead()) {
+            logger.error("tlsKeyStore '{}' is not readable for proxy '{}'.", tlsKeyStore, name);
+            valid = false;
+        }
+        if (tlsProtocols.isEmpty() || !VALID_TLS_PROTOCOLS.containsAll(tlsProtocols)) {
+            logger.error("Invalid tlsProtocols {} for proxy '{}'. Must be 'TLSv1.3' and/or 'TLSv1.2'.", tlsProtocols, name);
+            valid = false;
+        }
+        for (String protocol : alpn) {
+            if (protocol.isEmpty() || protocol.length() > 255) {
+                logger.error("Invalid alpn entry '{}' for proxy '{}'.", protocol, name);
+                valid = false;
+            }
+        }
+        if (tlsSessionCacheSize < 0) {
+            logger.error("Invalid tlsSessionCacheSize '{}' for proxy '{}'. Must be 0 (unlimited) or greater.", tlsSessionCacheSize, name);
+            valid = false;
+        }
+        if (tlsSessionTimeoutSeconds <= 0) {
+            logger.error("Invalid tlsSessionTimeoutSeconds '{}' for proxy '{}'. Must be greater than 0.", tlsSessionTimeoutSeconds, name);
+            valid = false;
+        }
         return valid;
     }
 }
@@ -3,15 +3,43 @@ package com.namejm.proxy;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
-import java.util.Locale;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.IntToLongFunction;
+import java.util.function.LongConsumer;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,27 +48,172 @@ import static ch.qos.logback.core.util.CloseUtil.closeQuietly;
 
 public class ProxyMain {
     private static final Logger logger = LoggerFactory.getLogger(ProxyMain.class);
+    private static final boolean REUSE_PORT_SUPPORTED = isReusePortSupported();
+    private static final int UDP_RECEIVE_BUFFER_SIZE = 4 * 1024 * 1024;
 
-    private ProxyDto config = null;
+    // 시작할 때의 설정. updateAccessControl 은 접근 제어 외의 설정이 같을 때만 불리므로 여기서 읽는 값은 바뀌지 않는다.
+    private final ProxyDto config;
     private final InetAddressLocator inetAddressLocator;
-    private ExecutorService executorService;
-    private ServerSocket serverSocket;
+    private final ProxyMetrics metrics;
+    private volatile AccessRules accessRules; // 설정을 다시 읽으면 통째로 교체된다
+    private final AccessControlList trustedProxies; // PROXY protocol 헤더를 보낼 수 있는 주소
+    private final RateLimiter rateLimiter;
+    private ExecutorService executorService; // 이 프록시만 쓰는 실행기. 공유 런타임의 작업 스레드를 쓰면 null
+    private Executor executor; // blocking 엔진이 연결 처리를 맡기는 곳
+    private ProxyRuntime.WorkerQuota workerQuota; // 공유 런타임의 작업 스레드를 쓸 때만
+    private ThreadFactory relayThreadFactory;
+    private Semaphore connectionLimit;
+    private final List<ServerSocket> serverSockets = new ArrayList<>();
+    private final List<Thread> acceptThreads = new ArrayList<>();
+    private final List<ServerSocketChannel> serverChannels = new ArrayList<>();
+    private final List<NioEventLoop> acceptLoops = new ArrayList<>(); // serverChannels 와 같은 순서
+    private final List<UdpRelay> udpRelays = new ArrayList<>(); // udp 타입의 리슨 채널마다 하나
+    private NioRelayEngine relayEngine;
+    private ProxyRuntime runtime; // null 이면 프록시마다 따로 루프와 스레드를 둔다
+    private UpstreamGroup upstreamGroup; // out 타입과 기본 대상이 없는 tls 프록시는 없음
+    private SniRouter sniRouter; // tls 프록시만
+    private SSLContext sslContext; // tls terminate 만
+    private DnsResolver resolver; // out 타입만
+    private AccessLog accessLog;
+    private ClientTracker clientTracker; // autoBan 이 꺼져 있으면 null
+    private final SessionRegistry sessions = new SessionRegistry();
     private volatile boolean isRunning = true;
+    private final Object drainLock = new Object();
+    private volatile long drainDeadlineNanos; // stopAccepting 전에는 0
+    private boolean shutDown = false;
 
     public ProxyMain(ProxyDto config, InetAddressLocator inetAddressLocator) {
+        this(config, inetAddressLocator, AccessControlList.compile(config.getAllowedCountries(), null));
+    }
+
+    public ProxyMain(ProxyDto config, InetAddressLocator inetAddressLocator, AccessControlList acl) {
+        this(config, inetAddressLocator, acl, AccessControlList.compile(config.getAllowedDestinations(), null));
+    }
+
+    public ProxyMain(ProxyDto config, InetAddressLocator inetAddressLocator, AccessControlList acl,
+                     AccessControlList destinationAcl) {
         this.config = config;
         this.inetAddressLocator = inetAddressLocator;
+        this.accessRules = new AccessRules(config, acl, destinationAcl);
+        this.trustedProxies = AccessControlList.compile(config.getTrustedProxies(), null);
+        this.metrics = new ProxyMetrics(config.getName());
+        this.rateLimiter = new RateLimiter(config.getLimits());
     }
 
     public void start() throws IOException {
+        metrics.startReporting(config.getStatsIntervalSeconds());
+
+        if (config.isOutbound()) {
+            // 목적지 이름 조회와 연결을 기다리는 동안 스레드를 잡지 않도록 out 타입은 항상 이벤트 루프로 처리한다.
+            resolver = new DnsResolver(config.getName(), config.getResolverThreads(), config.getDnsCacheTtlSeconds());
+            startNio();
+            return;
+        }
+
+        if (config.hasDefaultUpstream()) {
+            upstreamGroup = UpstreamGroup.fromConfig(config);
+            upstreamGroup.start();
+        }
+
+        if (config.isUdp()) {
+            startUdp();
+            return;
+        }
+        if (config.isTls()) {
+            // 핸드셰이크를 기다리는 동안 스레드를 잡지 않도록 tls 프록시도 항상 이벤트 루프로 처리한다.
+            sniRouter = new SniRouter(config);
+            sniRouter.start();
+            if (config.isTlsTerminate()) {
+                sslContext = createSslContext();
+            }
+            startNio();
+            return;
+        }
+        if (config.isNioEngine()) {
+            startNio();
+            return;
+        }
+
+        // 작업 스레드를 함께 쓰지 않는 pool 프록시는 공유 런타임이 있어도 자기 수락 스레드와 스레드 풀을 쓴다.
+        if (runtime != null && (config.isVirtualExecutor() || runtime.isSharedWorkers())) {
+            // 수락도 공유 이벤트 루프에서 한다. 수락한 소켓은 blocking 모드 그대로 작업 스레드에 넘긴다.
+            relayEngine = runtime.getEngine();
+            openServerChannels();
+            if (config.isVirtualExecutor()) {
+                startVirtualExecutor();
+            } else {
+                startSharedWorkers();
+            }
+            registerAcceptors(true);
+            return;
+        }
+
+        int acceptors = acceptorCount();
+        for (int i = 0; i < acceptors; i++) {
+            // zeroCopy 는 채널 기반 소켓이어야 중계 시 다이렉트 버퍼를 사용할 수 있다.
+            serverSockets.add(openServerSocket(config.isZeroCopy(), acceptors > 1));
+        }
+
+        if (config.isVirtualExecutor()) {
+            startVirtualExecutor();
+        } else {
+            startPoolExecutor();
+        }
+
+        // 연결 수락 스레드. SO_REUSEPORT 를 쓸 수 없으면 여러 스레드가 같은 소켓에서 수락한다.
+        for (int i = 0; i < config.getAcceptThreads(); i++) {
+            ServerSocket listener = serverSockets.get(i % serverSockets.size());
+            Thread acceptThread = new Thread(() -> acceptConnections(listener));
+            acceptThread.setName(config.getAcceptThreads() > 1
+                ? "ProxyAcceptThread-" + config.getBindPort() + "-" + i
+                : "ProxyAcceptThread-" + config.getBindPort());
+            acceptThreads.add(acceptThread);
+            acceptThread.start();
+        }
+    }
+
+    /**
+     * 리슨 소켓 수. acceptThreads 가 2 이상이고 SO_REUSEPORT 를 지원하면 수락 스레드마다 따로 두어
+     * 커널이 새 연결을 나눠 주도록 한다.
+     */
+    private int acceptorCount() {
+        if (config.getAcceptThreads() <= 1) {
+            return 1;
+        }
+        if (!REUSE_PORT_SUPPORTED) {
+            logger.warn("{} - SO_REUSEPORT is not supported on this platform. Using a single listen socket for {} acceptors.",
+                config.getName(), config.getAcceptThreads());
+            return 1;
+        }
+        return config.getAcceptThreads();
+    }
+
+    private ServerSocket openServerSocket(boolean channel, boolean reusePort) throws IOException {
+        ServerSocket listener = channel ? ServerSocketChannel.open().socket() : new ServerSocket();
+        listener.setReuseAddress(true);
+        if (reusePort) {
+            listener.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        }
+        listener.bind(new InetSocketAddress(config.getBindPort()), config.getAcceptBacklog());
+        return listener;
+    }
+
+    private static boolean isReusePortSupported() {
+        try (ServerSocket probe = new ServerSocket()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void startPoolExecutor() {
         // 스레드 풀 설정
         int corePoolSize = Runtime.getRuntime().availableProcessors();
         int maxPoolSize = corePoolSize * 2;
         long keepAliveTime = 60L;
 
-        // 대기 큐와 거부 핸들러
+        // 대기 큐. 가득 차면 수락 스레드에서 실행하지 않고 거부(LIMITED)해서 수락이 멈추지 않게 한다.
         LinkedBlockingQueue<Runnable> workQueue = new LinkedBlockingQueue<>(500);
-        RejectedExecutionHandler rejectionHandler = new ThreadPoolExecutor.CallerRunsPolicy();
 
         executorService = new ThreadPoolExecutor(
             corePoolSize,
@@ -48,100 +221,779 @@ public class ProxyMain {
             keepAliveTime,
             TimeUnit.SECONDS,
             workQueue,
-            rejectionHandler
+            new ThreadPoolExecutor.AbortPolicy()
         );
-
-        serverSocket = new ServerSocket(config.getBindPort());
-        serverSocket.setReuseAddress(true);
+        executor = executorService;
 
         logger.info("Proxy server started on port {} with thread pool: core={}, max={}",
             config.getBindPort(), corePoolSize, maxPoolSize);
+    }
 
-        // 연결 수락 스레드
-        Thread acceptThread = new Thread(this::acceptConnections);
-        acceptThread.setName("ProxyAcceptThread-" + config.getBindPort());
-        acceptThread.start();
+    /**
+     * 연결 처리와 양방향 중계를 모두 가상 스레드에서 실행한다.
+     * 대기 큐 대신 동시 연결 수 제한(maxConnections)을 두고, 초과한 연결은 수락 스레드에서 바로 닫는다.
+     */
+    private void startVirtualExecutor() {
+        ThreadFactory threadFactory = VirtualThreads.factory("ProxyWorker-" + config.getBindPort() + "-");
+        executorService = VirtualThreads.newThreadPerTaskExecutor(threadFactory);
+        executor = executorService;
+        relayThreadFactory = threadFactory;
+        connectionLimit = new Semaphore(config.getMaxConnections());
+
+        logger.info("Proxy server started on port {} with virtual threads: maxConnections={}",
+            config.getBindPort(), config.getMaxConnections());
     }
 
-    private void acceptConnections() {
-        while (isRunning && !Thread.currentThread().isInterrupted()) {
+    /**
+     * blocking 엔진이 공유 런타임의 작업 스레드를 쓴다. 몫과 대기 큐를 넘는 연결은 풀이 가득 찬 것처럼 거부(LIMITED)하고,
+     * connectTimeoutSeconds 안에 차례가 오지 않은 연결도 닫는다.
+     */
+    private void startSharedWorkers() {
+        workerQuota = runtime.newWorkerQuota();
+        executor = workerQuota;
+
+        logger.info("Proxy server started on port {} with shared worker pool: threads={}, share={}, queue={}, acceptors={}",
+            config.getBindPort(), runtime.getWorkerThreads(), runtime.getWorkerShare(), runtime.getWorkerQueue(),
+            serverChannels.size());
+    }
+
+    private void startNio() throws IOException {
+        if (runtime != null) {
+            if (config.getIoThreads() > 0) {
+                logger.info("{} - ioThreads is ignored, using the {} shared event loops", config.getName(), runtime.getIoThreads());
+            }
+            relayEngine = runtime.getEngine();
+        } else {
+            relayEngine = new NioRelayEngine("ProxyIoLoop-" + config.getBindPort(), config.getIoThreads());
+        }
+        openServerChannels();
+        if (runtime == null) {
+            relayEngine.start();
+        }
+        registerAcceptors(false);
+
+        logger.info("Proxy server started on port {} with nio engine: ioThreads={}{}, acceptors={}",
+            config.getBindPort(), relayEngine.size(), runtime != null ? " (shared)" : "", serverChannels.size());
+    }
+
+    private void openServerChannels() throws IOException {
+        int acceptors = acceptorCount();
+        for (int i = 0; i < acceptors; i++) {
+            ServerSocketChannel serverChannel = openServerSocket(true, acceptors > 1).getChannel();
+            serverChannel.configureBlocking(false);
+            serverChannels.add(serverChannel);
+        }
+    }
+
+    /**
+     * 리슨 채널마다 다른 루프가 수락을 맡는다. nio 는 수락된 연결을 라운드로빈으로 각 루프에 배정하고,
+     * blocking 이면 작업 스레드로 넘긴다.
+     */
+    private void registerAcceptors(boolean blocking) {
+        for (ServerSocketChannel serverChannel : serverChannels) {
+            NioEventLoop acceptLoop = relayEngine.next();
+            acceptLoops.add(acceptLoop);
+            acceptLoop.execute(() -> {
+                try {
+                    acceptLoop.register(serverChannel, SelectionKey.OP_ACCEPT,
+                        key -> acceptNioConnections(serverChannel, blocking));
+                } catch (IOException e) {
+                    logger.error("Failed to register server channel on port {}", config.getBindPort(), e);
+                }
+            });
+        }
+    }
+
+    /**
+     * udp 타입. 리슨 채널마다 이벤트 루프 하나가 수신과 그 채널로 들어온 흐름을 모두 맡는다(ioThreads 는 쓰지 않는다).
+     * 공유 런타임이 있으면 그 루프 중 하나를 쓴다.
+     * acceptThreads 가 2 이상이면 SO_REUSEPORT 로 채널을 나눠 커널이 클라이언트 주소별로 분배한다.
+     */
+    private void startUdp() throws IOException {
+        int listeners = acceptorCount();
+        relayEngine = runtime != null ? runtime.getEngine() : new NioRelayEngine("ProxyUdpLoop-" + config.getBindPort(), listeners);
+        for (int i = 0; i < listeners; i++) {
+            DatagramChannel channel = DatagramChannel.open();
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            if (listeners > 1) {
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            // 루프가 잠시 밀려도 몰려오는 데이터그램을 커널에서 버리지 않도록 수신 버퍼를 키운다(상한은 net.core.rmem_max).
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, UDP_RECEIVE_BUFFER_SIZE);
+            channel.bind(new InetSocketAddress(config.getBindPort()));
+            channel.configureBlocking(false);
+            udpRelays.add(new UdpRelay(relayEngine.next(), channel, config, upstreamGroup, metrics, sessions, this::admit));
+        }
+
+        if (runtime == null) {
+            relayEngine.start();
+        }
+        for (UdpRelay relay : udpRelays) {
+            relay.getLoop().execute(relay::start);
+        }
+
+        logger.info("UDP proxy server started on port {}: listeners={}, flowIdleTimeout={}s",
+            config.getBindPort(), listeners, config.getFlowIdleTimeoutSeconds());
+    }
+
+    /**
+     * 접근 제어와 연결 제한을 판정하고 기록한다. 허용되면 Permit, 차단/제한이면 null.
+     */
+    private RateLimiter.Permit admit(InetSocketAddress remote) {
+        if (isBanned(remote.getAddress())) {
+            metrics.recordBanned();
+            return null;
+        }
+        return admit(remote, lookupCountry(remote.getAddress()));
+    }
+
+    private RateLimiter.Permit admit(InetSocketAddress remote, String country) {
+        boolean connectionAllowed = isAllowedConnection(remote.getAddress(), country);
+        RateLimiter.Permit permit = connectionAllowed ? rateLimiter.admit(remote.getAddress()) : null;
+        String status = connectionStatus(connectionAllowed, permit);
+        metrics.recordConnection(country, status);
+        logConnection(remote.getAddress(), remote.getPort(), status, country);
+        track(remote.getAddress(), status);
+        return permit;
+    }
+
+    /**
+     * 자동 차단 중인 주소인지. 차단 목록 조회뿐이라 GeoIP 조회, 접근 제어, 로그보다 먼저 한다.
+     */
+    private boolean isBanned(InetAddress address) {
+        return clientTracker != null && !isAutoBanExempt(address) && clientTracker.isBanned(address);
+    }
+
+    /**
+     * acceptProxyProtocol 인 프록시에서 앞단(trustedProxies) 주소는 기록도 차단도 하지 않는다.
+     * LOCAL/UNKNOWN 헤더나 헤더 전의 판정은 앞단 주소로 이뤄지므로, 세면 앞단 하나가 모든 클라이언트의 몫으로 차단된다.
+     */
+    private boolean isAutoBanExempt(InetAddress address) {
+        return config.isAcceptProxyProtocol() && trustedProxies.isAllowed(address, InetAddressLocator.UNKNOWN);
+    }
+
+    /**
+     * 차단 중인 주소의 연결을 로그 없이 닫는다. 차단할 때 한 번만 로그를 남긴다.
+     */
+    private void rejectBanned(Socket socket) {
+        metrics.recordBanned();
+        closeRejected(socket);
+    }
+
+    /**
+     * 판정 결과를 주소별 기록에 더하고, 이번 연결로 한도를 넘었으면 차단을 알린다.
+     */
+    private void track(InetAddress address, String status) {
+        if (clientTracker == null || isAutoBanExempt(address)) {
+            return;
+        }
+        ClientTracker.Ban ban = clientTracker.record(address, !"ALLOWED".equals(status), config.getName());
+        if (ban != null) {
+            logger.warn("{} - Banned {} for {}s: too many {} (connections={}, rejects={})", config.getName(),
+                ban.getAddress(), ban.getRemainingSeconds(), ban.getReason(), ban.getConnections(), ban.getRejects());
+        }
+    }
+
+    /**
+     * @param blocking 수락한 소켓을 blocking 모드 그대로 작업 스레드에 넘긴다(공유 런타임의 blocking 엔진)
+     */
+    private void acceptNioConnections(ServerSocketChannel serverChannel, boolean blocking) throws IOException {
+        // 한 번에 너무 많이 수락해서 루프가 독점되지 않도록 제한한다.
+        for (int i = 0; i < 64 && isRunning; i++) {
+            SocketChannel clientChannel;
             try {
-                // 연결 수락
-                Socket clientSocket = serverSocket.accept();
+                clientChannel = serverChannel.accept();
+            } catch (IOException e) {
+                if (isRunning) {
+                    logger.error("Error accepting connection", e);
+                }
+                return;
+            }
+            if (clientChannel == null) {
+                return;
+            }
+            if (blocking) {
+                // accept() 가 돌려준 채널은 리슨 채널과 관계없이 blocking 모드다.
+                acceptBlocking(clientChannel.socket());
+                continue;
+            }
+            if (isBanned(clientChannel.socket().getInetAddress())) {
+                rejectBanned(clientChannel.socket());
+                continue;
+            }
+
+            NioEventLoop loop = relayEngine.next();
+            if (config.isAcceptProxyProtocol()) {
+                // 헤더를 다 받아야 실제 클라이언트 주소로 판정할 수 있으므로 접근 제어는 헤더를 읽은 뒤 한다.
+                if (!isTrustedProxy(clientChannel.socket())) {
+                    continue;
+                }
+                ProxyProtocolHandshake handshake = new ProxyProtocolHandshake(loop, clientChannel, config, metrics, sessions,
+                    (header, early) -> startNioSession(loop, clientChannel, header, early));
+                loop.execute(handshake::start);
+                continue;
+            }
+            startNioSession(loop, clientChannel, null, null);
+        }
+    }
+
+    /**
+     * 접근 제어를 판정하고 허용되면 loop 에서 중계(out 타입은 요청 처리)를 시작한다.
+     * header 가 있으면 그 주소를 클라이언트 주소로 쓰고, early 는 헤더 뒤에 이미 받은 바이트다.
+     */
+    private void startNioSession(NioEventLoop loop, SocketChannel clientChannel, ProxyProtocol.Header header,
+                                 ByteBuffer early) {
+        InetSocketAddress source = sourceOf(clientChannel.socket(), header);
+        if (header != null && isBanned(source.getAddress())) {
+            rejectBanned(clientChannel.socket());
+            return;
+        }
+        String country = lookupCountry(source.getAddress());
+        RateLimiter.Permit permit = admit(source, country);
+        if (permit == null) {
+            closeRejected(clientChannel.socket());
+            return;
+        }
+
+        if (resolver != null) {
+            ForwardProxyHandshake handshake = new ForwardProxyHandshake(loop, clientChannel, early, config, metrics, permit,
+                sessions, resolver, this::isAllowedDestination);
+            loop.execute(handshake::start);
+            return;
+        }
+        InetSocketAddress destination = destinationOf(clientChannel.socket(), header);
+        if (sniRouter != null) {
+            TlsHandshake handshake = new TlsHandshake(loop, clientChannel, early, sslContext, sniRouter, upstreamGroup,
+                config, metrics, permit, sessions, (group, serverName, tls, hello) -> startRelay(loop, clientChannel, tls,
+                    group, source, destination, country, serverName, tls != null ? tls.getApplicationProtocol() : null,
+                    hello, permit));
+            loop.execute(handshake::start);
+            return;
+        }
+        startRelay(loop, clientChannel, null, upstreamGroup, source, destination, country, null, null, early, permit);
+    }
+
+    /**
+     * group 에서 백엔드를 골라 중계를 시작한다. tls 가 있으면 클라이언트 쪽은 TLS 를 풀어 중계한다.
+     */
+    private void startRelay(NioEventLoop loop, SocketChannel clientChannel, TlsChannel tls, UpstreamGroup group,
+                            InetSocketAddress source, InetSocketAddress destination, String country, String authority,
+                            String alpn, ByteBuffer early, RateLimiter.Permit permit) {
+        Upstream upstream = group.select(source.getAddress());
+        BackendConnectionPool.PooledConnection pooled = upstream.getPool() != null ? upstream.getPool().poll() : null;
+        ByteBuffer preamble = preamble(source, destination, country, authority, alpn, early);
+        NioRelaySession session = new NioRelaySession(loop, clientChannel, tls, group, upstream, pooled, preamble,
+            metrics, permit, config, sessions);
+        loop.execute(session::start);
+    }
+
+    /**
+     * tlsKeyStore 의 키와 인증서로 SSLContext 를 만든다. 키 저장소에 인증서가 여럿이면 SNI 에 맞는 것을 고른다.
+     * 세션 캐시(재개용)의 크기와 수명도 여기서 정한다. 키 저장소를 바꾸면 다시 시작해야 한다.
+     */
+    private SSLContext createSslContext() throws IOException {
+        String path = config.getTlsKeyStore();
+        char[] password = config.getTlsKeyStorePassword().toCharArray();
+        try (InputStream in = Files.newInputStream(Paths.get(path))) {
+            KeyStore keyStore = KeyStore.getInstance(path.toLowerCase().endsWith(".jks") ? "JKS" : "PKCS12");
+            keyStore.load(in, password);
+            KeyManagerFactory keyManagers = KeyManagerFactory.getInstance("PKIX");
+            keyManagers.init(keyStore, password);
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(keyManagers.getKeyManagers(), null, null);
+            SSLSessionContext sessionContext = context.getServerSessionContext();
+            sessionContext.setSessionCacheSize(config.getTlsSessionCacheSize());
+            sessionContext.setSessionTimeout(config.getTlsSessionTimeoutSeconds());
+            return context;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cannot load TLS key store " + path + ": " + e.getMessage(), e);
+        }
+    }
 
-                // 타임아웃 설정
-                clientSocket.setSoTimeout(30000);
+    /**
+     * acceptProxyProtocol 인 프록시에서 헤더를 보낸 쪽이 trustedProxies 에 있는지. 아니면 차단으로 기록하고 닫는다.
+     */
+    private boolean isTrustedProxy(Socket socket) {
+        if (trustedProxies.isAllowed(socket.getInetAddress(), InetAddressLocator.UNKNOWN)) {
+            return true;
+        }
+        metrics.recordConnection(InetAddressLocator.UNKNOWN, "BLOCKED");
+        logConnection(socket.getInetAddress(), socket.getPort(), "BLOCKED", InetAddressLocator.UNKNOWN);
+        track(socket.getInetAddress(), "BLOCKED");
+        closeRejected(socket);
+        return false;
+    }
+
+    private static InetSocketAddress sourceOf(Socket socket, ProxyProtocol.Header header) {
+        return header != null && header.getSource() != null
+            ? header.getSource() : (InetSocketAddress) socket.getRemoteSocketAddress();
+    }
+
+    private static InetSocketAddress destinationOf(Socket socket, ProxyProtocol.Header header) {
+        return header != null && header.getDestination() != null
+            ? header.getDestination() : (InetSocketAddress) socket.getLocalSocketAddress();
+    }
+
+    /**
+     * 백엔드에 클라이언트 데이터보다 먼저 보낼 바이트(읽기 모드). sendProxyProtocol 이면 헤더, 그 뒤에 early. 둘 다 없으면 null.
+     * authority(SNI) 와 alpn 은 v2 헤더의 TLV 로 보내며, 없으면 null.
+     */
+    private ByteBuffer preamble(InetSocketAddress source, InetSocketAddress destination, String country, String authority,
+                                String alpn, ByteBuffer early) {
+        if (early != null) {
+            metrics.addClientToServer(early.remaining());
+        }
+        String version = config.getSendProxyProtocol();
+        if (ProxyProtocol.NONE.equals(version)) {
+            return early;
+        }
+        ByteBuffer preamble = ByteBuffer.allocate(ProxyProtocol.MAX_ENCODED_LENGTH + (early != null ? early.remaining() : 0));
+        ProxyProtocol.write(preamble, version, source, destination, country, authority, alpn);
+        if (early != null) {
+            preamble.put(early);
+        }
+        return preamble.flip();
+    }
 
-                executorService.submit(() -> handleConnection(clientSocket));
+    private void acceptConnections(ServerSocket listener) {
+        while (isRunning && !Thread.currentThread().isInterrupted()) {
+            Socket clientSocket;
+            try {
+                // 연결 수락
+                clientSocket = listener.accept();
             } catch (IOException e) {
                 if (isRunning) {
                     logger.error("Error accepting connection", e);
                 }
+                continue;
             }
+            acceptBlocking(clientSocket);
         }
     }
 
-    private void handleConnection(Socket clientSocket) {
-        Socket serverSocket = null;
-        boolean connectionAllowed = false;
+    /**
+     * blocking 엔진에서 수락한 연결을 판정해 작업 스레드로 넘긴다. 수락 스레드나 공유 런타임의 수락 루프에서 호출된다.
+     */
+    private void acceptBlocking(Socket clientSocket) {
+        if (isBanned(clientSocket.getInetAddress())) {
+            rejectBanned(clientSocket);
+            return;
+        }
+        if (config.isAcceptProxyProtocol()) {
+            acceptProxied(clientSocket);
+        } else {
+            admitConnection(clientSocket, null, null);
+        }
+    }
+
+    /**
+     * blocking 엔진에서 PROXY protocol 헤더를 작업 스레드에서 읽은 뒤 admitConnection 으로 넘긴다.
+     * 수락 스레드는 헤더를 기다리지 않는다.
+     */
+    private void acceptProxied(Socket clientSocket) {
+        if (!isTrustedProxy(clientSocket)) {
+            return;
+        }
+        try {
+            submit(() -> readProxyHeader(clientSocket), () -> {
+                metrics.recordTimeout(SessionTimeout.CONNECT);
+                closeRejected(clientSocket);
+            });
+        } catch (RejectedExecutionException e) {
+            if (isRunning) {
+                logger.warn("{} - Worker pool saturated, rejecting {}", config.getName(), clientSocket.getRemoteSocketAddress());
+            }
+            closeRejected(clientSocket);
+        }
+    }
+
+    private void readProxyHeader(Socket clientSocket) {
+        // nio 와 같이 헤더 뒤에 백엔드로 보낼 헤더를 붙일 공간을 남겨 둔다.
+        BufferPool.PooledBuffer lease = BufferPool.SHARED.acquireHeap(4096);
+        ByteBuffer buffer = lease.buffer();
+        buffer.limit(buffer.capacity() - ProxyProtocol.MAX_ENCODED_LENGTH);
+        HashedTimingWheel.Timeout timer = config.getConnectTimeoutSeconds() > 0
+            ? SessionTimeout.WHEEL.schedule(() -> closeQuietly(clientSocket), config.getConnectTimeoutSeconds(), TimeUnit.SECONDS)
+            : null;
+        try {
+            InputStream in = clientSocket.getInputStream();
+            ProxyProtocol.Header header;
+            while ((header = ProxyProtocol.parse(buffer)) == null) {
+                int n = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                if (n < 0) {
+                    closeQuietly(clientSocket);
+                    return;
+                }
+                buffer.position(buffer.position() + n);
+            }
+            if (timer != null && !timer.cancel()) {
+                metrics.recordTimeout(SessionTimeout.CONNECT);
+                return; // 헤더를 다 받은 직후 타이머가 먼저 소켓을 닫은 경우
+            }
+            ByteBuffer early = null;
+            if (buffer.position() > header.getLength()) {
+                buffer.flip().position(header.getLength());
+                early = ByteBuffer.allocate(buffer.remaining()).put(buffer).flip();
+            }
+            admitConnection(clientSocket, header, early);
+        } catch (ProtocolException e) {
+            metrics.recordProxyProtocolError();
+            logger.warn("{} - Bad PROXY protocol header from {}: {}", config.getName(),
+                clientSocket.getRemoteSocketAddress(), e.getMessage());
+            closeQuietly(clientSocket);
+        } catch (IOException e) {
+            if (timer != null && !timer.cancel()) {
+                metrics.recordTimeout(SessionTimeout.CONNECT);
+            }
+            closeQuietly(clientSocket);
+        } finally {
+            if (timer != null) {
+                timer.cancel();
+            }
+            lease.release();
+        }
+    }
 
+    /**
+     * 수락 스레드에서 바로 허용 여부를 판정한다. 차단되거나 제한에 걸린 연결은 작업 스레드를 거치지 않고 닫히므로
+     * 허용된 연결만 풀을 사용한다. 국가 조회는 캐시, 주소 규칙은 트라이 조회라 수락 속도에 큰 영향이 없다.
+     * header 가 있으면(PROXY protocol) 그 주소로 판정하며, 이때는 헤더를 읽은 작업 스레드에서 호출된다.
+     */
+    private void admitConnection(Socket clientSocket, ProxyProtocol.Header header, ByteBuffer early) {
+        InetSocketAddress source = sourceOf(clientSocket, header);
+        InetAddress remoteAddress = source.getAddress();
+        if (header != null && isBanned(remoteAddress)) {
+            rejectBanned(clientSocket);
+            return;
+        }
         try {
-            // 연결 허용 체크
-            connectionAllowed = isAllowedConnection(clientSocket);
+            // 국가는 한 번만 조회해서 허용 체크와 로그에 같이 사용한다.
+            String country = lookupCountry(remoteAddress);
+            boolean connectionAllowed = isAllowedConnection(remoteAddress, country);
+            RateLimiter.Permit permit = connectionAllowed ? rateLimiter.admit(remoteAddress) : null;
+            if (permit != null) {
+                ByteBuffer preamble = preamble(source, destinationOf(clientSocket, header), country, null, null, early);
+                if (!dispatch(clientSocket, remoteAddress, preamble, permit)) {
+                    permit.release();
+                    permit = null;
+                }
+            }
 
-            logConnection(clientSocket, connectionAllowed);
+            String status = connectionStatus(connectionAllowed, permit);
+            metrics.recordConnection(country, status);
+            logConnection(remoteAddress, source.getPort(), status, country);
+            track(remoteAddress, status);
 
-            if (!connectionAllowed) {
-                return;
+            if (permit == null) {
+                closeRejected(clientSocket);
+            }
+        } catch (RuntimeException e) {
+            logger.error("Connection admission error for {}", remoteAddress, e);
+            closeQuietly(clientSocket);
+        }
+    }
+
+    /**
+     * 허용된 연결을 작업 스레드로 넘긴다. 동시 연결 수 한도나 풀 대기 큐가 가득 차 넘기지 못하면 false.
+     */
+    private boolean dispatch(Socket clientSocket, InetAddress clientAddress, ByteBuffer preamble, RateLimiter.Permit permit) {
+        if (connectionLimit != null && !connectionLimit.tryAcquire()) {
+            logger.warn("{} - Connection limit ({}) reached, rejecting {}",
+                config.getName(), config.getMaxConnections(), clientSocket.getRemoteSocketAddress());
+            return false;
+        }
+        // 대기 큐에 있는 동안에도 종료 시 기다리거나 끊을 수 있도록 넘기기 전에 등록한다.
+        StreamSession session = new StreamSession(clientSocket);
+        sessions.add(session);
+        try {
+            submit(() -> handleConnection(session, clientAddress, preamble, permit), () -> {
+                sessions.remove(session);
+                logger.warn("{} - No worker became free within {}s, closing {}", config.getName(),
+                    config.getConnectTimeoutSeconds(), clientSocket.getRemoteSocketAddress());
+                metrics.recordTimeout(SessionTimeout.CONNECT);
+                permit.release();
+                closeRejected(clientSocket);
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            sessions.remove(session);
+            if (isRunning) {
+                logger.warn("{} - Worker pool saturated, rejecting {}", config.getName(), clientSocket.getRemoteSocketAddress());
+            }
+            if (connectionLimit != null) {
+                connectionLimit.release();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 작업 스레드에 넘긴다. 공유 작업 스레드를 쓰면 connectTimeoutSeconds 안에 차례가 오지 않은 연결은 onExpired 로 닫는다.
+     */
+    private void submit(Runnable task, Runnable onExpired) {
+        if (workerQuota != null) {
+            workerQuota.execute(task, config.getConnectTimeoutSeconds(), onExpired);
+        } else {
+            executor.execute(task);
+        }
+    }
+
+    /**
+     * 거부한 연결을 닫는다. rejectWithReset 이면 SO_LINGER 0 으로 RST 를 보내 TIME_WAIT 를 남기지 않는다.
+     */
+    private void closeRejected(Socket socket) {
+        if (config.isRejectWithReset()) {
+            try {
+                socket.setSoLinger(true, 0);
+            } catch (IOException e) {
+                // 이미 끊긴 연결이면 그냥 닫는다.
+            }
+        }
+        closeQuietly(socket);
+    }
+
+    /**
+     * @param clientAddress 전달 대상 선택(hash)에 쓸 클라이언트 주소. PROXY protocol 을 받으면 헤더의 주소
+     * @param preamble 백엔드에 먼저 보낼 바이트(읽기 모드), 없으면 null
+     */
+    private void handleConnection(StreamSession session, InetAddress clientAddress, ByteBuffer preamble,
+                                  RateLimiter.Permit permit) {
+        Socket clientSocket = session.client;
+        Socket serverSocket = null;
+        Upstream upstream = null;
+        SessionTimeout timeout = null;
+        long sessionStartNanos = System.nanoTime();
+        metrics.sessionOpened();
+
+        try {
+            configureSocket(clientSocket);
+            upstream = upstreamGroup.select(clientAddress);
+            upstream.acquire();
+            try {
+                serverSocket = createServerConnection(clientSocket, upstream);
+            } catch (IOException e) {
+                upstreamGroup.reportFailure(upstream);
+                metrics.backendConnectFailed();
+                throw e;
+            }
+            session.attachServer(serverSocket);
+            if (preamble != null) {
+                serverSocket.getOutputStream().write(preamble.array(), preamble.arrayOffset() + preamble.position(),
+                    preamble.remaining());
             }
-            serverSocket = createServerConnection();
 
-            transferData(clientSocket, serverSocket);
+            // 유휴/최대 수명 타임아웃은 소켓 읽기 타임아웃 대신 공유 타이머 휠로 처리한다.
+            Socket backendSocket = serverSocket;
+            timeout = new SessionTimeout(config, Runnable::run, reason -> {
+                logger.info("{} - Closing session from {}: {} timeout", config.getName(), clientSocket.getRemoteSocketAddress(), reason);
+                metrics.recordTimeout(reason);
+                closeQuietly(clientSocket);
+                closeQuietly(backendSocket);
+            });
+            timeout.start();
+
+            transferData(clientSocket, serverSocket, permit, timeout);
 
+        } catch (SocketTimeoutException e) {
+            logger.warn("{} - {}", config.getName(), e.getMessage());
         } catch (Exception e) {
-            logger.error("Connection processing error", e);
+            if (!session.terminated) {
+                logger.error("Connection processing error", e);
+            }
         } finally {
+            if (timeout != null) {
+                timeout.cancel();
+            }
             closeQuietly(clientSocket);
             closeQuietly(serverSocket);
+            if (upstream != null) {
+                upstream.release();
+            }
+            permit.release();
+            metrics.sessionClosed(System.nanoTime() - sessionStartNanos);
+            if (connectionLimit != null) {
+                connectionLimit.release();
+            }
+            sessions.remove(session);
         }
     }
 
-    private Socket createServerConnection() throws IOException {
-        Socket serverSocket = new Socket(
-            config.getForwardHost(),
-            config.getForwardPort()
-        );
+    /**
+     * 설정을 다시 읽을 때 함께 바뀌는 설정과 접근 제어 규칙. volatile 참조 하나로 한꺼번에 교체한다.
+     */
+    private static final class AccessRules {
+        final ProxyDto config;
+        final AccessControlList acl;
+        final AccessControlList destinationAcl; // out 타입의 목적지 규칙
 
-        serverSocket.setSoTimeout(30000);
+        AccessRules(ProxyDto config, AccessControlList acl, AccessControlList destinationAcl) {
+            this.config = config;
+            this.acl = acl;
+            this.destinationAcl = destinationAcl;
+        }
+    }
 
-        return serverSocket;
+    /**
+     * blocking 엔진의 세션 하나. 중계 스레드 두 개가 쓰는 소켓을 잡고 있다가 드레인 기한이 지나면 끊는다.
+     */
+    private static final class StreamSession implements RelaySession {
+        private final Socket client;
+        private volatile Socket server;
+        private volatile boolean terminated = false;
+
+        StreamSession(Socket client) {
+            this.client = client;
+        }
+
+        void attachServer(Socket server) {
+            this.server = server;
+            if (terminated) {
+                closeQuietly(server);
+            }
+        }
+
+        @Override
+        public void terminate() {
+            terminated = true;
+            Socket backend = server;
+            // 출력부터 닫아 양쪽이 FIN 을 받게 하고, 소켓을 닫아 read 에 묶인 중계 스레드를 깨운다.
+            shutdownOutputQuietly(client);
+            shutdownOutputQuietly(backend);
+            closeQuietly(client);
+            closeQuietly(backend);
+        }
     }
 
-    private void logConnection(Socket clientSocket, boolean allowed) {
+    private static void shutdownOutputQuietly(Socket socket) {
+        if (socket == null || socket.isClosed() || socket.isOutputShutdown()) {
+            return;
+        }
         try {
-            String remoteAddr = clientSocket.getInetAddress().getHostAddress();
-            int remotePort = clientSocket.getPort();
-            String country = "UNKNOWN";
+            socket.shutdownOutput();
+        } catch (IOException e) {
+            // 이미 끊긴 연결이면 닫기만 한다.
+        }
+    }
 
-            try {
-                Locale locale = inetAddressLocator.getLocale(remoteAddr);
-                country = locale.getCountry();
+    private Socket createServerConnection(Socket clientSocket, Upstream upstream) throws IOException {
+        Socket serverSocket;
+        BackendConnectionPool pool = upstream.getPool();
+        BackendConnectionPool.PooledConnection pooled = pool != null ? pool.poll() : null;
+        if (pooled != null) {
+            SocketChannel channel = pooled.getChannel();
+            channel.configureBlocking(true);
+            serverSocket = channel.socket();
+
+            // 풀에서 기다리는 동안 백엔드가 보낸 배너를 먼저 전달한다.
+            ByteBuffer greeting = pooled.getGreeting();
+            if (greeting.position() > 0) {
+                clientSocket.getOutputStream().write(greeting.array(), 0, greeting.position());
+                metrics.addServerToClient(greeting.position());
+            }
+        } else {
+            long connectStartNanos = System.nanoTime();
+            serverSocket = config.isZeroCopy() ? SocketChannel.open().socket() : new Socket();
+            connect(serverSocket, upstream.getAddress());
+            metrics.recordBackendConnect(System.nanoTime() - connectStartNanos);
+            upstreamGroup.reportSuccess(upstream);
+        }
 
-            } catch (Exception e) {
-                 logger.warn("Failed to get country for IP {} during logging", remoteAddr, e);
+        configureSocket(serverSocket);
+
+        return serverSocket;
+    }
+
+    /**
+     * 백엔드에 연결한다. 연결 타임아웃도 타이머 휠에 걸고, 시간이 지나면 소켓을 닫아 connect 를 깨운다.
+     */
+    private void connect(Socket socket, InetSocketAddress address) throws IOException {
+        if (config.getConnectTimeoutSeconds() <= 0) {
+            socket.connect(address);
+            return;
+        }
+        HashedTimingWheel.Timeout timer = SessionTimeout.WHEEL.schedule(() -> closeQuietly(socket),
+            config.getConnectTimeoutSeconds(), TimeUnit.SECONDS);
+        try {
+            socket.connect(address);
+        } catch (IOException e) {
+            if (!timer.cancel()) {
+                throw connectTimedOut(socket, address);
             }
+            throw e;
+        }
+        if (!timer.cancel()) {
+            // 연결 직후 타이머가 먼저 소켓을 닫은 경우
+            throw connectTimedOut(socket, address);
+        }
+    }
 
-            if("UNKNOWN".equals(country)) {
+    private SocketTimeoutException connectTimedOut(Socket socket, InetSocketAddress address) {
+        closeQuietly(socket);
+        metrics.recordTimeout(SessionTimeout.CONNECT);
+        return new SocketTimeoutException("Connection to " + address + " timed out after " + config.getConnectTimeoutSeconds() + "s");
+    }
+
+    private void configureSocket(Socket socket) throws SocketException {
+        // 중계 스트림이 이미 쓰기를 모아서 보내므로 Nagle 알고리즘은 지연만 더한다.
+        socket.setTcpNoDelay(true);
+        socket.setKeepAlive(config.isTcpKeepAlive());
+    }
+
+    /**
+     * out 타입의 목적지 주소가 allowedDestinations 를 통과하는지. 국가 규칙이 있을 때만 GeoIP 를 조회한다.
+     * 0.0.0.0, :: 는 연결하면 이 호스트의 와일드카드 주소에서 듣는 서비스에 닿으므로 규칙과 관계없이 막는다.
+     * IPv4 호환 주소(::/96 의 ::a.b.c.d)도 IPv4 규칙을 비켜 가는 데 쓰일 수 있으므로 막는다(::1 은 규칙을 따른다).
+     */
+    private boolean isAllowedDestination(InetAddress address) {
+        if (address.isAnyLocalAddress()) {
+            return false;
+        }
+        if (address instanceof Inet6Address && ((Inet6Address) address).isIPv4CompatibleAddress() && !address.isLoopbackAddress()) {
+            return false;
+        }
+        AccessControlList rules = accessRules.destinationAcl;
+        String country = rules.usesCountries() ? lookupCountry(address) : InetAddressLocator.UNKNOWN;
+        return rules.isAllowed(address, country);
+    }
+
+    private String lookupCountry(InetAddress remoteAddress) {
+        long startNanos = System.nanoTime();
+        try {
+            return inetAddressLocator.getCountryCode(remoteAddress);
+        } catch (Exception e) {
+            logger.warn("Failed to get country for IP {}", remoteAddress, e);
+            return InetAddressLocator.UNKNOWN;
+        } finally {
+            metrics.recordGeoIpLookup(System.nanoTime() - startNanos);
+        }
+    }
+
+    private static String connectionStatus(boolean allowed, RateLimiter.Permit permit) {
+        if (!allowed) {
+            return "BLOCKED";
+        }
+        return permit != null ? "ALLOWED" : "LIMITED";
+    }
+
+    private void logConnection(InetAddress remoteAddress, int remotePort, String status, String country) {
+        if (accessLog != null) {
+            // 접속 로그가 설정되어 있으면 링 버퍼에 넣기만 하고 바로 돌아간다.
+            accessLog.log(config.getName(), remoteAddress, remotePort, status, country);
+            return;
+        }
+        try {
+            String remoteAddr = remoteAddress.getHostAddress();
+            if(InetAddressLocator.UNKNOWN.equals(country)) {
                  logger.info("{} - Connection {} - IP: {}, Port: {}",
                      config.getName(),
-                     allowed ? "ALLOWED" : "BLOCKED",
+                     status,
                      remoteAddr,
                      remotePort
                  );
             } else {
                  logger.info("{} - Connection {} - IP: {}, Port: {}, Country: {}",
                      config.getName(),
-                     allowed ? "ALLOWED" : "BLOCKED",
+                     status,
                      remoteAddr,
                      remotePort,
                      country
@@ -152,157 +1004,417 @@ public class ProxyMain {
         }
     }
 
-    private void transferData(Socket clientSocket, Socket serverSocket) throws Exception {
+    private void transferData(Socket clientSocket, Socket serverSocket, RateLimiter.Permit permit,
+                              SessionTimeout timeout) throws Exception {
         // 데이터 전송 스레드 생성
         Thread clientToServerThread = createDataTransferThread(
-            clientSocket.getInputStream(),
-            serverSocket.getOutputStream(),
-            "Client-to-Server"
+            clientSocket,
+            serverSocket,
+            "Client-to-Server",
+            bytes -> {
+                metrics.addClientToServer(bytes);
+                timeout.touch();
+            },
+            permit::onUpload
         );
 
         Thread serverToClientThread = createDataTransferThread(
-            serverSocket.getInputStream(),
-            clientSocket.getOutputStream(),
-            "Server-to-Client"
+            serverSocket,
+            clientSocket,
+            "Server-to-Client",
+            bytes -> {
+                metrics.addServerToClient(bytes);
+                timeout.touch();
+            },
+            permit::onDownload
         );
 
         // 스레드 시작
         clientToServerThread.start();
         serverToClientThread.start();
 
-        // 스레드 종료 대기 (타임아웃 포함)
-        clientToServerThread.join(30000);
-        serverToClientThread.join(30000);
-    }
-
-    // 기존의 데이터 전송 스레드 메서드 유지
-
-    private boolean isAllowedConnection(Socket clientSocket) {
-        String remoteAddr = clientSocket.getInetAddress().getHostAddress();
-        Locale locale = null; // 초기화
-
-        try {
-            // 국가 확인
-            locale = inetAddressLocator.getLocale(remoteAddr);
-            String country = locale.getCountry();
-
-            // 허용 조건 체크
-            for (String allowedCondition : config.getAllowedCountries()) {
-                switch (allowedCondition.toLowerCase()) {
-                    case "any":
-                        return true;
-                    case "localhost":
-                        if (remoteAddr.equals("127.0.0.1")) return true;
-                        break;
-                    case "private":
-                        if (isPrivateIP(remoteAddr)) return true;
-                        break;
-                    default:
-                        if (!"UNKNOWN".equals(country) && allowedCondition.equalsIgnoreCase(country)) {
-                             return true;
-                        }
-                }
-            }
-
-            return false;
-        } catch (Exception e) {
-            logger.warn("Connection check failed for IP: {}", remoteAddr, e);
-            return false;
-        }
+        // 스레드 종료 대기. 한쪽이 끝나면 양쪽 소켓을 닫으므로 다른 쪽도 곧 끝나고,
+        // 멈춘 세션은 타임아웃이 소켓을 닫아 끝낸다.
+        clientToServerThread.join();
+        serverToClientThread.join();
     }
 
-    private boolean isPrivateIP(String ipAddress) {
+    private boolean isAllowedConnection(InetAddress remoteAddress, String country) {
         try {
-            // 로컬 네트워크 대역 체크
-            return ipAddress.startsWith("192.168.") ||
-                   ipAddress.startsWith("10.") ||
-                   ipAddress.startsWith("172.16.") ||
-                   isInSubnet(ipAddress, "192.168.0.0/24");
+            // 주소(CIDR) 규칙이 먼저 판정하고, 일치하는 규칙이 없을 때만 국가 규칙을 본다.
+            return accessRules.acl.isAllowed(remoteAddress, country);
         } catch (Exception e) {
+            logger.warn("Connection check failed for IP: {}", remoteAddress, e);
             return false;
         }
     }
 
-    private boolean isInSubnet(String ip, String subnet) {
-        String[] parts = subnet.split("/");
-        String netAddress = parts[0];
-        int subnetBits = Integer.parseInt(parts[1]);
-
-        long ipLong = ipToLong(ip);
-        long netAddressLong = ipToLong(netAddress);
-        long mask = (-1L) << (32 - subnetBits);
-
-        return (ipLong & mask) == (netAddressLong & mask);
-    }
-
-    private long ipToLong(String ipAddress) {
-        String[] octets = ipAddress.split("\\.");
-        long result = 0;
-        for (int i = 0; i < 4; i++) {
-            result |= Long.parseLong(octets[i]) << (24 - (8 * i));
-        }
-        return result;
-    }
-
     private Thread createDataTransferThread(
-        InputStream in,
-        OutputStream out,
-        String threadName
+        Socket source,
+        Socket target,
+        String threadName,
+        LongConsumer byteCounter,
+        IntToLongFunction throttle
     ) {
-        Thread thread = new Thread(() -> {
+        int bufferSize = config.getBufferSize();
+        Runnable relay = () -> {
+            BufferPool.PooledBuffer lease = null;
             try {
-                byte[] buffer = new byte[4096];
-                int bytesRead;
-
-                while ((bytesRead = in.read(buffer)) != -1) {
-                    out.write(buffer, 0, bytesRead);
-                    out.flush();
-
-                    // 스레드 인터럽트 체크
-                    if (Thread.currentThread().isInterrupted()) {
-                        break;
-                    }
+                SocketChannel in = source.getChannel();
+                SocketChannel out = target.getChannel();
+                if (config.isZeroCopy() && in != null && out != null) {
+                    lease = BufferPool.SHARED.acquireDirect(bufferSize);
+                    relayChannel(in, out, lease.buffer(), byteCounter, throttle);
+                } else {
+                    lease = BufferPool.SHARED.acquireHeap(bufferSize);
+                    relayStream(source.getInputStream(), target.getOutputStream(), lease.buffer(), byteCounter, throttle);
                 }
             } catch (IOException e) {
-                // 특정 예외 무시
-                if (!(e instanceof SocketException &&
-                      (e.getMessage().equals("Socket closed") ||
-                       e.getMessage().contains("Broken pipe")))) {
+                // 특정 예외 무시 (상대편 스레드가 소켓을 먼저 닫은 경우)
+                if (!(e instanceof ClosedChannelException) &&
+                    !(e instanceof SocketException &&
+                      ("Socket closed".equals(e.getMessage()) ||
+                       String.valueOf(e.getMessage()).contains("Broken pipe")))) {
                     logger.warn("{} transfer error", threadName, e);
                 }
             } finally {
                 try {
-                    in.close();
+                    source.close();
                 } catch (IOException e) {
-                    logger.warn("Error closing input stream", e);
+                    logger.warn("Error closing source socket", e);
                 }
 
                 try {
-                    out.close();
+                    target.close();
                 } catch (IOException e) {
-                    logger.warn("Error closing output stream", e);
+                    logger.warn("Error closing target socket", e);
+                }
+
+                // 중계가 끝나면 바로 반납해 다음 세션이 같은 버퍼를 쓰게 한다.
+                if (lease != null) {
+                    lease.release();
                 }
             }
-        }, threadName);
-        thread.setDaemon(true);
+        };
+
+        Thread thread;
+        if (relayThreadFactory != null) {
+            thread = relayThreadFactory.newThread(relay);
+            thread.setName(threadName);
+        } else {
+            thread = new Thread(relay, threadName);
+            thread.setDaemon(true);
+        }
 
         return thread;
     }
 
+    /**
+     * 스트림 중계. 읽을 데이터가 더 남아 있으면 버퍼에 이어 읽어 작은 쓰기를 모은다.
+     * 대역폭 제한에 걸리면 모은 데이터를 보낸 뒤 다음 읽기 전까지 이 스레드를 재운다.
+     */
+    private static void relayStream(InputStream in, OutputStream out, ByteBuffer heapBuffer, LongConsumer byteCounter,
+                                    IntToLongFunction throttle) throws IOException {
+        byte[] buffer = heapBuffer.array();
+        int offset = heapBuffer.arrayOffset();
+        int capacity = heapBuffer.capacity();
+        int pending = 0;
+        int bytesRead;
+
+        while ((bytesRead = in.read(buffer, offset + pending, capacity - pending)) != -1) {
+            pending += bytesRead;
+            byteCounter.accept(bytesRead);
+
+            long delay = throttle.applyAsLong(bytesRead);
+            if (delay > 0 || pending == capacity || in.available() == 0) {
+                out.write(buffer, offset, pending);
+                pending = 0;
+            }
+            if (delay > 0 && !pause(delay)) {
+                break;
+            }
+
+            // 스레드 인터럽트 체크
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+        }
+        if (pending > 0) {
+            out.write(buffer, offset, pending);
+        }
+    }
+
+    /**
+     * 채널 중계. 다이렉트 버퍼를 사용하므로 페이로드가 힙 배열로 복사되지 않는다.
+     */
+    private static void relayChannel(SocketChannel in, SocketChannel out, ByteBuffer buffer, LongConsumer byteCounter,
+                                     IntToLongFunction throttle) throws IOException {
+        while (in.read(buffer) != -1) {
+            buffer.flip();
+            int bytesRead = buffer.remaining();
+            byteCounter.accept(bytesRead);
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            buffer.clear();
+
+            long delay = throttle.applyAsLong(bytesRead);
+            if (delay > 0 && !pause(delay)) {
+                break;
+            }
+
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 대역폭 제한으로 중계 스레드를 잠시 멈춘다. 인터럽트되면 false.
+     */
+    private static boolean pause(long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * 접근 제어 규칙만 바꾼다. 리슨 소켓과 진행 중인 세션은 그대로 두고, 다음에 수락하는 연결부터 새 규칙으로 판정한다.
+     * config 는 allowedCountries, allowedDestinations 외의 설정이 지금과 같아야 한다(ProxyDto.hasSameSettingsExceptAccessControl).
+     * 세 값을 한 객체로 묶어 한 번에 바꾸므로, 판정하는 쪽이 새 규칙과 옛 규칙을 섞어 보지 않는다.
+     */
+    public void updateAccessControl(ProxyDto config, AccessControlList acl, AccessControlList destinationAcl) {
+        this.accessRules = new AccessRules(config, acl, destinationAcl);
+    }
+
+    /**
+     * 새 연결 수락을 멈추고 리슨 소켓을 닫는다. 이때부터 drainTimeoutSeconds 가 지나면 남은 세션을 끊는다.
+     * 여러 프록시를 함께 종료할 때 먼저 모두 호출해 두면 기다리는 시간이 겹친다.
+     */
+    public void stopAccepting() {
+        // shutdown() 이 드레인하는 동안에도 바로 돌아오도록 인스턴스 대신 별도 락을 쓴다.
+        synchronized (drainLock) {
+            if (drainDeadlineNanos != 0) {
+                return;
+            }
+            isRunning = false;
+            drainDeadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(config.getDrainTimeoutSeconds());
+        }
+        closeListeners();
+        logger.info("{} - Stopped accepting connections, draining {} active sessions", config.getName(), sessions.size());
+    }
+
+    /**
+     * 새 연결 수락을 멈추고, 백그라운드에서 세션을 드레인한 뒤 종료한다. 설정에서 빠지거나 바뀐 프록시에 사용한다.
+     * 리슨 소켓은 바로 닫으므로 같은 포트로 새 인스턴스를 곧바로 시작할 수 있다.
+     *
+     * @param onTerminated 종료가 끝나면 드레인 스레드에서 호출된다
+     */
+    public void drain(Runnable onTerminated) {
+        stopAccepting();
+        Thread drainThread = new Thread(() -> {
+            shutdown();
+            onTerminated.run();
+        }, "ProxyDrain-" + config.getName());
+        drainThread.setDaemon(true);
+        drainThread.start();
+    }
+
+    /**
+     * 진행 중인 세션이 드레인 기한까지 끝나기를 기다리고, 남은 세션은 half-close 후 끊는다.
+     * 끊은 세션도 실제로 정리될 때까지 잠시 기다려, 중계 스레드와 버퍼가 엔진보다 먼저 해제되게 한다.
+     */
+    private void drainSessions() {
+        try {
+            if (sessions.awaitEmpty(drainDeadlineNanos - System.nanoTime())) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        int killed = sessions.terminateAll();
+        metrics.recordKilled(killed);
+        logger.warn("{} - Drain timeout ({}s) expired, terminated {} sessions",
+            config.getName(), config.getDrainTimeoutSeconds(), killed);
+        try {
+            if (!sessions.awaitEmpty(TimeUnit.SECONDS.toNanos(5))) {
+                logger.warn("{} - {} sessions did not close after termination", config.getName(), sessions.size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 연결 로그를 비동기 접속 로그로 보낸다. start() 전에 호출해야 한다. null 이면 기존처럼 로거로 남긴다.
+     */
+    public void setAccessLog(AccessLog accessLog) {
+        this.accessLog = accessLog;
+    }
+
+    /**
+     * 모든 프록시가 공유하는 주소별 기록과 자동 차단 목록. null 이면 쓰지 않는다. start() 전에 호출한다.
+     */
+    public void setClientTracker(ClientTracker clientTracker) {
+        this.clientTracker = clientTracker;
+    }
+
+    /**
+     * 모든 프록시가 함께 쓰는 이벤트 루프와 작업 스레드. null 이면 프록시마다 따로 둔다. start() 전에 호출한다.
+     */
+    public void setRuntime(ProxyRuntime runtime) {
+        this.runtime = runtime;
+    }
+
+    /**
+     * 공유 런타임의 작업 스레드 중 이 프록시의 몫. 공유 런타임의 pool 실행 방식이 아니면 null.
+     */
+    public ProxyRuntime.WorkerQuota getWorkerQuota() {
+        return workerQuota;
+    }
+
+    public int getUdpFlowCount() {
+        int count = 0;
+        for (UdpRelay relay : udpRelays) {
+            count += relay.getFlowCount();
+        }
+        return count;
+    }
+
+    public DnsResolver getResolver() {
+        return resolver;
+    }
+
+    /**
+     * 전달 대상 묶음. 기본 묶음(forwardHost/upstreams)과 sniRoutes 의 묶음들. out 타입은 빈 목록.
+     */
+    public List<UpstreamGroup> getUpstreamGroups() {
+        List<UpstreamGroup> groups = new ArrayList<>();
+        if (upstreamGroup != null) {
+            groups.add(upstreamGroup);
+        }
+        if (sniRouter != null) {
+            groups.addAll(sniRouter.getGroups());
+        }
+        return groups;
+    }
+
+    /**
+     * tls terminate 의 서버 세션 캐시에 있는 세션 수. 그 밖에는 0.
+     */
+    public int getTlsSessionCacheEntries() {
+        return sslContext != null ? Collections.list(sslContext.getServerSessionContext().getIds()).size() : 0;
+    }
+
+    public AccessControlList getAcl() {
+        return accessRules.acl;
+    }
+
+    public AccessControlList getDestinationAcl() {
+        return accessRules.destinationAcl;
+    }
+
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    public ProxyMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 진행 중인 세션 수. 수락 후 작업 스레드를 기다리는 연결도 포함한다.
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * 지금 적용 중인 설정. 접근 제어 규칙을 바꾸면 그때 받은 설정이다.
+     */
     public ProxyDto getConfig() {
-        return config;
+        return accessRules.config;
     }
 
-    // 서버 종료 메서드
-    public void shutdown() {
-        isRunning = false;
+    private void closeListeners() {
+        for (ServerSocket listener : serverSockets) {
+            try {
+                listener.close();
+            } catch (IOException e) {
+                logger.warn("Error closing server socket", e);
+            }
+        }
+        // accept() 에 걸려 있는 스레드가 빠져나와야 커널이 소켓을 놓으므로, 같은 포트를 바로 다시 열 수 있도록 기다린다.
+        for (Thread acceptThread : acceptThreads) {
+            try {
+                acceptThread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        // Selector 에 등록된 채널은 루프가 다음 select 에서 등록을 풀 때 실제로 닫히므로,
+        // 포트를 바로 다시 쓸 수 있도록 루프에서 닫고 그 다음 select 까지 기다린다.
+        for (int i = 0; i < serverChannels.size(); i++) {
+            ServerSocketChannel serverChannel = serverChannels.get(i);
+            closeOnLoop(acceptLoops.get(i), () -> closeQuietly(serverChannel));
+        }
+        for (UdpRelay relay : udpRelays) {
+            closeOnLoop(relay.getLoop(), relay::close);
+        }
+    }
 
+    /**
+     * 루프에서 close 를 실행하고 다음 select 까지 기다린다. 루프가 1 초 안에 처리하지 못하면 이 스레드에서 실행한다.
+     */
+    private static void closeOnLoop(NioEventLoop loop, Runnable close) {
+        CountDownLatch released = new CountDownLatch(1);
+        loop.execute(() -> {
+            close.run();
+            loop.schedule(released::countDown, 0);
+        });
         try {
-            if (serverSocket != null) {
-                serverSocket.close();
+            if (!released.await(1, TimeUnit.SECONDS)) {
+                close.run();
             }
-        } catch (IOException e) {
-            logger.warn("Error closing server socket", e);
+        } catch (InterruptedException e) {
+            close.run();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 서버 종료. 수락을 멈추고 세션을 드레인한 뒤(최대 drainTimeoutSeconds) 엔진과 스레드를 정리한다.
+     * 여러 번 호출해도 한 번만 종료한다.
+     */
+    public synchronized void shutdown() {
+        if (shutDown) {
+            return;
+        }
+        shutDown = true;
+        stopAccepting();
+        drainSessions();
+
+        metrics.stopReporting();
+        logger.info("{} - Total transferred: up {} bytes, down {} bytes",
+            config.getName(), metrics.getBytesClientToServer(), metrics.getBytesServerToClient());
+
+        rateLimiter.close();
+        if (upstreamGroup != null) {
+            upstreamGroup.close();
+        }
+        if (sniRouter != null) {
+            sniRouter.close();
+        }
+        if (relayEngine != null && runtime == null) {
+            relayEngine.shutdown();
+        }
+        if (resolver != null) {
+            resolver.close();
         }
 
         if (executorService != null) {
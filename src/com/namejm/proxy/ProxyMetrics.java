@@ -0,0 +1,343 @@
+package com.namejm.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 프록시별 트래픽 카운터와 지연 시간 히스토그램.
+ * 중계 경로에서 호출되므로 경합이 적은 LongAdder 만 사용한다.
+ * 국가별 카운터는 처음 본 국가에서만 맵에 추가되고, 이후에는 조회와 LongAdder 증가뿐이다.
+ */
+public class ProxyMetrics {
+    private static final Logger logger = LoggerFactory.getLogger(ProxyMetrics.class);
+    private static final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ProxyMetricsReporter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // out 타입 터널 요청 결과
+    public static final String TUNNEL_CONNECTED = "connected";
+    public static final String TUNNEL_BLOCKED = "blocked";
+    public static final String TUNNEL_RESOLVE_FAILED = "resolve_failed";
+    public static final String TUNNEL_CONNECT_FAILED = "connect_failed";
+    public static final String TUNNEL_REJECTED = "rejected";
+    // udp 타입에서 버린 데이터그램의 사유
+    public static final String DROP_DENIED = "denied";
+    public static final String DROP_FLOW_TABLE_FULL = "flow_table_full";
+    public static final String DROP_RATE_LIMITED = "rate_limited";
+    public static final String DROP_SEND_FAILED = "send_failed";
+    // tls terminate 의 핸드셰이크 결과
+    public static final String TLS_FULL = "full";
+    public static final String TLS_RESUMED = "resumed";
+    public static final String TLS_FAILED = "failed";
+    // tls 프록시의 SNI 라우팅 결과
+    public static final String SNI_ROUTED = "routed";
+    public static final String SNI_DEFAULT = "default";
+    public static final String SNI_UNMATCHED = "unmatched";
+    public static final String SNI_MALFORMED = "malformed";
+
+    private final String proxyName;
+    private final LongAdder bytesClientToServer = new LongAdder();
+    private final LongAdder bytesServerToClient = new LongAdder();
+    private final LongAdder activeSessions = new LongAdder();
+    private final LongAdder backendConnectFailures = new LongAdder();
+    private final LongAdder connectTimeouts = new LongAdder();
+    private final LongAdder idleTimeouts = new LongAdder();
+    private final LongAdder lifetimeTimeouts = new LongAdder();
+    private final LongAdder killedSessions = new LongAdder();
+    private final LongAdder tunnelsConnected = new LongAdder();
+    private final LongAdder tunnelsBlocked = new LongAdder();
+    private final LongAdder tunnelsResolveFailed = new LongAdder();
+    private final LongAdder tunnelsConnectFailed = new LongAdder();
+    private final LongAdder tunnelsRejected = new LongAdder();
+    private final LongAdder droppedDenied = new LongAdder();
+    private final LongAdder droppedFlowTableFull = new LongAdder();
+    private final LongAdder droppedRateLimited = new LongAdder();
+    private final LongAdder droppedSendFailed = new LongAdder();
+    private final LongAdder proxyProtocolErrors = new LongAdder();
+    private final LongAdder bannedConnections = new LongAdder();
+    private final LongAdder tlsFullHandshakes = new LongAdder();
+    private final LongAdder tlsResumedHandshakes = new LongAdder();
+    private final LongAdder tlsFailedHandshakes = new LongAdder();
+    private final LongAdder sniRouted = new LongAdder();
+    private final LongAdder sniDefault = new LongAdder();
+    private final LongAdder sniUnmatched = new LongAdder();
+    private final LongAdder sniMalformed = new LongAdder();
+    private final Map<String, ConnectionCounters> connectionsByCountry = new ConcurrentHashMap<>();
+    private final LatencyHistogram geoIpLookupTime = new LatencyHistogram();
+    private final LatencyHistogram backendConnectTime = new LatencyHistogram();
+    private final LatencyHistogram sessionDuration = new LatencyHistogram();
+    private final LatencyHistogram tlsHandshakeTime = new LatencyHistogram();
+    private ScheduledFuture<?> reportTask;
+    private long lastUp = 0;
+    private long lastDown = 0;
+    private long lastReportNanos = System.nanoTime();
+
+    public ProxyMetrics(String proxyName) {
+        this.proxyName = proxyName;
+    }
+
+    public void addClientToServer(long bytes) {
+        bytesClientToServer.add(bytes);
+    }
+
+    public void addServerToClient(long bytes) {
+        bytesServerToClient.add(bytes);
+    }
+
+    /**
+     * 수락한 연결 하나의 판정 결과(ALLOWED, BLOCKED, LIMITED)를 국가별로 기록한다.
+     */
+    public void recordConnection(String country, String status) {
+        ConnectionCounters counters = connectionsByCountry.get(country);
+        if (counters == null) {
+            counters = connectionsByCountry.computeIfAbsent(country, c -> new ConnectionCounters());
+        }
+        switch (status) {
+            case "ALLOWED":
+                counters.allowed.increment();
+                break;
+            case "BLOCKED":
+                counters.blocked.increment();
+                break;
+            default:
+                counters.limited.increment();
+                break;
+        }
+    }
+
+    public void sessionOpened() {
+        activeSessions.increment();
+    }
+
+    public void sessionClosed(long durationNanos) {
+        activeSessions.decrement();
+        sessionDuration.recordNanos(durationNanos);
+    }
+
+    public void recordGeoIpLookup(long nanos) {
+        geoIpLookupTime.recordNanos(nanos);
+    }
+
+    public void recordBackendConnect(long nanos) {
+        backendConnectTime.recordNanos(nanos);
+    }
+
+    public void backendConnectFailed() {
+        backendConnectFailures.increment();
+    }
+
+    /**
+     * 타임아웃으로 끊은 세션을 사유(SessionTimeout.CONNECT, IDLE, LIFETIME)별로 센다.
+     */
+    public void recordTimeout(String reason) {
+        switch (reason) {
+            case SessionTimeout.CONNECT:
+                connectTimeouts.increment();
+                break;
+            case SessionTimeout.IDLE:
+                idleTimeouts.increment();
+                break;
+            default:
+                lifetimeTimeouts.increment();
+                break;
+        }
+    }
+
+    /**
+     * 종료 시 드레인 기한이 지나 강제로 끊은 세션 수를 더한다.
+     */
+    public void recordKilled(int sessions) {
+        killedSessions.add(sessions);
+    }
+
+    /**
+     * out 타입의 터널 요청을 결과(TUNNEL_*)별로 센다. rejected 는 잘못되었거나 지원하지 않는 요청이다.
+     */
+    public void recordTunnel(String result) {
+        switch (result) {
+            case TUNNEL_CONNECTED:
+                tunnelsConnected.increment();
+                break;
+            case TUNNEL_BLOCKED:
+                tunnelsBlocked.increment();
+                break;
+            case TUNNEL_RESOLVE_FAILED:
+                tunnelsResolveFailed.increment();
+                break;
+            case TUNNEL_CONNECT_FAILED:
+                tunnelsConnectFailed.increment();
+                break;
+            default:
+                tunnelsRejected.increment();
+                break;
+        }
+    }
+
+    /**
+     * udp 타입에서 버린 데이터그램을 사유(DROP_*)별로 센다.
+     */
+    public void recordDroppedDatagram(String reason) {
+        switch (reason) {
+            case DROP_DENIED:
+                droppedDenied.increment();
+                break;
+            case DROP_FLOW_TABLE_FULL:
+                droppedFlowTableFull.increment();
+                break;
+            case DROP_RATE_LIMITED:
+                droppedRateLimited.increment();
+                break;
+            default:
+                droppedSendFailed.increment();
+                break;
+        }
+    }
+
+    /**
+     * 받은 PROXY protocol 헤더가 잘못되어 닫은 연결을 센다.
+     */
+    public void recordProxyProtocolError() {
+        proxyProtocolErrors.increment();
+    }
+
+    /**
+     * 자동 차단 중인 주소라서 판정 없이 바로 닫은 연결(UDP 는 흐름)을 센다.
+     */
+    public void recordBanned() {
+        bannedConnections.increment();
+    }
+
+    /**
+     * tls terminate 의 핸드셰이크를 결과(TLS_*)별로 세고, 성공한 핸드셰이크의 소요 시간을 기록한다.
+     * resumed / (full + resumed) 가 세션 캐시(티켓 포함) 적중률이다.
+     */
+    public void recordTlsHandshake(String result, long nanos) {
+        switch (result) {
+            case TLS_FULL:
+                tlsFullHandshakes.increment();
+                break;
+            case TLS_RESUMED:
+                tlsResumedHandshakes.increment();
+                break;
+            default:
+                tlsFailedHandshakes.increment();
+                return;
+        }
+        tlsHandshakeTime.recordNanos(nanos);
+    }
+
+    /**
+     * tls 프록시에서 ClientHello 로 대상을 고른 결과(SNI_*)를 센다.
+     */
+    public void recordSniRoute(String result) {
+        switch (result) {
+            case SNI_ROUTED:
+                sniRouted.increment();
+                break;
+            case SNI_DEFAULT:
+                sniDefault.increment();
+                break;
+            case SNI_UNMATCHED:
+                sniUnmatched.increment();
+                break;
+            default:
+                sniMalformed.increment();
+                break;
+        }
+    }
+
+    public String getProxyName() { return proxyName; }
+    public Map<String, ConnectionCounters> getConnectionsByCountry() { return connectionsByCountry; }
+    public long getActiveSessions() { return activeSessions.sum(); }
+    public long getBackendConnectFailures() { return backendConnectFailures.sum(); }
+    public long getConnectTimeouts() { return connectTimeouts.sum(); }
+    public long getIdleTimeouts() { return idleTimeouts.sum(); }
+    public long getLifetimeTimeouts() { return lifetimeTimeouts.sum(); }
+    public long getKilledSessions() { return killedSessions.sum(); }
+    public long getTunnelsConnected() { return tunnelsConnected.sum(); }
+    public long getTunnelsBlocked() { return tunnelsBlocked.sum(); }
+    public long getTunnelsResolveFailed() { return tunnelsResolveFailed.sum(); }
+    public long getTunnelsConnectFailed() { return tunnelsConnectFailed.sum(); }
+    public long getTunnelsRejected() { return tunnelsRejected.sum(); }
+    public long getDroppedDenied() { return droppedDenied.sum(); }
+    public long getProxyProtocolErrors() { return proxyProtocolErrors.sum(); }
+    public long getBannedConnections() { return bannedConnections.sum(); }
+    public long getDroppedFlowTableFull() { return droppedFlowTableFull.sum(); }
+    public long getDroppedRateLimited() { return droppedRateLimited.sum(); }
+    public long getDroppedSendFailed() { return droppedSendFailed.sum(); }
+    public long getTlsFullHandshakes() { return tlsFullHandshakes.sum(); }
+    public long getTlsResumedHandshakes() { return tlsResumedHandshakes.sum(); }
+    public long getTlsFailedHandshakes() { return tlsFailedHandshakes.sum(); }
+    public long getSniRouted() { return sniRouted.sum(); }
+    public long getSniDefault() { return sniDefault.sum(); }
+    public long getSniUnmatched() { return sniUnmatched.sum(); }
+    public long getSniMalformed() { return sniMalformed.sum(); }
+    public LatencyHistogram getGeoIpLookupTime() { return geoIpLookupTime; }
+    public LatencyHistogram getBackendConnectTime() { return backendConnectTime; }
+    public LatencyHistogram getSessionDuration() { return sessionDuration; }
+    public LatencyHistogram getTlsHandshakeTime() { return tlsHandshakeTime; }
+
+    public long getBytesClientToServer() {
+        return bytesClientToServer.sum();
+    }
+
+    public long getBytesServerToClient() {
+        return bytesServerToClient.sum();
+    }
+
+    /**
+     * 주기적으로 처리량(구간 평균)을 로그로 남긴다. 0 이하이면 아무것도 하지 않는다.
+     */
+    public synchronized void startReporting(int intervalSeconds) {
+        if (intervalSeconds <= 0 || reportTask != null) {
+            return;
+        }
+        lastReportNanos = System.nanoTime();
+        reportTask = reporter.scheduleAtFixedRate(this::report, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stopReporting() {
+        if (reportTask != null) {
+            reportTask.cancel(false);
+            reportTask = null;
+        }
+    }
+
+    private synchronized void report() {
+        long now = System.nanoTime();
+        long up = getBytesClientToServer();
+        long down = getBytesServerToClient();
+        double seconds = Math.max(1, now - lastReportNanos) / 1_000_000_000.0;
+
+        logger.info("{} - Throughput: up {} KB/s, down {} KB/s (total up {} bytes, down {} bytes)",
+            proxyName,
+            String.format("%.1f", (up - lastUp) / 1024.0 / seconds),
+            String.format("%.1f", (down - lastDown) / 1024.0 / seconds),
+            up,
+            down);
+
+        lastUp = up;
+        lastDown = down;
+        lastReportNanos = now;
+    }
+
+    public static final class ConnectionCounters {
+        private final LongAdder allowed = new LongAdder();
+        private final LongAdder blocked = new LongAdder();
+        private final LongAdder limited = new LongAdder();
+
+        public long getAllowed() { return allowed.sum(); }
+        public long getBlocked() { return blocked.sum(); }
+        public long getLimited() { return limited.sum(); }
+    }
+}
@@ -0,0 +1,298 @@
+package com.namejm.proxy;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HAProxy PROXY protocol v1(텍스트)/v2(바이너리) 헤더 읽기와 쓰기.
+ * 읽기는 받은 버퍼를 복사하지 않고 그 자리에서 해석하며, 버퍼는 쓰기(채우기) 모드로 0 번부터 받은 만큼 차 있다고 본다.
+ * 쓰기는 백엔드로 보낼 헤더를 만든다. v2 에는 클라이언트 국가 코드를 사용자 정의 TLV(COUNTRY_TLV)로 붙이고,
+ * tls 프록시면 SNI 와 협상한 ALPN 을 표준 TLV(PP2_TYPE_AUTHORITY, PP2_TYPE_ALPN)로 붙인다.
+ */
+public final class ProxyProtocol {
+    public static final String NONE = "none";
+    public static final String V1 = "v1";
+    public static final String V2 = "v2";
+    /** v2 사용자 정의 TLV(0xE0~0xEF) 중 국가 코드(ISO 3166-1 alpha-2, ASCII 2 바이트)에 쓰는 타입. */
+    public static final int COUNTRY_TLV = 0xE0;
+    /** 만드는 헤더의 최대 길이. 주소와 국가 코드(128 바이트 안)에 255 바이트까지인 SNI, ALPN TLV 를 더한 값. */
+    public static final int MAX_ENCODED_LENGTH = 128 + 2 * (3 + 255);
+
+    private static final int V1_MAX_LENGTH = 107; // "PROXY TCP6 " + 주소 두 개 + 포트 두 개 + CRLF
+    private static final byte[] V1_PREFIX = "PROXY ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] V2_SIGNATURE = {0x0D, 0x0A, 0x0D, 0x0A, 0x00, 0x0D, 0x0A, 0x51, 0x55, 0x49, 0x54, 0x0A};
+    private static final int V2_HEADER_LENGTH = 16;
+    private static final int V2_VERSION = 0x20;
+    private static final int V2_CMD_LOCAL = 0x00;
+    private static final int PP2_TYPE_ALPN = 0x01;
+    private static final int PP2_TYPE_AUTHORITY = 0x02;
+    private static final int V2_CMD_PROXY = 0x01;
+    private static final int V2_AF_INET = 0x10;
+    private static final int V2_AF_INET6 = 0x20;
+    private static final int V2_PROTO_STREAM = 0x01;
+
+    private ProxyProtocol() {}
+
+    /**
+     * 해석한 헤더. source/destination 은 LOCAL 명령이나 UNKNOWN, 유닉스 소켓처럼 주소가 없으면 null 이며,
+     * 이때는 연결의 실제 주소를 그대로 쓴다.
+     */
+    public static final class Header {
+        private final InetSocketAddress source;
+        private final InetSocketAddress destination;
+        private final int length;
+
+        Header(InetSocketAddress source, InetSocketAddress destination, int length) {
+            this.source = source;
+            this.destination = destination;
+            this.length = length;
+        }
+
+        public InetSocketAddress getSource() { return source; }
+        public InetSocketAddress getDestination() { return destination; }
+        /** 헤더가 차지한 바이트 수. 그 뒤는 클라이언트가 보낸 데이터다. */
+        public int getLength() { return length; }
+    }
+
+    /**
+     * buffer 의 0 번부터 position 까지 받은 바이트에서 헤더를 해석한다. 아직 덜 받았으면 null.
+     * 헤더는 buffer 의 limit 안에 들어와야 한다.
+     *
+     * @throws ProtocolException PROXY protocol 헤더가 아니거나 형식이 틀린 경우
+     */
+    public static Header parse(ByteBuffer buffer) throws ProtocolException {
+        int available = buffer.position();
+        if (available == 0) {
+            return null;
+        }
+        if (buffer.get(0) == V2_SIGNATURE[0]) {
+            return parseV2(buffer, available);
+        }
+        return parseV1(buffer, available);
+    }
+
+    private static Header parseV1(ByteBuffer buffer, int available) throws ProtocolException {
+        for (int i = 0; i < Math.min(available, V1_PREFIX.length); i++) {
+            if (buffer.get(i) != V1_PREFIX[i]) {
+                throw new ProtocolException("not a PROXY protocol header");
+            }
+        }
+        int end = -1;
+        for (int i = V1_PREFIX.length; i < Math.min(available, V1_MAX_LENGTH); i++) {
+            if (buffer.get(i) == '\n' && buffer.get(i - 1) == '\r') {
+                end = i + 1;
+                break;
+            }
+        }
+        if (end < 0) {
+            if (available >= V1_MAX_LENGTH) {
+                throw new ProtocolException("PROXY v1 header too long");
+            }
+            return null;
+        }
+        // 한 줄(최대 107 바이트)만 문자열로 바꾼다.
+        byte[] line = new byte[end - 2];
+        buffer.get(0, line);
+        String[] fields = new String(line, StandardCharsets.US_ASCII).split(" ", -1);
+        if (fields.length >= 2 && "UNKNOWN".equals(fields[1])) {
+            return new Header(null, null, end);
+        }
+        if (fields.length != 6 || !("TCP4".equals(fields[1]) || "TCP6".equals(fields[1]))) {
+            throw new ProtocolException("bad PROXY v1 header");
+        }
+        boolean ipv6 = "TCP6".equals(fields[1]);
+        InetAddress source = parseV1Address(fields[2], ipv6);
+        InetAddress destination = parseV1Address(fields[3], ipv6);
+        return new Header(new InetSocketAddress(source, parseV1Port(fields[4])),
+            new InetSocketAddress(destination, parseV1Port(fields[5])), end);
+    }
+
+    private static InetAddress parseV1Address(String text, boolean ipv6) throws ProtocolException {
+        // 숫자 주소만 받는다.
+        if (text.isEmpty()) {
+            throw new ProtocolException("empty address in PROXY v1 header");
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            boolean valid = (c >= '0' && c <= '9') || c == '.'
+                || (ipv6 && (c == ':' || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F')));
+            if (!valid) {
+                throw new ProtocolException("bad address in PROXY v1 header: " + text);
+            }
+        }
+        // TCP4 는 a.b.c.d 만, TCP6 는 ':' 가 있는 주소만 받는다(::ffff:a.b.c.d 는 Inet4Address 로 바뀐다).
+        boolean matches = ipv6 ? text.indexOf(':') >= 0 : text.chars().filter(c -> c == '.').count() == 3;
+        if (!matches) {
+            throw new ProtocolException("address family mismatch in PROXY v1 header: " + text);
+        }
+        // getByName 은 999.1.1.1 처럼 형식이 틀린 리터럴을 이름으로 조회하므로 쓰지 않는다.
+        InetAddress address = InetAddresses.parseLiteral(text);
+        if (address == null) {
+            throw new ProtocolException("bad address in PROXY v1 header: " + text);
+        }
+        return address;
+    }
+
+    private static int parseV1Port(String text) throws ProtocolException {
+        try {
+            int port = Integer.parseInt(text);
+            if (port < 0 || port > 65535 || text.length() > 5) {
+                throw new NumberFormatException();
+            }
+            return port;
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("bad port in PROXY v1 header: " + text);
+        }
+    }
+
+    private static Header parseV2(ByteBuffer buffer, int available) throws ProtocolException {
+        for (int i = 0; i < Math.min(available, V2_SIGNATURE.length); i++) {
+            if (buffer.get(i) != V2_SIGNATURE[i]) {
+                throw new ProtocolException("not a PROXY protocol header");
+            }
+        }
+        if (available < V2_HEADER_LENGTH) {
+            return null;
+        }
+        int versionCommand = buffer.get(12) & 0xFF;
+        int family = buffer.get(13) & 0xFF;
+        int length = V2_HEADER_LENGTH + (buffer.getShort(14) & 0xFFFF);
+        if ((versionCommand & 0xF0) != V2_VERSION) {
+            throw new ProtocolException("unsupported PROXY protocol version " + (versionCommand >>> 4));
+        }
+        if (length > buffer.limit()) {
+            throw new ProtocolException("PROXY v2 header too long: " + length);
+        }
+        if (available < length) {
+            return null;
+        }
+        int command = versionCommand & 0x0F;
+        if (command == V2_CMD_LOCAL) {
+            return new Header(null, null, length); // 로드 밸런서의 헬스 체크 등
+        }
+        if (command != V2_CMD_PROXY) {
+            throw new ProtocolException("unsupported PROXY v2 command " + command);
+        }
+        int addressLength;
+        if ((family & 0xF0) == V2_AF_INET) {
+            addressLength = 4;
+        } else if ((family & 0xF0) == V2_AF_INET6) {
+            addressLength = 16;
+        } else {
+            return new Header(null, null, length); // AF_UNSPEC, AF_UNIX: 주소를 쓰지 않는다
+        }
+        if (length < V2_HEADER_LENGTH + addressLength * 2 + 4) {
+            throw new ProtocolException("truncated PROXY v2 address block");
+        }
+        // 주소 뒤의 TLV 는 쓰지 않으므로 건너뛴다.
+        int offset = V2_HEADER_LENGTH;
+        InetAddress source = readAddress(buffer, offset, addressLength);
+        InetAddress destination = readAddress(buffer, offset + addressLength, addressLength);
+        offset += addressLength * 2;
+        int sourcePort = buffer.getShort(offset) & 0xFFFF;
+        int destinationPort = buffer.getShort(offset + 2) & 0xFFFF;
+        return new Header(new InetSocketAddress(source, sourcePort), new InetSocketAddress(destination, destinationPort), length);
+    }
+
+    private static InetAddress readAddress(ByteBuffer buffer, int offset, int length) throws ProtocolException {
+        byte[] address = new byte[length];
+        buffer.get(offset, address);
+        try {
+            return InetAddress.getByAddress(address);
+        } catch (UnknownHostException e) {
+            throw new ProtocolException("bad address in PROXY v2 header");
+        }
+    }
+
+    /**
+     * version(v1, v2) 헤더를 out 에 쓴다. 두 주소의 종류가 다르면 IPv4 주소를 IPv4 매핑 IPv6 주소로 바꿔 맞춘다.
+     *
+     * @param country v2 에 TLV 로 붙일 국가 코드. 두 글자가 아니면(UNKNOWN 등) 붙이지 않는다
+     * @param authority v2 에 붙일 서버 이름(SNI), 없으면 null
+     * @param alpn v2 에 붙일 응용 프로토콜, 없으면 null
+     */
+    public static void write(ByteBuffer out, String version, InetSocketAddress source, InetSocketAddress destination,
+                             String country, String authority, String alpn) {
+        InetAddress sourceAddress = source.getAddress();
+        InetAddress destinationAddress = destination.getAddress();
+        boolean ipv6 = sourceAddress instanceof Inet6Address || destinationAddress instanceof Inet6Address;
+        byte[] sourceBytes = addressBytes(sourceAddress, ipv6);
+        byte[] destinationBytes = addressBytes(destinationAddress, ipv6);
+
+        if (V1.equals(version)) {
+            String line = "PROXY " + (ipv6 ? "TCP6 " : "TCP4 ")
+                + textOf(sourceBytes) + " " + textOf(destinationBytes) + " "
+                + source.getPort() + " " + destination.getPort() + "\r\n";
+            out.put(line.getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+
+        boolean withCountry = country != null && country.length() == 2 && !InetAddressLocator.UNKNOWN.equals(country);
+        byte[] authorityBytes = tlvValue(authority);
+        byte[] alpnBytes = tlvValue(alpn);
+        int length = sourceBytes.length * 2 + 4 + (withCountry ? 5 : 0)
+            + (authorityBytes != null ? 3 + authorityBytes.length : 0) + (alpnBytes != null ? 3 + alpnBytes.length : 0);
+        out.put(V2_SIGNATURE)
+           .put((byte) (V2_VERSION | V2_CMD_PROXY))
+           .put((byte) ((ipv6 ? V2_AF_INET6 : V2_AF_INET) | V2_PROTO_STREAM))
+           .putShort((short) length)
+           .put(sourceBytes)
+           .put(destinationBytes)
+           .putShort((short) source.getPort())
+           .putShort((short) destination.getPort());
+        if (withCountry) {
+            out.put((byte) COUNTRY_TLV).putShort((short) 2)
+               .put((byte) country.charAt(0)).put((byte) country.charAt(1));
+        }
+        if (alpnBytes != null) {
+            out.put((byte) PP2_TYPE_ALPN).putShort((short) alpnBytes.length).put(alpnBytes);
+        }
+        if (authorityBytes != null) {
+            out.put((byte) PP2_TYPE_AUTHORITY).putShort((short) authorityBytes.length).put(authorityBytes);
+        }
+    }
+
+    private static byte[] tlvValue(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return bytes.length <= 255 ? bytes : null;
+    }
+
+    private static byte[] addressBytes(InetAddress address, boolean ipv6) {
+        byte[] bytes = address.getAddress();
+        if (!ipv6 || bytes.length == 16) {
+            return bytes;
+        }
+        byte[] mapped = new byte[16];
+        mapped[10] = (byte) 0xFF;
+        mapped[11] = (byte) 0xFF;
+        System.arraycopy(bytes, 0, mapped, 12, 4);
+        return mapped;
+    }
+
+    private static String textOf(byte[] address) {
+        if (address.length == 4) {
+            return (address[0] & 0xFF) + "." + (address[1] & 0xFF) + "." + (address[2] & 0xFF) + "." + (address[3] & 0xFF);
+        }
+        try {
+            // getByAddress 는 ::ffff:a.b.c.d 를 IPv4 로 바꾸므로 Inet6Address 로 직접 만든다.
+            return Inet6Address.getByAddress(null, address, -1).getHostAddress();
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * 설정 값이 올바른 전송 방식(none, v1, v2)인지.
+     */
+    public static boolean isValidVersion(String version) {
+        return NONE.equals(version) || V1.equals(version) || V2.equals(version);
+    }
+}
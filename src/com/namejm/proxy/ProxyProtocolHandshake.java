@@ -0,0 +1,146 @@
+package com.namejm.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import static ch.qos.logback.core.util.CloseUtil.closeQuietly;
+
+/**
+ * acceptProxyProtocol 이 켜진 프록시에서 중계 전에 PROXY protocol 헤더를 읽는다.
+ * 헤더는 풀에서 빌린 버퍼에 받은 그대로 해석하고, 다 읽으면 관심을 끈 채 채널을 같은 루프의 다음 단계로 넘긴다.
+ * 헤더 뒤에 이어 받은 바이트는 함께 넘겨 백엔드(또는 out 타입의 요청 처리)로 먼저 전달한다.
+ * connectTimeoutSeconds 안에 헤더를 다 보내지 않으면 닫는다.
+ */
+public class ProxyProtocolHandshake implements NioHandler, RelaySession {
+    private static final Logger logger = LoggerFactory.getLogger(ProxyProtocolHandshake.class);
+    private static final int HEADER_BUFFER_SIZE = 4096; // 중계 버퍼의 최소 등급
+    // 헤더 뒤에 따라온 바이트에 백엔드로 보낼 헤더를 붙여도 중계 버퍼 하나에 들어가도록 남겨 두는 공간
+    private static final int RESERVED = ProxyProtocol.MAX_ENCODED_LENGTH;
+
+    private final NioEventLoop loop;
+    private final SocketChannel client;
+    private final ProxyDto config;
+    private final ProxyMetrics metrics;
+    private final SessionRegistry registry;
+    private final BiConsumer<ProxyProtocol.Header, ByteBuffer> next;
+    private final BufferPool.PooledBuffer lease = BufferPool.SHARED.acquireHeap(HEADER_BUFFER_SIZE);
+    private final ByteBuffer buffer = lease.buffer(); // 쓰기(채우기) 모드로 유지
+    private SelectionKey clientKey;
+    private HashedTimingWheel.Timeout timer;
+    private boolean closed = false;
+
+    /**
+     * @param next 헤더를 다 읽으면 루프 스레드에서 호출된다. 두 번째 인자는 헤더 뒤에 받은 바이트(읽기 모드)로, 없으면 null
+     */
+    public ProxyProtocolHandshake(NioEventLoop loop, SocketChannel client, ProxyDto config, ProxyMetrics metrics,
+                                  SessionRegistry registry, BiConsumer<ProxyProtocol.Header, ByteBuffer> next) {
+        this.loop = loop;
+        this.client = client;
+        this.config = config;
+        this.metrics = metrics;
+        this.registry = registry;
+        this.next = next;
+        buffer.limit(HEADER_BUFFER_SIZE - RESERVED);
+        registry.add(this);
+    }
+
+    /**
+     * 헤더를 읽기 시작한다. 루프 스레드에서 호출해야 한다.
+     */
+    public void start() {
+        try {
+            client.configureBlocking(false);
+            clientKey = loop.register(client, SelectionKey.OP_READ, this);
+        } catch (IOException e) {
+            close();
+            return;
+        }
+        if (config.getConnectTimeoutSeconds() > 0) {
+            timer = SessionTimeout.WHEEL.schedule(() -> loop.execute(this::timedOut),
+                config.getConnectTimeoutSeconds(), TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public void handle(SelectionKey key) throws IOException {
+        if (closed) {
+            return;
+        }
+        if (client.read(buffer) < 0) {
+            close();
+            return;
+        }
+        ProxyProtocol.Header header;
+        try {
+            header = ProxyProtocol.parse(buffer);
+        } catch (ProtocolException e) {
+            metrics.recordProxyProtocolError();
+            logger.warn("{} - Bad PROXY protocol header from {}: {}", config.getName(),
+                client.socket().getRemoteSocketAddress(), e.getMessage());
+            close();
+            return;
+        }
+        if (header == null) {
+            return;
+        }
+
+        ByteBuffer early = null;
+        if (buffer.position() > header.getLength()) {
+            buffer.flip().position(header.getLength());
+            // 전송량은 세지 않는다. 다음 단계가 백엔드로 보낼 바이트만 한 번 센다(in: preamble, out: 요청 뒤 바이트).
+            early = ByteBuffer.allocate(buffer.remaining()).put(buffer).flip();
+        }
+        closed = true;
+        if (timer != null) {
+            timer.cancel();
+        }
+        clientKey.interestOps(0);
+        lease.release();
+        registry.remove(this);
+        // 다음 단계가 같은 Selector 에 다시 등록하면 키의 attachment 만 바뀐다.
+        next.accept(header, early);
+    }
+
+    @Override
+    public void failed(SelectionKey key, Exception e) {
+        if (!(e instanceof IOException)) {
+            logger.warn("PROXY protocol handshake error", e);
+        }
+        close();
+    }
+
+    @Override
+    public void terminate() {
+        loop.execute(this::close);
+    }
+
+    private void timedOut() {
+        if (closed) {
+            return;
+        }
+        metrics.recordTimeout(SessionTimeout.CONNECT);
+        close();
+    }
+
+    private void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (timer != null) {
+            timer.cancel();
+        }
+        if (clientKey != null) clientKey.cancel();
+        closeQuietly(client);
+        lease.release();
+        registry.remove(this);
+    }
+}
@@ -0,0 +1,261 @@
+package com.namejm.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 설정된 모든 프록시가 함께 쓰는 수락/중계 스레드. 스레드 수는 프록시 수가 아니라 코어 수에 맞춘다.
+ * - 이벤트 루프 한 묶음이 모든 리슨 소켓의 수락과 nio, tls, out, udp 중계를 맡는다. 루프는 깨어날 때마다 리슨 소켓마다
+ *   최대 64 개씩만 수락하므로, 한 프록시에 연결이 몰려도 같은 루프의 다른 프록시가 밀리지 않는다.
+ * - sharedWorkers 이면 blocking 엔진(pool)의 연결 처리도 작업 스레드 풀 하나가 맡는다. 한 프록시는 작업 스레드의
+ *   workerSharePercent 까지만 동시에 쓰고 나머지 연결은 자기 대기 큐(workerQueue)에서 기다리므로(WorkerQuota), 한 프록시에
+ *   몰린 연결이 다른 프록시의 스레드를 빼앗지 못한다. 대신 모든 blocking 프록시의 동시 세션 합이 workerThreads 로 묶이므로
+ *   기본값은 꺼 두고, 이때 blocking 프록시는 지금처럼 자기 수락 스레드와 스레드 풀을 쓴다.
+ * 프록시를 종료해도 런타임은 그대로 두고, 서버를 종료할 때 close() 한다.
+ */
+public class ProxyRuntime {
+    private static final Logger logger = LoggerFactory.getLogger(ProxyRuntime.class);
+
+    private final NioRelayEngine engine;
+    private final boolean sharedWorkers;
+    private final ThreadPoolExecutor workers;
+    private final int workerQueue;
+    private final int workerShare; // 프록시 하나가 동시에 쓸 수 있는 작업 스레드 수
+
+    /**
+     * @param ioThreads 이벤트 루프 수, 0 이면 CPU 코어 수
+     * @param sharedWorkers blocking 엔진(pool) 프록시도 작업 스레드 풀을 함께 쓸지 여부
+     * @param workerThreads 작업 스레드 최대 수, 0 이면 CPU 코어 수 x 2
+     * @param workerQueue 프록시마다 작업 스레드를 기다릴 수 있는 연결 수
+     * @param workerSharePercent 프록시 하나가 동시에 쓸 수 있는 작업 스레드의 비율(1~100)
+     */
+    public ProxyRuntime(int ioThreads, boolean sharedWorkers, int workerThreads, int workerQueue, int workerSharePercent) throws IOException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int maxWorkers = workerThreads > 0 ? workerThreads : cores * 2;
+        this.engine = new NioRelayEngine("ProxyIoLoop", ioThreads);
+        this.sharedWorkers = sharedWorkers;
+        this.workerQueue = workerQueue;
+        this.workerShare = Math.max(1, maxWorkers * workerSharePercent / 100);
+        AtomicInteger threadIndex = new AtomicInteger();
+        // 기다리는 연결은 프록시별 대기 큐가 들고 있고, 풀의 큐에는 각 프록시가 몫 안에서 넘긴 작업만 들어온다.
+        // 몫의 합이 스레드 수보다 크면 그 차이만큼만 쌓이므로 큐 길이는 따로 제한하지 않는다.
+        // 스레드는 처음부터 최대 수까지 늘리고(core = max), 쉬는 스레드는 60 초 뒤 정리한다.
+        this.workers = new ThreadPoolExecutor(maxWorkers, maxWorkers, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+            runnable -> new Thread(runnable, "ProxyWorker-" + threadIndex.getAndIncrement()));
+        this.workers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 설정값의 형식 오류. 올바르면 null.
+     */
+    public static String validate(int ioThreads, int workerThreads, int workerQueue, int workerSharePercent) {
+        if (ioThreads < 0 || workerThreads < 0) {
+            return "ioThreads and workerThreads must not be negative";
+        }
+        if (workerQueue < 0) {
+            return "workerQueue must not be negative";
+        }
+        if (workerSharePercent < 1 || workerSharePercent > 100) {
+            return "workerSharePercent must be between 1 and 100";
+        }
+        return null;
+    }
+
+    public void start() {
+        engine.start();
+        if (sharedWorkers) {
+            logger.info("Shared proxy runtime started: ioThreads={}, workerThreads={}, workerShare={}, workerQueue={}",
+                engine.size(), workers.getMaximumPoolSize(), workerShare, workerQueue);
+        } else {
+            logger.info("Shared proxy runtime started: ioThreads={} (blocking pool proxies keep their own workers)", engine.size());
+        }
+    }
+
+    /**
+     * 프록시 하나가 작업 스레드 풀을 쓰는 창구를 만든다.
+     */
+    public WorkerQuota newWorkerQuota() {
+        return new WorkerQuota();
+    }
+
+    public boolean isSharedWorkers() {
+        return sharedWorkers;
+    }
+
+    public NioRelayEngine getEngine() {
+        return engine;
+    }
+
+    public int getIoThreads() {
+        return engine.size();
+    }
+
+    public int getWorkerThreads() {
+        return workers.getMaximumPoolSize();
+    }
+
+    public int getLiveWorkers() {
+        return workers.getPoolSize();
+    }
+
+    public int getActiveWorkers() {
+        return workers.getActiveCount();
+    }
+
+    public int getWorkerShare() {
+        return workerShare;
+    }
+
+    public int getWorkerQueue() {
+        return workerQueue;
+    }
+
+    /**
+     * 이벤트 루프와 작업 스레드를 멈춘다. 모든 프록시를 종료한 뒤에 호출한다.
+     */
+    public void close() {
+        engine.shutdown();
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(10, TimeUnit.SECONDS)) {
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 프록시 하나의 작업 몫. 동시에 workerShare 개까지만 작업 스레드에 넘기고, 나머지는 workerQueue 개까지 순서대로 기다린다.
+     * 작업이 끝날 때마다 기다리던 작업을 넘긴다. 최대 대기 시간을 주면 그동안 차례가 오지 않은 작업은 큐에서 빼고 거부한다.
+     */
+    public final class WorkerQuota implements Executor {
+        private final Queue<Pending> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger inFlight = new AtomicInteger(); // 실행 중 + 대기 중
+        private final AtomicInteger running = new AtomicInteger(); // 작업 스레드에 넘긴 작업
+        private final LongAdder rejected = new LongAdder();
+
+        private WorkerQuota() {
+        }
+
+        /**
+         * @throws RejectedExecutionException 이 프록시의 몫과 대기 큐가 모두 찬 경우
+         */
+        @Override
+        public void execute(Runnable task) {
+            execute(task, 0, null);
+        }
+
+        /**
+         * @param maxWaitSeconds 대기 큐에서 기다릴 수 있는 시간, 0 이면 제한 없음
+         * @param onExpired 그 시간 안에 작업 스레드를 받지 못해 큐에서 뺐을 때 타이머 스레드에서 실행한다(연결을 닫는 정도만)
+         * @throws RejectedExecutionException 이 프록시의 몫과 대기 큐가 모두 찬 경우
+         */
+        public void execute(Runnable task, long maxWaitSeconds, Runnable onExpired) {
+            if (inFlight.incrementAndGet() > workerShare + workerQueue) {
+                inFlight.decrementAndGet();
+                rejected.increment();
+                throw new RejectedExecutionException("Worker share (" + workerShare + ") and queue (" + workerQueue + ") are full");
+            }
+            Pending entry = new Pending(task);
+            pending.add(entry);
+            if (maxWaitSeconds > 0) {
+                // 큐에서 꺼내는 쪽(drain)과 빼는 쪽(expire) 중 ConcurrentLinkedQueue 에서 먼저 가져간 쪽만 처리한다.
+                entry.timer = SessionTimeout.WHEEL.schedule(() -> expire(entry, onExpired), maxWaitSeconds, TimeUnit.SECONDS);
+            }
+            drain();
+        }
+
+        private void expire(Pending entry, Runnable onExpired) {
+            if (!pending.remove(entry)) {
+                return; // 이미 작업 스레드에 넘어갔다.
+            }
+            inFlight.decrementAndGet();
+            rejected.increment();
+            onExpired.run();
+        }
+
+        /**
+         * 몫이 남아 있는 동안 기다리던 작업을 작업 스레드에 넘긴다. 넣는 쪽과 끝나는 쪽이 모두 부르므로
+         * 어느 한쪽이 먼저 보더라도 기다리는 작업이 남지 않는다.
+         */
+        private void drain() {
+            while (!pending.isEmpty()) {
+                int current = running.get();
+                if (current >= workerShare) {
+                    return;
+                }
+                if (!running.compareAndSet(current, current + 1)) {
+                    continue;
+                }
+                Pending entry = pending.poll();
+                if (entry == null) {
+                    running.decrementAndGet(); // 다른 스레드가 먼저 꺼냈다. 남은 것이 있는지 다시 본다.
+                    continue;
+                }
+                if (entry.timer != null) {
+                    entry.timer.cancel();
+                }
+                Runnable task = entry.task;
+                try {
+                    workers.execute(() -> {
+                        try {
+                            task.run();
+                        } finally {
+                            inFlight.decrementAndGet();
+                            running.decrementAndGet();
+                            drain();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // 런타임을 닫은 뒤에만 일어난다. 남은 작업은 버린다.
+                    inFlight.decrementAndGet();
+                    running.decrementAndGet();
+                    return;
+                }
+            }
+        }
+
+        /**
+         * 작업 스레드에 넘긴 작업 수.
+         */
+        public int getRunning() {
+            return running.get();
+        }
+
+        /**
+         * 몫이 없어 이 프록시의 대기 큐에서 기다리는 작업 수.
+         */
+        public int getQueued() {
+            return Math.max(0, inFlight.get() - running.get());
+        }
+
+        /**
+         * 몫과 대기 큐가 가득 차거나 대기 시간을 넘겨 거부한 작업 수.
+         */
+        public long getRejected() {
+            return rejected.sum();
+        }
+    }
+
+    private static final class Pending {
+        private final Runnable task;
+        private volatile HashedTimingWheel.Timeout timer;
+
+        private Pending(Runnable task) {
+            this.task = task;
+        }
+    }
+}
@@ -1,20 +1,44 @@
 package com.namejm.proxy;
 
+import ch.qos.logback.classic.LoggerContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.yaml.snakeyaml.Yaml;
-import org.yaml.snakeyaml.constructor.Constructor;
 
 import java.io.*;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ProxyServer {
     final private static Logger logger = LoggerFactory.getLogger(ProxyServer.class);
     private static List<ProxyDto> config = null;
+    private static Map<String, List<String>> aclGroups = null;
     private static InetAddressLocator inetAddressLocator;
+    private static MetricsServer metricsServer;
+    private static AccessLog accessLog;
+    private static ClientTracker clientTracker;
+    private static ProxyRuntime runtime; // runtime.shared 가 false 면 null
     private static final List<ProxyMain> proxyInstances = new ArrayList<>();
+    private static final Set<ProxyMain> drainingProxies = ConcurrentHashMap.newKeySet(); // 설정에서 빠져 세션을 정리 중인 인스턴스
+    private static final long CONFIG_RELOAD_DEBOUNCE_MILLIS = 500;
+    private static final Set<String> PROXY_KEYS = Set.of("type", "name", "bindPort", "forwardHost", "forwardPort",
+        "allowedCountries", "limits", "engine", "ioThreads", "executor", "maxConnections", "zeroCopy", "bufferSize",
+        "acceptThreads", "acceptBacklog", "rejectWithReset", "connectTimeoutSeconds", "idleTimeoutSeconds",
+        "maxLifetimeSeconds", "tcpKeepAlive", "drainTimeoutSeconds", "statsIntervalSeconds", "upstreams", "balance",
+        "healthCheckIntervalSeconds", "backendPoolSize", "backendPoolMaxIdleSeconds",
+        "protocol", "allowedDestinations", "resolverThreads", "dnsCacheTtlSeconds",
+        "flowIdleTimeoutSeconds", "maxFlows", "sendProxyProtocol", "acceptProxyProtocol", "trustedProxies",
+        "tls", "sniRoutes", "tlsKeyStore", "tlsKeyStorePassword", "tlsProtocols", "alpn", "tlsSessionCacheSize",
+        "tlsSessionTimeoutSeconds");
+    private static FileWatcher configWatcher;
     public static void main(String args[]){
         System.out.println("       _           _____                      _____                          \n" +
                 "      | |         |  __ \\                    / ____|                         \n" +
@@ -35,16 +59,6 @@ public class ProxyServer {
             logger.info("Using default configuration file: {}", configPath);
         }
 
-        // --- GeoIP 데이터베이스 로드 ---
-        String geoIpDbPath = "./config/GeoLite2-Country.mmdb"; // 기본 경로 또는 설정에서 읽기
-        try {
-            inetAddressLocator = new InetAddressLocator(geoIpDbPath);
-        } catch (IOException e) {
-            logger.error("Failed to load GeoIP database: {}", geoIpDbPath, e);
-            System.exit(1); // DB 로드 실패 시 종료
-            return;
-        }
-
         try {
             Yaml yaml = new Yaml();
             Map<String, Object> rawConfig; // SnakeYAML이 Map으로 파싱하도록 변경
@@ -56,6 +70,44 @@ public class ProxyServer {
                 return;
             }
 
+            // --- GeoIP 데이터베이스 로드 ---
+            Map<String, Object> geoIpConfig = getSection(rawConfig, "geoip");
+            String geoIpDbPath = getString(geoIpConfig, "database", "./config/GeoLite2-Country.mmdb");
+            int cacheSize = getInt(geoIpConfig, "cacheSize", 100_000);
+            int cacheTtlSeconds = getInt(geoIpConfig, "cacheTtlSeconds", 3600);
+            boolean reloadOnChange = getBoolean(geoIpConfig, "reloadOnChange", true);
+            try {
+                inetAddressLocator = new InetAddressLocator(geoIpDbPath, cacheSize, cacheTtlSeconds);
+                if (reloadOnChange) {
+                    inetAddressLocator.startWatching();
+                }
+            } catch (IOException e) {
+                logger.error("Failed to load GeoIP database: {}", geoIpDbPath, e);
+                System.exit(1); // DB 로드 실패 시 종료
+                return;
+            }
+
+            // --- 접속 로그 (비동기) ---
+            Map<String, Object> accessLogConfig = getSection(rawConfig, "accessLog");
+            String accessLogPath = getString(accessLogConfig, "path", "");
+            if (!accessLogPath.isEmpty()) {
+                accessLog = new AccessLog(accessLogPath,
+                    getInt(accessLogConfig, "bufferSize", 65536),
+                    getInt(accessLogConfig, "maxFileSizeMb", 100) * 1024L * 1024L,
+                    getInt(accessLogConfig, "maxFiles", 5),
+                    getInt(accessLogConfig, "dedupWindowSeconds", 10));
+                try {
+                    accessLog.start();
+                } catch (IOException e) {
+                    logger.error("Failed to open access log: {}, falling back to console logging", accessLogPath, e);
+                    accessLog = null;
+                }
+            }
+
+            // --- 중계 버퍼 풀 ---
+            Map<String, Object> bufferPoolConfig = getSection(rawConfig, "bufferPool");
+            BufferPool.SHARED.setMaxBytes(getInt(bufferPoolConfig, "maxMemoryMb", 256) * 1024L * 1024L);
+
             // --- 설정 파싱 ---
             config = parseProxyConfig(rawConfig);
             if (config == null) {
@@ -63,37 +115,47 @@ public class ProxyServer {
                 System.exit(1);
                 return;
             }
+            aclGroups = parseAclGroups(rawConfig);
 
-            for (int i = 0; i < config.size(); i++) {
-                final ProxyDto proxyConfig = config.get(i);
+            // --- 출발지 IP 기록과 자동 차단 (모든 프록시 공유) ---
+            clientTracker = createClientTracker(getSection(rawConfig, "autoBan"));
 
-                logger.info("Processing proxy config [{}]: {}", i, proxyConfig);
+            // --- 수락/중계 스레드 (모든 프록시 공유) ---
+            runtime = createRuntime(getSection(rawConfig, "runtime"));
 
-                // 설정 유효성 검사
-                if (!isValidConfig(proxyConfig)) {
-                    logger.warn("Skipping invalid proxy configuration: {}", proxyConfig.getName());
-                    continue;
+            for (ProxyDto proxyConfig : config) {
+                logger.info("Processing proxy config: {}", proxyConfig);
+                AccessControlList acl = prepareProxy(proxyConfig);
+                if (acl != null) {
+                    startProxy(proxyConfig, acl, compileDestinations(proxyConfig));
                 }
+            }
 
-                logger.info("Creating startup thread for proxy:  {}", proxyConfig.getName());
-
-                // ProxyMain 인스턴스 생성 및 시작
-                Thread proxyThread = new Thread(() -> {
-                    try {
-                        logger.info("Thread started for proxy: {}. Creating ProxyMain instance...", proxyConfig.getName());
-                        ProxyMain proxyMain = new ProxyMain(proxyConfig, inetAddressLocator);
-                        proxyInstances.add(proxyMain);
-                        logger.info("Starting ProxyMain for proxy: {}", proxyConfig.getName());
-                        proxyMain.start();
-                        logger.info("ProxyMain started successfully for proxy: {}", proxyConfig.getName());
-                    } catch (IOException e) {
-                        logger.error("!!! Failed to start proxy '{}': {}", proxyConfig.getName(), e.getMessage(), e);
-                    } catch (Exception e) {
-                        logger.error("!!! Unexpected error during proxy startup '{}': {}", proxyConfig.getName(), e.getMessage(), e);
-                    }
-                });
-                proxyThread.setName("ProxyStarter-" + proxyConfig.getName());
-                proxyThread.start();
+            // --- 지표 엔드포인트 (Prometheus) ---
+            Map<String, Object> metricsConfig = getSection(rawConfig, "metrics");
+            int metricsPort = getInt(metricsConfig, "port", 0);
+            if (metricsPort > 0) {
+                String metricsBind = getString(metricsConfig, "bind", "127.0.0.1");
+                try {
+                    metricsServer = new MetricsServer(metricsBind, metricsPort, proxyInstances, inetAddressLocator);
+                    metricsServer.setAccessLog(accessLog);
+                    metricsServer.setClientTracker(clientTracker);
+                    metricsServer.setRuntime(runtime);
+                    metricsServer.start();
+                } catch (IOException e) {
+                    logger.error("Failed to start metrics endpoint on {}:{}", metricsBind, metricsPort, e);
+                }
+            }
+
+            // --- 설정 파일 변경 감시 (proxy, groups 만 다시 적용) ---
+            if (getBoolean(rawConfig, "reloadOnChange", true)) {
+                final String watchedPath = configPath;
+                try {
+                    configWatcher = new FileWatcher(Paths.get(configPath), CONFIG_RELOAD_DEBOUNCE_MILLIS, () -> reloadConfig(watchedPath));
+                    configWatcher.start();
+                } catch (IOException e) {
+                    logger.error("Failed to watch configuration file {}", configPath, e);
+                }
             }
 
             // --- Graceful Shutdown 설정 ---
@@ -111,22 +173,274 @@ public class ProxyServer {
     private static void addShutdownHook() {
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             logger.info("Shutdown hook triggered. Shutting down proxy servers...");
+            if (configWatcher != null) {
+                configWatcher.close();
+            }
+            if (metricsServer != null) {
+                metricsServer.stop();
+            }
+            List<ProxyMain> proxies;
             synchronized (proxyInstances) {
-                for (ProxyMain proxy : proxyInstances) {
-                    try {
-                        logger.info("Shutting down proxy: {}", proxy.getConfig().getName());
-                        proxy.shutdown();
-                    } catch (Exception e) {
-                        logger.error("Error shutting down proxy: {}",
-                                     (proxy.getConfig() != null ? proxy.getConfig().getName() : "Unknown Proxy"), e);
-                    }
+                proxies = new ArrayList<>(proxyInstances);
+            }
+            proxies.addAll(drainingProxies);
+            // 먼저 모든 프록시의 수락을 멈춰 드레인 대기 시간이 프록시마다 더해지지 않고 겹치게 한다.
+            for (ProxyMain proxy : proxies) {
+                proxy.stopAccepting();
+            }
+            for (ProxyMain proxy : proxies) {
+                try {
+                    logger.info("Shutting down proxy: {}", proxy.getConfig().getName());
+                    proxy.shutdown();
+                } catch (Exception e) {
+                    logger.error("Error shutting down proxy: {}",
+                                 (proxy.getConfig() != null ? proxy.getConfig().getName() : "Unknown Proxy"), e);
                 }
             }
+            if (runtime != null) {
+                runtime.close();
+            }
+            if (accessLog != null) {
+                accessLog.close();
+            }
+            if (clientTracker != null) {
+                clientTracker.close();
+            }
+            if (inetAddressLocator != null) {
+                logger.info("GeoIP cache stats: {}", inetAddressLocator.getCache());
+                logger.info("Buffer pool stats: {}", BufferPool.SHARED);
+                inetAddressLocator.close();
+            }
             logger.info("All proxy servers shut down.");
+            // 콘솔 로그는 데몬 스레드가 쓰는 AsyncAppender 를 거치므로, 컨텍스트를 멈춰 큐에 남은 로그까지 내보낸다.
+            // logback 의 <shutdownHook/> 은 이 훅과 동시에 돌아 위의 마지막 로그를 놓칠 수 있어 여기서 멈춘다.
+            if (LoggerFactory.getILoggerFactory() instanceof LoggerContext) {
+                ((LoggerContext) LoggerFactory.getILoggerFactory()).stop();
+            }
         }, "ProxyShutdownHook"));
     }
 
-    // 설정 파싱 메서드
+    /**
+     * 설정 파일이 바뀌면 proxy 목록을 이름 기준으로 지금 실행 중인 프록시와 비교해 적용한다.
+     * - 새 이름: 시작
+     * - 빠진 이름: 새 연결 수락을 멈추고 진행 중인 세션이 끝나면 종료(drain)
+     * - allowedCountries(또는 groups)만 바뀜: 리슨 소켓과 세션은 그대로 두고 접근 제어 규칙만 원자적으로 교체
+     * - 그 밖의 설정이 바뀜: 새 설정으로 시작한 뒤 기존 인스턴스를 drain (진행 중인 세션은 기존 인스턴스가 끝까지 중계)
+     * 새 인스턴스가 쓸 포트를 바뀌거나 빠질 인스턴스가 쥐고 있으면(포트 그대로 재시작, 이름 변경, 포트 맞바꿈) 그 리슨 소켓을 먼저 닫고,
+     * 그 포트에 아무것도 시작하지 못하면 기존 설정으로 다시 연다.
+     * 새 설정이 잘못되었으면 해당 프록시는 지금 설정을 유지한다. geoip, metrics, accessLog, autoBan, runtime 은 재시작해야 적용된다.
+     */
+    private static synchronized void reloadConfig(String configPath) {
+        logger.info("Configuration file changed, reloading {}", configPath);
+        Map<String, Object> rawConfig;
+        try (Reader reader = new FileReader(configPath)) {
+            rawConfig = new Yaml().load(reader);
+        } catch (Exception e) {
+            logger.error("Failed to read configuration file {}, keeping the current proxies: {}", configPath, e.getMessage());
+            return;
+        }
+        if (rawConfig == null) {
+            logger.error("Configuration file {} is empty, keeping the current proxies.", configPath);
+            return;
+        }
+        List<ProxyDto> newConfig = parseProxyConfig(rawConfig);
+        if (newConfig == null) {
+            logger.error("Failed to parse proxy configurations, keeping the current proxies.");
+            return;
+        }
+        Map<String, List<String>> newGroups = parseAclGroups(rawConfig);
+        boolean groupsChanged = !newGroups.equals(aclGroups);
+        aclGroups = newGroups;
+
+        Map<String, ProxyMain> current = new HashMap<>();
+        synchronized (proxyInstances) {
+            for (ProxyMain proxy : proxyInstances) {
+                current.put(proxy.getConfig().getName(), proxy);
+            }
+        }
+
+        // 먼저 모든 항목을 검사해, 새 인스턴스로 바뀔 기존 인스턴스를 정한다.
+        Map<String, AccessControlList> acls = new HashMap<>();
+        Set<ProxyMain> replaced = new HashSet<>(current.values());
+        for (ProxyDto proxyConfig : newConfig) {
+            ProxyMain existing = current.get(proxyConfig.getName());
+            AccessControlList acl = prepareProxy(proxyConfig);
+            if (acl == null) {
+                if (existing != null) {
+                    logger.warn("Keeping the current settings of proxy '{}'", proxyConfig.getName());
+                    current.remove(proxyConfig.getName());
+                    replaced.remove(existing);
+                }
+                continue;
+            }
+            acls.put(proxyConfig.getName(), acl);
+            if (existing != null && existing.getConfig().hasSameSettingsExceptAccessControl(proxyConfig)) {
+                replaced.remove(existing);
+            }
+        }
+
+        // 바뀔 인스턴스의 포트에 새 인스턴스가 떠야 하면(포트 그대로 재시작, 이름 변경, 포트 맞바꿈) 시작하기 전에 리슨 소켓을 닫는다.
+        Set<Integer> claimedPorts = new HashSet<>();
+        for (ProxyDto proxyConfig : newConfig) {
+            ProxyMain existing = current.get(proxyConfig.getName());
+            if (acls.containsKey(proxyConfig.getName()) && (existing == null || replaced.contains(existing))) {
+                claimedPorts.add(proxyConfig.getBindPort());
+            }
+        }
+        List<ProxyMain> released = new ArrayList<>();
+        for (ProxyMain proxy : replaced) {
+            if (claimedPorts.contains(proxy.getConfig().getBindPort())) {
+                proxy.stopAccepting();
+                released.add(proxy);
+            }
+        }
+
+        Set<Integer> boundPorts = new HashSet<>();
+        for (ProxyDto proxyConfig : newConfig) {
+            AccessControlList acl = acls.get(proxyConfig.getName());
+            if (acl == null) {
+                continue;
+            }
+            ProxyMain existing = current.remove(proxyConfig.getName());
+            if (existing == null) {
+                logger.info("Starting new proxy '{}'", proxyConfig.getName());
+                if (startProxy(proxyConfig, acl, compileDestinations(proxyConfig)) != null) {
+                    boundPorts.add(proxyConfig.getBindPort());
+                }
+            } else if (!replaced.contains(existing)) {
+                if (groupsChanged || !existing.getConfig().getAllowedCountries().equals(proxyConfig.getAllowedCountries())
+                    || !existing.getConfig().getAllowedDestinations().equals(proxyConfig.getAllowedDestinations())) {
+                    existing.updateAccessControl(proxyConfig, acl, compileDestinations(proxyConfig));
+                    logger.info("Updated access rules of proxy '{}': {}", proxyConfig.getName(), proxyConfig.getAllowedCountries());
+                }
+            } else {
+                logger.info("Settings of proxy '{}' changed, restarting its listener", proxyConfig.getName());
+                if (startProxy(proxyConfig, acl, compileDestinations(proxyConfig)) != null) {
+                    boundPorts.add(proxyConfig.getBindPort());
+                    drainProxy(existing);
+                } else if (!released.contains(existing)) {
+                    logger.warn("Keeping the current settings of proxy '{}'", proxyConfig.getName());
+                }
+            }
+        }
+
+        // 리슨 소켓을 닫았는데 새 인스턴스로 바뀌지 못한 인스턴스는, 그 포트를 아무도 열지 못했으면 기존 설정으로 다시 연다.
+        for (ProxyMain proxy : released) {
+            boolean active;
+            synchronized (proxyInstances) {
+                active = proxyInstances.contains(proxy);
+            }
+            if (!active) {
+                continue;
+            }
+            String name = proxy.getConfig().getName();
+            int port = proxy.getConfig().getBindPort();
+            boolean removed = current.remove(name, proxy);
+            drainProxy(proxy);
+            if (boundPorts.contains(port)) {
+                if (removed) {
+                    logger.info("Proxy '{}' was removed from the configuration", name);
+                } else {
+                    logger.error("!!! Proxy '{}' is not listening, port {} was taken by another proxy", name, port);
+                }
+                continue;
+            }
+            if (removed) {
+                logger.warn("Keeping removed proxy '{}' on port {} because no new proxy could take the port", name, port);
+            } else {
+                logger.warn("Reopening the listener of proxy '{}' with the current settings", name);
+            }
+            if (startProxy(proxy.getConfig(), proxy.getAcl(), proxy.getDestinationAcl()) == null) {
+                logger.error("!!! Proxy '{}' is not listening on port {}", name, port);
+            }
+        }
+
+        for (ProxyMain removed : current.values()) {
+            logger.info("Proxy '{}' was removed from the configuration", removed.getConfig().getName());
+            drainProxy(removed);
+        }
+        config = newConfig;
+    }
+
+    /**
+     * 설정을 검사하고 접근 제어 규칙을 컴파일한다. 잘못된 설정이면 null.
+     */
+    private static AccessControlList prepareProxy(ProxyDto proxyConfig) {
+        // 설정 유효성 검사
+        if (!isValidConfig(proxyConfig)) {
+            logger.warn("Skipping invalid proxy configuration: {}", proxyConfig.getName());
+            return null;
+        }
+        // 접근 제어 규칙 컴파일 (그룹 참조 해석 포함)
+        try {
+            AccessControlList acl = AccessControlList.compile(proxyConfig.getAllowedCountries(), aclGroups);
+            try {
+                compileDestinations(proxyConfig);
+            } catch (IllegalArgumentException e) {
+                logger.error("Invalid allowedDestinations for proxy '{}': {}", proxyConfig.getName(), e.getMessage());
+                logger.warn("Skipping invalid proxy configuration: {}", proxyConfig.getName());
+                return null;
+            }
+            return acl;
+        } catch (IllegalArgumentException e) {
+            logger.error("Invalid allowedCountries for proxy '{}': {}", proxyConfig.getName(), e.getMessage());
+            logger.warn("Skipping invalid proxy configuration: {}", proxyConfig.getName());
+            return null;
+        }
+    }
+
+    /**
+     * out 타입의 목적지 규칙을 컴파일한다. in 타입은 쓰지 않지만 같은 방식으로 만들어 둔다.
+     */
+    private static AccessControlList compileDestinations(ProxyDto proxyConfig) {
+        return AccessControlList.compile(proxyConfig.getAllowedDestinations(), aclGroups);
+    }
+
+    /**
+     * @return 시작한 인스턴스, 시작하지 못했으면 null
+     */
+    private static ProxyMain startProxy(ProxyDto proxyConfig, AccessControlList acl, AccessControlList destinationAcl) {
+        ProxyMain proxyMain = new ProxyMain(proxyConfig, inetAddressLocator, acl, destinationAcl);
+        proxyMain.setAccessLog(accessLog);
+        proxyMain.setClientTracker(clientTracker);
+        proxyMain.setRuntime(runtime);
+        try {
+            logger.info("Starting ProxyMain for proxy: {}", proxyConfig.getName());
+            proxyMain.start();
+        } catch (Exception e) {
+            logger.error("!!! Failed to start proxy '{}': {}", proxyConfig.getName(), e.getMessage(), e);
+            proxyMain.shutdown();
+            return null;
+        }
+        synchronized (proxyInstances) {
+            proxyInstances.add(proxyMain);
+        }
+        logger.info("ProxyMain started successfully for proxy: {}", proxyConfig.getName());
+        return proxyMain;
+    }
+
+    /**
+     * 지표 목록에서 바로 빼고(같은 이름의 새 인스턴스와 겹치지 않도록) 세션이 끝날 때까지 기다렸다 종료한다.
+     */
+    private static void drainProxy(ProxyMain proxy) {
+        synchronized (proxyInstances) {
+            proxyInstances.remove(proxy);
+        }
+        drainingProxies.add(proxy);
+        proxy.drain(() -> {
+            drainingProxies.remove(proxy);
+            // 지표에서 빠진 인스턴스가 끊은 세션 수는 같은 이름의 새 인스턴스에 넘겨 계속 집계되게 한다.
+            synchronized (proxyInstances) {
+                for (ProxyMain running : proxyInstances) {
+                    if (running.getConfig().getName().equals(proxy.getConfig().getName())) {
+                        running.getMetrics().recordKilled((int) proxy.getMetrics().getKilledSessions());
+                    }
+                }
+            }
+        });
+    }
+
+    // 설정 파싱 메서드. 각 항목의 맵을 ProxyDto 로 직접 옮긴다.
     private static List<ProxyDto> parseProxyConfig(Map<String, Object> rawConfig) {
         List<ProxyDto> proxyList = new ArrayList<>();
         Object proxyObj = rawConfig.get("proxy");
@@ -137,7 +451,7 @@ public class ProxyServer {
         }
 
         List<?> rawProxyList = (List<?>) proxyObj;
-        Yaml mapYaml = new Yaml();
+        Set<String> names = new HashSet<>();
 
         for (int i = 0; i < rawProxyList.size(); i++) {
             Object item = rawProxyList.get(i);
@@ -146,14 +460,13 @@ public class ProxyServer {
                 continue;
             }
             try {
-                Yaml dtoYaml = new Yaml(new Constructor(ProxyDto.class));
-                ProxyDto proxyDto = dtoYaml.load(mapYaml.dump(item));
-
-                if (proxyDto != null) {
-                     proxyList.add(proxyDto);
-                } else {
-                     logger.warn("Failed to parse proxy configuration at index {}, skipping.", i);
+                @SuppressWarnings("unchecked")
+                ProxyDto proxyDto = toProxyDto((Map<String, Object>) item);
+                if (proxyDto.getName() != null && !names.add(proxyDto.getName())) {
+                    logger.error("Duplicate proxy name '{}' at index {}, skipping.", proxyDto.getName(), i);
+                    continue;
                 }
+                proxyList.add(proxyDto);
             } catch (Exception e) {
                 logger.error("Error parsing proxy configuration at index {}: {}", i, e.getMessage(), e);
             }
@@ -161,6 +474,294 @@ public class ProxyServer {
         return proxyList;
     }
 
+    private static ProxyDto toProxyDto(Map<String, Object> item) {
+        for (Object key : item.keySet()) {
+            if (!PROXY_KEYS.contains(String.valueOf(key))) {
+                logger.warn("Unknown property '{}' in proxy '{}', ignoring.", key, item.get("name"));
+            }
+        }
+        List<String> errors = new ArrayList<>();
+        ProxyDto dto = new ProxyDto();
+        dto.setType(getString(item, "type", null));
+        dto.setName(getString(item, "name", null));
+        dto.setBindPort(getInt(item, "bindPort", 0, errors));
+        dto.setForwardHost(getString(item, "forwardHost", null));
+        dto.setForwardPort(getInt(item, "forwardPort", 0, errors));
+        dto.setAllowedCountries(getStringList(item, "allowedCountries"));
+        dto.setLimits(toRateLimitDto(getSection(item, "limits"), errors));
+        dto.setEngine(getString(item, "engine", dto.getEngine()));
+        dto.setIoThreads(getInt(item, "ioThreads", dto.getIoThreads(), errors));
+        dto.setExecutor(getString(item, "executor", dto.getExecutor()));
+        dto.setMaxConnections(getInt(item, "maxConnections", dto.getMaxConnections(), errors));
+        dto.setZeroCopy(getBoolean(item, "zeroCopy", dto.isZeroCopy(), errors));
+        dto.setBufferSize(getInt(item, "bufferSize", dto.getBufferSize(), errors));
+        dto.setAcceptThreads(getInt(item, "acceptThreads", dto.getAcceptThreads(), errors));
+        dto.setAcceptBacklog(getInt(item, "acceptBacklog", dto.getAcceptBacklog(), errors));
+        dto.setRejectWithReset(getBoolean(item, "rejectWithReset", dto.isRejectWithReset(), errors));
+        dto.setConnectTimeoutSeconds(getInt(item, "connectTimeoutSeconds", dto.getConnectTimeoutSeconds(), errors));
+        dto.setIdleTimeoutSeconds(getInt(item, "idleTimeoutSeconds", dto.getIdleTimeoutSeconds(), errors));
+        dto.setMaxLifetimeSeconds(getInt(item, "maxLifetimeSeconds", dto.getMaxLifetimeSeconds(), errors));
+        dto.setTcpKeepAlive(getBoolean(item, "tcpKeepAlive", dto.isTcpKeepAlive(), errors));
+        dto.setDrainTimeoutSeconds(getInt(item, "drainTimeoutSeconds", dto.getDrainTimeoutSeconds(), errors));
+        dto.setStatsIntervalSeconds(getInt(item, "statsIntervalSeconds", dto.getStatsIntervalSeconds(), errors));
+        if (item.containsKey("upstreams")) {
+            dto.setUpstreams(getStringList(item, "upstreams"));
+        }
+        dto.setBalance(getString(item, "balance", dto.getBalance()));
+        dto.setHealthCheckIntervalSeconds(getInt(item, "healthCheckIntervalSeconds", dto.getHealthCheckIntervalSeconds(), errors));
+        dto.setBackendPoolSize(getInt(item, "backendPoolSize", dto.getBackendPoolSize(), errors));
+        dto.setBackendPoolMaxIdleSeconds(getInt(item, "backendPoolMaxIdleSeconds", dto.getBackendPoolMaxIdleSeconds(), errors));
+        dto.setProtocol(getString(item, "protocol", dto.getProtocol()));
+        if (item.containsKey("allowedDestinations")) {
+            dto.setAllowedDestinations(getStringList(item, "allowedDestinations"));
+        }
+        dto.setResolverThreads(getInt(item, "resolverThreads", dto.getResolverThreads(), errors));
+        dto.setDnsCacheTtlSeconds(getInt(item, "dnsCacheTtlSeconds", dto.getDnsCacheTtlSeconds(), errors));
+        dto.setFlowIdleTimeoutSeconds(getInt(item, "flowIdleTimeoutSeconds", dto.getFlowIdleTimeoutSeconds(), errors));
+        dto.setMaxFlows(getInt(item, "maxFlows", dto.getMaxFlows(), errors));
+        dto.setSendProxyProtocol(getString(item, "sendProxyProtocol", dto.getSendProxyProtocol()));
+        dto.setAcceptProxyProtocol(getBoolean(item, "acceptProxyProtocol", dto.isAcceptProxyProtocol(), errors));
+        if (item.containsKey("trustedProxies")) {
+            dto.setTrustedProxies(getStringList(item, "trustedProxies"));
+        }
+        dto.setTls(getString(item, "tls", dto.getTls()));
+        dto.setSniRoutes(getStringListMap(item, "sniRoutes"));
+        dto.setTlsKeyStore(getString(item, "tlsKeyStore", null));
+        dto.setTlsKeyStorePassword(getString(item, "tlsKeyStorePassword", dto.getTlsKeyStorePassword()));
+        if (item.containsKey("tlsProtocols")) {
+            dto.setTlsProtocols(getStringList(item, "tlsProtocols"));
+        }
+        if (item.containsKey("alpn")) {
+            dto.setAlpn(getStringList(item, "alpn"));
+        }
+        dto.setTlsSessionCacheSize(getInt(item, "tlsSessionCacheSize", dto.getTlsSessionCacheSize(), errors));
+        dto.setTlsSessionTimeoutSeconds(getInt(item, "tlsSessionTimeoutSeconds", dto.getTlsSessionTimeoutSeconds(), errors));
+        // 잘못된 값을 기본값으로 바꿔 시작하지 않도록 검증에서 실패시킨다(다시 읽을 때는 지금 인스턴스를 유지한다).
+        dto.setParseErrors(errors);
+        return dto;
+    }
+
+    private static RateLimitDto toRateLimitDto(Map<String, Object> section, List<String> errors) {
+        RateLimitDto limits = new RateLimitDto();
+        limits.setConnectionsPerSecond(getInt(section, "connectionsPerSecond", 0, errors));
+        limits.setConnectionsPerSecondPerIp(getInt(section, "connectionsPerSecondPerIp", 0, errors));
+        limits.setMaxSessions(getInt(section, "maxSessions", 0, errors));
+        limits.setMaxSessionsPerIp(getInt(section, "maxSessionsPerIp", 0, errors));
+        limits.setUploadBytesPerSecond(getLong(section, "uploadBytesPerSecond", 0, errors));
+        limits.setDownloadBytesPerSecond(getLong(section, "downloadBytesPerSecond", 0, errors));
+        limits.setUploadBytesPerSecondPerIp(getLong(section, "uploadBytesPerSecondPerIp", 0, errors));
+        limits.setDownloadBytesPerSecondPerIp(getLong(section, "downloadBytesPerSecondPerIp", 0, errors));
+        limits.setMaxClients(getInt(section, "maxClients", 100000, errors));
+        limits.setIpv6PrefixLength(getInt(section, "ipv6PrefixLength", 64, errors));
+        return limits;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> getSection(Map<String, Object> rawConfig, String key) {
+        Object section = rawConfig.get(key);
+        if (section instanceof Map) {
+            return (Map<String, Object>) section;
+        }
+        if (section != null) {
+            logger.warn("'{}' configuration should be a map, using defaults.", key);
+        }
+        return new HashMap<>();
+    }
+
+    private static String getString(Map<String, Object> section, String key, String defaultValue) {
+        Object value = section.get(key);
+        return value != null ? String.valueOf(value).trim() : defaultValue;
+    }
+
+    private static boolean getBoolean(Map<String, Object> section, String key, boolean defaultValue) {
+        Object value = section.get(key);
+        return value != null ? Boolean.parseBoolean(String.valueOf(value).trim()) : defaultValue;
+    }
+
+    /**
+     * true/false 가 아니면 errors 에 더하고 기본값을 돌려준다.
+     */
+    private static boolean getBoolean(Map<String, Object> section, String key, boolean defaultValue, List<String> errors) {
+        Object value = section.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        String text = String.valueOf(value).trim();
+        if (!text.equalsIgnoreCase("true") && !text.equalsIgnoreCase("false")) {
+            errors.add("'" + key + "' must be true or false, got '" + value + "'");
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(text);
+    }
+
+    private static List<String> getStringList(Map<String, Object> section, String key) {
+        Object value = section.get(key);
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof List) {
+            List<String> values = new ArrayList<>();
+            for (Object item : (List<?>) value) {
+                values.add(String.valueOf(item));
+            }
+            return values;
+        }
+        return List.of(String.valueOf(value));
+    }
+
+    /**
+     * { 키: 값 또는 [값, ...] } 형식의 맵. 값이 하나면 목록 하나로 바꾼다.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, List<String>> getStringListMap(Map<String, Object> section, String key) {
+        Map<String, List<String>> result = new LinkedHashMap<>();
+        Object value = section.get(key);
+        if (value == null) {
+            return result;
+        }
+        if (!(value instanceof Map)) {
+            logger.warn("'{}' configuration should be a map, ignoring.", key);
+            return result;
+        }
+        Map<String, Object> map = (Map<String, Object>) value;
+        for (Object entryKey : map.keySet()) {
+            result.put(String.valueOf(entryKey), getStringList(map, String.valueOf(entryKey)));
+        }
+        return result;
+    }
+
+    /**
+     * errors 가 있으면 잘못된 숫자를 errors 에 더하고, 없으면 경고만 남긴다. 어느 쪽이든 기본값을 돌려준다.
+     */
+    private static long getLong(Map<String, Object> section, String key, long defaultValue, List<String> errors) {
+        Object value = section.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(String.valueOf(value).trim());
+        } catch (NumberFormatException e) {
+            invalidNumber(key, value, defaultValue, errors);
+            return defaultValue;
+        }
+    }
+
+    private static int getInt(Map<String, Object> section, String key, int defaultValue) {
+        return getInt(section, key, defaultValue, null);
+    }
+
+    private static int getInt(Map<String, Object> section, String key, int defaultValue, List<String> errors) {
+        Object value = section.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(String.valueOf(value).trim());
+        } catch (NumberFormatException e) {
+            invalidNumber(key, value, defaultValue, errors);
+            return defaultValue;
+        }
+    }
+
+    private static void invalidNumber(String key, Object value, long defaultValue, List<String> errors) {
+        if (errors != null) {
+            errors.add("'" + key + "' must be a number, got '" + value + "'");
+        } else {
+            logger.warn("Invalid number '{}' for '{}', using default {}.", value, key, defaultValue);
+        }
+    }
+
+    /**
+     * autoBan 설정으로 ClientTracker 를 만든다. banSeconds 가 0(기본값)이거나 설정이 잘못되었으면 null.
+     * exempt 는 주소 규칙만 쓸 수 있다(국가는 조회하기 전에 판정하므로).
+     */
+    private static ClientTracker createClientTracker(Map<String, Object> section) {
+        int banSeconds = getInt(section, "banSeconds", 0);
+        if (banSeconds <= 0) {
+            return null;
+        }
+        int windowSeconds = getInt(section, "windowSeconds", 60);
+        int maxRejects = getInt(section, "maxRejects", 30);
+        int maxConnections = getInt(section, "maxConnections", 0);
+        int maxClients = getInt(section, "maxClients", 100_000);
+        int ipv6PrefixLength = getInt(section, "ipv6PrefixLength", 64);
+        String error = ClientTracker.validate(windowSeconds, maxRejects, maxConnections, banSeconds, maxClients, ipv6PrefixLength);
+        if (error != null) {
+            logger.error("Invalid autoBan settings: {}. Automatic bans are disabled.", error);
+            return null;
+        }
+        AccessControlList exempt;
+        try {
+            exempt = AccessControlList.compile(section.containsKey("exempt")
+                ? getStringList(section, "exempt") : List.of("localhost"), aclGroups);
+        } catch (IllegalArgumentException e) {
+            logger.error("Invalid autoBan exempt: {}. Automatic bans are disabled.", e.getMessage());
+            return null;
+        }
+        ClientTracker tracker = new ClientTracker(windowSeconds, maxRejects, maxConnections, banSeconds, maxClients,
+            ipv6PrefixLength, exempt);
+        tracker.start();
+        logger.info("Automatic bans enabled: more than {} rejects or {} connections in {}s bans a client for {}s (maxClients={})",
+            maxRejects, maxConnections, windowSeconds, banSeconds, maxClients);
+        return tracker;
+    }
+
+    /**
+     * 모든 프록시가 함께 쓰는 이벤트 루프와 작업 스레드를 만들어 시작한다. shared 가 false 거나 만들지 못하면 null.
+     */
+    private static ProxyRuntime createRuntime(Map<String, Object> section) {
+        if (!getBoolean(section, "shared", true)) {
+            logger.info("Shared runtime disabled: each proxy starts its own event loops and worker threads");
+            return null;
+        }
+        int ioThreads = getInt(section, "ioThreads", 0);
+        // blocking 프록시가 작업 스레드를 함께 쓰면 모든 blocking 프록시의 동시 세션 합이 workerThreads 로 묶이므로 명시해야 켠다.
+        boolean sharedWorkers = getBoolean(section, "sharedWorkers", false);
+        int workerThreads = getInt(section, "workerThreads", 0);
+        int workerQueue = getInt(section, "workerQueue", 500);
+        int workerSharePercent = getInt(section, "workerSharePercent", 50);
+        String error = ProxyRuntime.validate(ioThreads, workerThreads, workerQueue, workerSharePercent);
+        if (error != null) {
+            logger.error("Invalid runtime settings: {}. Each proxy starts its own threads.", error);
+            return null;
+        }
+        try {
+            ProxyRuntime shared = new ProxyRuntime(ioThreads, sharedWorkers, workerThreads, workerQueue, workerSharePercent);
+            shared.start();
+            return shared;
+        } catch (IOException e) {
+            logger.error("Failed to start the shared runtime. Each proxy starts its own threads.", e);
+            return null;
+        }
+    }
+
+    // 이름 있는 접근 제어 그룹 파싱 (groups: { 이름: [규칙, ...] })
+    private static Map<String, List<String>> parseAclGroups(Map<String, Object> rawConfig) {
+        Map<String, List<String>> groups = new HashMap<>();
+        Object groupsObj = rawConfig.get("groups");
+        if (groupsObj == null) {
+            return groups;
+        }
+        if (!(groupsObj instanceof Map)) {
+            logger.error("'groups' configuration should be a map of group name to rule list, ignoring.");
+            return groups;
+        }
+
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) groupsObj).entrySet()) {
+            String groupName = String.valueOf(entry.getKey()).trim().toLowerCase(Locale.ROOT);
+            if (!(entry.getValue() instanceof List)) {
+                logger.error("Group '{}' should be a list of rules, ignoring.", groupName);
+                continue;
+            }
+            List<String> rules = new ArrayList<>();
+            for (Object rule : (List<?>) entry.getValue()) {
+                rules.add(String.valueOf(rule).trim().toLowerCase(Locale.ROOT));
+            }
+            groups.put(groupName, rules);
+        }
+        return groups;
+    }
+
     // 설정 유효성 검사 메서드
     private static boolean isValidConfig(ProxyDto proxyDto) {
         if (proxyDto == null) return false;
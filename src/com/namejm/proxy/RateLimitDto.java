@@ -0,0 +1,121 @@
+package com.namejm.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Objects;
+
+/**
+ * 프록시별 제한 설정 (application.yml 의 limits). 0 은 제한 없음.
+ */
+public class RateLimitDto {
+    private static final Logger logger = LoggerFactory.getLogger(RateLimitDto.class);
+
+    private int connectionsPerSecond = 0; // 프록시 전체 초당 새 연결 수
+    private int connectionsPerSecondPerIp = 0; // 출발지 IP 별 초당 새 연결 수
+    private int maxSessions = 0; // 프록시 전체 동시 세션 수
+    private int maxSessionsPerIp = 0; // 출발지 IP 별 동시 세션 수
+    private long uploadBytesPerSecond = 0; // 프록시 전체 클라이언트 -> 서버 대역폭
+    private long downloadBytesPerSecond = 0; // 프록시 전체 서버 -> 클라이언트 대역폭
+    private long uploadBytesPerSecondPerIp = 0; // 출발지 IP 별 클라이언트 -> 서버 대역폭
+    private long downloadBytesPerSecondPerIp = 0; // 출발지 IP 별 서버 -> 클라이언트 대역폭
+    private int maxClients = 100000; // 출발지 IP 별 한도를 기억할 최대 주소 수, 넘으면 가장 오래 쓰지 않은 주소부터 지움
+    private int ipv6PrefixLength = 64; // IPv6 는 이 접두사 단위로 묶어 출발지 IP 별 한도를 적용
+
+    public RateLimitDto() {}
+
+    public int getConnectionsPerSecond() { return connectionsPerSecond; }
+    public void setConnectionsPerSecond(int connectionsPerSecond) { this.connectionsPerSecond = connectionsPerSecond; }
+    public int getConnectionsPerSecondPerIp() { return connectionsPerSecondPerIp; }
+    public void setConnectionsPerSecondPerIp(int connectionsPerSecondPerIp) { this.connectionsPerSecondPerIp = connectionsPerSecondPerIp; }
+    public int getMaxSessions() { return maxSessions; }
+    public void setMaxSessions(int maxSessions) { this.maxSessions = maxSessions; }
+    public int getMaxSessionsPerIp() { return maxSessionsPerIp; }
+    public void setMaxSessionsPerIp(int maxSessionsPerIp) { this.maxSessionsPerIp = maxSessionsPerIp; }
+    public long getUploadBytesPerSecond() { return uploadBytesPerSecond; }
+    public void setUploadBytesPerSecond(long uploadBytesPerSecond) { this.uploadBytesPerSecond = uploadBytesPerSecond; }
+    public long getDownloadBytesPerSecond() { return downloadBytesPerSecond; }
+    public void setDownloadBytesPerSecond(long downloadBytesPerSecond) { this.downloadBytesPerSecond = downloadBytesPerSecond; }
+    public long getUploadBytesPerSecondPerIp() { return uploadBytesPerSecondPerIp; }
+    public void setUploadBytesPerSecondPerIp(long uploadBytesPerSecondPerIp) { this.uploadBytesPerSecondPerIp = uploadBytesPerSecondPerIp; }
+    public long getDownloadBytesPerSecondPerIp() { return downloadBytesPerSecondPerIp; }
+    public void setDownloadBytesPerSecondPerIp(long downloadBytesPerSecondPerIp) { this.downloadBytesPerSecondPerIp = downloadBytesPerSecondPerIp; }
+    public int getMaxClients() { return maxClients; }
+    public void setMaxClients(int maxClients) { this.maxClients = maxClients; }
+    public int getIpv6PrefixLength() { return ipv6PrefixLength; }
+    public void setIpv6PrefixLength(int ipv6PrefixLength) { this.ipv6PrefixLength = ipv6PrefixLength; }
+
+    public boolean isUnlimited() {
+        return connectionsPerSecond == 0 && connectionsPerSecondPerIp == 0
+            && maxSessions == 0 && maxSessionsPerIp == 0
+            && uploadBytesPerSecond == 0 && downloadBytesPerSecond == 0
+            && uploadBytesPerSecondPerIp == 0 && downloadBytesPerSecondPerIp == 0;
+    }
+
+    public boolean hasPerIpLimits() {
+        return connectionsPerSecondPerIp > 0 || maxSessionsPerIp > 0
+            || uploadBytesPerSecondPerIp > 0 || downloadBytesPerSecondPerIp > 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof RateLimitDto)) return false;
+        RateLimitDto other = (RateLimitDto) o;
+        return connectionsPerSecond == other.connectionsPerSecond
+            && connectionsPerSecondPerIp == other.connectionsPerSecondPerIp
+            && maxSessions == other.maxSessions
+            && maxSessionsPerIp == other.maxSessionsPerIp
+            && uploadBytesPerSecond == other.uploadBytesPerSecond
+            && downloadBytesPerSecond == other.downloadBytesPerSecond
+            && uploadBytesPerSecondPerIp == other.uploadBytesPerSecondPerIp
+            && downloadBytesPerSecondPerIp == other.downloadBytesPerSecondPerIp
+            && maxClients == other.maxClients
+            && ipv6PrefixLength == other.ipv6PrefixLength;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(connectionsPerSecond, connectionsPerSecondPerIp, maxSessions, maxSessionsPerIp,
+            uploadBytesPerSecond, downloadBytesPerSecond, uploadBytesPerSecondPerIp, downloadBytesPerSecondPerIp,
+            maxClients, ipv6PrefixLength);
+    }
+
+    @Override
+    public String toString() {
+        return "RateLimitDto{" +
+               "connectionsPerSecond=" + connectionsPerSecond +
+               ", connectionsPerSecondPerIp=" + connectionsPerSecondPerIp +
+               ", maxSessions=" + maxSessions +
+               ", maxSessionsPerIp=" + maxSessionsPerIp +
+               ", uploadBytesPerSecond=" + uploadBytesPerSecond +
+               ", downloadBytesPerSecond=" + downloadBytesPerSecond +
+               ", uploadBytesPerSecondPerIp=" + uploadBytesPerSecondPerIp +
+               ", downloadBytesPerSecondPerIp=" + downloadBytesPerSecondPerIp +
+               ", maxClients=" + maxClients +
+               ", ipv6PrefixLength=" + ipv6PrefixLength +
+               '}';
+    }
+
+    /**
+     * 설정 값의 유효성을 검사하는 메서드.
+     * @return 설정이 유효하면 true, 그렇지 않으면 false.
+     */
+    public boolean isValid(String proxyName) {
+        if (connectionsPerSecond < 0 || connectionsPerSecondPerIp < 0 || maxSessions < 0 || maxSessionsPerIp < 0
+            || uploadBytesPerSecond < 0 || downloadBytesPerSecond < 0
+            || uploadBytesPerSecondPerIp < 0 || downloadBytesPerSecondPerIp < 0) {
+            logger.error("Invalid limits for proxy '{}': values must be 0 (unlimited) or greater. {}", proxyName, this);
+            return false;
+        }
+        if (maxClients < RateLimiter.SEGMENTS) {
+            logger.error("Invalid limits for proxy '{}': maxClients must be at least {}", proxyName, RateLimiter.SEGMENTS);
+            return false;
+        }
+        if (ipv6PrefixLength < 1 || ipv6PrefixLength > 128) {
+            logger.error("Invalid limits for proxy '{}': ipv6PrefixLength must be between 1 and 128", proxyName);
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,279 @@
+package com.namejm.proxy;
+
+import java.net.InetAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 프록시별 / 출발지 IP 별 연결 속도, 동시 세션 수, 양방향 대역폭 제한.
+ * 연결 수락 시 admit() 으로 Permit 을 받고, 중계 경로는 읽은 바이트만큼 Permit 에 보고해서 쉬어야 할 시간을 받는다.
+ * 쉬는 방법(스레드 대기 또는 읽기 관심 해제)은 중계 엔진이 정한다.
+ *
+ * 출발지 IP 별 상태는 ClientTracker 처럼 IPv6 를 ipv6PrefixLength 단위로 묶고, 세그먼트별 접근 순서 LinkedHashMap 에 두어
+ * maxClients 를 넘으면 가장 오래 쓰지 않은 주소부터 밀어낸다(밀려난 주소는 다음 연결부터 새로 센다).
+ * 세션이 없고 60 초 동안 연결이 없는 주소는 주기적으로 지운다.
+ */
+public class RateLimiter {
+    static final int SEGMENTS = 16;
+    private static final long IDLE_CLIENT_EVICT_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "RateLimiterSweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** 제한이 없을 때 사용하는 공유 Permit. 아무것도 하지 않는다. */
+    public static final Permit UNLIMITED = new Permit(null, null);
+
+    private final RateLimitDto limits;
+    private final TokenBucket connectionBucket;
+    private final TokenBucket uploadBucket;
+    private final TokenBucket downloadBucket;
+    private final AtomicInteger sessions = new AtomicInteger();
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private ScheduledFuture<?> sweepTask;
+
+    public RateLimiter(RateLimitDto limits) {
+        this.limits = limits != null ? limits : new RateLimitDto();
+        this.connectionBucket = bucket(this.limits.getConnectionsPerSecond());
+        this.uploadBucket = bucket(this.limits.getUploadBytesPerSecond());
+        this.downloadBucket = bucket(this.limits.getDownloadBytesPerSecond());
+        int perSegment = Math.max(1, this.limits.getMaxClients() / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment, evictions);
+        }
+        if (this.limits.hasPerIpLimits()) {
+            sweepTask = sweeper.scheduleWithFixedDelay(this::sweep, 30, 30, TimeUnit.SECONDS);
+        }
+    }
+
+    private static TokenBucket bucket(long ratePerSecond) {
+        return ratePerSecond > 0 ? new TokenBucket(ratePerSecond, ratePerSecond) : null;
+    }
+
+    /**
+     * 새 연결을 허용하면 Permit, 제한에 걸리면 null. Permit 은 세션 종료 시 반드시 release() 해야 한다.
+     */
+    public Permit admit(InetAddress address) {
+        if (limits.isUnlimited()) {
+            return UNLIMITED;
+        }
+
+        ClientState client = null;
+        if (limits.hasPerIpLimits()) {
+            client = client(address);
+            if (client.connectionBucket != null && !client.connectionBucket.tryAcquire(1)) {
+                rejected.increment();
+                return null;
+            }
+        }
+        // 출발지 IP 별 한도를 먼저 봐서 한 주소가 전체 몫을 써 버리지 못하게 하고,
+        // 전체 한도에 걸리면 출발지 IP 의 몫은 돌려준다(거부된 연결로 그 주소의 한도가 줄지 않도록).
+        if (connectionBucket != null && !connectionBucket.tryAcquire(1)) {
+            if (client != null && client.connectionBucket != null) {
+                client.connectionBucket.refund(1);
+            }
+            rejected.increment();
+            return null;
+        }
+        if (!tryIncrement(sessions, limits.getMaxSessions())) {
+            rejected.increment();
+            return null;
+        }
+        if (client != null && !tryIncrement(client.sessions, limits.getMaxSessionsPerIp())) {
+            sessions.decrementAndGet();
+            rejected.increment();
+            return null;
+        }
+        return new Permit(this, client);
+    }
+
+    /**
+     * 출발지 주소의 상태를 꺼내거나 만든다. 사용 시각은 세그먼트 잠금 안에서 갱신한다. sweep() 이 같은 잠금 안에서
+     * 유휴 여부를 보므로, 방금 꺼낸 ClientState 가 표에서 지워져 세션 수와 버킷이 따로 노는 일이 없다.
+     */
+    private ClientState client(InetAddress address) {
+        ClientKey key = ClientKey.of(address, limits.getIpv6PrefixLength());
+        Segment segment = segments[(key.hashCode() & 0x7FFF_FFFF) % SEGMENTS];
+        synchronized (segment) {
+            ClientState state = segment.get(key);
+            if (state == null) {
+                state = new ClientState(limits);
+                segment.put(key, state);
+            }
+            state.lastSeenNanos = System.nanoTime();
+            return state;
+        }
+    }
+
+    private static boolean tryIncrement(AtomicInteger counter, int max) {
+        if (max <= 0) {
+            counter.incrementAndGet();
+            return true;
+        }
+        int current;
+        do {
+            current = counter.get();
+            if (current >= max) {
+                return false;
+            }
+        } while (!counter.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    private void sweep() {
+        long now = System.nanoTime();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.values().removeIf(state -> state.sessions.get() == 0 && now - state.lastSeenNanos > IDLE_CLIENT_EVICT_NANOS);
+            }
+        }
+    }
+
+    public void close() {
+        if (sweepTask != null) {
+            sweepTask.cancel(false);
+        }
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public int getSessions() { return sessions.get(); }
+    public long getRejected() { return rejected.sum(); }
+    public long getEvictions() { return evictions.sum(); }
+
+    public int getTrackedClients() {
+        int count = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                count += segment.size();
+            }
+        }
+        return count;
+    }
+
+    private static final class ClientState {
+        final TokenBucket connectionBucket;
+        final TokenBucket uploadBucket;
+        final TokenBucket downloadBucket;
+        final AtomicInteger sessions = new AtomicInteger();
+        volatile long lastSeenNanos = System.nanoTime();
+
+        ClientState(RateLimitDto limits) {
+            this.connectionBucket = bucket(limits.getConnectionsPerSecondPerIp());
+            this.uploadBucket = bucket(limits.getUploadBytesPerSecondPerIp());
+            this.downloadBucket = bucket(limits.getDownloadBytesPerSecondPerIp());
+        }
+    }
+
+    private static final class Segment extends LinkedHashMap<ClientKey, ClientState> {
+        private static final long serialVersionUID = 1L;
+        private final int maxSize;
+        private final LongAdder evictions;
+
+        Segment(int maxSize, LongAdder evictions) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ClientKey, ClientState> eldest) {
+            if (size() > maxSize) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 세션 하나에 대한 허가. 대역폭 보고와 세션 수 반납을 담당한다.
+     */
+    public static final class Permit {
+        private final RateLimiter limiter;
+        private final ClientState client;
+        private boolean released = false;
+
+        private Permit(RateLimiter limiter, ClientState client) {
+            this.limiter = limiter;
+            this.client = client;
+        }
+
+        /**
+         * 클라이언트 -> 서버 방향으로 읽은 바이트를 보고하고, 다음 읽기 전에 쉬어야 할 나노초를 돌려준다.
+         */
+        public long onUpload(int bytes) {
+            if (limiter == null) {
+                return 0;
+            }
+            long delay = limiter.uploadBucket != null ? limiter.uploadBucket.reserve(bytes) : 0;
+            if (client != null && client.uploadBucket != null) {
+                delay = Math.max(delay, client.uploadBucket.reserve(bytes));
+            }
+            return delay;
+        }
+
+        /**
+         * 서버 -> 클라이언트 방향으로 읽은 바이트를 보고하고, 다음 읽기 전에 쉬어야 할 나노초를 돌려준다.
+         */
+        public long onDownload(int bytes) {
+            if (limiter == null) {
+                return 0;
+            }
+            long delay = limiter.downloadBucket != null ? limiter.downloadBucket.reserve(bytes) : 0;
+            if (client != null && client.downloadBucket != null) {
+                delay = Math.max(delay, client.downloadBucket.reserve(bytes));
+            }
+            return delay;
+        }
+
+        /**
+         * 클라이언트 -> 서버 방향 데이터그램이 한도 안이면 소비하고 true. UDP 는 읽기를 늦출 수 없으므로
+         * 한도를 넘는 데이터그램은 소비하지 않고 버리게 한다.
+         */
+        public boolean tryUpload(int bytes) {
+            if (limiter == null) {
+                return true;
+            }
+            return tryAcquire(limiter.uploadBucket, bytes) && (client == null || tryAcquire(client.uploadBucket, bytes));
+        }
+
+        /**
+         * 서버 -> 클라이언트 방향 데이터그램에 대한 tryUpload.
+         */
+        public boolean tryDownload(int bytes) {
+            if (limiter == null) {
+                return true;
+            }
+            return tryAcquire(limiter.downloadBucket, bytes) && (client == null || tryAcquire(client.downloadBucket, bytes));
+        }
+
+        private static boolean tryAcquire(TokenBucket bucket, int bytes) {
+            return bucket == null || bucket.tryAcquire(bytes);
+        }
+
+        public synchronized void release() {
+            if (limiter == null || released) {
+                return;
+            }
+            released = true;
+            limiter.sessions.decrementAndGet();
+            if (client != null) {
+                client.lastSeenNanos = System.nanoTime();
+                client.sessions.decrementAndGet();
+            }
+        }
+    }
+}
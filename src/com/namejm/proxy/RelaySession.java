@@ -0,0 +1,13 @@
+package com.namejm.proxy;
+
+/**
+ * SessionRegistry 에 등록되는 중계 세션 하나. blocking 엔진은 연결당 작업, nio 엔진은 NioRelaySession 이다.
+ */
+public interface RelaySession {
+
+    /**
+     * 드레인 기한이 지나도 끝나지 않은 세션을 끊는다. 양쪽 소켓의 출력을 먼저 닫아(half-close) 상대가 FIN 을 받게 한 뒤
+     * 세션을 정리한다. 어느 스레드에서나 호출할 수 있고, 이미 끝난 세션이면 아무 일도 하지 않는다.
+     */
+    void terminate();
+}
@@ -0,0 +1,61 @@
+package com.namejm.proxy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 프록시 하나의 진행 중인 중계 세션 목록. 종료할 때 세션이 끝나기를 기다리거나 남은 세션을 끊는 데 사용한다.
+ * 등록/해제는 세션마다 한 번씩이라 중계 경로에는 영향이 없다.
+ */
+public class SessionRegistry {
+    private final Set<RelaySession> sessions = ConcurrentHashMap.newKeySet();
+    private final Object lock = new Object();
+
+    public void add(RelaySession session) {
+        sessions.add(session);
+    }
+
+    public void remove(RelaySession session) {
+        if (sessions.remove(session) && sessions.isEmpty()) {
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * 세션이 모두 끝날 때까지 최대 timeoutNanos 기다린다. 시간 안에 모두 끝나면 true.
+     */
+    public boolean awaitEmpty(long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        synchronized (lock) {
+            while (!sessions.isEmpty()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                // remove 와 엇갈려 알림을 놓쳐도 짧게 나눠 기다리므로 곧 다시 확인한다.
+                lock.wait(Math.max(1, Math.min(TimeUnit.NANOSECONDS.toMillis(remaining), 100)));
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 남아 있는 세션을 모두 끊고 끊은 세션 수를 돌려준다.
+     */
+    public int terminateAll() {
+        List<RelaySession> remaining = new ArrayList<>(sessions);
+        for (RelaySession session : remaining) {
+            session.terminate();
+        }
+        return remaining.size();
+    }
+}
@@ -0,0 +1,105 @@
+package com.namejm.proxy;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 중계 세션 하나의 유휴/최대 수명 타임아웃.
+ * 세션마다 휠에 타이머 하나만 걸고, 데이터가 오갈 때는 활동 시각만 갱신한다.
+ * 타이머가 울렸을 때 마지막 활동 이후 유휴 시간이 아직 안 지났으면 남은 만큼 다시 건다.
+ * 그래서 계속 데이터가 오가는 세션은 타이머를 자주 다시 걸지 않고, 끊기지도 않는다.
+ */
+public class SessionTimeout {
+    /** 모든 프록시가 공유하는 타임아웃 휠. 100ms tick, 512 슬롯(한 바퀴 51.2초). */
+    public static final HashedTimingWheel WHEEL = new HashedTimingWheel("ProxyTimeoutWheel", 100, TimeUnit.MILLISECONDS, 512);
+
+    public static final String IDLE = "idle";
+    public static final String LIFETIME = "lifetime";
+    public static final String CONNECT = "connect";
+
+    private final long idleNanos;
+    private final long maxLifetimeNanos;
+    private final Executor executor;
+    private final Consumer<String> onExpired;
+    private final long startNanos = System.nanoTime();
+    private volatile long lastActivityNanos = startNanos;
+    private volatile HashedTimingWheel.Timeout timeout;
+    private volatile boolean cancelled = false;
+
+    /**
+     * @param executor 만료 판정을 실행할 곳. NIO 세션은 자신의 이벤트 루프를 넘겨 세션 상태를 루프 스레드에서만 다루게 한다.
+     * @param onExpired 만료 시 호출되며 인자는 IDLE 또는 LIFETIME
+     */
+    public SessionTimeout(ProxyDto config, Executor executor, Consumer<String> onExpired) {
+        this(config.getIdleTimeoutSeconds(), config.getMaxLifetimeSeconds(), executor, onExpired);
+    }
+
+    /**
+     * 유휴/최대 수명 시간(초)을 직접 지정한다. udp 흐름처럼 세션과 다른 유휴 시간을 쓰는 경우에 사용한다. 0 이면 끔.
+     */
+    public SessionTimeout(long idleSeconds, long maxLifetimeSeconds, Executor executor, Consumer<String> onExpired) {
+        this.idleNanos = TimeUnit.SECONDS.toNanos(idleSeconds);
+        this.maxLifetimeNanos = TimeUnit.SECONDS.toNanos(maxLifetimeSeconds);
+        this.executor = executor;
+        this.onExpired = onExpired;
+    }
+
+    public void start() {
+        long now = System.nanoTime();
+        long delay = nextCheckDelay(now);
+        if (delay >= 0) {
+            arm(delay);
+        }
+    }
+
+    /**
+     * 데이터가 오갔음을 기록한다. 필드 하나를 쓰는 것뿐이라 중계 경로에서 매번 호출해도 된다.
+     */
+    public void touch() {
+        lastActivityNanos = System.nanoTime();
+    }
+
+    public void cancel() {
+        cancelled = true;
+        HashedTimingWheel.Timeout current = timeout;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    private void arm(long delayNanos) {
+        timeout = WHEEL.schedule(() -> executor.execute(this::check), delayNanos, TimeUnit.NANOSECONDS);
+        if (cancelled) {
+            timeout.cancel();
+        }
+    }
+
+    private void check() {
+        if (cancelled) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (maxLifetimeNanos > 0 && now - startNanos >= maxLifetimeNanos) {
+            onExpired.accept(LIFETIME);
+        } else if (idleNanos > 0 && now - lastActivityNanos >= idleNanos) {
+            onExpired.accept(IDLE);
+        } else {
+            arm(nextCheckDelay(now));
+        }
+    }
+
+    /**
+     * 다음 판정까지 남은 시간. 둘 다 꺼져 있으면 -1.
+     */
+    private long nextCheckDelay(long now) {
+        long delay = Long.MAX_VALUE;
+        if (idleNanos > 0) {
+            delay = lastActivityNanos + idleNanos - now;
+        }
+        if (maxLifetimeNanos > 0) {
+            delay = Math.min(delay, startNanos + maxLifetimeNanos - now);
+        }
+        return delay == Long.MAX_VALUE ? -1 : Math.max(0, delay);
+    }
+}
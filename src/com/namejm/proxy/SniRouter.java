@@ -0,0 +1,89 @@
+package com.namejm.proxy;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * tls 프록시에서 ClientHello 의 서버 이름(SNI)으로 전달 대상 묶음을 고른다.
+ * 이름마다 sniRoutes 의 대상 목록으로 UpstreamGroup 을 하나씩 만들고, 조회는 해시맵 조회뿐이다.
+ * "*.example.com" 은 example.com 자신을 뺀 모든 하위 이름에 맞으며, 정확한 이름과 더 긴 접미사가 우선한다.
+ */
+public class SniRouter {
+    private final Map<String, UpstreamGroup> exact = new HashMap<>();
+    private final Map<String, UpstreamGroup> wildcards = new HashMap<>(); // ".example.com" -> 그룹
+    private final List<UpstreamGroup> groups = new ArrayList<>();
+
+    public SniRouter(ProxyDto config) {
+        for (Map.Entry<String, List<String>> route : config.getSniRoutes().entrySet()) {
+            String pattern = route.getKey();
+            UpstreamGroup group = UpstreamGroup.fromSpecs(config, config.getName() + "/" + pattern, route.getValue());
+            groups.add(group);
+            if (pattern.startsWith("*.")) {
+                wildcards.put(pattern.substring(1), group);
+            } else {
+                exact.put(pattern, group);
+            }
+        }
+    }
+
+    /**
+     * sniRoutes 항목 이름의 형식 오류. 올바르면 null.
+     */
+    public static String validatePattern(String pattern) {
+        String name = pattern.startsWith("*.") ? pattern.substring(2) : pattern;
+        if (name.isEmpty() || name.length() > 253) {
+            return "Server name must be 1 to 253 characters";
+        }
+        for (String label : name.split("\\.", -1)) {
+            if (label.isEmpty() || label.length() > 63) {
+                return "Empty or too long label";
+            }
+            for (int i = 0; i < label.length(); i++) {
+                char c = label.charAt(i);
+                if (!(c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '-' || c == '_')) {
+                    return "Only lowercase letters, digits, '-' and '_' are allowed, with an optional leading '*.'";
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * serverName 에 맞는 그룹. 맞는 항목이 없거나 serverName 이 null 이면 null.
+     */
+    public UpstreamGroup select(String serverName) {
+        if (serverName == null) {
+            return null;
+        }
+        UpstreamGroup group = exact.get(serverName);
+        if (group != null || wildcards.isEmpty()) {
+            return group;
+        }
+        // 왼쪽 점부터 보면 가장 긴 접미사가 먼저 맞는다.
+        for (int dot = serverName.indexOf('.'); dot >= 0; dot = serverName.indexOf('.', dot + 1)) {
+            group = wildcards.get(serverName.substring(dot));
+            if (group != null) {
+                return group;
+            }
+        }
+        return null;
+    }
+
+    public List<UpstreamGroup> getGroups() {
+        return groups;
+    }
+
+    public void start() {
+        for (UpstreamGroup group : groups) {
+            group.start();
+        }
+    }
+
+    public void close() {
+        for (UpstreamGroup group : groups) {
+            group.close();
+        }
+    }
+}
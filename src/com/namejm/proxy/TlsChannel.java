@@ -0,0 +1,305 @@
+package com.namejm.proxy;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * 논블로킹 SocketChannel 위의 서버 쪽 TLS. SSLEngine 으로 핸드셰이크를 진행하고, 끝나면 평문을 읽고 쓰는 ByteChannel 로
+ * NioRelaySession 의 클라이언트 쪽에 끼운다. 모든 호출은 채널이 등록된 루프 스레드에서만 한다.
+ *
+ * 읽기는 복호화한 레코드를 appIn 에 두었다가 넘기므로, 소켓에서 더 읽을 것이 없어도 평문이 남아 있을 수 있다(hasBufferedInput).
+ * 쓰기는 암호화한 레코드를 소켓이 다 받지 못하면 netOut 에 남겨 두고 다음 쓰기 때 먼저 보낸다(hasPendingOutput).
+ * 버퍼 세 개(32KB 등급)는 BufferPool 에서 빌리고 close() 에서 돌려준다.
+ */
+public class TlsChannel implements ByteChannel {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private static final int RECORD_HEADER_LENGTH = 5;
+
+    private final SSLEngine engine;
+    private final SocketChannel channel;
+    private final long startMillis = System.currentTimeMillis();
+    private final BufferPool.PooledBuffer netInLease;
+    private final BufferPool.PooledBuffer netOutLease;
+    private final BufferPool.PooledBuffer appInLease;
+    private final ByteBuffer netIn; // 쓰기(채우기) 모드, 아직 복호화하지 않은 레코드
+    private final ByteBuffer netOut; // 쓰기(채우기) 모드, 아직 보내지 못한 레코드
+    private final ByteBuffer appIn; // 쓰기(채우기) 모드, 복호화했지만 아직 넘기지 못한 평문
+    private boolean handshakeStarted = false;
+    private boolean inboundDone = false;
+    private boolean closed = false;
+
+    /**
+     * @param netInLease 이미 받은 바이트(ClientHello 등)가 0 부터 position 까지 들어 있는 버퍼. 이 채널이 넘겨받아 close() 에서 돌려준다
+     */
+    public TlsChannel(SSLEngine engine, SocketChannel channel, BufferPool.PooledBuffer netInLease) {
+        this.engine = engine;
+        this.channel = channel;
+        this.netInLease = netInLease;
+        this.netIn = netInLease.buffer();
+        this.netOutLease = BufferPool.SHARED.acquireHeap(engine.getSession().getPacketBufferSize());
+        this.netOut = netOutLease.buffer();
+        this.appInLease = BufferPool.SHARED.acquireHeap(engine.getSession().getApplicationBufferSize());
+        this.appIn = appInLease.buffer();
+    }
+
+    /**
+     * 핸드셰이크를 할 수 있는 만큼 진행한다.
+     *
+     * @return 끝났으면 true. false 면 hasPendingOutput() 이 true 일 때 쓰기, 아니면 읽기를 기다려야 한다
+     * @throws SSLException 협상에 실패한 경우(경고를 보낼 수 있으면 보낸 뒤)
+     * @throws EOFException 핸드셰이크 중에 클라이언트가 끊은 경우
+     */
+    public boolean handshake() throws IOException {
+        if (!handshakeStarted) {
+            handshakeStarted = true;
+            engine.beginHandshake(); // 그 전에는 NOT_HANDSHAKING 으로 보인다.
+        }
+        while (true) {
+            if (!flush()) {
+                return false;
+            }
+            switch (engine.getHandshakeStatus()) {
+                case NEED_WRAP:
+                    wrap(EMPTY);
+                    break;
+                case NEED_TASK:
+                    runDelegatedTasks();
+                    break;
+                case NEED_UNWRAP:
+                case NEED_UNWRAP_AGAIN:
+                    if (!unwrap()) {
+                        int n = channel.read(netIn);
+                        if (n < 0) {
+                            throw new EOFException("Client closed during TLS handshake");
+                        }
+                        if (n == 0) {
+                            return false;
+                        }
+                    }
+                    break;
+                default:
+                    return true;
+            }
+        }
+    }
+
+    /**
+     * 평문을 dst 에 채운다. 소켓에서 더 읽을 것이 없으면 가진 만큼만 채운다.
+     *
+     * @return 넘긴 바이트 수. 클라이언트가 close_notify 를 보냈거나 연결을 끊었고 남은 평문이 없으면 -1
+     */
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        int total = 0;
+        while (dst.hasRemaining()) {
+            if (appIn.position() == 0 && (inboundDone || !fill())) {
+                break;
+            }
+            appIn.flip();
+            int n = Math.min(appIn.remaining(), dst.remaining());
+            int limit = appIn.limit();
+            appIn.limit(appIn.position() + n);
+            dst.put(appIn);
+            appIn.limit(limit);
+            appIn.compact();
+            total += n;
+        }
+        return total == 0 && inboundDone && appIn.position() == 0 ? -1 : total;
+    }
+
+    /**
+     * 레코드를 하나 이상 복호화해 appIn 에 평문을 채운다. 채웠으면 true.
+     */
+    private boolean fill() throws IOException {
+        while (true) {
+            if (netIn.position() > 0) {
+                SSLEngineResult result = unwrapResult();
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    inboundDone = true;
+                    return false;
+                }
+                if (appIn.position() > 0) {
+                    return true;
+                }
+                if (result.getStatus() == SSLEngineResult.Status.OK && result.bytesConsumed() > 0) {
+                    continue; // 평문이 없는 레코드(세션 티켓, KeyUpdate 등)
+                }
+            }
+            int n = channel.read(netIn);
+            if (n < 0) {
+                inboundDone = true;
+                return false;
+            }
+            if (n == 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * src 를 암호화해 보낸다. 전에 보내지 못한 레코드가 남아 있으면 그것부터 보내고, 그마저 다 못 보내면 0 을 돌려준다.
+     *
+     * @return 암호화한(소켓이 다 받지 않았을 수 있는) 평문 바이트 수
+     */
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (!flush()) {
+            return 0;
+        }
+        int consumed = 0;
+        while (src.hasRemaining()) {
+            SSLEngineResult result = engine.wrap(src, netOut);
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                throw new SSLException("TLS connection already closed");
+            }
+            consumed += result.bytesConsumed();
+            if (!flush()) {
+                break;
+            }
+        }
+        return consumed;
+    }
+
+    /**
+     * 남은 레코드를 보낸다. 다 보냈으면 true.
+     */
+    public boolean flush() throws IOException {
+        if (netOut.position() == 0) {
+            return true;
+        }
+        netOut.flip();
+        channel.write(netOut);
+        netOut.compact();
+        return netOut.position() == 0;
+    }
+
+    /**
+     * close_notify 를 보내고 소켓 출력을 닫는다. close_notify 가 소켓 버퍼에 다 들어가지 않으면 출력은 세션을 닫을 때 닫힌다.
+     */
+    public void shutdownOutput() throws IOException {
+        engine.closeOutbound();
+        while (!engine.isOutboundDone()) {
+            SSLEngineResult result = engine.wrap(EMPTY, netOut);
+            if (result.bytesProduced() == 0) {
+                break;
+            }
+        }
+        if (flush()) {
+            channel.shutdownOutput();
+        }
+    }
+
+    public boolean hasPendingOutput() {
+        return netOut.position() > 0;
+    }
+
+    /**
+     * 소켓을 읽지 않고도 넘길 평문이 있는지(복호화해 둔 평문이나 완전한 레코드가 버퍼에 남아 있는지).
+     * 이때는 읽기 관심을 켜도 Selector 가 깨우지 않으므로 직접 읽어야 한다.
+     */
+    public boolean hasBufferedInput() {
+        if (appIn.position() > 0) {
+            return true;
+        }
+        int buffered = netIn.position();
+        return !inboundDone && buffered >= RECORD_HEADER_LENGTH
+            && buffered >= RECORD_HEADER_LENGTH + (netIn.getShort(3) & 0xFFFF);
+    }
+
+    /**
+     * 이번 핸드셰이크가 이전 세션을 재개한 것인지. 재개한 세션은 이 채널보다 먼저 만들어졌다.
+     */
+    public boolean isResumed() {
+        return engine.getSession().getCreationTime() < startMillis;
+    }
+
+    /**
+     * 협상한 응용 프로토콜(ALPN). 없으면 null.
+     */
+    public String getApplicationProtocol() {
+        String protocol = engine.getApplicationProtocol();
+        return protocol != null && !protocol.isEmpty() ? protocol : null;
+    }
+
+    public String getProtocol() {
+        return engine.getSession().getProtocol();
+    }
+
+    private boolean unwrap() throws IOException {
+        SSLEngineResult result = unwrapResult();
+        if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+            throw new EOFException("Client closed during TLS handshake");
+        }
+        return result.getStatus() == SSLEngineResult.Status.OK;
+    }
+
+    /**
+     * netIn 의 레코드 하나를 appIn 으로 복호화하고, 엔진이 요구하면 응답(KeyUpdate 등)을 만들어 둔다.
+     */
+    private SSLEngineResult unwrapResult() throws IOException {
+        netIn.flip();
+        SSLEngineResult result;
+        try {
+            result = engine.unwrap(netIn, appIn);
+        } finally {
+            netIn.compact();
+        }
+        if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+            runDelegatedTasks();
+        }
+        if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP
+            && result.getStatus() != SSLEngineResult.Status.CLOSED) {
+            wrap(EMPTY);
+        }
+        return result;
+    }
+
+    private void wrap(ByteBuffer src) throws IOException {
+        SSLEngineResult result = engine.wrap(src, netOut);
+        if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW && !flush()) {
+            return; // 쓰기 가능해지면 flush 뒤 다시 만든다.
+        }
+        if (result.getStatus() == SSLEngineResult.Status.CLOSED && !engine.isOutboundDone()) {
+            throw new SSLException("TLS engine closed");
+        }
+    }
+
+    /**
+     * 키 교환과 인증서 서명 같은 위임 작업. 따로 스레드를 두지 않고 루프에서 바로 실행한다(수 밀리초 이내).
+     */
+    private void runDelegatedTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed && channel.isOpen();
+    }
+
+    /**
+     * 소켓을 닫고 버퍼를 풀에 돌려준다. 여러 번 호출해도 된다.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            channel.close();
+        } finally {
+            netInLease.release();
+            netOutLease.release();
+            appInLease.release();
+        }
+    }
+}
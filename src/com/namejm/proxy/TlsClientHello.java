@@ -0,0 +1,199 @@
+package com.namejm.proxy;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * TLS ClientHello 에서 SNI(server_name) 만 꺼내는 파서. 복호화하지 않고 평문인 첫 핸드셰이크 메시지만 읽는다.
+ * ClientHello 가 여러 레코드에 나뉘어 오면 조각을 이어 붙여 해석하며, 받은 바이트는 그대로 두므로
+ * passthrough 는 이를 백엔드에, terminate 는 SSLEngine 에 그대로 넘긴다.
+ */
+public final class TlsClientHello {
+    /** ClientHello 를 모으는 버퍼의 최소 크기. 가장 큰 레코드 하나(16KB)와 헤더를 담는다. */
+    public static final int MAX_LENGTH = 16384 + 5;
+
+    private static final int RECORD_HEADER_LENGTH = 5;
+    private static final int CONTENT_TYPE_HANDSHAKE = 22;
+    private static final int HANDSHAKE_CLIENT_HELLO = 1;
+    private static final int EXTENSION_SERVER_NAME = 0;
+    private static final int NAME_TYPE_HOST_NAME = 0;
+    private static final int MAX_RECORD_LENGTH = 16384 + 2048;
+
+    private final String serverName;
+
+    private TlsClientHello(String serverName) {
+        this.serverName = serverName;
+    }
+
+    /**
+     * 클라이언트가 요청한 서버 이름(소문자, 끝의 점 제외). SNI 가 없으면 null.
+     */
+    public String getServerName() {
+        return serverName;
+    }
+
+    /**
+     * buffer 의 0 부터 position 까지(쓰기 모드 그대로)를 ClientHello 로 해석한다. buffer 는 바꾸지 않는다.
+     *
+     * @return 아직 다 받지 못했으면 null
+     * @throws ProtocolException TLS 핸드셰이크가 아니거나 형식이 잘못되었거나, 가득 찼는데도 끝나지 않은 경우
+     */
+    public static TlsClientHello parse(ByteBuffer buffer) throws ProtocolException {
+        int end = buffer.position();
+        if (end == 0) {
+            return null;
+        }
+        if (buffer.get(0) != CONTENT_TYPE_HANDSHAKE) {
+            throw new ProtocolException("not a TLS handshake");
+        }
+
+        // 핸드셰이크 메시지 길이는 첫 레코드의 메시지 헤더에 있다. 대부분 레코드 하나에 다 들어온다.
+        byte[] message = null;
+        int messageLength = -1;
+        int collected = 0;
+        int offset = 0;
+        while (messageLength < 0 || collected < messageLength + 4) {
+            if (offset + RECORD_HEADER_LENGTH > end) {
+                return incomplete(buffer);
+            }
+            if (buffer.get(offset) != CONTENT_TYPE_HANDSHAKE || buffer.get(offset + 1) != 3) {
+                throw new ProtocolException("unexpected TLS record");
+            }
+            int recordLength = buffer.getShort(offset + 3) & 0xFFFF;
+            if (recordLength == 0 || recordLength > MAX_RECORD_LENGTH) {
+                throw new ProtocolException("bad TLS record length " + recordLength);
+            }
+            int fragment = offset + RECORD_HEADER_LENGTH;
+            if (fragment + recordLength > end) {
+                return incomplete(buffer);
+            }
+            if (messageLength < 0) {
+                if (recordLength < 4) {
+                    throw new ProtocolException("fragmented handshake header");
+                }
+                if (buffer.get(fragment) != HANDSHAKE_CLIENT_HELLO) {
+                    throw new ProtocolException("not a ClientHello");
+                }
+                messageLength = (buffer.getShort(fragment + 1) & 0xFFFF) << 8 | (buffer.get(fragment + 3) & 0xFF);
+                if (messageLength + 4 > buffer.limit()) {
+                    throw new ProtocolException("ClientHello too large");
+                }
+                if (recordLength >= messageLength + 4) {
+                    return parseBody(buffer, fragment + 4, messageLength);
+                }
+                message = new byte[messageLength + 4];
+            }
+            int copy = Math.min(recordLength, message.length - collected);
+            buffer.get(fragment, message, collected, copy);
+            collected += copy;
+            offset = fragment + recordLength;
+        }
+        return parseBody(ByteBuffer.wrap(message), 4, messageLength);
+    }
+
+    private static TlsClientHello incomplete(ByteBuffer buffer) throws ProtocolException {
+        if (buffer.position() == buffer.limit()) {
+            throw new ProtocolException("ClientHello too large");
+        }
+        return null;
+    }
+
+    private static TlsClientHello parseBody(ByteBuffer buffer, int start, int length) throws ProtocolException {
+        Reader in = new Reader(buffer, start, start + length);
+        in.skip(2 + 32); // legacy_version, random
+        in.skip(in.u8()); // legacy_session_id
+        in.skip(in.u16()); // cipher_suites
+        in.skip(in.u8()); // legacy_compression_methods
+        if (in.remaining() == 0) {
+            return new TlsClientHello(null); // 확장이 없는 오래된 클라이언트
+        }
+        int extensionsEnd = in.end(in.u16());
+        while (in.position() < extensionsEnd) {
+            int type = in.u16();
+            int extensionEnd = in.end(in.u16());
+            if (type == EXTENSION_SERVER_NAME) {
+                int listEnd = in.end(in.u16());
+                while (in.position() < listEnd) {
+                    int nameType = in.u8();
+                    int nameLength = in.u16();
+                    if (nameType == NAME_TYPE_HOST_NAME) {
+                        int nameStart = in.position();
+                        in.skip(nameLength); // 이름이 메시지 안에 다 들어 있는지 확인한다
+                        return new TlsClientHello(hostName(buffer, nameStart, nameLength));
+                    }
+                    in.skip(nameLength);
+                }
+            }
+            in.seek(extensionEnd);
+        }
+        return new TlsClientHello(null);
+    }
+
+    private static String hostName(ByteBuffer buffer, int offset, int length) throws ProtocolException {
+        if (length == 0 || length > 255) {
+            throw new ProtocolException("bad server name length " + length);
+        }
+        char[] name = new char[length];
+        for (int i = 0; i < length; i++) {
+            int c = buffer.get(offset + i) & 0xFF;
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '-' || c == '.' || c == '_')) {
+                throw new ProtocolException("bad server name");
+            }
+            name[i] = (char) c;
+        }
+        String host = new String(name).toLowerCase(Locale.ROOT);
+        return host.endsWith(".") ? host.substring(0, host.length() - 1) : host;
+    }
+
+    /**
+     * 범위를 넘어 읽으면 ProtocolException 을 던지는 절대 위치 읽기.
+     */
+    private static final class Reader {
+        private final ByteBuffer buffer;
+        private final int limit;
+        private int position;
+
+        Reader(ByteBuffer buffer, int position, int limit) {
+            this.buffer = buffer;
+            this.position = position;
+            this.limit = limit;
+        }
+
+        int position() { return position; }
+        int remaining() { return limit - position; }
+
+        int u8() throws ProtocolException {
+            require(1);
+            return buffer.get(position++) & 0xFF;
+        }
+
+        int u16() throws ProtocolException {
+            require(2);
+            int value = buffer.getShort(position) & 0xFFFF;
+            position += 2;
+            return value;
+        }
+
+        void skip(int length) throws ProtocolException {
+            require(length);
+            position += length;
+        }
+
+        /** 지금 위치에서 length 만큼 뒤의 위치. 범위를 넘으면 예외. */
+        int end(int length) throws ProtocolException {
+            require(length);
+            return position + length;
+        }
+
+        void seek(int target) {
+            position = target;
+        }
+
+        private void require(int length) throws ProtocolException {
+            if (length > limit - position) {
+                throw new ProtocolException("truncated ClientHello");
+            }
+        }
+    }
+}
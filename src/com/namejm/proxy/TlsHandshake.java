@@ -0,0 +1,273 @@
+package com.namejm.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static ch.qos.logback.core.util.CloseUtil.closeQuietly;
+
+/**
+ * tls 프록시에서 중계 전에 ClientHello 를 읽어 SNI 로 전달 대상 묶음을 고른다.
+ * passthrough 는 받은 바이트를 그대로 넘겨 백엔드가 TLS 를 처리하고, terminate 는 같은 루프에서 SSLEngine 으로
+ * 핸드셰이크를 마친 뒤 TlsChannel 을 넘긴다. 어느 쪽도 핸드셰이크를 위해 스레드를 잡지 않으며,
+ * connectTimeoutSeconds 안에 끝나지 않으면 닫는다.
+ */
+public class TlsHandshake implements NioHandler, RelaySession {
+    private static final Logger logger = LoggerFactory.getLogger(TlsHandshake.class);
+
+    /**
+     * 핸드셰이크가 끝나면 루프 스레드에서 호출된다.
+     */
+    public interface Next {
+        /**
+         * @param group 서버 이름으로 고른 전달 대상 묶음
+         * @param serverName ClientHello 의 SNI, 없으면 null
+         * @param tls terminate 면 핸드셰이크를 마친 채널, passthrough 면 null
+         * @param early passthrough 에서 받은 바이트(ClientHello 포함, 읽기 모드), terminate 면 null
+         */
+        void accept(UpstreamGroup group, String serverName, TlsChannel tls, ByteBuffer early);
+    }
+
+    private final NioEventLoop loop;
+    private final SocketChannel client;
+    private final SSLContext context;
+    private final SniRouter router;
+    private final UpstreamGroup fallback;
+    private final ProxyDto config;
+    private final ProxyMetrics metrics;
+    private final RateLimiter.Permit permit;
+    private final SessionRegistry registry;
+    private final Next next;
+    private final BufferPool.PooledBuffer lease = BufferPool.SHARED.acquireHeap(TlsClientHello.MAX_LENGTH);
+    private final ByteBuffer buffer = lease.buffer(); // 쓰기(채우기) 모드로 유지, terminate 에서는 TlsChannel 의 netIn 이 된다
+    private SelectionKey clientKey;
+    private HashedTimingWheel.Timeout timer;
+    private UpstreamGroup group;
+    private String serverName;
+    private TlsChannel tls;
+    private long handshakeStartNanos;
+    private boolean closed = false;
+
+    /**
+     * @param early 이미 받은 바이트(읽기 모드, PROXY protocol 헤더 뒤에 따라온 것), 없으면 null
+     * @param context terminate 의 SSLContext. passthrough 면 null
+     * @param fallback SNI 가 없거나 sniRoutes 에 맞지 않을 때 쓸 묶음, 없으면 null(연결을 닫음)
+     */
+    public TlsHandshake(NioEventLoop loop, SocketChannel client, ByteBuffer early, SSLContext context, SniRouter router,
+                        UpstreamGroup fallback, ProxyDto config, ProxyMetrics metrics, RateLimiter.Permit permit,
+                        SessionRegistry registry, Next next) {
+        this.loop = loop;
+        this.client = client;
+        this.context = context;
+        this.router = router;
+        this.fallback = fallback;
+        this.config = config;
+        this.metrics = metrics;
+        this.permit = permit;
+        this.registry = registry;
+        this.next = next;
+        if (early != null) {
+            buffer.put(early);
+        }
+        registry.add(this);
+    }
+
+    /**
+     * ClientHello 를 읽기 시작한다. 루프 스레드에서 호출해야 한다.
+     */
+    public void start() {
+        try {
+            client.configureBlocking(false);
+            client.socket().setTcpNoDelay(true);
+            client.socket().setKeepAlive(config.isTcpKeepAlive());
+            clientKey = loop.register(client, SelectionKey.OP_READ, this);
+        } catch (IOException e) {
+            close();
+            return;
+        }
+        if (config.getConnectTimeoutSeconds() > 0) {
+            timer = SessionTimeout.WHEEL.schedule(() -> loop.execute(this::timedOut),
+                config.getConnectTimeoutSeconds(), TimeUnit.SECONDS);
+        }
+        if (buffer.position() > 0) {
+            // 루프가 handle() 에서 던진 예외를 failed() 로 넘기듯, 여기서도 예외가 루프 작업 밖으로 새지 않게 한다.
+            try {
+                peek();
+            } catch (RuntimeException e) {
+                failed(clientKey, e);
+            }
+        }
+    }
+
+    @Override
+    public void handle(SelectionKey key) throws IOException {
+        if (closed) {
+            return;
+        }
+        if (tls != null) {
+            continueHandshake();
+            return;
+        }
+        if (client.read(buffer) < 0) {
+            close();
+            return;
+        }
+        peek();
+    }
+
+    private void peek() {
+        TlsClientHello hello;
+        try {
+            hello = TlsClientHello.parse(buffer);
+        } catch (ProtocolException e) {
+            metrics.recordSniRoute(ProxyMetrics.SNI_MALFORMED);
+            logger.debug("{} - Bad ClientHello from {}: {}", config.getName(), client.socket().getRemoteSocketAddress(), e.getMessage());
+            close();
+            return;
+        }
+        if (hello == null) {
+            return;
+        }
+
+        serverName = hello.getServerName();
+        group = router.select(serverName);
+        String route = ProxyMetrics.SNI_ROUTED;
+        if (group == null) {
+            group = fallback;
+            route = fallback != null ? ProxyMetrics.SNI_DEFAULT : ProxyMetrics.SNI_UNMATCHED;
+        }
+        metrics.recordSniRoute(route);
+        if (group == null) {
+            logger.info("{} - No route for server name '{}' from {}", config.getName(), serverName,
+                client.socket().getRemoteSocketAddress());
+            close();
+            return;
+        }
+
+        if (context == null) {
+            buffer.flip();
+            ByteBuffer early = ByteBuffer.allocate(buffer.remaining()).put(buffer).flip();
+            lease.release();
+            handOff(early);
+            return;
+        }
+        handshakeStartNanos = System.nanoTime();
+        tls = new TlsChannel(createEngine(), client, lease); // 받은 ClientHello 는 그대로 엔진의 입력이 된다
+        continueHandshake();
+    }
+
+    private SSLEngine createEngine() {
+        SSLEngine engine = context.createSSLEngine();
+        engine.setUseClientMode(false);
+        SSLParameters parameters = engine.getSSLParameters();
+        parameters.setProtocols(config.getTlsProtocols().toArray(new String[0]));
+        parameters.setUseCipherSuitesOrder(true);
+        engine.setSSLParameters(parameters);
+        List<String> alpn = config.getAlpn();
+        if (!alpn.isEmpty()) {
+            // 설정 순서대로 클라이언트가 제안한 것을 고른다. 맞는 것이 없으면 ALPN 없이 진행한다("" ).
+            engine.setHandshakeApplicationProtocolSelector((sslEngine, offered) -> {
+                for (String protocol : alpn) {
+                    if (offered.contains(protocol)) {
+                        return protocol;
+                    }
+                }
+                return "";
+            });
+        }
+        return engine;
+    }
+
+    private void continueHandshake() {
+        boolean finished;
+        try {
+            finished = tls.handshake();
+        } catch (IOException e) {
+            metrics.recordTlsHandshake(ProxyMetrics.TLS_FAILED, System.nanoTime() - handshakeStartNanos);
+            if (e instanceof SSLException) {
+                logger.debug("{} - TLS handshake with {} failed: {}", config.getName(),
+                    client.socket().getRemoteSocketAddress(), e.getMessage());
+                try {
+                    tls.shutdownOutput(); // 엔진이 만든 경고(alert)를 보낸다.
+                } catch (IOException ignored) {
+                    // 닫기만 한다.
+                }
+            }
+            close();
+            return;
+        }
+        if (!finished) {
+            clientKey.interestOps(tls.hasPendingOutput() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            return;
+        }
+        metrics.recordTlsHandshake(tls.isResumed() ? ProxyMetrics.TLS_RESUMED : ProxyMetrics.TLS_FULL,
+            System.nanoTime() - handshakeStartNanos);
+        if (logger.isDebugEnabled()) {
+            logger.debug("{} - TLS {} with {}: sni={}, alpn={}, resumed={}", config.getName(), tls.getProtocol(),
+                client.socket().getRemoteSocketAddress(), serverName, tls.getApplicationProtocol(), tls.isResumed());
+        }
+        handOff(null);
+    }
+
+    private void handOff(ByteBuffer early) {
+        closed = true;
+        if (timer != null) {
+            timer.cancel();
+        }
+        clientKey.interestOps(0);
+        registry.remove(this);
+        // 다음 단계가 같은 Selector 에 다시 등록하면 키의 attachment 만 바뀐다.
+        next.accept(group, serverName, tls, early);
+    }
+
+    @Override
+    public void failed(SelectionKey key, Exception e) {
+        if (!(e instanceof IOException)) {
+            logger.warn("TLS handshake error", e);
+        }
+        close();
+    }
+
+    @Override
+    public void terminate() {
+        loop.execute(this::close);
+    }
+
+    private void timedOut() {
+        if (closed) {
+            return;
+        }
+        metrics.recordTimeout(SessionTimeout.CONNECT);
+        close();
+    }
+
+    private void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (timer != null) {
+            timer.cancel();
+        }
+        if (clientKey != null) clientKey.cancel();
+        closeQuietly(client);
+        if (tls != null) {
+            closeQuietly(tls); // 빌린 버퍼(lease 포함)도 돌려준다.
+        } else {
+            lease.release();
+        }
+        permit.release();
+        registry.remove(this);
+    }
+}
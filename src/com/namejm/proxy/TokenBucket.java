@@ -0,0 +1,76 @@
+package com.namejm.proxy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 잠금 없는 토큰 버킷 (GCRA 방식).
+ * 남은 토큰 수 대신 "버킷이 다시 비는 시각" 하나만 AtomicLong 으로 관리하므로 CAS 한 번으로 갱신된다.
+ */
+public final class TokenBucket {
+    private final double nanosPerToken; // 정수로 나누면 초당 10억 근처의 한도에서 몫이 크게 잘린다(6억/s → 1ns → 10억/s)
+    private final long burstNanos;
+    private final AtomicLong theoreticalArrival = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @param ratePerSecond 초당 토큰 수
+     * @param burst         한 번에 몰아서 쓸 수 있는 토큰 수
+     */
+    public TokenBucket(long ratePerSecond, long burst) {
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException("ratePerSecond must be greater than 0");
+        }
+        this.nanosPerToken = (double) TimeUnit.SECONDS.toNanos(1) / ratePerSecond;
+        this.burstNanos = Math.max(1, (long) (Math.max(1, burst) * nanosPerToken));
+    }
+
+    /**
+     * 토큰이 충분하면 소비하고 true, 아니면 아무것도 소비하지 않고 false.
+     */
+    public boolean tryAcquire(long tokens) {
+        long cost = cost(tokens);
+        while (true) {
+            long now = System.nanoTime();
+            long current = theoreticalArrival.get();
+            long start = current == Long.MIN_VALUE || current - now < 0 ? now : current;
+            long next = start + cost;
+            if (next - now > burstNanos) {
+                return false;
+            }
+            if (theoreticalArrival.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * tryAcquire 로 소비한 토큰을 돌려준다. 함께 확인한 다른 한도에 걸려 요청을 거부할 때 사용한다.
+     */
+    public void refund(long tokens) {
+        theoreticalArrival.addAndGet(-cost(tokens));
+    }
+
+    /**
+     * 토큰 수만큼의 시간(나노초). 올림하므로 아주 작은 요청도 공짜가 되지 않고 한도를 넘지 않는다.
+     */
+    private long cost(long tokens) {
+        return (long) Math.ceil(tokens * nanosPerToken);
+    }
+
+    /**
+     * 토큰을 무조건 소비하고, 한도를 지키려면 얼마나 쉬어야 하는지(나노초)를 돌려준다.
+     * 대역폭 제한처럼 이미 읽은 바이트를 되돌릴 수 없는 경우에 사용한다.
+     */
+    public long reserve(long tokens) {
+        long cost = cost(tokens);
+        while (true) {
+            long now = System.nanoTime();
+            long current = theoreticalArrival.get();
+            long start = current == Long.MIN_VALUE || current - now < 0 ? now : current;
+            long next = start + cost;
+            if (theoreticalArrival.compareAndSet(current, next)) {
+                return Math.max(0, next - now - burstNanos);
+            }
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package com.namejm.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.UnresolvedAddressException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static ch.qos.logback.core.util.CloseUtil.closeQuietly;
+
+/**
+ * udp 타입 프록시의 리슨 채널 하나. 클라이언트 주소/포트마다 흐름(Flow)을 만들고, 흐름마다 전달 대상에 connect 한
+ * DatagramChannel 을 두어 응답을 구분한다.
+ * 접근 제어와 연결 제한은 새 흐름에서 한 번만 판정하며, 거부한 클라이언트 주소/포트는 흐름 표와 별도로 유휴 시간 동안
+ * 기억해 같은 클라이언트의 데이터그램을 GeoIP 조회 없이 버린다. 거부 기록은 maxFlows 개까지만 두고 넘으면 가장 오래된
+ * 것부터 지우므로(다음 데이터그램에서 다시 판정), 거부된 클라이언트가 흐름 표를 채우지 못한다. 리슨 채널과 그 흐름은 모두 한 NioEventLoop 에서 처리하므로
+ * 수신 버퍼 하나를 함께 쓰고, 한 번 깨어날 때 채널마다 최대 BATCH 개의 데이터그램을 처리한다.
+ */
+public class UdpRelay implements NioHandler {
+    private static final Logger logger = LoggerFactory.getLogger(UdpRelay.class);
+    private static final int BATCH = 64; // select 한 번에 채널마다 처리할 최대 데이터그램 수
+    private static final int MAX_DATAGRAM_SIZE = 65535;
+
+    private final NioEventLoop loop;
+    private final DatagramChannel listener;
+    private final ProxyDto config;
+    private final UpstreamGroup upstreamGroup;
+    private final ProxyMetrics metrics;
+    private final SessionRegistry registry;
+    private final Function<InetSocketAddress, RateLimiter.Permit> admission;
+    private final Map<InetSocketAddress, Flow> flows = new ConcurrentHashMap<>(); // 지표 조회는 다른 스레드에서 한다
+    private final Map<InetSocketAddress, Long> denied = new LinkedHashMap<>(); // 루프 스레드 전용, 만료 시각(nanoTime) 순
+    private final BufferPool.PooledBuffer lease = BufferPool.SHARED.acquireDirect(MAX_DATAGRAM_SIZE);
+    private final ByteBuffer buffer = lease.buffer();
+    private SelectionKey listenerKey;
+    private boolean closed = false;
+
+    /**
+     * @param admission 새 흐름의 클라이언트를 판정해 허용이면 Permit, 차단/제한이면 null 을 돌려준다
+     */
+    public UdpRelay(NioEventLoop loop, DatagramChannel listener, ProxyDto config, UpstreamGroup upstreamGroup,
+                    ProxyMetrics metrics, SessionRegistry registry, Function<InetSocketAddress, RateLimiter.Permit> admission) {
+        this.loop = loop;
+        this.listener = listener;
+        this.config = config;
+        this.upstreamGroup = upstreamGroup;
+        this.metrics = metrics;
+        this.registry = registry;
+        this.admission = admission;
+    }
+
+    /**
+     * 리슨 채널을 루프에 등록한다. 루프 스레드에서 호출해야 한다.
+     */
+    public void start() {
+        try {
+            listenerKey = loop.register(listener, SelectionKey.OP_READ, this);
+        } catch (IOException e) {
+            logger.error("Failed to register UDP channel on port {}", config.getBindPort(), e);
+        }
+    }
+
+    public NioEventLoop getLoop() {
+        return loop;
+    }
+
+    public int getFlowCount() {
+        return flows.size();
+    }
+
+    @Override
+    public void handle(SelectionKey key) throws IOException {
+        for (int i = 0; i < BATCH && !closed; i++) {
+            buffer.clear();
+            InetSocketAddress client = (InetSocketAddress) listener.receive(buffer);
+            if (client == null) {
+                return;
+            }
+            buffer.flip();
+            Flow flow = flows.get(client);
+            if (flow == null) {
+                if (isDenied(client)) {
+                    metrics.recordDroppedDatagram(ProxyMetrics.DROP_DENIED);
+                    continue;
+                }
+                flow = openFlow(client);
+                if (flow == null) {
+                    continue;
+                }
+            }
+            flow.toServer(buffer);
+        }
+    }
+
+    @Override
+    public void failed(SelectionKey key, Exception e) {
+        if (closed) {
+            return;
+        }
+        // 리슨 채널은 한 번의 오류로 닫지 않는다(ICMP 오류 등은 다음 데이터그램에 영향이 없다).
+        logger.warn("{} - Error receiving UDP datagram: {}", config.getName(), e.toString());
+    }
+
+    private Flow openFlow(InetSocketAddress client) {
+        if (flows.size() >= config.getMaxFlows()) {
+            metrics.recordDroppedDatagram(ProxyMetrics.DROP_FLOW_TABLE_FULL);
+            return null;
+        }
+        RateLimiter.Permit permit = admission.apply(client);
+        if (permit == null) {
+            rememberDenied(client);
+            metrics.recordDroppedDatagram(ProxyMetrics.DROP_DENIED);
+            return null;
+        }
+        Flow flow = new Flow(client, permit);
+        if (!flow.open()) {
+            return null;
+        }
+        flows.put(client, flow);
+        return flow;
+    }
+
+    /**
+     * 유휴 시간 안에 거부한 클라이언트인지 본다. 기록은 만료 순서로 들어 있으므로 앞에서부터 만료된 것만 지운다.
+     */
+    private boolean isDenied(InetSocketAddress client) {
+        if (denied.isEmpty()) {
+            return false;
+        }
+        long now = System.nanoTime();
+        Iterator<Long> expiries = denied.values().iterator();
+        while (expiries.hasNext() && expiries.next() - now <= 0) {
+            expiries.remove();
+        }
+        return denied.containsKey(client);
+    }
+
+    private void rememberDenied(InetSocketAddress client) {
+        // 활동 시각을 갱신하지 않으므로 유휴 시간이 지나면 빠지고, 다음 데이터그램에서 다시 판정한다.
+        denied.put(client, System.nanoTime() + TimeUnit.SECONDS.toNanos(config.getFlowIdleTimeoutSeconds()));
+        if (denied.size() > config.getMaxFlows()) {
+            Iterator<InetSocketAddress> oldest = denied.keySet().iterator();
+            oldest.next();
+            oldest.remove();
+        }
+    }
+
+    /**
+     * 리슨 채널을 닫고 모든 흐름을 정리한다. UDP 흐름은 끝을 알리는 절차가 없으므로 드레인하지 않는다.
+     * 루프 스레드에서 호출해야 한다.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (listenerKey != null) {
+            listenerKey.cancel();
+        }
+        closeQuietly(listener);
+        for (Flow flow : new ArrayList<>(flows.values())) {
+            flow.close();
+        }
+        denied.clear();
+        lease.release();
+    }
+
+    /**
+     * 허용된 클라이언트 주소/포트 하나의 흐름.
+     */
+    private final class Flow implements NioHandler, RelaySession {
+        private final InetSocketAddress client;
+        private final RateLimiter.Permit permit;
+        private final SessionTimeout timeout;
+        private final long startNanos = System.nanoTime();
+        private Upstream upstream;
+        private DatagramChannel server;
+        private SelectionKey serverKey;
+        private boolean flowClosed = false;
+
+        Flow(InetSocketAddress client, RateLimiter.Permit permit) {
+            this.client = client;
+            this.permit = permit;
+            this.timeout = new SessionTimeout(config.getFlowIdleTimeoutSeconds(), config.getMaxLifetimeSeconds(),
+                loop::execute, reason -> close());
+        }
+
+        /**
+         * 전달 대상에 연결한다. 실패하면 false.
+         */
+        boolean open() {
+            upstream = upstreamGroup.select(client.getAddress());
+            upstream.acquire();
+            try {
+                server = DatagramChannel.open();
+                server.configureBlocking(false);
+                server.connect(upstream.getAddress());
+                serverKey = loop.register(server, SelectionKey.OP_READ, this);
+            } catch (IOException | UnresolvedAddressException e) {
+                logger.warn("{} - UDP flow to {} failed: {}", config.getName(), upstream, e.toString());
+                upstreamGroup.reportFailure(upstream);
+                metrics.backendConnectFailed();
+                upstream.release();
+                permit.release();
+                closeQuietly(server);
+                return false;
+            }
+            metrics.sessionOpened();
+            registry.add(this);
+            timeout.start();
+            return true;
+        }
+
+        void toServer(ByteBuffer datagram) throws IOException {
+            int n = datagram.remaining();
+            if (!permit.tryUpload(n)) {
+                metrics.recordDroppedDatagram(ProxyMetrics.DROP_RATE_LIMITED);
+                return;
+            }
+            timeout.touch();
+            try {
+                if (server.write(datagram) == 0) {
+                    metrics.recordDroppedDatagram(ProxyMetrics.DROP_SEND_FAILED);
+                    return;
+                }
+            } catch (PortUnreachableException e) {
+                // 이전에 보낸 데이터그램의 ICMP 오류. 흐름은 유지한다.
+                metrics.recordDroppedDatagram(ProxyMetrics.DROP_SEND_FAILED);
+                return;
+            }
+            metrics.addClientToServer(n);
+        }
+
+        @Override
+        public void handle(SelectionKey key) throws IOException {
+            for (int i = 0; i < BATCH && !flowClosed; i++) {
+                buffer.clear();
+                try {
+                    if (server.read(buffer) <= 0) {
+                        return;
+                    }
+                } catch (PortUnreachableException e) {
+                    metrics.recordDroppedDatagram(ProxyMetrics.DROP_SEND_FAILED);
+                    continue;
+                }
+                buffer.flip();
+                int n = buffer.remaining();
+                if (!permit.tryDownload(n)) {
+                    metrics.recordDroppedDatagram(ProxyMetrics.DROP_RATE_LIMITED);
+                    continue;
+                }
+                timeout.touch();
+                if (listener.send(buffer, client) == 0) {
+                    metrics.recordDroppedDatagram(ProxyMetrics.DROP_SEND_FAILED);
+                    continue;
+                }
+                metrics.addServerToClient(n);
+            }
+        }
+
+        @Override
+        public void failed(SelectionKey key, Exception e) {
+            if (!(e instanceof IOException)) {
+                logger.warn("UDP flow error", e);
+            }
+            close();
+        }
+
+        @Override
+        public void terminate() {
+            loop.execute(this::close);
+        }
+
+        void close() {
+            if (flowClosed) {
+                return;
+            }
+            flowClosed = true;
+            flows.remove(client, this);
+            timeout.cancel();
+            if (serverKey != null) serverKey.cancel();
+            closeQuietly(server);
+            upstream.release();
+            permit.release();
+            metrics.sessionClosed(System.nanoTime() - startNanos);
+            registry.remove(this);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.namejm.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 전달 대상 백엔드 하나. 활성 연결 수와 헬스 상태는 여러 스레드에서 갱신되므로 원자 변수로 관리한다.
+ */
+public class Upstream {
+    private static final Logger logger = LoggerFactory.getLogger(Upstream.class);
+
+    private final String host;
+    private final int port;
+    private final int weight;
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicInteger consecutiveSuccesses = new AtomicInteger();
+    private volatile boolean healthy = true;
+    private final boolean literal;
+    private volatile InetSocketAddress address;
+    private BackendConnectionPool pool;
+
+    public Upstream(String host, int port, int weight) {
+        this.host = host;
+        this.port = port;
+        this.weight = weight;
+        // IP 리터럴은 바로 주소로 바꾸고, 이름은 UpstreamGroup 이 백그라운드에서 해석한다.
+        InetAddress literal = InetAddresses.parseLiteral(host);
+        this.address = literal != null ? new InetSocketAddress(literal, port) : null;
+        this.literal = literal != null;
+    }
+
+    /**
+     * "host:port", "[v6]:port", 뒤에 " weight=N" 을 붙일 수 있다.
+     */
+    public static Upstream parse(String spec) {
+        String text = spec.trim();
+        int weight = 1;
+        int space = text.indexOf(' ');
+        if (space > 0) {
+            String option = text.substring(space + 1).trim();
+            text = text.substring(0, space);
+            if (!option.startsWith("weight=")) {
+                throw new IllegalArgumentException("Unknown upstream option '" + option + "'");
+            }
+            weight = Integer.parseInt(option.substring("weight=".length()));
+            if (weight <= 0) {
+                throw new IllegalArgumentException("Upstream weight must be greater than 0");
+            }
+        }
+
+        String host;
+        String portText;
+        if (text.startsWith("[")) {
+            int end = text.indexOf("]:");
+            if (end < 0) {
+                throw new IllegalArgumentException("Invalid upstream '" + spec + "'");
+            }
+            host = text.substring(1, end);
+            portText = text.substring(end + 2);
+        } else {
+            int colon = text.lastIndexOf(':');
+            if (colon <= 0 || text.indexOf(':') != colon) {
+                throw new IllegalArgumentException("Invalid upstream '" + spec + "', expected host:port");
+            }
+            host = text.substring(0, colon);
+            portText = text.substring(colon + 1);
+        }
+        int port = Integer.parseInt(portText);
+        if (port <= 0 || port > 65535) {
+            throw new IllegalArgumentException("Invalid port in upstream '" + spec + "'");
+        }
+        return new Upstream(host, port, weight);
+    }
+
+    /**
+     * 백엔드 주소. 연결 풀이나 UpstreamGroup 이 백그라운드에서 해석해 둔 값이므로 이벤트 루프에서 불러도 DNS 조회로 멈추지 않는다.
+     * 아직 한 번도 해석하지 못했으면 해석되지 않은(isUnresolved) 주소를 돌려준다.
+     */
+    public InetSocketAddress getAddress() {
+        InetSocketAddress current = pool != null ? pool.getAddress() : null;
+        if (current == null) {
+            current = address;
+        }
+        return current != null ? current : InetSocketAddress.createUnresolved(host, port);
+    }
+
+    /**
+     * 이름을 다시 해석한다. 블로킹이므로 백그라운드 스레드에서만 호출한다. 실패하면 마지막으로 해석한 주소를 계속 쓴다.
+     */
+    void resolve() {
+        InetSocketAddress resolved = new InetSocketAddress(host, port);
+        if (resolved.isUnresolved()) {
+            logger.warn("Failed to resolve upstream host {}, keeping {}", host, address);
+            return;
+        }
+        address = resolved;
+    }
+
+    boolean isLiteral() { return literal; }
+
+    public void acquire() {
+        activeConnections.incrementAndGet();
+    }
+
+    public void release() {
+        activeConnections.decrementAndGet();
+    }
+
+    /**
+     * 연결 성공/실패를 기록한다. fall 번 연속 실패하면 제외하고, 제외된 상태에서 rise 번 연속 성공하면 복귀시킨다.
+     */
+    public void reportSuccess(int rise) {
+        consecutiveFailures.set(0);
+        if (!healthy && consecutiveSuccesses.incrementAndGet() >= rise) {
+            healthy = true;
+            consecutiveSuccesses.set(0);
+            logger.info("Upstream {} is healthy again", this);
+        }
+    }
+
+    public void reportFailure(int fall) {
+        consecutiveSuccesses.set(0);
+        if (healthy && consecutiveFailures.incrementAndGet() >= fall) {
+            healthy = false;
+            logger.warn("Upstream {} marked unhealthy after {} consecutive failures", this, fall);
+        }
+    }
+
+    public String getHost() { return host; }
+    public int getPort() { return port; }
+    public int getWeight() { return weight; }
+    public int getActiveConnections() { return activeConnections.get(); }
+    public boolean isHealthy() { return healthy; }
+    public BackendConnectionPool getPool() { return pool; }
+    void setPool(BackendConnectionPool pool) { this.pool = pool; }
+
+    @Override
+    public String toString() {
+        return (host.indexOf(':') >= 0 ? "[" + host + "]" : host) + ":" + port;
+    }
+}
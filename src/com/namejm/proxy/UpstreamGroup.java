@@ -0,0 +1,338 @@
+package com.namejm.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 프록시 하나의 전달 대상 묶음과 부하 분산 전략.
+ * 선택에 쓰이는 배열(가중치 스케줄, 해시 링)은 생성 시 한 번 만들고 이후 읽기만 하므로,
+ * 수락 경로에서는 AtomicLong 카운터 외에 잠금이나 공유 쓰기가 없다.
+ */
+public class UpstreamGroup {
+    private static final Logger logger = LoggerFactory.getLogger(UpstreamGroup.class);
+    private static final int HEALTH_CHECK_TIMEOUT_MILLIS = 2000;
+    private static final int HEALTH_CHECK_FALL = 3;
+    private static final int HEALTH_CHECK_RISE = 2;
+    private static final int VIRTUAL_NODES_PER_WEIGHT = 100;
+    private static final int RESOLVE_INTERVAL_SECONDS = 30; // JDK 의 기본 DNS 캐시 TTL 과 같다
+
+    public static final String ROUND_ROBIN = "round-robin";
+    public static final String LEAST_CONNECTIONS = "least-connections";
+    public static final String WEIGHTED = "weighted";
+    public static final String HASH = "hash";
+    public static final List<String> STRATEGIES = List.of(ROUND_ROBIN, LEAST_CONNECTIONS, WEIGHTED, HASH);
+
+    private final String name;
+    private final Upstream[] upstreams;
+    private final String strategy;
+    private final int healthCheckIntervalSeconds;
+    private final AtomicLong counter = new AtomicLong();
+    private final int[] weightedSchedule;
+    private final long[] ringHashes;
+    private final int[] ringOwners;
+    private ScheduledExecutorService checker; // 이름 재해석과 능동 헬스 체크
+
+    public UpstreamGroup(String name, List<Upstream> upstreams, String strategy, int healthCheckIntervalSeconds) {
+        if (upstreams.isEmpty()) {
+            throw new IllegalArgumentException("At least one upstream is required");
+        }
+        this.name = name;
+        this.upstreams = upstreams.toArray(new Upstream[0]);
+        this.strategy = strategy;
+        this.healthCheckIntervalSeconds = healthCheckIntervalSeconds;
+        this.weightedSchedule = WEIGHTED.equals(strategy) ? buildWeightedSchedule(this.upstreams) : null;
+        if (HASH.equals(strategy)) {
+            long[][] ring = buildHashRing(this.upstreams);
+            this.ringHashes = ring[0];
+            this.ringOwners = Arrays.stream(ring[1]).mapToInt(v -> (int) v).toArray();
+        } else {
+            this.ringHashes = null;
+            this.ringOwners = null;
+        }
+    }
+
+    /**
+     * 설정에서 그룹을 만든다. upstreams 가 비어 있으면 forwardHost/forwardPort 하나를 사용한다.
+     */
+    public static UpstreamGroup fromConfig(ProxyDto config) {
+        if (config.getUpstreams() != null && !config.getUpstreams().isEmpty()) {
+            return fromSpecs(config, config.getName(), config.getUpstreams());
+        }
+        List<Upstream> list = new ArrayList<>();
+        list.add(new Upstream(config.getForwardHost(), config.getForwardPort(), 1));
+        return create(config, config.getName(), list);
+    }
+
+    /**
+     * "host:port [weight=N]" 목록으로 그룹을 만든다. 분산 전략, 헬스 체크, 백엔드 연결 풀 설정은 config 를 따른다.
+     */
+    public static UpstreamGroup fromSpecs(ProxyDto config, String name, List<String> specs) {
+        List<Upstream> list = new ArrayList<>();
+        for (String spec : specs) {
+            list.add(Upstream.parse(spec));
+        }
+        return create(config, name, list);
+    }
+
+    private static UpstreamGroup create(ProxyDto config, String name, List<Upstream> list) {
+        // UDP 대상에는 TCP 헬스 체크와 미리 연결해 둘 연결이 의미가 없다.
+        boolean udp = config.isUdp();
+        if (!udp && config.getBackendPoolSize() > 0) {
+            for (Upstream upstream : list) {
+                upstream.setPool(new BackendConnectionPool(name + "/" + upstream,
+                    upstream.getHost(), upstream.getPort(),
+                    config.getBackendPoolSize(), config.getBackendPoolMaxIdleSeconds()));
+            }
+        }
+        return new UpstreamGroup(name, list, config.getBalance(), udp ? 0 : config.getHealthCheckIntervalSeconds());
+    }
+
+    public void start() {
+        for (Upstream upstream : upstreams) {
+            if (upstream.getPool() != null) {
+                upstream.getPool().start();
+            }
+        }
+        // 이름으로 준 대상은 이벤트 루프에서 조회하지 않도록 시작할 때 한 번 해석하고, 이후 대상 수와 관계없이 주기적으로 다시 해석한다.
+        boolean named = false;
+        for (Upstream upstream : upstreams) {
+            if (!upstream.isLiteral()) {
+                upstream.resolve();
+                named = true;
+            }
+        }
+        // 대상이 하나뿐이면 제외해도 보낼 곳이 없으므로 능동 헬스 체크를 하지 않는다.
+        boolean healthCheck = healthCheckIntervalSeconds > 0 && upstreams.length > 1;
+        if (named || healthCheck) {
+            checker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "UpstreamCheck-" + name);
+                thread.setDaemon(true);
+                return thread;
+            });
+            if (named) {
+                checker.scheduleWithFixedDelay(this::resolveAll, RESOLVE_INTERVAL_SECONDS, RESOLVE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+            }
+            if (healthCheck) {
+                checker.scheduleWithFixedDelay(this::checkAll, 0, healthCheckIntervalSeconds, TimeUnit.SECONDS);
+            }
+        }
+        logger.info("{} - Upstreams {} with strategy '{}'", name, Arrays.toString(upstreams), strategy);
+    }
+
+    public void close() {
+        if (checker != null) {
+            checker.shutdownNow();
+        }
+        for (Upstream upstream : upstreams) {
+            if (upstream.getPool() != null) {
+                upstream.getPool().close();
+            }
+        }
+    }
+
+    /**
+     * 클라이언트에 대한 대상을 고른다. 정상 대상이 하나도 없으면 상태와 관계없이 고른다(fail-open).
+     */
+    public Upstream select(InetAddress client) {
+        if (upstreams.length == 1) {
+            return upstreams[0];
+        }
+        Upstream selected;
+        switch (strategy) {
+            case LEAST_CONNECTIONS:
+                selected = selectLeastConnections(true);
+                return selected != null ? selected : selectLeastConnections(false);
+            case WEIGHTED:
+                selected = selectWeighted(true);
+                return selected != null ? selected : selectWeighted(false);
+            case HASH:
+                selected = selectHash(client, true);
+                return selected != null ? selected : selectHash(client, false);
+            default:
+                selected = selectRoundRobin(true);
+                return selected != null ? selected : selectRoundRobin(false);
+        }
+    }
+
+    /**
+     * 실제 연결 결과를 헬스 체크와 같은 기준(연속 실패 HEALTH_CHECK_FALL 번, 연속 성공 HEALTH_CHECK_RISE 번)으로 반영한다.
+     * 성공을 알리지 않으면 띄엄띄엄 난 실패가 쌓여 멀쩡한 전달 대상이 제외된다.
+     */
+    public void reportSuccess(Upstream upstream) {
+        upstream.reportSuccess(HEALTH_CHECK_RISE);
+    }
+
+    public void reportFailure(Upstream upstream) {
+        upstream.reportFailure(HEALTH_CHECK_FALL);
+    }
+
+    private Upstream selectRoundRobin(boolean healthyOnly) {
+        long start = counter.getAndIncrement();
+        for (int i = 0; i < upstreams.length; i++) {
+            Upstream candidate = upstreams[(int) Math.floorMod(start + i, (long) upstreams.length)];
+            if (!healthyOnly || candidate.isHealthy()) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private Upstream selectLeastConnections(boolean healthyOnly) {
+        // 동률일 때 항상 앞쪽 대상만 고르지 않도록 시작 위치를 돌린다.
+        int offset = (int) Math.floorMod(counter.getAndIncrement(), (long) upstreams.length);
+        Upstream best = null;
+        for (int i = 0; i < upstreams.length; i++) {
+            Upstream candidate = upstreams[(offset + i) % upstreams.length];
+            if (healthyOnly && !candidate.isHealthy()) {
+                continue;
+            }
+            // 가중치를 고려해 활성 연결 수 / 가중치가 가장 작은 대상을 고른다.
+            if (best == null || (long) candidate.getActiveConnections() * best.getWeight()
+                    < (long) best.getActiveConnections() * candidate.getWeight()) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    private Upstream selectWeighted(boolean healthyOnly) {
+        long start = counter.getAndIncrement();
+        for (int i = 0; i < weightedSchedule.length; i++) {
+            Upstream candidate = upstreams[weightedSchedule[(int) Math.floorMod(start + i, (long) weightedSchedule.length)]];
+            if (!healthyOnly || candidate.isHealthy()) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private Upstream selectHash(InetAddress client, boolean healthyOnly) {
+        long hash = hash(client.getAddress(), 0);
+        int index = Arrays.binarySearch(ringHashes, hash);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        // 링을 따라가며 첫 번째 (정상) 대상을 고른다. 대상이 빠져도 다른 클라이언트의 배정은 유지된다.
+        for (int i = 0; i < ringHashes.length; i++) {
+            Upstream candidate = upstreams[ringOwners[(index + i) % ringHashes.length]];
+            if (!healthyOnly || candidate.isHealthy()) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private void resolveAll() {
+        for (Upstream upstream : upstreams) {
+            if (!upstream.isLiteral()) {
+                upstream.resolve();
+            }
+        }
+    }
+
+    private void checkAll() {
+        for (Upstream upstream : upstreams) {
+            InetSocketAddress address = upstream.getAddress();
+            if (address.isUnresolved()) {
+                upstream.reportFailure(HEALTH_CHECK_FALL);
+                continue;
+            }
+            try (Socket socket = new Socket()) {
+                socket.connect(address, HEALTH_CHECK_TIMEOUT_MILLIS);
+                upstream.reportSuccess(HEALTH_CHECK_RISE);
+            } catch (IOException e) {
+                upstream.reportFailure(HEALTH_CHECK_FALL);
+            }
+        }
+    }
+
+    /**
+     * Smooth weighted round-robin 순서를 한 주기만큼 미리 계산한다. (가중치 5,1,1 → a a b a c a a 형태로 고르게 섞임)
+     */
+    private static int[] buildWeightedSchedule(Upstream[] upstreams) {
+        int total = 0;
+        for (Upstream upstream : upstreams) {
+            total += upstream.getWeight();
+        }
+        int[] schedule = new int[total];
+        int[] current = new int[upstreams.length];
+        for (int slot = 0; slot < total; slot++) {
+            int best = 0;
+            for (int i = 0; i < upstreams.length; i++) {
+                current[i] += upstreams[i].getWeight();
+                if (current[i] > current[best]) {
+                    best = i;
+                }
+            }
+            current[best] -= total;
+            schedule[slot] = best;
+        }
+        return schedule;
+    }
+
+    private static long[][] buildHashRing(Upstream[] upstreams) {
+        int size = 0;
+        for (Upstream upstream : upstreams) {
+            size += upstream.getWeight() * VIRTUAL_NODES_PER_WEIGHT;
+        }
+        long[][] entries = new long[size][2];
+        int n = 0;
+        for (int i = 0; i < upstreams.length; i++) {
+            byte[] key = upstreams[i].toString().getBytes();
+            for (int v = 0; v < upstreams[i].getWeight() * VIRTUAL_NODES_PER_WEIGHT; v++) {
+                entries[n][0] = hash(key, v + 1);
+                entries[n][1] = i;
+                n++;
+            }
+        }
+        Arrays.sort(entries, (a, b) -> Long.compare(a[0], b[0]));
+        long[] hashes = new long[size];
+        long[] owners = new long[size];
+        for (int i = 0; i < size; i++) {
+            hashes[i] = entries[i][0];
+            owners[i] = entries[i][1];
+        }
+        return new long[][] {hashes, owners};
+    }
+
+    /**
+     * FNV-1a 후 64 비트 혼합(finalizer). 객체를 할당하지 않는다.
+     */
+    private static long hash(byte[] data, int seed) {
+        long h = 0xcbf29ce484222325L ^ seed;
+        for (byte b : data) {
+            h ^= (b & 0xff);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public Upstream[] getUpstreams() {
+        return upstreams;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getStrategy() {
+        return strategy;
+    }
+}
@@ -0,0 +1,59 @@
+package com.namejm.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 가상 스레드(JDK 21+) 생성 도우미.
+ * 빌드 대상 JDK 에서도 컴파일되도록 리플렉션으로 접근하며, 지원하지 않는 런타임에서는 데몬 플랫폼 스레드로 대체한다.
+ */
+public final class VirtualThreads {
+    private static final Logger logger = LoggerFactory.getLogger(VirtualThreads.class);
+
+    private VirtualThreads() {}
+
+    /**
+     * 이름 접두사가 붙은 가상 스레드 팩토리를 만든다. 지원하지 않으면 데몬 플랫폼 스레드 팩토리를 반환한다.
+     */
+    public static ThreadFactory factory(String prefix) {
+        try {
+            // 구현 클래스는 java.lang 내부 클래스라 공개 인터페이스 Thread.Builder 의 메서드로 호출한다.
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            Method factory = builderType.getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.warn("Virtual threads are not available on Java {}. Falling back to platform threads for '{}'.",
+                Runtime.version().feature(), prefix);
+            return platformFactory(prefix);
+        }
+    }
+
+    /**
+     * 작업마다 새 스레드를 만드는 ExecutorService. 가상 스레드라면 풀링할 이유가 없다.
+     */
+    public static ExecutorService newThreadPerTaskExecutor(ThreadFactory threadFactory) {
+        try {
+            Method method = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) method.invoke(null, threadFactory);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Executors.newCachedThreadPool(threadFactory);
+        }
+    }
+
+    private static ThreadFactory platformFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,139 @@
+package com.namejm.proxy;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AccessControlListTest {
+    @Test
+    void longestAddressRuleWins() {
+        AccessControlList acl = compile("10.0.0.0/8", "!10.1.0.0/16", "10.1.2.0/24", "!10.1.2.3");
+
+        assertTrue(acl.isAllowed(address("10.200.0.1"), null));
+        assertFalse(acl.isAllowed(address("10.1.9.1"), null));
+        assertTrue(acl.isAllowed(address("10.1.2.4"), null));
+        assertFalse(acl.isAllowed(address("10.1.2.3"), null));
+        assertFalse(acl.isAllowed(address("11.0.0.1"), null));
+    }
+
+    @Test
+    void ruleOrderDoesNotMatter() {
+        AccessControlList forward = compile("10.0.0.0/8", "!10.1.0.0/16", "2001:db8::/32", "!2001:db8:1::/48");
+        AccessControlList backward = compile("!2001:db8:1::/48", "2001:db8::/32", "!10.1.0.0/16", "10.0.0.0/8");
+
+        for (String text : List.of("10.0.0.1", "10.1.0.1", "2001:db8::1", "2001:db8:1::1", "2001:db9::1")) {
+            InetAddress address = address(text);
+            assertEquals(forward.matchAddress(address), backward.matchAddress(address), text);
+        }
+    }
+
+    @Test
+    void denyBeatsAllowOnTheSamePrefix() {
+        assertFalse(compile("192.168.0.0/16", "!192.168.0.0/16").isAllowed(address("192.168.1.1"), null));
+        assertFalse(compile("!192.168.0.0/16", "192.168.0.0/16").isAllowed(address("192.168.1.1"), null));
+        assertFalse(compile("private", "!192.168.0.0/16").isAllowed(address("192.168.1.1"), null));
+    }
+
+    @Test
+    void addressRulesBeatCountryRules() {
+        AccessControlList acl = compile("!KR", "1.2.3.0/24", "US", "!8.8.8.8");
+
+        assertTrue(acl.isAllowed(address("1.2.3.4"), "KR"));
+        assertFalse(acl.isAllowed(address("1.2.4.4"), "KR"));
+        assertFalse(acl.isAllowed(address("8.8.8.8"), "US"));
+        assertTrue(acl.isAllowed(address("8.8.4.4"), "US"));
+        assertFalse(acl.isAllowed(address("8.8.4.4"), "JP"));
+    }
+
+    @Test
+    void deniedCountryBeatsAny() {
+        AccessControlList acl = compile("any", "!cn");
+
+        assertFalse(acl.isAllowed(address("1.1.1.1"), "CN"));
+        assertTrue(acl.isAllowed(address("1.1.1.1"), "JP"));
+        assertTrue(acl.isAllowed(address("1.1.1.1"), InetAddressLocator.UNKNOWN));
+    }
+
+    @Test
+    void matchesIpv6Rules() {
+        AccessControlList acl = compile("2001:db8::/32", "!2001:db8:bad::/48", "!fe80::/10", "::1");
+
+        assertTrue(acl.isAllowed(address("2001:db8:1::1"), null));
+        assertFalse(acl.isAllowed(address("2001:db8:bad::1"), null));
+        assertTrue(acl.isAllowed(address("2001:db8:bad0::1"), null));
+        assertFalse(acl.isAllowed(address("fe80::1"), null));
+        assertTrue(acl.isAllowed(address("::1"), null));
+        assertFalse(acl.isAllowed(address("::2"), null));
+        assertFalse(acl.isAllowed(address("2001:db9::1"), null));
+    }
+
+    @Test
+    void matchesIpv4MappedAddressesWithIpv4Rules() throws UnknownHostException {
+        AccessControlList acl = compile("10.0.0.0/8", "!10.1.0.0/16");
+        byte[] mapped = {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, (byte) 0xFF, (byte) 0xFF, 10, 2, 3, 4};
+
+        assertTrue(acl.isAllowed(Inet6Address.getByAddress(null, mapped, -1), null));
+        mapped[13] = 1;
+        assertFalse(acl.isAllowed(Inet6Address.getByAddress(null, mapped, -1), null));
+    }
+
+    @Test
+    void keepsLocalhostToLoopback() {
+        AccessControlList acl = compile("localhost");
+
+        assertTrue(acl.isAllowed(address("127.0.0.1"), null));
+        assertTrue(acl.isAllowed(address("127.255.0.1"), null));
+        assertTrue(acl.isAllowed(address("::1"), null));
+        assertFalse(acl.isAllowed(address("::"), null));
+        assertFalse(acl.isAllowed(address("::7f00:1"), null));
+    }
+
+    @Test
+    void expandsGroups() {
+        Map<String, List<String>> groups = Map.of(
+            "office", List.of("10.0.0.0/8", "KR"),
+            "blacklist", List.of("10.9.0.0/16", "2001:db8::/32"));
+        AccessControlList acl = AccessControlList.compile(List.of("@office", "!@blacklist"), groups);
+
+        assertTrue(acl.isAllowed(address("10.1.0.1"), null));
+        assertFalse(acl.isAllowed(address("10.9.0.1"), null));
+        assertFalse(acl.isAllowed(address("2001:db8::1"), "KR"));
+        assertTrue(acl.isAllowed(address("1.1.1.1"), "KR"));
+        assertThrows(IllegalArgumentException.class, () -> AccessControlList.compile(List.of("@missing"), groups));
+        assertThrows(IllegalArgumentException.class,
+            () -> AccessControlList.compile(List.of("@outer"), Map.of("outer", List.of("@inner"), "inner", List.of("KR"))));
+    }
+
+    @Test
+    void validatesRules() {
+        for (String rule : List.of("any", "!localhost", "Private", "kr", "!CN", "@office", "1.2.3.4", "10.0.0.0/8",
+                                   "::1", "[::1]", "2001:db8::/32", "::ffff:10.0.0.1", "0.0.0.0/0")) {
+            assertNull(AccessControlList.validateRule(rule), rule);
+        }
+        for (String rule : List.of("", "!any", "example.com", "1.2.3", "256.1.1.1", "10.0.0.0/33", "10.0.0.0/x",
+                                   "2001:db8::/129", "2001:db8:::1", "zz::1", "fe80::1%eth0", "@bad name", "KOR")) {
+            assertNotNull(AccessControlList.validateRule(rule), rule);
+        }
+    }
+
+    private static AccessControlList compile(String... rules) {
+        return AccessControlList.compile(List.of(rules), Map.of());
+    }
+
+    private static InetAddress address(String literal) {
+        InetAddress address = InetAddresses.parseLiteral(literal);
+        assertNotNull(address, literal);
+        return address;
+    }
+}
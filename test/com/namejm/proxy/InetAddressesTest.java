@@ -0,0 +1,52 @@
+package com.namejm.proxy;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class InetAddressesTest {
+    @Test
+    void convertsIpv4AddressesToInt() throws Exception {
+        assertEquals(0, InetAddresses.toInt(ipv4(0, 0, 0, 0)));
+        assertEquals(0x0A010203, InetAddresses.toInt(ipv4(10, 1, 2, 3)));
+        assertEquals(0xC0A80102, InetAddresses.toInt(ipv4(192, 168, 1, 2)));
+        assertEquals(0x80000001, InetAddresses.toInt(ipv4(128, 0, 0, 1)));
+        assertEquals(-1, InetAddresses.toInt(ipv4(255, 255, 255, 255)));
+    }
+
+    @Test
+    void parsesLiteralsLikeGetByName() throws Exception {
+        // 올바른 리터럴은 InetAddress.getByName 도 이름 조회 없이 해석하므로 결과를 견줄 수 있다.
+        for (String literal : List.of("0.0.0.0", "1.2.3.4", "255.255.255.255", "010.001.000.009",
+                                      "::", "::1", "1::", "2001:db8::1", "2001:DB8:0:0:0:0:0:1", "[2001:db8::1]",
+                                      "1:2:3:4:5:6:7:8", "1::8", "1:2:3:4:5:6::8", "::ffff:10.1.2.3", "::10.1.2.3",
+                                      "64:ff9b::192.0.2.33", "fe80::1:2:3:4")) {
+            assertEquals(InetAddress.getByName(literal), InetAddresses.parseLiteral(literal), literal);
+        }
+        assertInstanceOf(Inet4Address.class, InetAddresses.parseLiteral("::ffff:10.1.2.3"));
+        assertInstanceOf(Inet6Address.class, InetAddresses.parseLiteral("::10.1.2.3"));
+    }
+
+    @Test
+    void rejectsMalformedLiterals() {
+        for (String text : List.of("", "localhost", "example.com", "1.2.3", "1.2.3.4.5", "256.1.1.1", "1.2.3.4.",
+                                   ".1.2.3", "1..2.3", "1.2.3.0004", "+1.2.3.4", "1.2.3.-4", " 1.2.3.4",
+                                   ":", ":::", "1:::2", "1::2::3", "::1:", ":1::", "12345::", "g::1",
+                                   "1:2:3:4:5:6:7:8:9", "1:2:3:4:5:6:7:8::", "1:2:3:4:5:6:7::8",
+                                   "::1.2.3", "::256.1.1.1", "1.2.3.4::", "::1.2.3.4:5", "1:2:3:4:5:6:7:1.2.3.4",
+                                   "fe80::1%eth0", "[::1", "::1]", "[1.2.3.4]")) {
+            assertNull(InetAddresses.parseLiteral(text), text);
+        }
+    }
+
+    private static Inet4Address ipv4(int a, int b, int c, int d) throws Exception {
+        return (Inet4Address) InetAddress.getByAddress(new byte[] {(byte) a, (byte) b, (byte) c, (byte) d});
+    }
+}
@@ -0,0 +1,99 @@
+package com.namejm.proxy;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class IpPrefixTrieTest {
+    @Test
+    void longestPrefixWins() {
+        IpPrefixTrie trie = new IpPrefixTrie();
+        trie.insert(ipv4(10, 0, 0, 0), 8, IpPrefixTrie.ALLOW);
+        trie.insert(ipv4(10, 1, 0, 0), 16, IpPrefixTrie.DENY);
+        trie.insert(ipv4(10, 1, 2, 0), 24, IpPrefixTrie.ALLOW);
+        trie.insert(ipv4(10, 1, 2, 3), 32, IpPrefixTrie.DENY);
+
+        assertVerdict(trie, IpPrefixTrie.ALLOW, ipv4(10, 2, 0, 1));
+        assertVerdict(trie, IpPrefixTrie.DENY, ipv4(10, 1, 3, 1));
+        assertVerdict(trie, IpPrefixTrie.ALLOW, ipv4(10, 1, 2, 4));
+        assertVerdict(trie, IpPrefixTrie.DENY, ipv4(10, 1, 2, 3));
+        assertVerdict(trie, IpPrefixTrie.NONE, ipv4(11, 0, 0, 1));
+    }
+
+    @Test
+    void denyWinsOnTheSamePrefixInEitherOrder() {
+        IpPrefixTrie allowFirst = new IpPrefixTrie();
+        allowFirst.insert(ipv4(192, 168, 0, 0), 16, IpPrefixTrie.ALLOW);
+        allowFirst.insert(ipv4(192, 168, 0, 0), 16, IpPrefixTrie.DENY);
+        IpPrefixTrie denyFirst = new IpPrefixTrie();
+        denyFirst.insert(ipv4(192, 168, 0, 0), 16, IpPrefixTrie.DENY);
+        denyFirst.insert(ipv4(192, 168, 0, 0), 16, IpPrefixTrie.ALLOW);
+
+        assertVerdict(allowFirst, IpPrefixTrie.DENY, ipv4(192, 168, 1, 1));
+        assertVerdict(denyFirst, IpPrefixTrie.DENY, ipv4(192, 168, 1, 1));
+    }
+
+    @Test
+    void zeroLengthPrefixMatchesEverything() {
+        IpPrefixTrie trie = new IpPrefixTrie();
+        trie.insert(ipv4(0, 0, 0, 0), 0, IpPrefixTrie.DENY);
+        trie.insert(ipv4(127, 0, 0, 0), 8, IpPrefixTrie.ALLOW);
+
+        assertVerdict(trie, IpPrefixTrie.DENY, ipv4(8, 8, 8, 8));
+        assertVerdict(trie, IpPrefixTrie.DENY, ipv4(255, 255, 255, 255));
+        assertVerdict(trie, IpPrefixTrie.ALLOW, ipv4(127, 0, 0, 1));
+    }
+
+    @Test
+    void looksUpIpv6AtAnOffset() {
+        IpPrefixTrie trie = new IpPrefixTrie();
+        byte[] network = new byte[16];
+        network[0] = 0x20;
+        network[1] = 0x01;
+        network[2] = 0x0D;
+        network[3] = (byte) 0xB8;
+        trie.insert(network, 32, IpPrefixTrie.ALLOW);
+        network[5] = 0x01;
+        trie.insert(network, 48, IpPrefixTrie.DENY);
+
+        byte[] packet = new byte[20];
+        System.arraycopy(network, 0, packet, 4, 16);
+        packet[19] = 1;
+        assertEquals(IpPrefixTrie.DENY, trie.lookup(packet, 4, 128));
+        packet[9] = 0x02;
+        assertEquals(IpPrefixTrie.ALLOW, trie.lookup(packet, 4, 128));
+        packet[4] = 0x30;
+        assertEquals(IpPrefixTrie.NONE, trie.lookup(packet, 4, 128));
+    }
+
+    @Test
+    void growsPastTheInitialCapacity() {
+        IpPrefixTrie trie = new IpPrefixTrie();
+        for (int i = 0; i < 256; i++) {
+            trie.insert(ipv4(10, i, 0, 0), 16, i % 2 == 0 ? IpPrefixTrie.ALLOW : IpPrefixTrie.DENY);
+        }
+        for (int i = 0; i < 256; i++) {
+            assertVerdict(trie, i % 2 == 0 ? IpPrefixTrie.ALLOW : IpPrefixTrie.DENY, ipv4(10, i, 7, 9));
+        }
+    }
+
+    @Test
+    void rejectsPrefixLongerThanTheAddress() {
+        IpPrefixTrie trie = new IpPrefixTrie();
+
+        assertThrows(IllegalArgumentException.class, () -> trie.insert(ipv4(10, 0, 0, 0), 33, IpPrefixTrie.ALLOW));
+        assertThrows(IllegalArgumentException.class, () -> trie.insert(ipv4(10, 0, 0, 0), -1, IpPrefixTrie.ALLOW));
+    }
+
+    /** lookup 과 lookupIpv4 가 같은 판정을 내는지도 함께 확인한다. */
+    private static void assertVerdict(IpPrefixTrie trie, byte expected, byte[] address) {
+        int value = (address[0] & 0xFF) << 24 | (address[1] & 0xFF) << 16 | (address[2] & 0xFF) << 8 | (address[3] & 0xFF);
+        assertEquals(expected, trie.lookup(address, 0, 32));
+        assertEquals(expected, trie.lookupIpv4(value));
+    }
+
+    private static byte[] ipv4(int a, int b, int c, int d) {
+        return new byte[] {(byte) a, (byte) b, (byte) c, (byte) d};
+    }
+}
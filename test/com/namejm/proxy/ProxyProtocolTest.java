@@ -0,0 +1,193 @@
+package com.namejm.proxy;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProxyProtocolTest {
+    private static final byte[] V2_SIGNATURE = {0x0D, 0x0A, 0x0D, 0x0A, 0x00, 0x0D, 0x0A, 0x51, 0x55, 0x49, 0x54, 0x0A};
+
+    @Test
+    void parsesV1Tcp4() throws Exception {
+        String line = "PROXY TCP4 192.0.2.1 198.51.100.2 56324 443\r\n";
+        ProxyProtocol.Header header = ProxyProtocol.parse(received(line + "GET / HTTP/1.1\r\n"));
+
+        assertNotNull(header);
+        assertEquals(address("192.0.2.1", 56324), header.getSource());
+        assertEquals(address("198.51.100.2", 443), header.getDestination());
+        assertEquals(line.length(), header.getLength());
+    }
+
+    @Test
+    void parsesV1Tcp6() throws Exception {
+        String line = "PROXY TCP6 2001:db8::1 2001:db8::ffff:2 65535 0\r\n";
+        ProxyProtocol.Header header = ProxyProtocol.parse(received(line));
+
+        assertNotNull(header);
+        assertEquals(address("2001:db8::1", 65535), header.getSource());
+        assertEquals(address("2001:db8::ffff:2", 0), header.getDestination());
+        assertEquals(line.length(), header.getLength());
+    }
+
+    @Test
+    void parsesV1UnknownWithoutAddresses() throws Exception {
+        ProxyProtocol.Header header = ProxyProtocol.parse(received("PROXY UNKNOWN\r\nhello"));
+
+        assertNotNull(header);
+        assertNull(header.getSource());
+        assertNull(header.getDestination());
+        assertEquals("PROXY UNKNOWN\r\n".length(), header.getLength());
+    }
+
+    @Test
+    void waitsForTruncatedV1() throws Exception {
+        assertNull(ProxyProtocol.parse(received("PROX")));
+        assertNull(ProxyProtocol.parse(received("PROXY TCP4 192.0.2.1 198.51.100.2 56324 443\r")));
+    }
+
+    @Test
+    void rejectsOversizeV1() {
+        String line = "PROXY TCP6 " + "f".repeat(120);
+        ProtocolException e = assertThrows(ProtocolException.class, () -> ProxyProtocol.parse(received(line)));
+        assertEquals("PROXY v1 header too long", e.getMessage());
+    }
+
+    @Test
+    void rejectsMalformedV1() {
+        assertThrows(ProtocolException.class, () -> ProxyProtocol.parse(received("GET / HTTP/1.1\r\n")));
+        assertThrows(ProtocolException.class, () -> ProxyProtocol.parse(received("PROXY UDP4 192.0.2.1 198.51.100.2 1 2\r\n")));
+        assertThrows(ProtocolException.class, () -> ProxyProtocol.parse(received("PROXY TCP4 192.0.2.1 198.51.100.2 1\r\n")));
+        assertThrows(ProtocolException.class, () -> ProxyProtocol.parse(received("PROXY TCP4 192.0.2.1 198.51.100.2 1 65536\r\n")));
+        // 형식이 틀린 리터럴은 이름으로 조회하지 않고 거절한다.
+        assertThrows(ProtocolException.class, () -> ProxyProtocol.parse(received("PROXY TCP4 999.0.2.1 198.51.100.2 1 2\r\n")));
+        assertThrows(ProtocolException.class, () -> ProxyProtocol.parse(received("PROXY TCP6 2001:db8:::1 ::1 1 2\r\n")));
+        // 주소 종류가 명령과 다르면 거절한다.
+        assertThrows(ProtocolException.class, () -> ProxyProtocol.parse(received("PROXY TCP4 ::1 ::1 1 2\r\n")));
+        assertThrows(ProtocolException.class, () -> ProxyProtocol.parse(received("PROXY TCP6 192.0.2.1 198.51.100.2 1 2\r\n")));
+    }
+
+    @Test
+    void parsesV2LocalWithoutAddresses() throws Exception {
+        ByteBuffer buffer = v2Header(0x20, 0x00, new byte[0]);
+        buffer.put("ping".getBytes(StandardCharsets.US_ASCII));
+        ProxyProtocol.Header header = ProxyProtocol.parse(buffer);
+
+        assertNotNull(header);
+        assertNull(header.getSource());
+        assertNull(header.getDestination());
+        assertEquals(16, header.getLength());
+    }
+
+    @Test
+    void parsesV2UnixWithoutAddresses() throws Exception {
+        byte[] paths = new byte[216];
+        paths[0] = '/';
+        paths[108] = '/';
+        ProxyProtocol.Header header = ProxyProtocol.parse(v2Header(0x21, 0x31, paths));
+
+        assertNotNull(header);
+        assertNull(header.getSource());
+        assertNull(header.getDestination());
+        assertEquals(16 + 216, header.getLength());
+    }
+
+    @Test
+    void skipsV2Tlvs() throws Exception {
+        ByteBuffer block = ByteBuffer.allocate(64);
+        block.put(new byte[] {(byte) 192, 0, 2, 1}).put(new byte[] {(byte) 198, 51, 100, 2})
+             .putShort((short) 56324).putShort((short) 443);
+        block.put((byte) 0x04).putShort((short) 4).putInt(0x12345678); // PP2_TYPE_CRC32C
+        block.put((byte) 0xE5).putShort((short) 0); // 값이 없는 사용자 정의 TLV
+        byte[] value = new byte[block.position()];
+        block.flip().get(value);
+        ByteBuffer buffer = v2Header(0x21, 0x11, value);
+        buffer.put((byte) 0x16);
+        ProxyProtocol.Header header = ProxyProtocol.parse(buffer);
+
+        assertNotNull(header);
+        assertEquals(address("192.0.2.1", 56324), header.getSource());
+        assertEquals(address("198.51.100.2", 443), header.getDestination());
+        assertEquals(16 + value.length, header.getLength());
+    }
+
+    @Test
+    void waitsForTruncatedV2() throws Exception {
+        ByteBuffer full = v2Header(0x21, 0x11, new byte[12]);
+        for (int received = 1; received < full.position(); received++) {
+            ByteBuffer buffer = ByteBuffer.allocate(full.capacity());
+            buffer.put(full.array(), 0, received);
+            assertNull(ProxyProtocol.parse(buffer), "received " + received);
+        }
+    }
+
+    @Test
+    void rejectsMalformedV2() {
+        // 버퍼보다 긴 헤더는 다 받을 수 없으므로 기다리지 않고 거절한다.
+        ByteBuffer tooLong = ByteBuffer.allocate(64).put(V2_SIGNATURE).put((byte) 0x21).put((byte) 0x11).putShort((short) 100);
+        assertThrows(ProtocolException.class, () -> ProxyProtocol.parse(tooLong));
+        assertThrows(ProtocolException.class, () -> ProxyProtocol.parse(v2Header(0x11, 0x11, new byte[12])));
+        assertThrows(ProtocolException.class, () -> ProxyProtocol.parse(v2Header(0x22, 0x11, new byte[12])));
+        assertThrows(ProtocolException.class, () -> ProxyProtocol.parse(v2Header(0x21, 0x21, new byte[12])));
+        ByteBuffer badSignature = v2Header(0x21, 0x11, new byte[12]);
+        badSignature.put(5, (byte) 0x0E);
+        assertThrows(ProtocolException.class, () -> ProxyProtocol.parse(badSignature));
+    }
+
+    @Test
+    void roundTripsV1() throws Exception {
+        assertRoundTrip(ProxyProtocol.V1, address("192.0.2.1", 56324), address("198.51.100.2", 443), null, null, null);
+        assertRoundTrip(ProxyProtocol.V1, address("2001:db8::1", 1), address("2001:db8::2", 65535), null, null, null);
+        // 종류가 섞이면 IPv4 주소를 ::ffff:a.b.c.d 로 보내고, 받는 쪽은 다시 IPv4 로 읽는다.
+        assertRoundTrip(ProxyProtocol.V1, address("192.0.2.1", 1), address("2001:db8::2", 2), null, null, null);
+    }
+
+    @Test
+    void roundTripsV2() throws Exception {
+        assertRoundTrip(ProxyProtocol.V2, address("192.0.2.1", 56324), address("198.51.100.2", 443), null, null, null);
+        assertRoundTrip(ProxyProtocol.V2, address("2001:db8::1", 1), address("2001:db8::2", 65535), "KR", null, null);
+        assertRoundTrip(ProxyProtocol.V2, address("192.0.2.1", 1), address("2001:db8::2", 2), "US", "example.com", "h2");
+        assertRoundTrip(ProxyProtocol.V2, address("192.0.2.1", 1), address("198.51.100.2", 2),
+            InetAddressLocator.UNKNOWN, "a".repeat(255), "http/1.1");
+    }
+
+    private static void assertRoundTrip(String version, InetSocketAddress source, InetSocketAddress destination,
+                                        String country, String authority, String alpn) throws ProtocolException {
+        ByteBuffer buffer = ByteBuffer.allocate(ProxyProtocol.MAX_ENCODED_LENGTH + 16);
+        ProxyProtocol.write(buffer, version, source, destination, country, authority, alpn);
+        int written = buffer.position();
+        assertTrue(written <= ProxyProtocol.MAX_ENCODED_LENGTH, "written " + written);
+        buffer.put("data".getBytes(StandardCharsets.US_ASCII));
+
+        ProxyProtocol.Header header = ProxyProtocol.parse(buffer);
+        assertNotNull(header);
+        assertEquals(source, header.getSource());
+        assertEquals(destination, header.getDestination());
+        assertEquals(written, header.getLength());
+    }
+
+    /** 받은 버퍼처럼 쓰기 모드로 0 번부터 text 가 차 있는 버퍼. */
+    private static ByteBuffer received(String text) {
+        return ByteBuffer.allocate(512).put(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static ByteBuffer v2Header(int versionCommand, int family, byte[] block) {
+        return ByteBuffer.allocate(512).put(V2_SIGNATURE).put((byte) versionCommand).put((byte) family)
+            .putShort((short) block.length).put(block);
+    }
+
+    private static InetSocketAddress address(String literal, int port) {
+        InetAddress address = InetAddresses.parseLiteral(literal);
+        assertNotNull(address, literal);
+        return new InetSocketAddress(address, port);
+    }
+}
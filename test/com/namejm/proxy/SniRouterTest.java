@@ -0,0 +1,83 @@
+package com.namejm.proxy;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class SniRouterTest {
+    @Test
+    void exactNameBeatsWildcard() {
+        SniRouter router = router("*.example.com", "www.example.com");
+
+        assertEquals("www.example.com", selected(router, "www.example.com"));
+        assertEquals("*.example.com", selected(router, "api.example.com"));
+    }
+
+    @Test
+    void longerWildcardBeatsShorterOne() {
+        // 등록 순서와 상관없이 더 긴 접미사가 이긴다.
+        SniRouter router = router("*.example.com", "*.eu.example.com");
+
+        assertEquals("*.eu.example.com", selected(router, "api.eu.example.com"));
+        assertEquals("*.eu.example.com", selected(router, "a.b.eu.example.com"));
+        assertEquals("*.example.com", selected(router, "eu.example.com"));
+        assertEquals("*.example.com", selected(router, "api.us.example.com"));
+    }
+
+    @Test
+    void wildcardDoesNotMatchItsOwnDomain() {
+        SniRouter router = router("*.example.com");
+
+        assertNull(router.select("example.com"));
+        assertNull(router.select("badexample.com"));
+        assertNull(router.select("example.com.evil.net"));
+        assertEquals("*.example.com", selected(router, "deep.sub.example.com"));
+    }
+
+    @Test
+    void returnsNullWithoutServerNameOrMatch() {
+        SniRouter router = router("www.example.com");
+
+        assertNull(router.select(null));
+        assertNull(router.select("example.org"));
+        assertNull(router.select("api.www.example.com"));
+    }
+
+    @Test
+    void validatesPatterns() {
+        assertNull(SniRouter.validatePattern("www.example.com"));
+        assertNull(SniRouter.validatePattern("*.example.com"));
+        assertNull(SniRouter.validatePattern("_dmarc.example-1.com"));
+        assertNotNull(SniRouter.validatePattern("*"));
+        assertNotNull(SniRouter.validatePattern("*.*.example.com"));
+        assertNotNull(SniRouter.validatePattern("www.*.com"));
+        assertNotNull(SniRouter.validatePattern("example..com"));
+        assertNotNull(SniRouter.validatePattern("Example.com"));
+        assertNotNull(SniRouter.validatePattern("a".repeat(64) + ".com"));
+    }
+
+    /** 패턴마다 전달 대상이 하나인 라우터. 그룹을 시작하지 않으므로 이름 해석이나 헬스 체크는 하지 않는다. */
+    private static SniRouter router(String... patterns) {
+        Map<String, List<String>> routes = new LinkedHashMap<>();
+        for (String pattern : patterns) {
+            routes.put(pattern, List.of("127.0.0.1:8443"));
+        }
+        ProxyDto config = new ProxyDto();
+        config.setName("tls");
+        config.setSniRoutes(routes);
+        return new SniRouter(config);
+    }
+
+    /** serverName 에 고른 그룹의 sniRoutes 패턴. */
+    private static String selected(SniRouter router, String serverName) {
+        UpstreamGroup group = router.select(serverName);
+        assertNotNull(group, serverName);
+        return group.getName().substring("tls/".length());
+    }
+}
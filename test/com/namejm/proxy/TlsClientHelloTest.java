@@ -0,0 +1,175 @@
+package com.namejm.proxy;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TlsClientHelloTest {
+    private static final int HANDSHAKE = 22;
+    private static final int ALERT = 21;
+    private static final int APPLICATION_DATA = 23;
+
+    @Test
+    void readsServerName() throws Exception {
+        byte[] hello = records(HANDSHAKE, clientHello(serverNameExtension("www.example.com")), Integer.MAX_VALUE);
+        TlsClientHello parsed = TlsClientHello.parse(received(hello, TlsClientHello.MAX_LENGTH));
+
+        assertNotNull(parsed);
+        assertEquals("www.example.com", parsed.getServerName());
+    }
+
+    @Test
+    void normalizesServerName() throws Exception {
+        byte[] hello = records(HANDSHAKE, clientHello(serverNameExtension("WWW.Example.COM.")), Integer.MAX_VALUE);
+
+        assertEquals("www.example.com", TlsClientHello.parse(received(hello, TlsClientHello.MAX_LENGTH)).getServerName());
+    }
+
+    @Test
+    void readsClientHelloSplitAcrossRecords() throws Exception {
+        byte[] message = clientHello(concat(extension(0x0017, new byte[0]), serverNameExtension("split.example.com")));
+        for (int recordSize : new int[] {4, 7, 50, message.length - 1}) {
+            byte[] hello = records(HANDSHAKE, message, recordSize);
+            TlsClientHello parsed = TlsClientHello.parse(received(hello, TlsClientHello.MAX_LENGTH));
+
+            assertNotNull(parsed, "record size " + recordSize);
+            assertEquals("split.example.com", parsed.getServerName());
+        }
+    }
+
+    @Test
+    void waitsForTheRestOfTheClientHello() throws Exception {
+        byte[] hello = records(HANDSHAKE, clientHello(serverNameExtension("example.com")), 20);
+        for (int received = 0; received < hello.length; received++) {
+            assertNull(TlsClientHello.parse(received(Arrays.copyOf(hello, received), TlsClientHello.MAX_LENGTH)),
+                "received " + received);
+        }
+        assertEquals("example.com", TlsClientHello.parse(received(hello, TlsClientHello.MAX_LENGTH)).getServerName());
+    }
+
+    @Test
+    void returnsNullServerNameWithoutSni() throws Exception {
+        byte[] withOtherExtension = records(HANDSHAKE, clientHello(extension(0x002B, new byte[] {2, 3, 4})), Integer.MAX_VALUE);
+        byte[] withoutExtensions = records(HANDSHAKE, clientHello(null), Integer.MAX_VALUE);
+
+        assertNull(TlsClientHello.parse(received(withOtherExtension, TlsClientHello.MAX_LENGTH)).getServerName());
+        assertNull(TlsClientHello.parse(received(withoutExtensions, TlsClientHello.MAX_LENGTH)).getServerName());
+    }
+
+    @Test
+    void rejectsTruncatedServerName() {
+        // 확장과 목록 길이는 맞고 이름 길이만 메시지 끝을 넘는다. 버퍼도 메시지 크기에 맞춰 끝을 넘어 읽으면 IndexOutOfBounds 가 난다.
+        byte[] name = "example.com".getBytes(StandardCharsets.US_ASCII);
+        byte[] entry = ByteBuffer.allocate(3 + name.length).put((byte) 0).putShort((short) (name.length + 20)).put(name).array();
+        byte[] list = ByteBuffer.allocate(2 + entry.length).putShort((short) entry.length).put(entry).array();
+        byte[] hello = records(HANDSHAKE, clientHello(extension(0x0000, list)), Integer.MAX_VALUE);
+
+        ProtocolException e = assertThrows(ProtocolException.class, () -> TlsClientHello.parse(received(hello, hello.length)));
+        assertEquals("truncated ClientHello", e.getMessage());
+    }
+
+    @Test
+    void rejectsBadServerName() {
+        byte[] empty = records(HANDSHAKE, clientHello(serverNameExtension("")), Integer.MAX_VALUE);
+        byte[] invalid = records(HANDSHAKE, clientHello(serverNameExtension("exa mple.com")), Integer.MAX_VALUE);
+
+        assertThrows(ProtocolException.class, () -> TlsClientHello.parse(received(empty, TlsClientHello.MAX_LENGTH)));
+        assertThrows(ProtocolException.class, () -> TlsClientHello.parse(received(invalid, TlsClientHello.MAX_LENGTH)));
+    }
+
+    @Test
+    void rejectsOversizeClientHello() {
+        // 메시지 헤더의 길이가 버퍼에 담을 수 없는 크기면 나머지를 기다리지 않는다.
+        byte[] header = {HANDSHAKE, 3, 1, 0, 4, 1, 0x01, 0x00, 0x00};
+        ProtocolException e = assertThrows(ProtocolException.class,
+            () -> TlsClientHello.parse(received(header, TlsClientHello.MAX_LENGTH)));
+        assertEquals("ClientHello too large", e.getMessage());
+
+        // 버퍼가 가득 찼는데도 ClientHello 가 끝나지 않은 경우.
+        byte[] hello = records(HANDSHAKE, clientHello(serverNameExtension("example.com")), Integer.MAX_VALUE);
+        byte[] full = Arrays.copyOf(hello, hello.length - 1);
+        assertThrows(ProtocolException.class, () -> TlsClientHello.parse(received(full, full.length)));
+
+        byte[] longRecord = {HANDSHAKE, 3, 1, (byte) 0xFF, (byte) 0xFF};
+        assertThrows(ProtocolException.class, () -> TlsClientHello.parse(received(longRecord, TlsClientHello.MAX_LENGTH)));
+    }
+
+    @Test
+    void rejectsNonHandshakeRecords() {
+        byte[] message = clientHello(serverNameExtension("example.com"));
+        byte[] applicationData = records(APPLICATION_DATA, message, Integer.MAX_VALUE);
+        byte[] http = "GET / HTTP/1.1\r\n".getBytes(StandardCharsets.US_ASCII);
+        byte[] serverHello = records(HANDSHAKE, concat(new byte[] {2}, Arrays.copyOfRange(message, 1, message.length)), Integer.MAX_VALUE);
+        // 첫 레코드는 핸드셰이크지만 나머지 조각이 다른 레코드로 온 경우.
+        byte[] first = records(HANDSHAKE, Arrays.copyOf(message, 10), Integer.MAX_VALUE);
+        byte[] interleaved = concat(first, records(ALERT, Arrays.copyOfRange(message, 10, message.length), Integer.MAX_VALUE));
+
+        assertThrows(ProtocolException.class, () -> TlsClientHello.parse(received(applicationData, TlsClientHello.MAX_LENGTH)));
+        assertThrows(ProtocolException.class, () -> TlsClientHello.parse(received(http, TlsClientHello.MAX_LENGTH)));
+        assertThrows(ProtocolException.class, () -> TlsClientHello.parse(received(serverHello, TlsClientHello.MAX_LENGTH)));
+        ProtocolException e = assertThrows(ProtocolException.class,
+            () -> TlsClientHello.parse(received(interleaved, TlsClientHello.MAX_LENGTH)));
+        assertEquals("unexpected TLS record", e.getMessage());
+    }
+
+    /** 받은 버퍼처럼 쓰기 모드로 0 번부터 bytes 가 차 있는 버퍼. */
+    private static ByteBuffer received(byte[] bytes, int capacity) {
+        return ByteBuffer.allocate(capacity).put(bytes);
+    }
+
+    /** 핸드셰이크 메시지(유형, 길이 포함)를 recordSize 바이트씩 레코드로 나눈다. */
+    private static byte[] records(int contentType, byte[] message, int recordSize) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int offset = 0; offset < message.length; offset += recordSize) {
+            int length = Math.min(recordSize, message.length - offset);
+            out.write(contentType);
+            out.write(3);
+            out.write(1);
+            out.write(length >>> 8);
+            out.write(length);
+            out.write(message, offset, length);
+        }
+        return out.toByteArray();
+    }
+
+    /** extensions 가 null 이면 확장 목록이 없는 ClientHello. */
+    private static byte[] clientHello(byte[] extensions) {
+        ByteBuffer body = ByteBuffer.allocate(512);
+        body.putShort((short) 0x0303).put(new byte[32]); // legacy_version, random
+        body.put((byte) 0); // legacy_session_id
+        body.putShort((short) 2).putShort((short) 0x1301); // cipher_suites
+        body.put((byte) 1).put((byte) 0); // legacy_compression_methods
+        if (extensions != null) {
+            body.putShort((short) extensions.length).put(extensions);
+        }
+        int length = body.position();
+        return ByteBuffer.allocate(4 + length).put((byte) 1).put((byte) 0).putShort((short) length)
+            .put(body.array(), 0, length).array();
+    }
+
+    private static byte[] serverNameExtension(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+        byte[] list = ByteBuffer.allocate(5 + bytes.length).putShort((short) (3 + bytes.length))
+            .put((byte) 0).putShort((short) bytes.length).put(bytes).array();
+        return extension(0x0000, list);
+    }
+
+    private static byte[] extension(int type, byte[] value) {
+        return ByteBuffer.allocate(4 + value.length).putShort((short) type).putShort((short) value.length).put(value).array();
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] bytes = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, bytes, a.length, b.length);
+        return bytes;
+    }
+}